@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.core.upstream;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
+import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSource.UdpDataSourceException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import static java.lang.Math.min;
+
+/**
+ * A unicast UDP {@link DataSource} and {@link UdpDataSink} built on a non-blocking
+ * {@link DatagramChannel}.
+ *
+ * Datagrams are received into a direct buffer. Besides the one datagram per call
+ * {@link #read(byte[], int, int)}, {@link #receive(DatagramConsumer)} drains every datagram pending
+ * in the socket on each wakeup, so that the socket receive buffer is emptied as fast as possible
+ * on high bitrate streams.
+ */
+public class UdpChannelDataSource extends BaseDataSource implements UdpDataSink {
+
+  /**
+   * Consumes the datagrams drained by {@link #receive(DatagramConsumer)}.
+   */
+  public interface DatagramConsumer {
+
+    /**
+     * Called for each received datagram.
+     *
+     * @param datagram The datagram, between the position and the limit of the buffer. The buffer
+     *     is reused for the next datagram once this method returns.
+     * @throws IOException If an error occurs consuming the datagram.
+     */
+    void onDatagram(ByteBuffer datagram) throws IOException;
+
+  }
+
+  /** The default maximum number of datagrams drained per wakeup. */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+  private final int receiveBufferSize;
+  private final int socketTimeoutMillis;
+  private final int maxBatchSize;
+  private final ByteBuffer packetBuffer;
+
+  @Nullable private Uri uri;
+  @Nullable private DatagramChannel channel;
+  @Nullable private Selector selector;
+  private boolean opened;
+
+  private int packetRemaining;
+
+  public UdpChannelDataSource() {
+    this(UdpDataSource.DEFAULT_PACKET_SIZE);
+  }
+
+  /**
+   * @param maxPacketSize The maximum datagram packet size, in bytes.
+   */
+  public UdpChannelDataSource(int maxPacketSize) {
+    this(maxPacketSize, UdpDataSource.DEFAULT_RECEIVE_BUFFER_SIZE);
+  }
+
+  /**
+   * @param maxPacketSize The maximum datagram packet size, in bytes.
+   * @param receiveBufferSize The socket receive buffer size, in bytes.
+   */
+  public UdpChannelDataSource(int maxPacketSize, int receiveBufferSize) {
+    this(maxPacketSize, receiveBufferSize, UdpDataSource.DEFAULT_SOCKET_TIMEOUT_MILLIS,
+        DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @param maxPacketSize The maximum datagram packet size, in bytes.
+   * @param receiveBufferSize The socket receive buffer size, in bytes.
+   * @param socketTimeoutMillis The time to wait for a datagram in milliseconds. A timeout of zero is
+   *     interpreted as an infinite timeout.
+   * @param maxBatchSize The maximum number of datagrams drained per wakeup.
+   */
+  public UdpChannelDataSource(int maxPacketSize, int receiveBufferSize, int socketTimeoutMillis,
+      int maxBatchSize) {
+    super(/* isNetwork= */ true);
+    this.receiveBufferSize = receiveBufferSize;
+    this.socketTimeoutMillis = socketTimeoutMillis;
+    this.maxBatchSize = maxBatchSize;
+    packetBuffer = ByteBuffer.allocateDirect(maxPacketSize);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws UdpDataSourceException, IOException {
+    uri = dataSpec.uri;
+    String host = uri.getHost();
+    int port = uri.getPort();
+    transferInitializing(dataSpec);
+    try {
+      InetAddress address = InetAddress.getByName(host);
+      if (address.isMulticastAddress()) {
+        throw new IOException("Multicast is not supported: " + address);
+      }
+
+      channel = DatagramChannel.open();
+      // The receive buffer must be set before binding for large windows to be negotiated
+      channel.socket().setReceiveBufferSize(receiveBufferSize);
+
+      if (dataSpec.isFlagSet(DataSpec.FLAG_FORCE_BOUND_LOCAL_ADDRESS)) {
+        channel.socket().bind(new InetSocketAddress(port));
+      } else {
+        channel.socket().bind(new InetSocketAddress(address, port));
+      }
+
+      channel.configureBlocking(false);
+      selector = Selector.open();
+      channel.register(selector, SelectionKey.OP_READ);
+
+    } catch (IOException e) {
+      throw new UdpDataSourceException(e);
+    }
+
+    opened = true;
+    transferStarted(dataSpec);
+    return C.LENGTH_UNSET;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (readLength == 0) {
+      return 0;
+    }
+
+    if (packetRemaining == 0) {
+      // We've read all of the data from the current packet. Get another.
+      if (!receivePacket() && (!awaitPackets() || !receivePacket())) {
+        return C.RESULT_NOTHING_READ;
+      }
+
+      packetRemaining = packetBuffer.remaining();
+    }
+
+    int bytesToRead = min(packetRemaining, readLength);
+    packetBuffer.get(buffer, offset, bytesToRead);
+    packetRemaining -= bytesToRead;
+    return bytesToRead;
+  }
+
+  /**
+   * Drains the datagrams pending in the socket, waiting for the first one up to the socket timeout.
+   * Must not be mixed with partial reads through {@link #read(byte[], int, int)}.
+   *
+   * @param consumer The consumer of the received datagrams.
+   * @return The number of datagrams received, or {@link C#RESULT_NOTHING_READ} if the socket timed
+   *     out.
+   * @throws IOException If an error occurs receiving from the socket, or consuming a datagram.
+   */
+  public int receive(DatagramConsumer consumer) throws IOException {
+    int count = drain(consumer);
+
+    if (count == 0 && awaitPackets()) {
+      count = drain(consumer);
+    }
+
+    return (count > 0) ? count : C.RESULT_NOTHING_READ;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    if (buffer == null || (offset >= length) || (buffer.length < (length - offset))) {
+      return;
+    }
+
+    if (channel != null && channel.isConnected()) {
+      channel.write(ByteBuffer.wrap(buffer, offset, length));
+    }
+  }
+
+  @Override
+  public void writeTo(byte[] buffer, int offset, int length, InetAddress address, int port)
+      throws IOException {
+    if (buffer == null || (offset >= length) || (buffer.length < (length - offset))) {
+      return;
+    }
+
+    if (channel != null && channel.socket().isBound()) {
+      channel.send(ByteBuffer.wrap(buffer, offset, length), new InetSocketAddress(address, port));
+    }
+  }
+
+  @Override
+  public int getLocalPort() {
+    if (channel != null) {
+      return channel.socket().getLocalPort();
+    }
+
+    return C.PORT_UNSET;
+  }
+
+  @Override
+  @Nullable
+  public Uri getUri() {
+    return uri;
+  }
+
+  @Override
+  public void close() {
+    uri = null;
+    if (selector != null) {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+      selector = null;
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+      channel = null;
+    }
+    packetRemaining = 0;
+    if (opened) {
+      opened = false;
+      transferEnded();
+    }
+  }
+
+  private int drain(DatagramConsumer consumer) throws IOException {
+    int count = 0;
+
+    while (count < maxBatchSize && receivePacket()) {
+      consumer.onDatagram(packetBuffer);
+      count++;
+    }
+
+    return count;
+  }
+
+  private boolean receivePacket() throws UdpDataSourceException {
+    packetBuffer.clear();
+
+    try {
+      if (channel.receive(packetBuffer) == null) {
+        return false;
+      }
+    } catch (IOException e) {
+      throw new UdpDataSourceException(e);
+    }
+
+    packetBuffer.flip();
+    bytesTransferred(packetBuffer.remaining());
+    return true;
+  }
+
+  private boolean awaitPackets() throws UdpDataSourceException {
+    try {
+      int readyCount = selector.select(socketTimeoutMillis);
+      selector.selectedKeys().clear();
+      return readyCount > 0;
+
+    } catch (IOException e) {
+      throw new UdpDataSourceException(e);
+    }
+  }
+}
@@ -7,6 +7,7 @@ package com.adt.vpm.videoplayer.source.core.upstream.cache;
 
 import static com.adt.vpm.videoplayer.source.common.util.Assertions.checkNotNull;
 import static com.adt.vpm.videoplayer.source.common.util.Util.castNonNull;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import androidx.annotation.Nullable;
@@ -22,6 +23,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 /**
@@ -39,6 +41,7 @@ public final class CacheDataSink implements DataSink {
     private @MonotonicNonNull Cache cache;
     private long fragmentSize;
     private int bufferSize;
+    @Nullable private CacheSpanMemoryTier memoryTier;
 
     /** Creates an instance. */
     public Factory() {
@@ -91,9 +94,23 @@ public final class CacheDataSink implements DataSink {
       return this;
     }
 
+    /**
+     * Sets the {@link CacheSpanMemoryTier} the written cache files are also held in, to be read
+     * from memory by a {@link CacheDataSource} sharing it.
+     *
+     * <p>The default is {@code null}.
+     *
+     * @param memoryTier The {@link CacheSpanMemoryTier}, or {@code null} to only write files.
+     * @return This factory.
+     */
+    public Factory setMemoryTier(@Nullable CacheSpanMemoryTier memoryTier) {
+      this.memoryTier = memoryTier;
+      return this;
+    }
+
     @Override
     public DataSink createDataSink() {
-      return new CacheDataSink(checkNotNull(cache), fragmentSize, bufferSize);
+      return new CacheDataSink(checkNotNull(cache), fragmentSize, bufferSize, memoryTier);
     }
   }
 
@@ -111,17 +128,22 @@ public final class CacheDataSink implements DataSink {
   public static final int DEFAULT_BUFFER_SIZE = 20 * 1024;
 
   private static final long MIN_RECOMMENDED_FRAGMENT_SIZE = 2 * 1024 * 1024;
+  /** Initial size of the memory buffer of a cache file whose length is unknown. */
+  private static final int INITIAL_MEMORY_BUFFER_SIZE = 64 * 1024;
   private static final String TAG = "CacheDataSink";
 
   private final Cache cache;
   private final long fragmentSize;
   private final int bufferSize;
+  @Nullable private final CacheSpanMemoryTier memoryTier;
 
   @Nullable private DataSpec dataSpec;
   private long dataSpecFragmentSize;
   @Nullable private File file;
   @Nullable private OutputStream outputStream;
+  private long outputStreamPosition;
   private long outputStreamBytesWritten;
+  @Nullable private byte[] memoryBuffer;
   private long dataSpecBytesWritten;
   private @MonotonicNonNull
   ReusableBufferedOutputStream bufferedOutputStream;
@@ -151,6 +173,26 @@ public final class CacheDataSink implements DataSink {
    *     value disables buffering.
    */
   public CacheDataSink(Cache cache, long fragmentSize, int bufferSize) {
+    this(cache, fragmentSize, bufferSize, /* memoryTier= */ null);
+  }
+
+  /**
+   * @param cache The cache into which data should be written.
+   * @param fragmentSize For requests that should be fragmented into multiple cache files, this is
+   *     the maximum size of a cache file in bytes. If set to {@link C#LENGTH_UNSET} then no
+   *     fragmentation will occur. Using a small value allows for finer-grained cache eviction
+   *     policies, at the cost of increased overhead both on the cache implementation and the file
+   *     system. Values under {@code (2 * 1024 * 1024)} are not recommended.
+   * @param bufferSize The buffer size in bytes for writing to a cache file. A zero or negative
+   *     value disables buffering.
+   * @param memoryTier The {@link CacheSpanMemoryTier} the committed cache files are also held in,
+   *     or null to only write files.
+   */
+  public CacheDataSink(
+      Cache cache,
+      long fragmentSize,
+      int bufferSize,
+      @Nullable CacheSpanMemoryTier memoryTier) {
     Assertions.checkState(
         fragmentSize > 0 || fragmentSize == C.LENGTH_UNSET,
         "fragmentSize must be positive or C.LENGTH_UNSET.");
@@ -164,6 +206,7 @@ public final class CacheDataSink implements DataSink {
     this.cache = checkNotNull(cache);
     this.fragmentSize = fragmentSize == C.LENGTH_UNSET ? Long.MAX_VALUE : fragmentSize;
     this.bufferSize = bufferSize;
+    this.memoryTier = memoryTier;
   }
 
   @Override
@@ -201,6 +244,9 @@ public final class CacheDataSink implements DataSink {
         int bytesToWrite =
             (int) min(length - bytesWritten, dataSpecFragmentSize - outputStreamBytesWritten);
         castNonNull(outputStream).write(buffer, offset + bytesWritten, bytesToWrite);
+        if (memoryBuffer != null) {
+          writeToMemoryBuffer(buffer, offset + bytesWritten, bytesToWrite);
+        }
         bytesWritten += bytesToWrite;
         outputStreamBytesWritten += bytesToWrite;
         dataSpecBytesWritten += bytesToWrite;
@@ -227,9 +273,8 @@ public final class CacheDataSink implements DataSink {
         dataSpec.length == C.LENGTH_UNSET
             ? C.LENGTH_UNSET
             : min(dataSpec.length - dataSpecBytesWritten, dataSpecFragmentSize);
-    file =
-        cache.startFile(
-            castNonNull(dataSpec.key), dataSpec.position + dataSpecBytesWritten, length);
+    outputStreamPosition = dataSpec.position + dataSpecBytesWritten;
+    file = cache.startFile(castNonNull(dataSpec.key), outputStreamPosition, length);
     FileOutputStream underlyingFileOutputStream = new FileOutputStream(file);
     if (bufferSize > 0) {
       if (bufferedOutputStream == null) {
@@ -243,6 +288,33 @@ public final class CacheDataSink implements DataSink {
       outputStream = underlyingFileOutputStream;
     }
     outputStreamBytesWritten = 0;
+    if (memoryTier != null
+        && (length == C.LENGTH_UNSET || length <= memoryTier.getMaxSpanBytes())) {
+      memoryBuffer =
+          new byte[(int) (length != C.LENGTH_UNSET
+              ? length
+              : min(INITIAL_MEMORY_BUFFER_SIZE, memoryTier.getMaxSpanBytes()))];
+    } else {
+      memoryBuffer = null;
+    }
+  }
+
+  private void writeToMemoryBuffer(byte[] buffer, int offset, int length) {
+    byte[] memoryBuffer = castNonNull(this.memoryBuffer);
+    long requiredSize = outputStreamBytesWritten + length;
+    if (requiredSize > memoryBuffer.length) {
+      long maxSpanBytes = castNonNull(memoryTier).getMaxSpanBytes();
+      if (requiredSize > maxSpanBytes) {
+        // The file is too long to be held in memory.
+        this.memoryBuffer = null;
+        return;
+      }
+      memoryBuffer =
+          Arrays.copyOf(
+              memoryBuffer, (int) min(maxSpanBytes, max(requiredSize, 2L * memoryBuffer.length)));
+      this.memoryBuffer = memoryBuffer;
+    }
+    System.arraycopy(buffer, offset, memoryBuffer, (int) outputStreamBytesWritten, length);
   }
 
   private void closeCurrentOutputStream() throws IOException {
@@ -259,8 +331,19 @@ public final class CacheDataSink implements DataSink {
       outputStream = null;
       File fileToCommit = castNonNull(file);
       file = null;
+      @Nullable byte[] memoryBuffer = this.memoryBuffer;
+      this.memoryBuffer = null;
       if (success) {
         cache.commitFile(fileToCommit, outputStreamBytesWritten);
+        if (memoryBuffer != null) {
+          castNonNull(memoryTier)
+              .put(
+                  castNonNull(castNonNull(dataSpec).key),
+                  outputStreamPosition,
+                  memoryBuffer.length == outputStreamBytesWritten
+                      ? memoryBuffer
+                      : Arrays.copyOf(memoryBuffer, (int) outputStreamBytesWritten));
+        }
       } else {
         fileToCommit.delete();
       }
@@ -13,6 +13,7 @@ import android.net.Uri;
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 
+import com.adt.vpm.videoplayer.source.core.upstream.BaseDataSource;
 import com.adt.vpm.videoplayer.source.core.upstream.DataSink;
 import com.adt.vpm.videoplayer.source.core.upstream.DummyDataSource;
 import com.adt.vpm.videoplayer.source.core.upstream.FileDataSource;
@@ -56,6 +57,7 @@ public final class CacheDataSource implements DataSource {
     private int upstreamPriority;
     @CacheDataSource.Flags private int flags;
     @Nullable private CacheDataSource.EventListener eventListener;
+    @Nullable private CacheSpanMemoryTier memoryTier;
 
     public Factory() {
       cacheReadDataSourceFactory = new FileDataSource.Factory();
@@ -223,6 +225,29 @@ public final class CacheDataSource implements DataSource {
       return this;
     }
 
+    /**
+     * Sets the {@link CacheSpanMemoryTier} cached data is read from when it holds it, instead of
+     * from the cache files. The tier is populated by the default {@link CacheDataSink}, a sink set
+     * by {@link #setCacheWriteDataSinkFactory} must be given the tier by its factory.
+     *
+     * <p>The default is {@code null}.
+     *
+     * @param memoryTier The {@link CacheSpanMemoryTier}, or {@code null} to only read files.
+     * @return This factory.
+     */
+    public Factory setMemoryTier(@Nullable CacheSpanMemoryTier memoryTier) {
+      this.memoryTier = memoryTier;
+      return this;
+    }
+
+    /**
+     * Returns the {@link CacheSpanMemoryTier} that will be used, or {@code null} if there is none.
+     */
+    @Nullable
+    public CacheSpanMemoryTier getMemoryTier() {
+      return memoryTier;
+    }
+
     @Override
     public CacheDataSource createDataSource() {
       return createDataSourceInternal(
@@ -277,7 +302,11 @@ public final class CacheDataSource implements DataSource {
       } else if (cacheWriteDataSinkFactory != null) {
         cacheWriteDataSink = cacheWriteDataSinkFactory.createDataSink();
       } else {
-        cacheWriteDataSink = new CacheDataSink.Factory().setCache(cache).createDataSink();
+        cacheWriteDataSink =
+            new CacheDataSink.Factory()
+                .setCache(cache)
+                .setMemoryTier(memoryTier)
+                .createDataSink();
       }
       return new CacheDataSource(
           cache,
@@ -288,7 +317,8 @@ public final class CacheDataSource implements DataSource {
           flags,
           upstreamPriorityTaskManager,
           upstreamPriority,
-          eventListener);
+          eventListener,
+          memoryTier);
     }
   }
 
@@ -368,6 +398,8 @@ public final class CacheDataSource implements DataSource {
 
   private final Cache cache;
   private final DataSource cacheReadDataSource;
+  @Nullable private final CacheSpanMemoryTier memoryTier;
+  @Nullable private final MemoryTierDataSource memoryTierDataSource;
   @Nullable private final DataSource cacheWriteDataSource;
   private final DataSource upstreamDataSource;
   private final CacheKeyFactory cacheKeyFactory;
@@ -486,7 +518,8 @@ public final class CacheDataSource implements DataSource {
         flags,
         /* upstreamPriorityTaskManager= */ null,
         /* upstreamPriority= */ C.PRIORITY_PLAYBACK,
-        eventListener);
+        eventListener,
+        /* memoryTier= */ null);
   }
 
   private CacheDataSource(
@@ -498,9 +531,12 @@ public final class CacheDataSource implements DataSource {
       @Flags int flags,
       @Nullable PriorityTaskManager upstreamPriorityTaskManager,
       int upstreamPriority,
-      @Nullable EventListener eventListener) {
+      @Nullable EventListener eventListener,
+      @Nullable CacheSpanMemoryTier memoryTier) {
     this.cache = cache;
     this.cacheReadDataSource = cacheReadDataSource;
+    this.memoryTier = memoryTier;
+    this.memoryTierDataSource = memoryTier != null ? new MemoryTierDataSource() : null;
     this.cacheKeyFactory = cacheKeyFactory != null ? cacheKeyFactory : CacheKeyFactory.DEFAULT;
     this.blockOnCache = (flags & FLAG_BLOCK_ON_CACHE) != 0;
     this.ignoreCacheOnError = (flags & FLAG_IGNORE_CACHE_ON_ERROR) != 0;
@@ -538,6 +574,9 @@ public final class CacheDataSource implements DataSource {
   public void addTransferListener(TransferListener transferListener) {
     checkNotNull(transferListener);
     cacheReadDataSource.addTransferListener(transferListener);
+    if (memoryTierDataSource != null) {
+      memoryTierDataSource.addTransferListener(transferListener);
+    }
     upstreamDataSource.addTransferListener(transferListener);
   }
 
@@ -702,7 +741,15 @@ public final class CacheDataSource implements DataSource {
               .setPosition(positionInFile)
               .setLength(length)
               .build();
-      nextDataSource = cacheReadDataSource;
+      @Nullable byte[] memoryData = memoryTier != null ? memoryTier.get(nextSpan) : null;
+      if (memoryData != null) {
+        // The span is held in memory, its file needs not be opened.
+        MemoryTierDataSource memoryTierDataSource = castNonNull(this.memoryTierDataSource);
+        memoryTierDataSource.setData(memoryData);
+        nextDataSource = memoryTierDataSource;
+      } else {
+        nextDataSource = cacheReadDataSource;
+      }
     } else {
       // Data is not cached, and data is not locked, read from upstream with cache backing.
       long length;
@@ -793,7 +840,8 @@ public final class CacheDataSource implements DataSource {
   }
 
   private boolean isReadingFromCache() {
-    return currentDataSource == cacheReadDataSource;
+    return currentDataSource == cacheReadDataSource
+        || (currentDataSource != null && currentDataSource == memoryTierDataSource);
   }
 
   private boolean isWritingToCache() {
@@ -845,4 +893,73 @@ public final class CacheDataSource implements DataSource {
     }
   }
 
+  /** Reads the data of a span held by the {@link CacheSpanMemoryTier}. */
+  private static final class MemoryTierDataSource extends BaseDataSource {
+
+    @Nullable private byte[] data;
+    @Nullable private Uri uri;
+    private int readPosition;
+    private int bytesRemaining;
+    private boolean opened;
+
+    public MemoryTierDataSource() {
+      super(/* isNetwork= */ false);
+    }
+
+    /** Sets the data of the span read by the next {@link #open}. */
+    public void setData(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      byte[] data = checkNotNull(this.data);
+      uri = dataSpec.uri;
+      transferInitializing(dataSpec);
+      readPosition = (int) dataSpec.position;
+      bytesRemaining =
+          (int)
+              (dataSpec.length == C.LENGTH_UNSET
+                  ? data.length - dataSpec.position
+                  : dataSpec.length);
+      if (readPosition < 0 || bytesRemaining < 0 || readPosition + bytesRemaining > data.length) {
+        throw new DataSourceException(DataSourceException.POSITION_OUT_OF_RANGE);
+      }
+      opened = true;
+      transferStarted(dataSpec);
+      return bytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) {
+      if (readLength == 0) {
+        return 0;
+      } else if (bytesRemaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      readLength = min(readLength, bytesRemaining);
+      System.arraycopy(castNonNull(data), readPosition, buffer, offset, readLength);
+      readPosition += readLength;
+      bytesRemaining -= readLength;
+      bytesTransferred(readLength);
+      return readLength;
+    }
+
+    @Override
+    @Nullable
+    public Uri getUri() {
+      return uri;
+    }
+
+    @Override
+    public void close() {
+      if (opened) {
+        opened = false;
+        transferEnded();
+      }
+      data = null;
+      uri = null;
+    }
+  }
+
 }
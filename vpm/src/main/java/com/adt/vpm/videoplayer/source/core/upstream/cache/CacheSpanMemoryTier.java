@@ -0,0 +1,242 @@
+/*
+ * Created by ADT author on 9/29/20 7:02 PM
+ * Copyright (C) 2020 ADT. All rights reserved.
+ * Last modified 9/29/20 7:02 PM
+ */
+package com.adt.vpm.videoplayer.source.core.upstream.cache;
+
+import androidx.annotation.Nullable;
+import com.adt.vpm.videoplayer.source.common.util.Assertions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory tier holding the data of recently written cache spans, from which {@link
+ * CacheDataSource} reads them instead of opening their files.
+ *
+ * <p>The tier is populated by the {@link CacheDataSink} writing the spans, and evicts the least
+ * recently used spans once it holds more than its byte budget. It is looked up with the spans
+ * returned by the {@link Cache}, and listens to the keys whose spans it holds so that a span
+ * removed from the cache is also dropped here. The data of a span is identified by its key,
+ * position and length, which only ever designate the same data while the span stays cached.
+ *
+ * <p>A tier may be shared by the sinks and sources of a cache, from any thread.
+ */
+public final class CacheSpanMemoryTier {
+
+  private final Cache cache;
+  private final long maxBytes;
+  private final long maxSpanBytes;
+  private final LinkedHashMap<SpanKey, byte[]> spans;
+  // Number of spans held per key, whose removals from the cache are listened to
+  private final HashMap<String, Integer> keySpanCounts;
+  private final Cache.Listener cacheListener;
+
+  private long bytes;
+
+  /**
+   * Creates an instance holding spans of up to a quarter of {@code maxBytes}.
+   *
+   * @param cache The cache whose spans are held.
+   * @param maxBytes The maximum number of bytes held by the tier.
+   */
+  public CacheSpanMemoryTier(Cache cache, long maxBytes) {
+    this(cache, maxBytes, maxBytes / 4);
+  }
+
+  /**
+   * @param cache The cache whose spans are held.
+   * @param maxBytes The maximum number of bytes held by the tier.
+   * @param maxSpanBytes The maximum length of a span held by the tier. Longer spans are only read
+   *     from their files.
+   */
+  public CacheSpanMemoryTier(Cache cache, long maxBytes, long maxSpanBytes) {
+    Assertions.checkArgument(maxSpanBytes > 0 && maxSpanBytes <= maxBytes);
+    this.cache = cache;
+    this.maxBytes = maxBytes;
+    this.maxSpanBytes = Math.min(maxSpanBytes, Integer.MAX_VALUE);
+    spans = new LinkedHashMap<>(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f,
+        /* accessOrder= */ true);
+    keySpanCounts = new HashMap<>();
+    cacheListener = new SpanRemovalListener();
+  }
+
+  /** Returns the maximum length of a span held by the tier. */
+  public long getMaxSpanBytes() {
+    return maxSpanBytes;
+  }
+
+  /** Returns the number of bytes held by the tier. */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** Removes all the spans held by the tier. */
+  public void clear() {
+    ArrayList<String> keys;
+    synchronized (this) {
+      spans.clear();
+      bytes = 0;
+      keys = new ArrayList<>(keySpanCounts.keySet());
+      keySpanCounts.clear();
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      cache.removeListener(keys.get(i), cacheListener);
+    }
+  }
+
+  /**
+   * Returns the data of a cached span, or null if it is not held by the tier.
+   *
+   * @param span The span, as returned by the cache.
+   */
+  @Nullable
+  /* package */ synchronized byte[] get(CacheSpan span) {
+    @Nullable byte[] data = spans.get(new SpanKey(span.key, span.position));
+    return data != null && data.length == span.length ? data : null;
+  }
+
+  /**
+   * Holds the data of a span which has been committed to the cache. The data must not be modified
+   * afterwards.
+   *
+   * @param key The cache key of the span.
+   * @param position The position of the span in the resource.
+   * @param data The data of the span.
+   */
+  /* package */ void put(String key, long position, byte[] data) {
+    if (data.length == 0 || data.length > maxSpanBytes) {
+      return;
+    }
+
+    boolean listen = false;
+    @Nullable ArrayList<String> releasedKeys = null;
+
+    synchronized (this) {
+      @Nullable byte[] previousData = spans.put(new SpanKey(key, position), data);
+      if (previousData != null) {
+        bytes -= previousData.length;
+      } else {
+        listen = incrementKeySpanCount(key);
+      }
+      bytes += data.length;
+
+      Iterator<Map.Entry<SpanKey, byte[]>> iterator = spans.entrySet().iterator();
+      while (bytes > maxBytes && iterator.hasNext()) {
+        Map.Entry<SpanKey, byte[]> entry = iterator.next();
+        bytes -= entry.getValue().length;
+        iterator.remove();
+
+        String evictedKey = entry.getKey().key;
+        if (decrementKeySpanCount(evictedKey)) {
+          if (releasedKeys == null) {
+            releasedKeys = new ArrayList<>();
+          }
+          releasedKeys.add(evictedKey);
+        }
+      }
+    }
+
+    // The cache notifies its listeners while holding its lock, so the listeners are only added
+    // and removed without holding the lock of the tier
+    if (listen) {
+      cache.addListener(key, cacheListener);
+    }
+    if (releasedKeys != null) {
+      for (int i = 0; i < releasedKeys.size(); i++) {
+        cache.removeListener(releasedKeys.get(i), cacheListener);
+      }
+    }
+
+    // The span may have been removed before its key was listened to
+    if (!cache.isCached(key, position, data.length)) {
+      remove(key, position, data);
+    }
+  }
+
+  private void remove(String key, long position, @Nullable byte[] data) {
+    boolean release;
+    synchronized (this) {
+      SpanKey spanKey = new SpanKey(key, position);
+      @Nullable byte[] heldData = spans.get(spanKey);
+      if (heldData == null || (data != null && heldData != data)) {
+        return;
+      }
+      spans.remove(spanKey);
+      bytes -= heldData.length;
+      release = decrementKeySpanCount(key);
+    }
+
+    if (release) {
+      cache.removeListener(key, cacheListener);
+    }
+  }
+
+  /** Returns whether the key was not held before. */
+  private boolean incrementKeySpanCount(String key) {
+    @Nullable Integer count = keySpanCounts.get(key);
+    keySpanCounts.put(key, count == null ? 1 : count + 1);
+    return count == null;
+  }
+
+  /** Returns whether the key is no longer held. */
+  private boolean decrementKeySpanCount(String key) {
+    int count = Assertions.checkNotNull(keySpanCounts.get(key)) - 1;
+    if (count == 0) {
+      keySpanCounts.remove(key);
+      return true;
+    }
+    keySpanCounts.put(key, count);
+    return false;
+  }
+
+  private final class SpanRemovalListener implements Cache.Listener {
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+      remove(span.key, span.position, /* data= */ null);
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+      // Do nothing, the data is unchanged.
+    }
+  }
+
+  private static final class SpanKey {
+
+    private final String key;
+    private final long position;
+
+    private SpanKey(String key, long position) {
+      this.key = key;
+      this.position = position;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      SpanKey other = (SpanKey) obj;
+      return position == other.position && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * key.hashCode() + (int) (position ^ (position >>> 32));
+    }
+  }
+}
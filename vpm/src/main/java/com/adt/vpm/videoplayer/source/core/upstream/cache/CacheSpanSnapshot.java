@@ -0,0 +1,169 @@
+/*
+ * Created by ADT author on 9/29/20 7:02 PM
+ * Copyright (C) 2020 ADT. All rights reserved.
+ * Last modified 9/29/20 7:02 PM
+ */
+package com.adt.vpm.videoplayer.source.core.upstream.cache;
+
+import androidx.annotation.Nullable;
+import com.adt.vpm.videoplayer.source.common.util.Log;
+import com.adt.vpm.videoplayer.source.common.util.Util;
+import com.adt.vpm.videoplayer.source.core.util.AtomicFile;
+import com.adt.vpm.videoplayer.source.core.util.ReusableBufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A snapshot of the spans of a {@link SimpleCache}, stored in the cache directory so that the
+ * cache can be initialized without listing and parsing every cache file.
+ *
+ * <p>The snapshot is only as recent as its last store, so the spans it loads have to be validated
+ * against the cache directory.
+ */
+/* package */ final class CacheSpanSnapshot {
+
+  private static final String TAG = "CacheSpanSnapshot";
+
+  /* package */ static final String FILE_NAME_ATOMIC = "cached_spans.exs";
+
+  private static final int VERSION = 1;
+
+  private final File cacheDir;
+  private final AtomicFile atomicFile;
+
+  @Nullable private ReusableBufferedOutputStream bufferedOutputStream;
+
+  /** Returns whether the file is a snapshot file. */
+  public static boolean isSnapshotFile(String fileName) {
+    // Atomic file backups add additional suffixes to the file name.
+    return fileName.startsWith(FILE_NAME_ATOMIC);
+  }
+
+  /** @param cacheDir The cache directory, in which the snapshot is stored. */
+  public CacheSpanSnapshot(File cacheDir) {
+    this.cacheDir = cacheDir;
+    atomicFile = new AtomicFile(new File(cacheDir, FILE_NAME_ATOMIC));
+  }
+
+  /**
+   * Loads the spans of the snapshot.
+   *
+   * @param uid The UID of the cache.
+   * @param contentIndex The initialized content index of the cache.
+   * @return The spans, or null if there is no snapshot of the cache, or if it does not match the
+   *     content index.
+   */
+  @Nullable
+  public List<SimpleCacheSpan> load(long uid, CachedContentIndex contentIndex) {
+    if (!atomicFile.exists()) {
+      return null;
+    }
+
+    @Nullable DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+      if (input.readInt() != VERSION || input.readLong() != uid) {
+        return null;
+      }
+
+      int contentCount = input.readInt();
+      List<SimpleCacheSpan> spans = new ArrayList<>();
+      int hashCode = 0;
+      for (int i = 0; i < contentCount; i++) {
+        int id = input.readInt();
+        String key = input.readUTF();
+        if (!key.equals(contentIndex.getKeyForId(id))) {
+          // The id was reassigned since the snapshot was stored.
+          return null;
+        }
+        int spanCount = input.readInt();
+        for (int j = 0; j < spanCount; j++) {
+          String path = input.readUTF();
+          long position = input.readLong();
+          long length = input.readLong();
+          long lastTouchTimestamp = input.readLong();
+          spans.add(
+              SimpleCacheSpan.createCacheEntry(
+                  key, position, length, lastTouchTimestamp, new File(cacheDir, path)));
+          hashCode += hashSpan(path, length);
+        }
+      }
+      if (input.readInt() != hashCode || input.read() != -1) {
+        return null;
+      }
+      return spans;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load the span snapshot: " + e.getMessage());
+      return null;
+    } finally {
+      Util.closeQuietly(input);
+    }
+  }
+
+  /**
+   * Stores the spans of the cache, replacing the previous snapshot.
+   *
+   * @param uid The UID of the cache.
+   * @param contents The contents of the cache.
+   * @throws IOException If an error occurs storing the snapshot.
+   */
+  public void store(long uid, Collection<CachedContent> contents) throws IOException {
+    @Nullable DataOutputStream output = null;
+    try {
+      OutputStream outputStream = atomicFile.startWrite();
+      if (bufferedOutputStream == null) {
+        bufferedOutputStream = new ReusableBufferedOutputStream(outputStream);
+      } else {
+        bufferedOutputStream.reset(outputStream);
+      }
+      output = new DataOutputStream(bufferedOutputStream);
+      output.writeInt(VERSION);
+      output.writeLong(uid);
+
+      output.writeInt(contents.size());
+      int hashCode = 0;
+      for (CachedContent cachedContent : contents) {
+        output.writeInt(cachedContent.id);
+        output.writeUTF(cachedContent.key);
+        Collection<SimpleCacheSpan> spans = cachedContent.getSpans();
+        output.writeInt(spans.size());
+        for (SimpleCacheSpan span : spans) {
+          String path = getRelativePath(Util.castNonNull(span.file));
+          output.writeUTF(path);
+          output.writeLong(span.position);
+          output.writeLong(span.length);
+          output.writeLong(span.lastTouchTimestamp);
+          hashCode += hashSpan(path, span.length);
+        }
+      }
+      output.writeInt(hashCode);
+      atomicFile.endWrite(output);
+      output = null;
+    } finally {
+      Util.closeQuietly(output);
+    }
+  }
+
+  /** Deletes the snapshot. */
+  public void delete() {
+    atomicFile.delete();
+  }
+
+  private String getRelativePath(File file) {
+    @Nullable File directory = file.getParentFile();
+    return directory == null || directory.equals(cacheDir)
+        ? file.getName()
+        : directory.getName() + File.separator + file.getName();
+  }
+
+  private static int hashSpan(String path, long length) {
+    return 31 * path.hashCode() + (int) (length ^ (length >>> 32));
+  }
+}
@@ -15,10 +15,17 @@ import androidx.annotation.Nullable;
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.util.Log;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-/** Defines the cached content for a single resource. */
+/**
+ * Defines the cached content for a single resource.
+ *
+ * <p>The spans, locked ranges and metadata can be read from any thread without holding the lock
+ * of the cache, which is held to modify them.
+ */
 /* package */ final class CachedContent {
 
   private static final String TAG = "CachedContent";
@@ -27,13 +34,13 @@ import java.util.TreeSet;
   public final int id;
   /** The cache key that uniquely identifies the resource. */
   public final String key;
-  /** The cached spans of this content. */
-  private final TreeSet<SimpleCacheSpan> cachedSpans;
+  /** The cached spans of this content, keyed by position. */
+  private final ConcurrentSkipListMap<Long, SimpleCacheSpan> cachedSpans;
   /** Currently locked ranges. */
-  private final ArrayList<Range> lockedRanges;
+  private final CopyOnWriteArrayList<Range> lockedRanges;
 
   /** Metadata values. */
-  private DefaultContentMetadata metadata;
+  private volatile DefaultContentMetadata metadata;
 
   /**
    * Creates a CachedContent.
@@ -49,8 +56,8 @@ import java.util.TreeSet;
     this.id = id;
     this.key = key;
     this.metadata = metadata;
-    cachedSpans = new TreeSet<>();
-    lockedRanges = new ArrayList<>();
+    cachedSpans = new ConcurrentSkipListMap<>();
+    lockedRanges = new CopyOnWriteArrayList<>();
   }
 
   /** Returns the metadata. */
@@ -125,12 +132,15 @@ import java.util.TreeSet;
 
   /** Adds the given {@link SimpleCacheSpan} which contains a part of the content. */
   public void addSpan(SimpleCacheSpan span) {
-    cachedSpans.add(span);
+    cachedSpans.put(span.position, span);
   }
 
-  /** Returns a set of all {@link SimpleCacheSpan}s. */
-  public TreeSet<SimpleCacheSpan> getSpans() {
-    return cachedSpans;
+  /**
+   * Returns all the {@link SimpleCacheSpan}s, in order of position. The collection is backed by
+   * the content and can be iterated while spans are added or removed.
+   */
+  public Collection<SimpleCacheSpan> getSpans() {
+    return cachedSpans.values();
   }
 
   /**
@@ -142,13 +152,16 @@ import java.util.TreeSet;
    * @return The corresponding cache {@link SimpleCacheSpan}.
    */
   public SimpleCacheSpan getSpan(long position, long length) {
-    SimpleCacheSpan lookupSpan = SimpleCacheSpan.createLookup(key, position);
-    SimpleCacheSpan floorSpan = cachedSpans.floor(lookupSpan);
-    if (floorSpan != null && floorSpan.position + floorSpan.length > position) {
-      return floorSpan;
+    @Nullable Map.Entry<Long, SimpleCacheSpan> floorEntry = cachedSpans.floorEntry(position);
+    if (floorEntry != null) {
+      SimpleCacheSpan floorSpan = floorEntry.getValue();
+      if (floorSpan.position + floorSpan.length > position) {
+        return floorSpan;
+      }
     }
-    SimpleCacheSpan ceilSpan = cachedSpans.ceiling(lookupSpan);
-    if (ceilSpan != null) {
+    @Nullable Map.Entry<Long, SimpleCacheSpan> ceilEntry = cachedSpans.ceilingEntry(position);
+    if (ceilEntry != null) {
+      SimpleCacheSpan ceilSpan = ceilEntry.getValue();
       long holeLength = ceilSpan.position - position;
       length = length == C.LENGTH_UNSET ? holeLength : min(holeLength, length);
     }
@@ -181,7 +194,7 @@ import java.util.TreeSet;
     }
     long currentEndPosition = span.position + span.length;
     if (currentEndPosition < queryEndPosition) {
-      for (SimpleCacheSpan next : cachedSpans.tailSet(span, false)) {
+      for (SimpleCacheSpan next : cachedSpans.tailMap(span.position, false).values()) {
         if (next.position > currentEndPosition) {
           // There's a hole in the cache within the queried region.
           break;
@@ -209,7 +222,7 @@ import java.util.TreeSet;
    */
   public SimpleCacheSpan setLastTouchTimestamp(
       SimpleCacheSpan cacheSpan, long lastTouchTimestamp, boolean updateFile) {
-    checkState(cachedSpans.remove(cacheSpan));
+    checkState(cachedSpans.get(cacheSpan.position) == cacheSpan);
     File file = checkNotNull(cacheSpan.file);
     if (updateFile) {
       File directory = checkNotNull(file.getParentFile());
@@ -223,7 +236,8 @@ import java.util.TreeSet;
     }
     SimpleCacheSpan newCacheSpan =
         cacheSpan.copyWithFileAndLastTouchTimestamp(file, lastTouchTimestamp);
-    cachedSpans.add(newCacheSpan);
+    // Replaced in place, so that readers never see the span missing
+    cachedSpans.put(newCacheSpan.position, newCacheSpan);
     return newCacheSpan;
   }
 
@@ -234,7 +248,7 @@ import java.util.TreeSet;
 
   /** Removes the given span from cache. */
   public boolean removeSpan(CacheSpan span) {
-    if (cachedSpans.remove(span)) {
+    if (cachedSpans.remove(span.position) != null) {
       if (span.file != null) {
         span.file.delete();
       }
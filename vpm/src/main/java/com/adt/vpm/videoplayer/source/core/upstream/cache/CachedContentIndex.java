@@ -28,16 +28,22 @@ import com.adt.vpm.videoplayer.source.core.database.VersionTable;
 import com.adt.vpm.videoplayer.source.core.util.AtomicFile;
 import com.adt.vpm.videoplayer.source.core.util.ReusableBufferedOutputStream;
 import com.adt.vpm.videoplayer.source.common.util.Assertions;
+import com.adt.vpm.videoplayer.source.common.util.Log;
 import com.adt.vpm.videoplayer.source.common.util.Util;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -48,6 +54,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
@@ -64,7 +72,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   private static final int INCREMENTAL_METADATA_READ_LENGTH = 10 * 1024 * 1024;
 
-  private final HashMap<String, CachedContent> keyToContent;
+  // Read without synchronization by the lookups of the cache, modified under its lock
+  private final Map<String, CachedContent> keyToContent;
   /**
    * Maps assigned ids to their corresponding keys. Also contains (id -> null) entries for ids that
    * have been removed from the index since it was last stored. This prevents reuse of these ids,
@@ -129,6 +138,28 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         /* preferLegacyStorage= */ false);
   }
 
+  /**
+   * Creates an instance supporting journaled storage only, which appends the changes of the index
+   * to a journal rather than rewriting the whole index. The journal is compacted into an
+   * unencrypted legacy index file in the background, so an existing unencrypted legacy index is
+   * read as is.
+   *
+   * @param storageDir The directory in which the index and its journal are stored.
+   */
+  public CachedContentIndex(File storageDir) {
+    keyToContent = new ConcurrentHashMap<>();
+    idToKey = new SparseArray<>();
+    removedIds = new SparseBooleanArray();
+    newIds = new SparseBooleanArray();
+    storage =
+        new JournaledStorage(
+            new LegacyStorage(
+                new File(storageDir, FILE_NAME_ATOMIC),
+                /* secretKey= */ null,
+                /* encrypt= */ false),
+            storageDir);
+  }
+
   /**
    * Creates an instance supporting either or both of database and legacy storage.
    *
@@ -151,7 +182,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       boolean legacyStorageEncrypt,
       boolean preferLegacyStorage) {
     checkState(databaseProvider != null || legacyStorageDir != null);
-    keyToContent = new HashMap<>();
+    keyToContent = new ConcurrentHashMap<>();
     idToKey = new SparseArray<>();
     removedIds = new SparseBooleanArray();
     newIds = new SparseBooleanArray();
@@ -222,6 +253,15 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     newIds.clear();
   }
 
+  /**
+   * Waits for index data that is being written in the background, if any. Must be called before
+   * the cache folder is unlocked, after the last {@link #store()}.
+   */
+  @WorkerThread
+  public void release() {
+    storage.release();
+  }
+
   /**
    * Adds a resource to the index, if it's not there already.
    *
@@ -247,8 +287,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   /**
    * Returns a read only collection of all {@link CachedContent CachedContents} in the index.
    *
-   * <p>Subsequent changes to the index are reflected in the returned collection. If the index is
-   * modified whilst iterating over the collection, the result of the iteration is undefined.
+   * <p>Subsequent changes to the index are reflected in the returned collection, which can be
+   * iterated while the index is modified.
    */
   public Collection<CachedContent> getAll() {
     return Collections.unmodifiableCollection(keyToContent.values());
@@ -301,9 +341,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   /**
    * Returns a set of all content keys. The set is backed by the {@code keyToContent} map, so
-   * changes to the map are reflected in the set, and vice-versa. If the map is modified while an
-   * iteration over the set is in progress (except through the iterator's own remove operation), the
-   * results of the iteration are undefined.
+   * changes to the map are reflected in the set, and vice-versa. The set can be iterated while the
+   * map is modified.
    */
   public Set<String> getKeys() {
     return keyToContent.keySet();
@@ -453,7 +492,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param idToKey The id to key map to populate with persisted data.
      * @throws IOException If an error occurs loading the index.
      */
-    void load(HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+    void load(Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException;
 
     /**
@@ -463,17 +502,17 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeFully(HashMap<String, CachedContent> content) throws IOException;
+    void storeFully(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Ensures incremental changes to the index since the initial {@link #initialize(long)} or last
-     * {@link #storeFully(HashMap)} are persisted. The storage will have been notified of all such
+     * {@link #storeFully(Map)} are persisted. The storage will have been notified of all such
      * changes via {@link #onUpdate(CachedContent)} and {@link #onRemove(CachedContent, boolean)}.
      *
      * @param content The key to content map to persist.
      * @throws IOException If an error occurs persisting the index.
      */
-    void storeIncremental(HashMap<String, CachedContent> content) throws IOException;
+    void storeIncremental(Map<String, CachedContent> content) throws IOException;
 
     /**
      * Called when a {@link CachedContent} is added or updated.
@@ -490,6 +529,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
      *     index was last stored.
      */
     void onRemove(CachedContent cachedContent, boolean neverStored);
+
+    /** Waits for any write of the persisted index still running in the background. */
+    void release();
   }
 
   /** {@link Storage} implementation that uses an {@link AtomicFile}. */
@@ -547,7 +589,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       checkState(!changed);
       if (!readFile(content, idToKey)) {
         content.clear();
@@ -557,13 +599,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       writeFile(content);
       changed = false;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (!changed) {
         return;
       }
@@ -580,8 +622,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       changed = true;
     }
 
+    @Override
+    public void release() {
+      // Do nothing. Writes are not made in the background.
+    }
+
     private boolean readFile(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey) {
       if (!atomicFile.exists()) {
         return true;
       }
@@ -636,7 +683,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       return true;
     }
 
-    private void writeFile(HashMap<String, CachedContent> content) throws IOException {
+    private void writeFile(Map<String, CachedContent> content) throws IOException {
       @Nullable DataOutputStream output = null;
       try {
         OutputStream outputStream = atomicFile.startWrite();
@@ -735,6 +782,308 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
   }
 
+  /**
+   * {@link Storage} implementation that appends the changes of the index to a journal, replayed
+   * over a {@link LegacyStorage} file when the index is loaded. Storing the index therefore costs in
+   * proportion to the changes rather than to the number of keys.
+   *
+   * <p>Once the journal grows larger than the legacy file, it is set aside and a new one started,
+   * while the legacy file is rewritten on a background thread with the index as it was when the
+   * journal was set aside. A journal left aside by an interrupted compaction is replayed before the
+   * current one, and compacted when the index is loaded.
+   *
+   * <p>Each record of the journal is written with its length and checksum, so that a record torn by
+   * the process being killed is detected and discarded with anything after it.
+   */
+  private static final class JournaledStorage implements Storage {
+
+    private static final String TAG = "JournaledStorage";
+
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+    private static final String COMPACTING_JOURNAL_FILE_SUFFIX = ".journal.old";
+
+    private static final int RECORD_TYPE_UPDATE = 0;
+    private static final int RECORD_TYPE_REMOVE = 1;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /** The minimum size of the journal for it to be compacted, in bytes. */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    private final LegacyStorage baseStorage;
+    private final File baseFile;
+    private final File journalFile;
+    private final File compactingJournalFile;
+    private final SparseArray<@NullableType CachedContent> pendingUpdates;
+    private final ByteArrayOutputStream recordBuffer;
+    private final CRC32 checksum;
+    // Held while the base storage is written, by the compaction thread or by the caller
+    private final Object baseStorageLock;
+
+    private long journalSize;
+    private volatile long baseSize;
+    private volatile boolean compacting;
+    @Nullable private Thread compactionThread;
+
+    public JournaledStorage(LegacyStorage baseStorage, File storageDir) {
+      this.baseStorage = baseStorage;
+      baseFile = new File(storageDir, FILE_NAME_ATOMIC);
+      journalFile = new File(storageDir, FILE_NAME_ATOMIC + JOURNAL_FILE_SUFFIX);
+      compactingJournalFile = new File(storageDir, FILE_NAME_ATOMIC + COMPACTING_JOURNAL_FILE_SUFFIX);
+      pendingUpdates = new SparseArray<>();
+      recordBuffer = new ByteArrayOutputStream();
+      checksum = new CRC32();
+      baseStorageLock = new Object();
+    }
+
+    @Override
+    public void initialize(long uid) {
+      baseStorage.initialize(uid);
+    }
+
+    @Override
+    public boolean exists() {
+      return baseStorage.exists() || journalFile.exists() || compactingJournalFile.exists();
+    }
+
+    @Override
+    public void delete() {
+      synchronized (baseStorageLock) {
+        baseStorage.delete();
+        journalFile.delete();
+        compactingJournalFile.delete();
+        journalSize = 0;
+      }
+    }
+
+    @Override
+    public void load(
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      checkState(pendingUpdates.size() == 0);
+      baseStorage.load(content, idToKey);
+
+      boolean compactionInterrupted = compactingJournalFile.exists();
+      if (compactionInterrupted) {
+        replayJournal(compactingJournalFile, content, idToKey);
+      }
+      long validJournalSize =
+          journalFile.exists() ? replayJournal(journalFile, content, idToKey) : 0;
+
+      if (compactionInterrupted) {
+        storeFully(content);
+        compactingJournalFile.delete();
+        return;
+      }
+      if (validJournalSize != journalFile.length()) {
+        // Discards the torn record, so that the next ones are appended to valid ones.
+        truncateJournal(validJournalSize);
+      }
+      journalSize = validJournalSize;
+      baseSize = baseFile.length();
+    }
+
+    @Override
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
+      synchronized (baseStorageLock) {
+        baseStorage.storeFully(content);
+        journalFile.delete();
+        journalSize = 0;
+        baseSize = baseFile.length();
+        pendingUpdates.clear();
+      }
+    }
+
+    @Override
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
+      if (pendingUpdates.size() == 0) {
+        return;
+      }
+      long appendPosition = journalSize;
+      DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+      DataOutputStream journalOutput =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(journalFile, /* append= */ true)));
+      try {
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+          @Nullable CachedContent cachedContent = pendingUpdates.valueAt(i);
+          recordBuffer.reset();
+          if (cachedContent == null) {
+            recordOutput.writeByte(RECORD_TYPE_REMOVE);
+            recordOutput.writeInt(pendingUpdates.keyAt(i));
+          } else {
+            recordOutput.writeByte(RECORD_TYPE_UPDATE);
+            recordOutput.writeInt(cachedContent.id);
+            recordOutput.writeUTF(cachedContent.key);
+            writeContentMetadata(cachedContent.getMetadata(), recordOutput);
+          }
+          recordOutput.flush();
+          byte[] record = recordBuffer.toByteArray();
+          checksum.reset();
+          checksum.update(record, 0, record.length);
+          journalOutput.writeInt(record.length);
+          journalOutput.write(record);
+          journalOutput.writeInt((int) checksum.getValue());
+          journalSize += record.length + 8;
+        }
+        journalOutput.close();
+      } catch (IOException e) {
+        Util.closeQuietly(journalOutput);
+        // Discards the records partially appended, which would hide the ones appended next.
+        journalSize = appendPosition;
+        truncateJournal(appendPosition);
+        throw e;
+      }
+      pendingUpdates.clear();
+
+      if (!compacting && journalSize > Math.max(MIN_COMPACTION_SIZE, baseSize)) {
+        startCompaction(content);
+      }
+    }
+
+    @Override
+    public void onUpdate(CachedContent cachedContent) {
+      pendingUpdates.put(cachedContent.id, cachedContent);
+    }
+
+    @Override
+    public void onRemove(CachedContent cachedContent, boolean neverStored) {
+      if (neverStored) {
+        pendingUpdates.delete(cachedContent.id);
+      } else {
+        pendingUpdates.put(cachedContent.id, null);
+      }
+    }
+
+    @Override
+    public void release() {
+      @Nullable Thread thread = compactionThread;
+      if (thread == null) {
+        return;
+      }
+      boolean wasInterrupted = false;
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          wasInterrupted = true;
+        }
+      }
+      compactionThread = null;
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void truncateJournal(long size) throws IOException {
+      try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+        file.setLength(size);
+      }
+    }
+
+    /**
+     * Sets the journal aside and rewrites the legacy file on a background thread, with a copy of the
+     * index taken now. The changes made from now on go to a new journal.
+     *
+     * <p>If a journal set aside by a previous compaction is still there, that compaction failed and
+     * the legacy file lacks its records. The current journal is then kept instead of replacing it,
+     * and both are compacted. Replaying the records of the kept journal over the compacted file on
+     * the next load leaves the index unchanged.
+     */
+    private void startCompaction(Map<String, CachedContent> content) {
+      if (!compactingJournalFile.exists()) {
+        if (!journalFile.renameTo(compactingJournalFile)) {
+          Log.w(TAG, "Failed to set the journal aside for compaction: " + journalFile);
+          return;
+        }
+        journalSize = 0;
+      }
+      compacting = true;
+
+      final HashMap<String, CachedContent> compactedContent = new HashMap<>(content);
+      Thread thread = new Thread("ExoPlayer:CacheIndexCompaction") {
+        @Override
+        public void run() {
+          synchronized (baseStorageLock) {
+            try {
+              baseStorage.storeFully(compactedContent);
+              baseSize = baseFile.length();
+              compactingJournalFile.delete();
+            } catch (IOException e) {
+              // The journal set aside is kept, to be compacted by the next compaction or load.
+              Log.w(TAG, "Failed to compact the journal: " + e.getMessage());
+            } finally {
+              compacting = false;
+            }
+          }
+        }
+      };
+      compactionThread = thread;
+      thread.start();
+    }
+
+    /**
+     * Replays the records of a journal, stopping at the first invalid one.
+     *
+     * @return The size of the valid records of the journal, in bytes.
+     */
+    private static long replayJournal(
+        File file, Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      long validSize = 0;
+      CRC32 checksum = new CRC32();
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        while (true) {
+          int length;
+          try {
+            length = input.readInt();
+          } catch (EOFException e) {
+            break;
+          }
+          if (length <= 0 || length > MAX_RECORD_LENGTH) {
+            break;
+          }
+          byte[] record = new byte[length];
+          input.readFully(record);
+          checksum.reset();
+          checksum.update(record, 0, length);
+          if (input.readInt() != (int) checksum.getValue()) {
+            break;
+          }
+          applyRecord(new DataInputStream(new ByteArrayInputStream(record)), content, idToKey);
+          validSize += length + 8;
+        }
+      } catch (EOFException e) {
+        // The last record was torn.
+      }
+      return validSize;
+    }
+
+    private static void applyRecord(
+        DataInputStream record,
+        Map<String, CachedContent> content,
+        SparseArray<@NullableType String> idToKey)
+        throws IOException {
+      int type = record.readByte();
+      int id = record.readInt();
+      @Nullable String previousKey = idToKey.get(id);
+      if (previousKey != null) {
+        content.remove(previousKey);
+        idToKey.remove(id);
+      }
+      if (type == RECORD_TYPE_UPDATE) {
+        String key = record.readUTF();
+        DefaultContentMetadata metadata = readContentMetadata(record);
+        @Nullable CachedContent previousContent = content.get(key);
+        if (previousContent != null) {
+          idToKey.remove(previousContent.id);
+        }
+        content.put(key, new CachedContent(id, key, metadata));
+        idToKey.put(id, key);
+      }
+    }
+  }
+
   /** {@link Storage} implementation that uses an SQL database. */
   private static final class DatabaseStorage implements Storage {
 
@@ -800,7 +1149,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void load(
-        HashMap<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
+        Map<String, CachedContent> content, SparseArray<@NullableType String> idToKey)
         throws IOException {
       checkState(pendingUpdates.size() == 0);
       try {
@@ -843,7 +1192,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeFully(HashMap<String, CachedContent> content) throws IOException {
+    public void storeFully(Map<String, CachedContent> content) throws IOException {
       try {
         SQLiteDatabase writableDatabase = databaseProvider.getWritableDatabase();
         writableDatabase.beginTransactionNonExclusive();
@@ -863,7 +1212,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
 
     @Override
-    public void storeIncremental(HashMap<String, CachedContent> content) throws IOException {
+    public void storeIncremental(Map<String, CachedContent> content) throws IOException {
       if (pendingUpdates.size() == 0) {
         return;
       }
@@ -903,6 +1252,11 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       }
     }
 
+    @Override
+    public void release() {
+      // Do nothing. Transactions are committed on the calling thread.
+    }
+
     private Cursor getCursor() {
       return databaseProvider
           .getReadableDatabase()
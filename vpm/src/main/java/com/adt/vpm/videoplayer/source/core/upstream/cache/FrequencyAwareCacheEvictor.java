@@ -0,0 +1,404 @@
+/*
+ * Created by ADT author on 9/29/20 7:02 PM
+ * Copyright (C) 2020 ADT. All rights reserved.
+ * Last modified 9/29/20 7:02 PM
+ */
+package com.adt.vpm.videoplayer.source.core.upstream.cache;
+
+import androidx.annotation.Nullable;
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.common.util.Assertions;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts cache files by recency and frequency of use, so that content watched once does not flush
+ * the content watched again and again.
+ *
+ * <p>Cache files enter a probation segment, and move to a protected segment when read again. Files
+ * are evicted from the least recently used end of the probation segment first, the protected
+ * segment holding at most {@link #PROTECTED_RATIO} of the cache. The frequency of use of every key,
+ * including keys no longer cached, is estimated by a count-min sketch whose counts are halved
+ * periodically so that it follows changes in popularity.
+ *
+ * <p>A use of a key is counted when the key is first read or written, and again whenever it is
+ * accessed before the position of its previous access, as a new playback starting over does. Files
+ * read or written in order by a single playback count as one use, however long the content is, so
+ * that a long view does not outweigh content played again and again.
+ *
+ * <p>Once the cache is full, a new cache file is only admitted if its key is used more often than
+ * the key of the file it would evict, and is evicted itself otherwise. When the file to evict has
+ * the same key, the least recently used file of the key is evicted instead, so that a long
+ * content keeps being cached as it is played again. A quota also bounds the bytes a single key may
+ * hold, its least recently used files being evicted first.
+ *
+ * <p>Every operation takes constant time.
+ */
+public final class FrequencyAwareCacheEvictor implements CacheEvictor {
+
+  /** The maximum share of the cache held by the protected segment. */
+  public static final float PROTECTED_RATIO = 0.8f;
+
+  /** The average size of a cache file assumed to size the frequency sketch, in bytes. */
+  private static final long AVERAGE_SPAN_SIZE = 256 * 1024;
+
+  private static final int MIN_SKETCH_SIZE = 64;
+  private static final int MAX_SKETCH_SIZE = 1 << 20;
+
+  private final long maxBytes;
+  private final long maxBytesPerKey;
+  private final long maxProtectedBytes;
+  private final FrequencySketch sketch;
+  private final LinkedHashMap<String, Long> accessPositions;
+  private final HashMap<String, KeyState> keyStates;
+  private final SpanList probation;
+  private final SpanList protectedSpans;
+
+  private long currentSize;
+  private boolean initialized;
+
+  /**
+   * Creates an instance without per-key quota.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   */
+  public FrequencyAwareCacheEvictor(long maxBytes) {
+    this(maxBytes, /* maxBytesPerKey= */ maxBytes);
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param maxBytesPerKey The maximum number of bytes cached for a single key.
+   */
+  public FrequencyAwareCacheEvictor(long maxBytes, long maxBytesPerKey) {
+    Assertions.checkArgument(maxBytes > 0 && maxBytesPerKey > 0);
+    this.maxBytes = maxBytes;
+    this.maxBytesPerKey = maxBytesPerKey;
+    maxProtectedBytes = (long) (maxBytes * PROTECTED_RATIO);
+    long expectedSpanCount = maxBytes / AVERAGE_SPAN_SIZE;
+    final int expectedKeyCount =
+        (int) Math.max(MIN_SKETCH_SIZE, Math.min(MAX_SKETCH_SIZE, expectedSpanCount));
+    sketch = new FrequencySketch(expectedKeyCount);
+    // The last access position of the keys, for as many keys as the sketch is sized for.
+    accessPositions =
+        new LinkedHashMap<String, Long>(
+            /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > expectedKeyCount;
+          }
+        };
+    keyStates = new HashMap<>();
+    probation = new SpanList();
+    protectedSpans = new SpanList();
+  }
+
+  @Override
+  public boolean requiresCacheSpanTouches() {
+    return true;
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Spans loaded from the cache directory are admitted unconditionally, new ones are not.
+    initialized = true;
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long length) {
+    onAccess(key, position);
+    if (length == C.LENGTH_UNSET) {
+      return;
+    }
+    // Only makes room by evicting files less used than the one written, which is otherwise
+    // rejected once it is added, or files of the same key.
+    int frequency = sketch.frequency(key);
+    while (currentSize + length > maxBytes) {
+      @Nullable Node victim = getVictim();
+      if (victim == null) {
+        break;
+      }
+      if (victim.span.key.equals(key)) {
+        victim = getLeastRecentlyUsed(
+            Assertions.checkNotNull(keyStates.get(key)), /* excludedNode= */ null);
+      } else if (sketch.frequency(victim.span.key) >= frequency) {
+        break;
+      }
+      removeSpan(cache, Assertions.checkNotNull(victim));
+    }
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    @Nullable KeyState keyState = keyStates.get(span.key);
+    if (keyState == null) {
+      keyState = new KeyState();
+      keyStates.put(span.key, keyState);
+    }
+    Node node = new Node(span);
+    @Nullable Node previousNode = keyState.nodes.put(span.position, node);
+    if (previousNode != null) {
+      // Should not happen, the cache never holds two spans at the same position.
+      unlink(keyState, previousNode);
+    }
+    keyState.bytes += span.length;
+    currentSize += span.length;
+    probation.addLast(node);
+
+    // Enforces the quota of the key, evicting its least recently used files first.
+    while (keyState.bytes > maxBytesPerKey && keyState.nodes.size() > 1) {
+      removeSpan(cache, Assertions.checkNotNull(getLeastRecentlyUsed(keyState, node)));
+    }
+
+    while (currentSize > maxBytes) {
+      @Nullable Node victim = getVictim();
+      if (victim == null) {
+        break;
+      }
+      if (victim.span.key.equals(span.key)) {
+        // Both files are used as often, the new one replaces the least recently used of the key.
+        @Nullable Node keyVictim = getLeastRecentlyUsed(keyState, node);
+        if (keyVictim != null) {
+          victim = keyVictim;
+        }
+      } else if (initialized
+          && node.linked
+          && sketch.frequency(span.key) <= sketch.frequency(victim.span.key)) {
+        // The new file is not admitted.
+        victim = node;
+      }
+      removeSpan(cache, victim);
+    }
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    @Nullable KeyState keyState = keyStates.get(span.key);
+    @Nullable Node node = keyState != null ? keyState.nodes.get(span.position) : null;
+    if (node == null) {
+      return;
+    }
+    keyState.nodes.remove(span.position);
+    unlink(keyState, node);
+    if (keyState.nodes.isEmpty()) {
+      keyStates.remove(span.key);
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    onAccess(newSpan.key, newSpan.position);
+    @Nullable KeyState keyState = keyStates.get(oldSpan.key);
+    // Refreshes the position of the span in the access order of the key.
+    @Nullable Node node = keyState != null ? keyState.nodes.get(oldSpan.position) : null;
+    if (node == null) {
+      onSpanAdded(cache, newSpan);
+      return;
+    }
+    node.span = newSpan;
+    if (node.isProtected) {
+      protectedSpans.remove(node);
+    } else {
+      probation.remove(node);
+      node.isProtected = true;
+    }
+    protectedSpans.addLast(node);
+
+    // Demotes the least recently used protected files back to probation.
+    while (protectedSpans.bytes > maxProtectedBytes && protectedSpans.head != node) {
+      Node demotedNode = Assertions.checkNotNull(protectedSpans.head);
+      protectedSpans.remove(demotedNode);
+      demotedNode.isProtected = false;
+      probation.addLast(demotedNode);
+    }
+  }
+
+  /** Counts a use of a key accessed at a position, unless the access follows the previous one. */
+  private void onAccess(String key, long position) {
+    @Nullable Long previousPosition = accessPositions.put(key, position);
+    if (previousPosition == null || position < previousPosition) {
+      sketch.increment(key);
+    }
+  }
+
+  /** Returns the next file to evict, or null if there is none. */
+  @Nullable
+  private Node getVictim() {
+    return probation.head != null ? probation.head : protectedSpans.head;
+  }
+
+  /** Returns the least recently used file of a key other than {@code excludedNode}, if any. */
+  @Nullable
+  private static Node getLeastRecentlyUsed(KeyState keyState, @Nullable Node excludedNode) {
+    for (Node keyNode : keyState.nodes.values()) {
+      if (keyNode != excludedNode) {
+        return keyNode;
+      }
+    }
+    return null;
+  }
+
+  private void removeSpan(Cache cache, Node node) {
+    CacheSpan span = node.span;
+    cache.removeSpan(span);
+    if (node.linked) {
+      // The cache did not hold the span anymore, so did not notify its removal.
+      onSpanRemoved(cache, span);
+    }
+  }
+
+  private void unlink(KeyState keyState, Node node) {
+    if (node.isProtected) {
+      protectedSpans.remove(node);
+    } else {
+      probation.remove(node);
+    }
+    keyState.bytes -= node.span.length;
+    currentSize -= node.span.length;
+  }
+
+  private static final class Node {
+
+    public CacheSpan span;
+    public boolean isProtected;
+    public boolean linked;
+    @Nullable public Node previous;
+    @Nullable public Node next;
+
+    public Node(CacheSpan span) {
+      this.span = span;
+    }
+  }
+
+  /** The files of a key, iterated from the least recently used. */
+  private static final class KeyState {
+
+    public final LinkedHashMap<Long, Node> nodes;
+    public long bytes;
+
+    public KeyState() {
+      nodes = new LinkedHashMap<>(/* initialCapacity= */ 4, /* loadFactor= */ 0.75f,
+          /* accessOrder= */ true);
+    }
+  }
+
+  /** A doubly linked list of files, from the least recently used. */
+  private static final class SpanList {
+
+    @Nullable public Node head;
+    @Nullable public Node tail;
+    public long bytes;
+
+    public void addLast(Node node) {
+      node.previous = tail;
+      node.next = null;
+      if (tail != null) {
+        tail.next = node;
+      } else {
+        head = node;
+      }
+      tail = node;
+      node.linked = true;
+      bytes += node.span.length;
+    }
+
+    public void remove(Node node) {
+      if (node.previous != null) {
+        node.previous.next = node.next;
+      } else {
+        head = node.next;
+      }
+      if (node.next != null) {
+        node.next.previous = node.previous;
+      } else {
+        tail = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      node.linked = false;
+      bytes -= node.span.length;
+    }
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters estimating how often keys are used. The counters are
+   * halved once the number of increments reaches ten times the number of keys the sketch is sized
+   * for.
+   */
+  private static final class FrequencySketch {
+
+    private static final long[] SEEDS =
+        new long[] {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+
+    private int size;
+
+    public FrequencySketch(int expectedKeyCount) {
+      int tableSize = Integer.highestOneBit(expectedKeyCount - 1) << 1;
+      table = new long[tableSize];
+      tableMask = tableSize - 1;
+      sampleSize = 10 * tableSize;
+    }
+
+    /** Returns the estimated number of uses of a key, up to {@link #MAX_COUNT}. */
+    public int frequency(String key) {
+      int hash = spread(key.hashCode());
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, getCount(hash, i));
+      }
+      return frequency;
+    }
+
+    /** Counts a use of a key. */
+    public void increment(String key) {
+      int hash = spread(key.hashCode());
+      boolean incremented = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = indexOf(hash, i);
+        int offset = offsetOf(hash, i);
+        if (((table[index] >>> offset) & MAX_COUNT) != MAX_COUNT) {
+          table[index] += 1L << offset;
+          incremented = true;
+        }
+      }
+      if (incremented && ++size >= sampleSize) {
+        reset();
+      }
+    }
+
+    private int getCount(int hash, int i) {
+      return (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & MAX_COUNT);
+    }
+
+    private int indexOf(int hash, int i) {
+      long indexHash = (hash + SEEDS[i]) * SEEDS[i];
+      indexHash += indexHash >>> 32;
+      return (int) indexHash & tableMask;
+    }
+
+    private static int offsetOf(int hash, int i) {
+      // Each long holds 16 counters, of which the depth i of the sketch uses one of four.
+      return ((((hash >>> 8) & 3) << 2) + i) << 2;
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      size /= 2;
+    }
+
+    private static int spread(int hash) {
+      hash *= 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
@@ -6,6 +6,7 @@
 package com.adt.vpm.videoplayer.source.core.upstream.cache;
 
 import android.os.ConditionVariable;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
@@ -21,6 +22,7 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
@@ -31,6 +33,18 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
  *
+ * <p>Lookups of spans, cached lengths, keys and metadata take no lock, the in-memory
+ * representation being readable while it is modified. Modifications of the representation and
+ * the persistence of the index are serialized on the cache instance, which reads only lock when
+ * they touch the span they read. Callers of {@link #startReadWrite} waiting for a key wait on a
+ * lock shared by a subset of the keys only.
+ *
+ * <p>The cache stores a snapshot of its spans, from which it is initialized without scanning its
+ * directory. The directory is then scanned in the background while the cache is in use, adding
+ * the cache files missing from the snapshot and removing the spans whose files are gone. The
+ * snapshot is stored once the directory has been scanned and when the cache is released, never
+ * while spans are added or removed.
+ *
  * <p>Only one instance of SimpleCache is allowed for a given directory at a given time.
  *
  * <p>To delete a SimpleCache, use {@link #delete(File, DatabaseProvider)} rather than deleting the
@@ -50,20 +64,29 @@ public final class SimpleCache implements Cache {
 
   private static final String UID_FILE_SUFFIX = ".uid";
 
+  /** The number of locks the keys waited for in {@link #startReadWrite} are striped over. */
+  private static final int KEY_LOCK_COUNT = 32;
+
   private static final HashSet<File> lockedCacheDirs = new HashSet<>();
 
   private final File cacheDir;
   private final CacheEvictor evictor;
   private final CachedContentIndex contentIndex;
   @Nullable private final CacheFileMetadataIndex fileIndex;
+  private final CacheSpanSnapshot spanSnapshot;
   private final HashMap<String, ArrayList<Listener>> listeners;
   private final Random random;
   private final boolean touchCacheSpans;
+  private final Object[] keyLocks;
 
   private long uid;
-  private long totalSpace;
-  private boolean released;
-  private @MonotonicNonNull CacheException initializationException;
+  private volatile long totalSpace;
+  private volatile boolean released;
+  private volatile boolean initialized;
+  private volatile @MonotonicNonNull CacheException initializationException;
+  private volatile long initializationDurationMs;
+  private boolean snapshotValidationPending;
+  private boolean snapshotChanged;
 
   /**
    * Returns whether {@code cacheFolder} is locked by a {@link SimpleCache} instance. To unlock the
@@ -172,6 +195,36 @@ public final class SimpleCache implements Cache {
         /* preferLegacyIndex= */ true);
   }
 
+  /**
+   * Constructs the cache with an index stored in the cache directory. The cache will delete any
+   * unrecognized files from the directory. Hence the directory cannot be used to store other files.
+   *
+   * <p>A journaled index appends the changes of the index to a journal, compacted in the
+   * background, so that storing it costs in proportion to the changes rather than to the number
+   * of keys. It reads an existing unencrypted legacy index, and is read back as a legacy index
+   * once compacted.
+   *
+   * @param cacheDir A dedicated cache directory.
+   * @param evictor The evictor to be used. For download use cases where cache eviction should not
+   *     occur, use {@link NoOpCacheEvictor}.
+   * @param journaledIndex Whether the index is journaled, rather than rewritten whenever it is
+   *     stored as a legacy index is.
+   */
+  public SimpleCache(File cacheDir, CacheEvictor evictor, boolean journaledIndex) {
+    this(
+        cacheDir,
+        evictor,
+        journaledIndex
+            ? new CachedContentIndex(cacheDir)
+            : new CachedContentIndex(
+                /* databaseProvider= */ null,
+                cacheDir,
+                /* legacyStorageSecretKey= */ null,
+                /* legacyStorageEncrypt= */ false,
+                /* preferLegacyStorage= */ true),
+        /* fileIndex= */ null);
+  }
+
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
    * the directory cannot be used to store other files.
@@ -244,13 +297,20 @@ public final class SimpleCache implements Cache {
     this.evictor = evictor;
     this.contentIndex = contentIndex;
     this.fileIndex = fileIndex;
+    spanSnapshot = new CacheSpanSnapshot(cacheDir);
     listeners = new HashMap<>();
     random = new Random();
     touchCacheSpans = evictor.requiresCacheSpanTouches();
     uid = UID_UNSET;
+    initializationDurationMs = C.TIME_UNSET;
+    keyLocks = new Object[KEY_LOCK_COUNT];
+    for (int i = 0; i < KEY_LOCK_COUNT; i++) {
+      keyLocks[i] = new Object();
+    }
 
     // Start cache initialization.
     final ConditionVariable conditionVariable = new ConditionVariable();
+    final long initializationStartTimeMs = SystemClock.elapsedRealtime();
     new Thread("ExoPlayer:SimpleCacheInit") {
       @Override
       public void run() {
@@ -258,7 +318,10 @@ public final class SimpleCache implements Cache {
           conditionVariable.open();
           initialize();
           SimpleCache.this.evictor.onCacheInitialized();
+          initializationDurationMs = SystemClock.elapsedRealtime() - initializationStartTimeMs;
+          initialized = true;
         }
+        validateSnapshotSpans();
       }
     }.start();
     conditionVariable.block();
@@ -269,12 +332,21 @@ public final class SimpleCache implements Cache {
    *
    * @throws CacheException If an error occurred during initialization.
    */
-  public synchronized void checkInitialization() throws CacheException {
+  public void checkInitialization() throws CacheException {
     if (initializationException != null) {
       throw initializationException;
     }
   }
 
+  /**
+   * Returns the time taken by the cache to be initialized, from its construction until it can be
+   * used, in milliseconds, or {@link C#TIME_UNSET} if it is not initialized yet. The validation of
+   * a span snapshot, which runs in the background, is not included.
+   */
+  public long getInitializationDurationMs() {
+    return initializationDurationMs;
+  }
+
   @Override
   public synchronized long getUid() {
     return uid;
@@ -289,9 +361,14 @@ public final class SimpleCache implements Cache {
     removeStaleSpans();
     try {
       contentIndex.store();
+      if (snapshotChanged) {
+        storeSnapshot();
+      }
     } catch (IOException e) {
       Log.e(TAG, "Storing index file failed", e);
     } finally {
+      // A compaction of the index may still be writing to the folder
+      contentIndex.release();
       unlockFolder(cacheDir);
       released = true;
     }
@@ -326,8 +403,9 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
     Assertions.checkState(!released);
+    waitForInitialization();
     CachedContent cachedContent = contentIndex.get(key);
     return cachedContent == null || cachedContent.isEmpty()
         ? new TreeSet<>()
@@ -335,56 +413,73 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
+  public Set<String> getKeys() {
     Assertions.checkState(!released);
+    waitForInitialization();
     return new HashSet<>(contentIndex.getKeys());
   }
 
   @Override
-  public synchronized long getCacheSpace() {
+  public long getCacheSpace() {
     Assertions.checkState(!released);
+    waitForInitialization();
     return totalSpace;
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position, long length)
+  public CacheSpan startReadWrite(String key, long position, long length)
       throws InterruptedException, CacheException {
     Assertions.checkState(!released);
+    waitForInitialization();
     checkInitialization();
 
-    while (true) {
-      CacheSpan span = startReadWriteNonBlocking(key, position, length);
-      if (span != null) {
-        return span;
-      } else {
-        // Lock not available. We'll be woken up when a span is added, or when a locked span is
-        // released. We'll be able to make progress when either:
-        // 1. A span is added for the requested key that covers the requested position, in which
-        //    case a read can be started.
-        // 2. The lock for the requested key is released, in which case a write can be started.
-        wait();
+    Object keyLock = getKeyLock(key);
+    synchronized (keyLock) {
+      while (true) {
+        CacheSpan span = startReadWriteNonBlocking(key, position, length);
+        if (span != null) {
+          return span;
+        } else {
+          // Lock not available. We'll be woken up when a span is added, or when a locked span is
+          // released. We'll be able to make progress when either:
+          // 1. A span is added for the requested key that covers the requested position, in
+          //    which case a read can be started.
+          // 2. The lock for the requested key is released, in which case a write can be started.
+          keyLock.wait();
+        }
       }
     }
   }
 
   @Override
   @Nullable
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position, long length)
+  public CacheSpan startReadWriteNonBlocking(String key, long position, long length)
       throws CacheException {
     Assertions.checkState(!released);
+    waitForInitialization();
     checkInitialization();
 
-    SimpleCacheSpan span = getSpan(key, position, length);
-
-    if (span.isCached) {
-      // Read case.
-      return touchSpan(key, span);
+    if (!touchCacheSpans) {
+      // Reads of spans which are not touched take no lock.
+      SimpleCacheSpan span = getSpan(key, position, length);
+      if (span.isCached) {
+        return span;
+      }
     }
 
-    CachedContent cachedContent = contentIndex.getOrAdd(key);
-    if (cachedContent.lockRange(position, span.length)) {
-      // Write case.
-      return span;
+    synchronized (this) {
+      SimpleCacheSpan span = getSpan(key, position, length);
+
+      if (span.isCached) {
+        // Read case.
+        return touchSpan(key, span);
+      }
+
+      CachedContent cachedContent = contentIndex.getOrAdd(key);
+      if (cachedContent.lockRange(position, span.length)) {
+        // Write case.
+        return span;
+      }
     }
 
     // Lock not available.
@@ -415,14 +510,22 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized void commitFile(File file, long length) throws CacheException {
+  public void commitFile(File file, long length) throws CacheException {
+    @Nullable String key = commitFileInternal(file, length);
+    if (key != null) {
+      notifyKeyWaiters(key);
+    }
+  }
+
+  @Nullable
+  private synchronized String commitFileInternal(File file, long length) throws CacheException {
     Assertions.checkState(!released);
     if (!file.exists()) {
-      return;
+      return null;
     }
     if (length == 0) {
       file.delete();
-      return;
+      return null;
     }
 
     SimpleCacheSpan span =
@@ -450,16 +553,18 @@ public final class SimpleCache implements Cache {
     } catch (IOException e) {
       throw new CacheException(e);
     }
-    notifyAll();
+    return span.key;
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    Assertions.checkState(!released);
-    CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
-    cachedContent.unlockRange(holeSpan.position);
-    contentIndex.maybeRemove(cachedContent.key);
-    notifyAll();
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    synchronized (this) {
+      Assertions.checkState(!released);
+      CachedContent cachedContent = Assertions.checkNotNull(contentIndex.get(holeSpan.key));
+      cachedContent.unlockRange(holeSpan.position);
+      maybeRemoveContent(cachedContent.key);
+    }
+    notifyKeyWaiters(holeSpan.key);
   }
 
   @Override
@@ -477,15 +582,17 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized boolean isCached(String key, long position, long length) {
+  public boolean isCached(String key, long position, long length) {
     Assertions.checkState(!released);
+    waitForInitialization();
     @Nullable CachedContent cachedContent = contentIndex.get(key);
     return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
   }
 
   @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
+  public long getCachedLength(String key, long position, long length) {
     Assertions.checkState(!released);
+    waitForInitialization();
     if (length == C.LENGTH_UNSET) {
       length = Long.MAX_VALUE;
     }
@@ -494,7 +601,7 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized long getCachedBytes(String key, long position, long length) {
+  public long getCachedBytes(String key, long position, long length) {
     long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
     if (endPosition < 0) {
       // The calculation rolled over (length is probably Long.MAX_VALUE).
@@ -531,11 +638,33 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized ContentMetadata getContentMetadata(String key) {
+  public ContentMetadata getContentMetadata(String key) {
     Assertions.checkState(!released);
+    waitForInitialization();
     return contentIndex.getContentMetadata(key);
   }
 
+  /** Blocks until the initialization thread, which holds the lock until done, has returned. */
+  private void waitForInitialization() {
+    if (!initialized) {
+      synchronized (this) {
+        Assertions.checkState(initialized);
+      }
+    }
+  }
+
+  private Object getKeyLock(String key) {
+    return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCK_COUNT];
+  }
+
+  /** Wakes up the callers of {@link #startReadWrite} waiting for spans of a key. */
+  private void notifyKeyWaiters(String key) {
+    Object keyLock = getKeyLock(key);
+    synchronized (keyLock) {
+      keyLock.notifyAll();
+    }
+  }
+
   /** Ensures that the cache's in-memory representation has been initialized. */
   private void initialize() {
     if (!cacheDir.exists()) {
@@ -571,6 +700,19 @@ public final class SimpleCache implements Cache {
       contentIndex.initialize(uid);
       if (fileIndex != null) {
         fileIndex.initialize(uid);
+      }
+      @Nullable List<SimpleCacheSpan> snapshotSpans = spanSnapshot.load(uid, contentIndex);
+      if (snapshotSpans != null) {
+        for (int i = 0; i < snapshotSpans.size(); i++) {
+          addSpan(snapshotSpans.get(i));
+        }
+        snapshotChanged = false;
+        // Contents may have cache files missing from the snapshot, so they are kept until the
+        // snapshot has been validated.
+        snapshotValidationPending = true;
+        return;
+      }
+      if (fileIndex != null) {
         Map<String, CacheFileMetadata> fileMetadata = fileIndex.getAll();
         loadDirectory(cacheDir, /* isRoot= */ true, files, fileMetadata);
         fileIndex.removeAll(fileMetadata.keySet());
@@ -590,6 +732,155 @@ public final class SimpleCache implements Cache {
     } catch (IOException e) {
       Log.e(TAG, "Storing index file failed", e);
     }
+    storeSnapshot();
+  }
+
+  /**
+   * Validates the spans loaded from the snapshot against the cache directory, one subdirectory at
+   * a time so that the cache remains usable. The cache files missing from the snapshot are added
+   * and the spans whose files are gone are removed. Unrecognized files are deleted, as a full scan
+   * of the directory would.
+   */
+  private void validateSnapshotSpans() {
+    @Nullable Map<String, CacheFileMetadata> fileMetadata;
+    synchronized (this) {
+      if (!snapshotValidationPending || released) {
+        return;
+      }
+      try {
+        fileMetadata = fileIndex != null ? fileIndex.getAll() : null;
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read file metadata, validating without it");
+        fileMetadata = null;
+      }
+    }
+
+    HashMap<File, Long> fileLengths = new HashMap<>();
+    @Nullable File[] rootFiles = cacheDir.listFiles();
+    if (rootFiles != null
+        && validateFiles(rootFiles, /* isRoot= */ true, fileMetadata, fileLengths)) {
+      for (File directory : rootFiles) {
+        @Nullable File[] files;
+        if (directory.getName().indexOf('.') == -1 && (files = directory.listFiles()) != null
+            && !validateFiles(files, /* isRoot= */ false, fileMetadata, fileLengths)) {
+          return;
+        }
+      }
+    }
+
+    synchronized (this) {
+      if (released) {
+        return;
+      }
+      ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
+      HashSet<String> spanFileNames = new HashSet<>();
+      for (CachedContent cachedContent : contentIndex.getAll()) {
+        for (CacheSpan span : cachedContent.getSpans()) {
+          File file = Assertions.checkNotNull(span.file);
+          @Nullable Long length = fileLengths.get(file);
+          // Files may have been added or touched since they were listed.
+          if ((length == null || length != span.length) && file.length() != span.length) {
+            spansToBeRemoved.add(span);
+          } else {
+            spanFileNames.add(file.getName());
+          }
+        }
+      }
+      for (int i = 0; i < spansToBeRemoved.size(); i++) {
+        removeSpanInternal(spansToBeRemoved.get(i));
+      }
+      if (fileIndex != null && fileMetadata != null) {
+        HashSet<String> unusedFileNames = new HashSet<>(fileMetadata.keySet());
+        unusedFileNames.removeAll(spanFileNames);
+        try {
+          fileIndex.removeAll(unusedFileNames);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to remove unused file metadata");
+        }
+      }
+      snapshotValidationPending = false;
+      contentIndex.removeEmpty();
+      try {
+        contentIndex.store();
+      } catch (IOException e) {
+        Log.e(TAG, "Storing index file failed", e);
+      }
+      storeSnapshot();
+    }
+  }
+
+  /**
+   * Adds the spans of the files of a cache directory that are missing from the in-memory
+   * representation, and deletes the files that cannot be added. Files whose name cannot be parsed
+   * are deleted, as are files whose range is already cached by another file, such as a file left
+   * behind by a touch after its range was downloaded again. Files being written are kept.
+   *
+   * @param files The files belonging to the directory.
+   * @param isRoot Whether the directory is the root directory.
+   * @param fileMetadata Cache file metadata, keyed by file name, or null if none is available.
+   * @param fileLengths A map to which the lengths of the files are added.
+   * @return Whether the validation can continue, which is not the case once the cache is released.
+   */
+  private boolean validateFiles(
+      File[] files,
+      boolean isRoot,
+      @Nullable Map<String, CacheFileMetadata> fileMetadata,
+      HashMap<File, Long> fileLengths) {
+    // File lengths are queried before taking the lock, as it is what takes time.
+    long[] lengths = new long[files.length];
+    for (int i = 0; i < files.length; i++) {
+      String fileName = files[i].getName();
+      @Nullable
+      CacheFileMetadata metadata = fileMetadata != null ? fileMetadata.get(fileName) : null;
+      if (isRoot && fileName.indexOf('.') == -1) {
+        lengths[i] = C.LENGTH_UNSET;
+      } else {
+        lengths[i] = metadata != null ? metadata.length : files[i].length();
+      }
+    }
+
+    synchronized (this) {
+      if (released) {
+        return false;
+      }
+      for (int i = 0; i < files.length; i++) {
+        File file = files[i];
+        String fileName = file.getName();
+        if (lengths[i] == C.LENGTH_UNSET
+            || (isRoot
+                && (CachedContentIndex.isIndexFile(fileName)
+                    || CacheSpanSnapshot.isSnapshotFile(fileName)
+                    || fileName.endsWith(UID_FILE_SUFFIX)))) {
+          continue;
+        }
+        fileLengths.put(file, lengths[i]);
+        @Nullable
+        CacheFileMetadata metadata = fileMetadata != null ? fileMetadata.get(fileName) : null;
+        @Nullable
+        SimpleCacheSpan span =
+            SimpleCacheSpan.createCacheEntry(
+                file,
+                lengths[i],
+                metadata != null ? metadata.lastTouchTimestamp : C.TIME_UNSET,
+                contentIndex);
+        if (span == null) {
+          file.delete();
+          continue;
+        }
+        CachedContent cachedContent = contentIndex.getOrAdd(span.key);
+        if (cachedContent.isFullyLocked(span.position, /* length= */ 1)) {
+          // The file is being written.
+          continue;
+        }
+        SimpleCacheSpan cachedSpan = cachedContent.getSpan(span.position, span.length);
+        if (!cachedSpan.isCached) {
+          addSpan(span);
+        } else if (!file.equals(cachedSpan.file)) {
+          file.delete();
+        }
+      }
+    }
+    return true;
   }
 
   /**
@@ -622,8 +913,10 @@ public final class SimpleCache implements Cache {
         loadDirectory(file, /* isRoot= */ false, file.listFiles(), fileMetadata);
       } else {
         if (isRoot
-            && (CachedContentIndex.isIndexFile(fileName) || fileName.endsWith(UID_FILE_SUFFIX))) {
-          // Skip expected UID and index files in the root directory.
+            && (CachedContentIndex.isIndexFile(fileName)
+                || CacheSpanSnapshot.isSnapshotFile(fileName)
+                || fileName.endsWith(UID_FILE_SUFFIX))) {
+          // Skip expected UID, index and snapshot files in the root directory.
           continue;
         }
         long length = C.LENGTH_UNSET;
@@ -675,6 +968,8 @@ public final class SimpleCache implements Cache {
     }
     SimpleCacheSpan newSpan =
         contentIndex.get(key).setLastTouchTimestamp(span, lastTouchTimestamp, updateFile);
+    // The snapshot holds the timestamps, and the file names that embed them.
+    snapshotChanged = true;
     notifySpanTouched(span, newSpan);
     return newSpan;
   }
@@ -698,7 +993,9 @@ public final class SimpleCache implements Cache {
       if (span.isCached && span.file.length() != span.length) {
         // The file has been modified or deleted underneath us. It's likely that other files will
         // have been modified too, so scan the whole in-memory representation.
-        removeStaleSpans();
+        synchronized (this) {
+          removeStaleSpans();
+        }
         continue;
       }
       return span;
@@ -713,6 +1010,7 @@ public final class SimpleCache implements Cache {
   private void addSpan(SimpleCacheSpan span) {
     contentIndex.getOrAdd(span.key).addSpan(span);
     totalSpace += span.length;
+    snapshotChanged = true;
     notifySpanAdded(span);
   }
 
@@ -722,6 +1020,7 @@ public final class SimpleCache implements Cache {
       return;
     }
     totalSpace -= span.length;
+    snapshotChanged = true;
     if (fileIndex != null) {
       String fileName = span.file.getName();
       try {
@@ -732,10 +1031,30 @@ public final class SimpleCache implements Cache {
         Log.w(TAG, "Failed to remove file index entry for: " + fileName);
       }
     }
-    contentIndex.maybeRemove(cachedContent.key);
+    maybeRemoveContent(cachedContent.key);
     notifySpanRemoved(span);
   }
 
+  private void maybeRemoveContent(String key) {
+    // The id of a content whose files are not all known yet must not be reassigned.
+    if (!snapshotValidationPending) {
+      contentIndex.maybeRemove(key);
+    }
+  }
+
+  private void storeSnapshot() {
+    if (initializationException != null) {
+      // The in-memory representation does not reflect the cache directory.
+      return;
+    }
+    try {
+      spanSnapshot.store(uid, contentIndex.getAll());
+      snapshotChanged = false;
+    } catch (IOException e) {
+      Log.e(TAG, "Storing span snapshot failed", e);
+    }
+  }
+
   /**
    * Scans all of the cached spans in the in-memory representation, removing any for which the
    * underlying file lengths no longer match.
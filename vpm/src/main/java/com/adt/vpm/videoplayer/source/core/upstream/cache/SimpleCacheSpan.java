@@ -130,6 +130,22 @@ import java.util.regex.Pattern;
     return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file);
   }
 
+  /**
+   * Creates a cache span whose file is known to hold its data, such as a span loaded from a
+   * {@link CacheSpanSnapshot}.
+   *
+   * @param key The cache key of the resource.
+   * @param position The position of the span in the resource.
+   * @param length The length of the span.
+   * @param lastTouchTimestamp The last touch timestamp.
+   * @param file The cache file.
+   * @return The span.
+   */
+  public static SimpleCacheSpan createCacheEntry(
+      String key, long position, long length, long lastTouchTimestamp, File file) {
+    return new SimpleCacheSpan(key, position, length, lastTouchTimestamp, file);
+  }
+
   /**
    * Upgrades the cache file if it is created by an earlier version of {@link SimpleCache}.
    *
@@ -26,6 +26,13 @@ import java.util.Arrays;
 /**
  * This class wraps a RTP packet providing method to convert from a byte array
  *
+ * A packet is a flyweight view over the byte array it was read into: header fields are decoded
+ * eagerly, while the header extension and the payload are exposed as offset/length ranges of the
+ * backing buffer (see {@link #getBuffer()}, {@link #getPayloadOffset()} and
+ * {@link #getPayloadLength()}) so that they can be consumed without being copied. The array based
+ * accessors ({@link #getPayload()}, {@link #getExtension()} and {@link #getBytes()}) are kept for
+ * compatibility and return copies.
+ *
  * A RTP packet is composed of an header and the subsequent payload. It has the following format:
  *
  *        0                   1                   2                   3
@@ -82,50 +89,82 @@ public final class RtpPacket {
     private long timestamp;
     private long ssrc;
 
-    private long[] csrc;
+    // Backing buffer and the ranges of the packet sections within it
+    private byte[] buffer;
+    private int offset;
+    private int length;
+
+    private int headerLength;
+    private int extensionOffset;
+    private int extensionLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    // Lazily materialized copies, kept for the array based accessors
+    @Nullable private long[] csrc;
+    @Nullable private byte[] hdrExtension;
+    @Nullable private byte[] payload;
+
+    @Nullable /* package */ RtpPacketPool pool;
+    // Whether the packet went back to its pool, guarded by the pool
+    /* package */ boolean released;
+
+    /**
+     * Creates an empty packet view, to be pointed at received datagrams with
+     * {@link #reset(byte[], int, int)}.
+     */
+    public RtpPacket() {
+    }
 
-    private byte[] hdrExtension;
+    RtpPacket(Builder builder) {
+        int csrcCount = builder.csrc != null ? builder.csrc.length : 0;
+        int extLen = builder.extension ? builder.hdrExtension.length : 0;
+        int payloadLen = builder.payload != null ? builder.payload.length : 0;
+        int padLen = builder.padding ? builder.padLen : 0;
+        int cscrLen = csrcCount * CSRC_SIZE;
 
-    private byte[] payload;
+        byte[] packet = new byte[RTP_HDR_SIZE + cscrLen + extLen + payloadLen + padLen];
 
-    private int extLen;
-    private int padLen;
+        // fill the header array of byte with RTP header fields
+        packet[0] = (byte)(builder.version << 6 | (padLen > 0 ? 1 : 0) << 5 |
+                (extLen > 0 ? 1 : 0) << 4 | csrcCount);
+        packet[1] = (byte)((builder.marker ? 1 : 0) << 7 | builder.payloadType & 0x7F);
+        packet[2] = (byte)(builder.sequenceNumber >> 8);
+        packet[3] = (byte)(builder.sequenceNumber & 0xFF);
+        packet[4] = (byte)(builder.timestamp >> 24);
+        packet[5] = (byte)(builder.timestamp >> 16);
+        packet[6] = (byte)(builder.timestamp >> 8);
+        packet[7] = (byte)(builder.timestamp & 0xFF);
+        packet[8] = (byte)(builder.ssrc >> 24);
+        packet[9] = (byte)(builder.ssrc >> 16);
+        packet[10] = (byte)(builder.ssrc >> 8);
+        packet[11] = (byte)(builder.ssrc & 0xFF);
 
-    RtpPacket(Builder builder) {
-        this.version = builder.version;
-        this.padding = builder.padding;
-        this.extension = builder.extension;
-        this.marker = builder.marker;
-        this.sequenceNumber = builder.sequenceNumber;
-        this.payloadType = builder.payloadType;
-        this.timestamp = builder.timestamp;
-        this.ssrc = builder.ssrc;
-        this.csrc = builder.csrc;
-        this.payload = builder.payload;
-        this.hdrExtension = builder.hdrExtension;
-        this.padLen = builder.padLen;
-
-        csrcCount = csrc != null ? csrc.length : 0;
-        extLen = (extension) ? hdrExtension.length : 0;
-    }
+        // fill the contributing source identifiers
+        for (int ndx = 0, pos = RTP_HDR_SIZE; ndx < csrcCount; ndx++, pos += CSRC_SIZE) {
+            packet[pos] = (byte) (builder.csrc[ndx] >> 24);
+            packet[pos + 1] = (byte) (builder.csrc[ndx] >> 16);
+            packet[pos + 2] = (byte) (builder.csrc[ndx] >> 8);
+            packet[pos + 3] = (byte) (builder.csrc[ndx] & 0xFF);
+        }
 
-    RtpPacket(int version, int padLen, byte[] hdrExtension, boolean marker, int payloadType,
-              int sequenceNumber, long timestamp, long ssrc, long[] csrc, byte[] payload) {
-        this.version = version;
-        this.padding = padLen > 0;
-        this.padLen = padding ? padLen : 0;
-        this.extension = hdrExtension != null && hdrExtension.length > 0;
-        this.hdrExtension = hdrExtension;
-        this.marker = marker;
-        this.payloadType = payloadType;
-        this.sequenceNumber = sequenceNumber;
-        this.timestamp = timestamp;
-        this.ssrc = ssrc;
-        this.csrc = csrc;
-        this.payload = payload;
-
-        csrcCount = csrc != null ? csrc.length : 0;
-        extLen = (extension) ? hdrExtension.length : 0;
+        // fill the extension header
+        if (extLen > 0) {
+            System.arraycopy(builder.hdrExtension, 0, packet, RTP_HDR_SIZE + cscrLen, extLen);
+        }
+
+        // fill the payload data
+        if (payloadLen > 0) {
+            System.arraycopy(builder.payload, 0, packet, RTP_HDR_SIZE + cscrLen + extLen,
+                    payloadLen);
+        }
+
+        // the padding octets are already zeroed, the last one holds the padding count
+        if (padLen > 0) {
+            packet[packet.length - 1] = (byte) padLen;
+        }
+
+        reset(packet, 0, packet.length);
     }
 
     public int getVersion() { return version; }
@@ -134,6 +173,8 @@ public final class RtpPacket {
 
     public boolean hasExtension() { return extension; }
 
+    public boolean hasPadding() { return padding; }
+
     public int getPayloadType() { return payloadType; }
 
     public int getSequenceNumber() { return sequenceNumber; }
@@ -142,161 +183,242 @@ public final class RtpPacket {
 
     public long getSsrc() { return ssrc; }
 
-    public long[] getCsrc() { return csrc; }
+    public int getCsrcCount() { return csrcCount; }
 
-    public byte[] getPayload() { return payload; }
+    /**
+     * Returns the array backing this packet. Its content is only valid until the packet is
+     * {@link #release() released}.
+     */
+    public byte[] getBuffer() { return buffer; }
 
-    public byte[] getExtension() { return hdrExtension; }
+    /** Returns the offset of the first packet octet in {@link #getBuffer()}. */
+    public int getOffset() { return offset; }
 
+    /** Returns the length of the packet as received, including header and padding. */
+    public int getLength() { return length; }
 
-    public byte[] getBytes() {
-        // build the header
-        int payloadLen = (payload == null) ? 0 : payload.length;
-        int cscrLen = csrcCount * 4;
-        byte[] packet = new byte[RTP_HDR_SIZE + cscrLen + extLen + payloadLen + padLen];
+    /** Returns the length of the fixed header and the contributing source identifiers. */
+    public int getHeaderLength() { return headerLength; }
 
-        // fill the header array of byte with RTP header fields
-        packet[0] = (byte)(version << 6 | (padding ? 1 : 0) << 5 | (extension ? 1 : 0) << 4 | csrcCount);
-        packet[1] = (byte)((marker ? 1 : 0) << 7 | payloadType & 0x000000FF);
-        packet[2] = (byte)(sequenceNumber >> 8);
-        packet[3] = (byte)(sequenceNumber & 0xFF);
-        packet[4] = (byte)(timestamp >> 24);
-        packet[5] = (byte)(timestamp >> 16);
-        packet[6] = (byte)(timestamp >> 8);
-        packet[7] = (byte)(timestamp & 0xFF);
-        packet[8] = (byte)(ssrc >> 24);
-        packet[9] = (byte)(ssrc >> 16);
-        packet[10] = (byte)(ssrc >> 8);
-        packet[11] = (byte)(ssrc & 0xFF);
+    /** Returns the offset of the header extension in {@link #getBuffer()}. */
+    public int getExtensionOffset() { return extensionOffset; }
 
-        // fill the contributing source identifiers
-        if (csrcCount > 0) {
-            for (int ndx = 0, offset = RTP_HDR_SIZE; ndx < csrcCount; ndx++, offset += 4) {
-                packet[offset] = (byte) (csrc[ndx] >> 24);
-                packet[offset + 1] = (byte) (csrc[ndx] >> 16);
-                packet[offset + 2] = (byte) (csrc[ndx] >> 8);
-                packet[offset + 3] = (byte) (csrc[ndx] & 0xFF);
+    /** Returns the length of the header extension, including its 4 octets preamble. */
+    public int getExtensionLength() { return extensionLength; }
+
+    /** Returns the offset of the payload in {@link #getBuffer()}. */
+    public int getPayloadOffset() { return payloadOffset; }
+
+    /** Returns the length of the payload, excluding any padding octets. */
+    public int getPayloadLength() { return payloadLength; }
+
+    public long[] getCsrc() {
+        if (csrc == null) {
+            csrc = new long[csrcCount];
+
+            for (int ndx = 0, pos = offset + RTP_HDR_SIZE; ndx < csrcCount;
+                 ndx++, pos += CSRC_SIZE) {
+                csrc[ndx] = ((((long)buffer[pos]) & 0xFF) << 24) |
+                        ((((long)buffer[pos + 1]) & 0xFF) << 16) |
+                        ((((long)buffer[pos + 2]) & 0xFF) << 8) |
+                        (((long)buffer[pos + 3]) & 0xFF);
             }
         }
 
-        // fill the extension header
-        if (extLen > 0) {
-            System.arraycopy(hdrExtension, 0, packet, RTP_HDR_SIZE + cscrLen, extLen);
+        return csrc;
+    }
+
+    public byte[] getPayload() {
+        if (payload == null) {
+            payload = Arrays.copyOfRange(buffer, payloadOffset, payloadOffset + payloadLength);
         }
 
-        // fill the payload data
-        if (payloadLen > 0) {
-            System.arraycopy(payload, 0, packet, RTP_HDR_SIZE + cscrLen + extLen, payloadLen);
+        return payload;
+    }
+
+    public byte[] getExtension() {
+        if (hdrExtension == null) {
+            hdrExtension = Arrays.copyOfRange(buffer, extensionOffset,
+                    extensionOffset + extensionLength);
         }
 
-        // fill the padding data
-        if (padLen > 0) {
-            int paddingStart = RTP_HDR_SIZE + cscrLen + extLen + payloadLen;
-            Arrays.fill(packet, paddingStart, paddingStart + padLen - 1, (byte)0);
+        return hdrExtension;
+    }
+
+    public byte[] getBytes() {
+        return Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+
+    /**
+     * Turns a retransmission packet (RFC 4588) back into the original packet it carries, in place.
+     * The header is moved over the original sequence number heading the payload, and given the
+     * sequence number, payload type and SSRC of the original packet.
+     *
+     * @param payloadType The payload type of the original stream.
+     * @param ssrc The SSRC of the original stream.
+     * @return Whether the packet carried a valid original packet. If not, it must be dropped.
+     */
+    public boolean unwrapRetransmission(int payloadType, long ssrc) {
+        if (payloadLength < 2) {
+            return false;
         }
 
-        return packet;
+        int originalSequence = ((buffer[payloadOffset] & 0xFF) << 8) |
+            (buffer[payloadOffset + 1] & 0xFF);
+
+        // Header and extension are contiguous and precede the original sequence number
+        int start = offset + 2;
+        System.arraycopy(buffer, offset, buffer, start, payloadOffset - offset);
+
+        buffer[start + 1] = (byte) ((buffer[start + 1] & 0x80) | (payloadType & 0x7F));
+        buffer[start + 2] = (byte) (originalSequence >> 8);
+        buffer[start + 3] = (byte) originalSequence;
+        buffer[start + 8] = (byte) (ssrc >> 24);
+        buffer[start + 9] = (byte) (ssrc >> 16);
+        buffer[start + 10] = (byte) (ssrc >> 8);
+        buffer[start + 11] = (byte) ssrc;
+
+        return reset(buffer, start, length - 2);
     }
 
+    /**
+     * Returns this packet to the {@link RtpPacketPool} it was obtained from, if any. The packet
+     * and its backing buffer must not be accessed after this call, and releasing it again is
+     * ignored.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    /**
+     * Parses a RTP packet from a copy of the first {@code length} octets of {@code packet}, so the
+     * returned packet does not depend on the content of {@code packet} after this call.
+     */
     @Nullable
     public static RtpPacket parse(byte[] packet, int length) {
-        int padLen = 0, headLen = 0, csrcLen = 0, extLen = 0;
-        int frontSkip = 0, backSkip = 0;
+        if (length < RTP_HDR_SIZE || length > packet.length) {
+            return null;
+        }
+
+        return wrap(Arrays.copyOf(packet, length), 0, length);
+    }
+
+    /**
+     * Returns a view of the RTP packet held in {@code buffer} without copying it, or null if the
+     * octets do not carry a valid RTP packet.
+     */
+    @Nullable
+    public static RtpPacket wrap(byte[] buffer, int offset, int length) {
+        RtpPacket packet = new RtpPacket();
+        return packet.reset(buffer, offset, length) ? packet : null;
+    }
+
+    /**
+     * Points this view at the RTP packet held in {@code packet}, without copying it.
+     *
+     * @param packet The array holding the packet.
+     * @param offset The offset of the packet in {@code packet}.
+     * @param length The length of the packet.
+     * @return Whether the octets carry a valid RTP packet. If not, the view is left unchanged.
+     */
+    public boolean reset(byte[] packet, int offset, int length) {
+        int headLen, csrcLen, extLen = 0, padLen = 0;
 
         if( (length < RTP_MIN_SIZE) || (length < RTP_HDR_SIZE) ) {
-            return null;
+            return false;
         }
 
         // Read the packet header
-        int version = (packet[0] & 0xC0) >> 6;
+        int version = (packet[offset] & 0xC0) >> 6;
 
         if (RTP_VERSION != version) {
-            return null;
+            return false;
         }
 
-        boolean padding = ((packet[0] & 0x20) >> 5) == 1;
-        boolean extension = ((packet[0] & 0x10) >> 4) == 1;
-        int csrcCount = packet[0] & 0x0F;
+        boolean padding = ((packet[offset] & 0x20) >> 5) == 1;
+        boolean extension = ((packet[offset] & 0x10) >> 4) == 1;
+        int csrcCount = packet[offset] & 0x0F;
 
         csrcLen = CSRC_SIZE * csrcCount;
-        headLen += RTP_HDR_SIZE + csrcLen;
+        headLen = RTP_HDR_SIZE + csrcLen;
 
-        boolean marker = ((packet[1] & 0x80) >> 7) == 1;
+        boolean marker = ((packet[offset + 1] & 0x80) >> 7) == 1;
 
         // Read and check the payload type as describe on RFC 5761 - Multiplexing RTP Data and
         // Control Packets on a Single Port according to Section 4
-        int payloadType = packet[1] & 0x7F;
+        int payloadType = packet[offset + 1] & 0x7F;
         if ((payloadType >= RtcpPacket.RTCP_PAYLOAD_MIN &&
                 payloadType <= RtcpPacket.RTCP_PAYLOAD_MAX) ||
                 (payloadType+RTP_PAYLOAD_MAX >= RtcpPacket.RTCP_PAYLOAD_MIN &&
                         payloadType+RTP_PAYLOAD_MAX <= RtcpPacket.RTCP_PAYLOAD_MAX)) {
-            return null;
+            return false;
         }
 
-        /* profile-based skip: adopted from vlc 0.8.6 code */
-        if ((RtpPacket.RTP_MPA_TYPE == payloadType) || (RtpPacket.RTP_MPV_TYPE == payloadType)) {
-            headLen += 4;
-        }
-
-        frontSkip += headLen;
-
-        if (padding) {
-            padLen = packet[length - 1];
-            backSkip += padLen;
-        }
-
-        if (length < (frontSkip + backSkip)) {
-            return null;
+        if (length < headLen) {
+            return false;
         }
 
         if (extension) {
-            if (length < RTP_HDR_SIZE + RTP_XTHDR_SIZE + csrcLen) {
-                return null;
+            if (length < headLen + RTP_XTHDR_SIZE) {
+                return false;
             }
 
             extLen = RTP_XTHDR_SIZE +
-                    4 * (((packet[RTP_HDR_SIZE + csrcLen + 2] & 0xFF) << 8) |
-                            (packet[RTP_HDR_SIZE + csrcLen + 3] & 0xFF));
+                    4 * (((packet[offset + headLen + 2] & 0xFF) << 8) |
+                            (packet[offset + headLen + 3] & 0xFF));
+        }
 
-            frontSkip += extLen;
+        int frontSkip = headLen + extLen;
+
+        /* profile-based skip: adopted from vlc 0.8.6 code */
+        if ((RtpPacket.RTP_MPA_TYPE == payloadType) || (RtpPacket.RTP_MPV_TYPE == payloadType)) {
+            frontSkip += 4;
         }
 
-        int sequenceNumber = ((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF);
+        if (padding) {
+            padLen = packet[offset + length - 1] & 0xFF;
+        }
 
-        long timestamp = ((((long)packet[4]) & 0xFF) << 24) | ((((long)packet[5]) & 0xFF) << 16) |
-                ((((long)packet[6]) & 0xFF) << 8) | (((long)packet[7]) & 0xFF);
+        if (length < (frontSkip + padLen)) {
+            return false;
+        }
 
-        long ssrc = (((((long)packet[8]) & 0xFF) << 24) | ((((long)packet[9]) & 0xFF) << 16) |
-                ((((long)packet[10]) & 0xFF) << 8) | (((long)packet[11]) & 0xFF));
+        this.version = version;
+        this.padding = padding;
+        this.extension = extension;
+        this.csrcCount = csrcCount;
+        this.marker = marker;
+        this.payloadType = payloadType;
 
-        long[] csrc;
+        this.sequenceNumber = ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
 
-        // CSRC list
-        if (csrcCount > 0) {
-            csrc = new long[csrcCount];
+        this.timestamp = ((((long)packet[offset + 4]) & 0xFF) << 24) |
+                ((((long)packet[offset + 5]) & 0xFF) << 16) |
+                ((((long)packet[offset + 6]) & 0xFF) << 8) |
+                (((long)packet[offset + 7]) & 0xFF);
 
-            for (int ndx=0, offset=RTP_HDR_SIZE; ndx < csrcCount; ndx++, offset+=4) {
-                csrc[ndx] = ((packet[offset] & 0xFF) << 24) | ((packet[offset + 1] & 0xFF) << 16) |
-                        ((packet[offset + 2] & 0xFF) << 8) | (packet[offset + 3] & 0xFF);
-            }
-        } else {
-            csrc = new long[0];
-        }
+        this.ssrc = ((((long)packet[offset + 8]) & 0xFF) << 24) |
+                ((((long)packet[offset + 9]) & 0xFF) << 16) |
+                ((((long)packet[offset + 10]) & 0xFF) << 8) |
+                (((long)packet[offset + 11]) & 0xFF);
 
-        byte[] hdrExtension;
+        this.buffer = packet;
+        this.offset = offset;
+        this.length = length;
 
-        // Read the extension header if present
-        if (extension) {
-            hdrExtension = Arrays.copyOfRange(packet, headLen, headLen + extLen);
-        } else {
-            hdrExtension = new byte[0];
-        }
+        this.headerLength = headLen;
+        this.extensionOffset = offset + headLen;
+        this.extensionLength = extLen;
+        this.payloadOffset = offset + frontSkip;
+        this.payloadLength = length - frontSkip - padLen;
 
-        // Read the payload
-        byte[] payload = Arrays.copyOfRange(packet, frontSkip, length);
+        this.csrc = null;
+        this.hdrExtension = null;
+        this.payload = null;
 
-        return new RtpPacket(version, padLen, hdrExtension, marker, payloadType,
-                sequenceNumber, timestamp, ssrc, csrc, payload);
+        return true;
     }
 
     public static int sniffHeader(ExtractorInput input) throws IOException {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of reusable {@link RtpPacket} views, each one owning a backing buffer large enough to
+ * hold a MTU sized datagram. Packets are obtained when a datagram is received and go back to the
+ * pool through {@link RtpPacket#release()} once their payload has been consumed, so that steady
+ * state reception does not allocate.
+ *
+ * Datagrams which do not fit in a pooled buffer get a dedicated one, which is dropped instead of
+ * being pooled on release.
+ */
+public final class RtpPacketPool {
+
+    /** The default size of the pooled buffers, in bytes. */
+    public static final int DEFAULT_BUFFER_SIZE = 2048;
+
+    /** The default maximum number of idle packets retained by the pool. */
+    public static final int DEFAULT_MAX_POOLED_PACKETS = 256;
+
+    private final int bufferSize;
+    private final RtpPacket[] availablePackets;
+
+    private int availableCount;
+    private long allocationCount;
+
+    public RtpPacketPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_PACKETS);
+    }
+
+    /**
+     * @param bufferSize The size of the pooled buffers, in bytes.
+     * @param maxPooledPackets The maximum number of idle packets retained by the pool.
+     */
+    public RtpPacketPool(int bufferSize, int maxPooledPackets) {
+        this.bufferSize = bufferSize;
+
+        availablePackets = new RtpPacket[maxPooledPackets];
+    }
+
+    /**
+     * Copies a received datagram into a pooled buffer and returns a view over it.
+     *
+     * @param data The array holding the datagram.
+     * @param offset The offset of the datagram in {@code data}.
+     * @param length The length of the datagram.
+     * @return The packet, or null if the datagram does not carry a valid RTP packet.
+     */
+    @Nullable
+    public RtpPacket obtain(byte[] data, int offset, int length) {
+        RtpPacket packet = acquire();
+        byte[] buffer = packet.getBuffer();
+
+        if (buffer == null || buffer.length < length) {
+            buffer = allocate(length);
+        }
+
+        System.arraycopy(data, offset, buffer, 0, length);
+
+        if (!packet.reset(buffer, 0, length)) {
+            release(packet);
+            return null;
+        }
+
+        return packet;
+    }
+
+    /**
+     * Copies a received datagram into a pooled buffer and returns a view over it. The position of
+     * {@code datagram} is only advanced if the datagram carries a valid RTP packet.
+     *
+     * @param datagram The datagram, between the position and the limit of the buffer.
+     * @return The packet, or null if the datagram does not carry a valid RTP packet.
+     */
+    @Nullable
+    public RtpPacket obtain(ByteBuffer datagram) {
+        int position = datagram.position();
+        int length = datagram.remaining();
+
+        RtpPacket packet = acquire();
+        byte[] buffer = packet.getBuffer();
+
+        if (buffer == null || buffer.length < length) {
+            buffer = allocate(length);
+        }
+
+        datagram.get(buffer, 0, length);
+
+        if (!packet.reset(buffer, 0, length)) {
+            datagram.position(position);
+            release(packet);
+            return null;
+        }
+
+        return packet;
+    }
+
+    /** Returns the number of idle packets currently retained by the pool. */
+    public synchronized int getAvailableCount() {
+        return availableCount;
+    }
+
+    /**
+     * Returns the number of packets and buffers allocated by the pool so far. Divided by the number
+     * of packets obtained, tells how far reception is from being allocation free.
+     */
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /* package */ synchronized void release(RtpPacket packet) {
+        if (packet.released) {
+            // Pooling the packet twice would hand its buffer to two holders
+            return;
+        }
+
+        packet.released = true;
+        byte[] buffer = packet.getBuffer();
+
+        if (availableCount < availablePackets.length && buffer != null &&
+                buffer.length == bufferSize) {
+            availablePackets[availableCount++] = packet;
+        }
+    }
+
+    private synchronized RtpPacket acquire() {
+        if (availableCount > 0) {
+            RtpPacket packet = availablePackets[--availableCount];
+            availablePackets[availableCount] = null;
+            packet.released = false;
+            return packet;
+        }
+
+        RtpPacket packet = new RtpPacket();
+        packet.pool = this;
+        allocationCount++;
+        return packet;
+    }
+
+    private synchronized byte[] allocate(int length) {
+        allocationCount++;
+        return new byte[Math.max(length, bufferSize)];
+    }
+}
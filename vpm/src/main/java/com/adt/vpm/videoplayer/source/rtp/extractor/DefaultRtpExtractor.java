@@ -17,6 +17,8 @@ package com.adt.vpm.videoplayer.source.rtp.extractor;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.util.ParsableByteArray;
 import com.adt.vpm.videoplayer.source.core.util.TrackIdGenerator;
@@ -28,29 +30,79 @@ import com.adt.vpm.videoplayer.source.extractor.SeekMap;
 import com.adt.vpm.videoplayer.source.extractor.UnsupportedFormatException;
 import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
 import com.adt.vpm.videoplayer.source.rtp.format.RtpPayloadFormat;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpPacketSource;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpSessionClock;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 /**
  * Facilitates the extraction of sample from stream formatted as RTP payload
  */
 public final class DefaultRtpExtractor implements Extractor {
+
+    /**
+     * Requests a keyframe from the sender of a video stream.
+     */
+    public interface KeyframeRequester {
+
+        /**
+         * Called when the video received can not be decoded until the next keyframe, then again
+         * for every frame received until it arrives. Implementations rate limit the requests.
+         */
+        void requestKeyframe();
+    }
+
     private ParsableByteArray sampleData;
     private final byte[] packetBuffer;
+    private final RtpPacket packet;
 
     private final RtpPayloadReader payloadReader;
     private final TrackIdGenerator trackIdGenerator;
 
     public DefaultRtpExtractor(RtpPayloadFormat payloadFormat,
                                TrackIdGenerator trackIdGenerator) throws UnsupportedFormatException {
+        this(payloadFormat, trackIdGenerator, null);
+    }
+
+    /**
+     * @param payloadFormat The payload format of the stream.
+     * @param trackIdGenerator The generator of the track ids.
+     * @param clock The clock placing the track on the session timeline, or null to time the
+     *     samples relative to the first sample of the track only.
+     */
+    public DefaultRtpExtractor(RtpPayloadFormat payloadFormat,
+                               TrackIdGenerator trackIdGenerator,
+                               @Nullable RtpSessionClock.Track clock)
+        throws UnsupportedFormatException {
+        this(payloadFormat, trackIdGenerator, clock, false, null);
+    }
+
+    /**
+     * @param payloadFormat The payload format of the stream.
+     * @param trackIdGenerator The generator of the track ids.
+     * @param clock The clock placing the track on the session timeline, or null to time the
+     *     samples relative to the first sample of the track only.
+     * @param dropCorruptedFrames Whether the H.264 and H.265 frames damaged by packet loss, and
+     *     the ones depending on them until the next keyframe, are dropped rather than decoded.
+     * @param keyframeRequester The requester of a keyframe after packet loss, or null if none.
+     */
+    public DefaultRtpExtractor(RtpPayloadFormat payloadFormat,
+                               TrackIdGenerator trackIdGenerator,
+                               @Nullable RtpSessionClock.Track clock,
+                               boolean dropCorruptedFrames,
+                               @Nullable KeyframeRequester keyframeRequester)
+        throws UnsupportedFormatException {
         this.trackIdGenerator = trackIdGenerator;
 
         sampleData = new ParsableByteArray();
         packetBuffer = new byte[RtpPacket.MAX_PACKET_SIZE];
+        packet = new RtpPacket();
 
-        payloadReader = new DefaultRtpPayloadReaderFactory().createPayloadReader(payloadFormat);
+        payloadReader = new DefaultRtpPayloadReaderFactory(clock, dropCorruptedFrames,
+            keyframeRequester).createPayloadReader(payloadFormat);
 
         if (payloadReader == null) {
             throw new UnsupportedFormatException("Payload reader not found for media type=[" +
@@ -82,23 +134,54 @@ public final class DefaultRtpExtractor implements Extractor {
             return RESULT_END_OF_INPUT;
 
         } else if (bytesRead > 0) {
-            try {
+            if (!packet.reset(packetBuffer, 0, bytesRead)) {
+                throw new IOException("Invalid RTP packet of " + bytesRead + " bytes");
+            }
+
+            consume(packet);
+        }
+
+        return RESULT_CONTINUE;
+    }
 
-                RtpPacket packet = RtpPacket.parse(packetBuffer, bytesRead);
-                if (payloadReader.packetStarted(packet.getTimestamp(), packet.getMarker(), packet.getSequenceNumber())) {
-                    byte[] payload = packet.getPayload();
-                    sampleData.reset(payload, payload.length);
-                    payloadReader.consume(sampleData);
-                }
+    /**
+     * Extracts samples from the next packet of a packet oriented source, consuming its payload
+     * straight from the packet buffer instead of going through an {@link ExtractorInput}.
+     *
+     * @param source The packet source to read from.
+     * @return One of the {@code RESULT_} values defined in {@link Extractor}.
+     * @throws IOException If an error occurred reading from or parsing the source.
+     */
+    public int read(RtpPacketSource source) throws IOException {
+        RtpPacket packet;
+        try {
+            packet = source.readPacket();
+        } catch (EOFException e) {
+            return RESULT_END_OF_INPUT;
+        }
 
-            } catch (NullPointerException e) {
-                throw new IOException(e);
+        if (packet != null) {
+            try {
+                consume(packet);
+            } finally {
+                packet.release();
             }
         }
 
         return RESULT_CONTINUE;
     }
 
+    private void consume(RtpPacket packet) throws IOException {
+        if (payloadReader.packetStarted(packet.getTimestamp(), packet.getMarker(),
+            packet.getSequenceNumber())) {
+            // The payload is consumed in place, straight from the packet buffer
+            sampleData.reset(packet.getBuffer(), packet.getPayloadOffset() +
+                    packet.getPayloadLength());
+            sampleData.setPosition(packet.getPayloadOffset());
+            payloadReader.consume(sampleData);
+        }
+    }
+
     @Override
     public void seek(long position, long timeUs) {
         Log.v("DefaultRtpExtractor", "position=[" + position + "], timeUs=[" + timeUs + "]");
@@ -17,10 +17,12 @@ package com.adt.vpm.videoplayer.source.rtp.extractor;
 
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.adt.vpm.videoplayer.source.rtp.format.RtpAudioPayload;
 import com.adt.vpm.videoplayer.source.rtp.format.RtpPayloadFormat;
 import com.adt.vpm.videoplayer.source.rtp.format.RtpVideoPayload;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpSessionClock;
 import com.adt.vpm.videoplayer.source.common.util.MimeTypes;
 
 /**
@@ -28,30 +30,66 @@ import com.adt.vpm.videoplayer.source.common.util.MimeTypes;
  */
 /*package*/ final class DefaultRtpPayloadReaderFactory implements RtpPayloadReader.Factory {
 
+  @Nullable private final RtpSessionClock.Track clock;
+  private final boolean dropCorruptedFrames;
+  @Nullable private final DefaultRtpExtractor.KeyframeRequester keyframeRequester;
+
+  public DefaultRtpPayloadReaderFactory() {
+    this(null);
+  }
+
+  /**
+   * @param clock The clock placing the track on the session timeline, or null to time the samples
+   *     relative to the first sample of the track only.
+   */
+  public DefaultRtpPayloadReaderFactory(@Nullable RtpSessionClock.Track clock) {
+    this(clock, false, null);
+  }
+
+  /**
+   * @param clock The clock placing the track on the session timeline, or null to time the samples
+   *     relative to the first sample of the track only.
+   * @param dropCorruptedFrames Whether the H.264 and H.265 frames damaged by packet loss, and the
+   *     ones depending on them until the next keyframe, are dropped.
+   * @param keyframeRequester The requester of a keyframe after packet loss, or null if none.
+   */
+  public DefaultRtpPayloadReaderFactory(@Nullable RtpSessionClock.Track clock,
+      boolean dropCorruptedFrames,
+      @Nullable DefaultRtpExtractor.KeyframeRequester keyframeRequester) {
+    this.clock = clock;
+    this.dropCorruptedFrames = dropCorruptedFrames;
+    this.keyframeRequester = keyframeRequester;
+  }
+
   @NonNull
   @Override
   public RtpPayloadReader createPayloadReader(RtpPayloadFormat format) {
+    RtpTimestampAdjuster timestampAdjuster =
+        new RtpTimestampAdjuster(format.getClockrate(), clock);
+
     if (MimeTypes.VIDEO_H264.equals(format.getSampleMimeType())) {
-      return new RtpH264PayloadReader((RtpVideoPayload) format);
+      return new RtpH264PayloadReader((RtpVideoPayload) format, timestampAdjuster,
+          new RtpLossConcealment(dropCorruptedFrames, keyframeRequester));
     } else if (MimeTypes.VIDEO_H265.equals(format.getSampleMimeType())) {
-      return new RtpH265PayloadReader((RtpVideoPayload)format);
+      return new RtpH265PayloadReader((RtpVideoPayload) format, timestampAdjuster,
+          new RtpLossConcealment(dropCorruptedFrames, keyframeRequester));
     } else if (MimeTypes.VIDEO_MP4V.equals(format.getSampleMimeType())) {
-      return new RtpMp4vPayloadReader((RtpVideoPayload)format);
+      return new RtpMp4vPayloadReader((RtpVideoPayload) format, timestampAdjuster);
     } else if (MimeTypes.VIDEO_VP8.equals(format.getSampleMimeType())) {
-      return new RtpVp8PayloadReader((RtpVideoPayload)format);
+      return new RtpVp8PayloadReader((RtpVideoPayload) format, timestampAdjuster);
     } else if (MimeTypes.VIDEO_VP9.equals(format.getSampleMimeType())) {
-      return new RtpVp9PayloadReader((RtpVideoPayload)format);
+      return new RtpVp9PayloadReader((RtpVideoPayload) format, timestampAdjuster);
     } else if (MimeTypes.VIDEO_MJPEG.equals(format.getSampleMimeType())) {
-      return new RtpJpegPayloadReader((RtpVideoPayload)format);
+      return new RtpJpegPayloadReader((RtpVideoPayload) format, timestampAdjuster);
     } else if (MimeTypes.AUDIO_ALAW.equals(format.getSampleMimeType()) ||
             MimeTypes.AUDIO_MLAW.equals(format.getSampleMimeType())) {
-      return new RtpG711PayloadReader((RtpAudioPayload)format);
+      return new RtpG711PayloadReader((RtpAudioPayload) format, timestampAdjuster);
     } else if (MimeTypes.AUDIO_AC3.equals(format.getSampleMimeType())) {
-      return new RtpAc3PayloadReader((RtpAudioPayload)format);
+      return new RtpAc3PayloadReader((RtpAudioPayload) format, timestampAdjuster);
     } else if (MimeTypes.AUDIO_AAC.equals(format.getSampleMimeType())) {
-      return new RtpAacPayloadReader((RtpAudioPayload)format);
+      return new RtpAacPayloadReader((RtpAudioPayload) format, timestampAdjuster);
     } else if (MimeTypes.AUDIO_MP4.equals(format.getSampleMimeType())) {
-      return new RtpMp4aPayloadReader((RtpAudioPayload)format);
+      return new RtpMp4aPayloadReader((RtpAudioPayload) format, timestampAdjuster);
     }
 
     return null;
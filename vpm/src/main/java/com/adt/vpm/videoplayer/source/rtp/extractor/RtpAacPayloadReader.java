@@ -66,7 +66,8 @@ import java.util.List;
     private final RtpTimestampAdjuster timestampAdjuster;
     private final RtpAudioPayload payloadFormat;
 
-    public RtpAacPayloadReader(RtpAudioPayload payloadFormat) {
+    public RtpAacPayloadReader(RtpAudioPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
         FormatSpecificParameters formatSpecificParameters = payloadFormat.getParameters();
@@ -77,7 +78,7 @@ import java.util.List;
         numBitsAuSize = NUM_BITS_AU_SIZES[mode];
         numBitsAuIndex = NUM_BITS_AU_INDEX[mode];
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
 
         headerScratchBits = new ParsableBitArray();
         headerScratchBytes = new ParsableByteArray();
@@ -88,9 +89,8 @@ import java.util.List;
     @Override
     public void seek(long position, long timeUs) {
         fragmentedAacFrame.reset();
-        timestampAdjuster.reset();
+        timestampAdjuster.seek(timeUs);
         lastSequenceNumber = C.POSITION_UNSET;
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
     }
 
     @Override
@@ -200,7 +200,7 @@ import java.util.List;
             if (fragmentedAacFrame.isCompleted()) {
                 if (fragmentedAacFrame.sequence() != -1 &&
                         (((fragmentedAacFrame.sequence() + 1) % 65536) == sequenceNumber)) {
-                    fragmentedAacFrame.appendFragment(packet.getData(), 0, auSize);
+                    fragmentedAacFrame.appendFragment(packet.getData(), packet.getPosition(), auSize);
                     output.sampleData(new ParsableByteArray(fragmentedAacFrame.auData,
                                     fragmentedAacFrame.auLength)
                             , fragmentedAacFrame.auLength);
@@ -215,7 +215,7 @@ import java.util.List;
             if (fragmentedAacFrame.sequence() == -1 ||
                     (((fragmentedAacFrame.sequence() + 1) % 65536) == sequenceNumber)) {
                 fragmentedAacFrame.sequence(sequenceNumber);
-                fragmentedAacFrame.appendFragment(packet.getData(), 0, auSize);
+                fragmentedAacFrame.appendFragment(packet.getData(), packet.getPosition(), auSize);
 
             } else {
                 fragmentedAacFrame.reset();
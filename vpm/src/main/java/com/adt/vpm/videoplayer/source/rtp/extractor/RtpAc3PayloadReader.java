@@ -53,10 +53,11 @@ import java.util.Arrays;
     private final RtpTimestampAdjuster timestampAdjuster;
     private final RtpAudioPayload payloadFormat;
 
-    public RtpAc3PayloadReader(RtpAudioPayload payloadFormat) {
+    public RtpAc3PayloadReader(RtpAudioPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
 
         fragmentedAc3Frame = new FragmentedAc3Frame();
         headerScratchBits = new ParsableBitArray();
@@ -67,8 +68,7 @@ import java.util.Arrays;
     public void seek(long position, long timeUs) {
         lastSequenceNumber = C.POSITION_UNSET;
         fragmentedAc3Frame.reset();
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -168,7 +168,8 @@ import java.util.Arrays;
             fragmentedAc3Frame.reset();
             fragmentedAc3Frame.sequence(sequenceNumber);
 
-            fragmentedAc3Frame.appendFragment(packet.getData(), 0, packet.bytesLeft());
+            fragmentedAc3Frame.appendFragment(packet.getData(), packet.getPosition(),
+                    packet.bytesLeft());
             pendingFragments--;
 
         } else {
@@ -182,7 +183,8 @@ import java.util.Arrays;
 
             fragmentedAc3Frame.sequence(sequenceNumber);
 
-            fragmentedAc3Frame.appendFragment(packet.getData(), 0, packet.bytesLeft());
+            fragmentedAc3Frame.appendFragment(packet.getData(), packet.getPosition(),
+                    packet.bytesLeft());
             pendingFragments--;
 
             if (pendingFragments == 0 && hasInitialFragment) {
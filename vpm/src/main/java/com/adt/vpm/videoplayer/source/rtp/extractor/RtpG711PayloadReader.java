@@ -68,21 +68,21 @@ import java.lang.annotation.RetentionPolicy;
     private final RtpTimestampAdjuster timestampAdjuster;
     private final RtpAudioPayload payloadFormat;
 
-    public RtpG711PayloadReader(RtpAudioPayload payloadFormat) {
+    public RtpG711PayloadReader(RtpAudioPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
         this.version = (RtpAudioPayload.PCMA.equals(payloadFormat.getEncoding()) ||
                 RtpAudioPayload.PCMU.equals(payloadFormat.getEncoding())) ?
                 G711_VERSION_0 : G711_VERSION_1;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
     }
 
     @Override
     public void seek(long position, long timeUs) {
         lastSequenceNumber = C.POSITION_UNSET;
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
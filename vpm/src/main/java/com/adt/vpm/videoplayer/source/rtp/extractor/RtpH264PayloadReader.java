@@ -55,6 +55,8 @@ import java.util.List;
     private final ParsableByteArray nalLength; // Stores size of an nal unit in aggregation mode
     private final ParsableByteArray nalStartCode; // Stores the nal unit start code
     private FragmentedNalUnit fragments; // To join all fragment units in an only one NAL unit
+    private final ParsableByteArray fragmentedNalUnit; // Wraps the joined fragment units
+    private final ParsableByteArray aggregatedNalUnit; // Holds a single or aggregated NAL unit
 
     private SampleReader sampleReader;
 
@@ -64,6 +66,11 @@ import java.util.List;
 
     private boolean sampleIsKeyframe;
 
+    // Whether the access unit holds an IDR slice, a reference slice, and any slice at all
+    private boolean sampleHasIdr;
+    private boolean sampleIsReference;
+    private boolean sampleHasSlice;
+
     private int lastSequenceNumber;
     private int sequenceNumber;
 
@@ -73,24 +80,37 @@ import java.util.List;
 
     private final RtpVideoPayload payloadFormat;
     private final RtpTimestampAdjuster timestampAdjuster;
+    private final RtpLossConcealment lossConcealment;
 
     private boolean hasOutputFormat;
     private int trackId;
     private String formatId;
 
-    public RtpH264PayloadReader(RtpVideoPayload payloadFormat) {
-        this(payloadFormat, true, true);
+    public RtpH264PayloadReader(RtpVideoPayload payloadFormat,
+                                RtpTimestampAdjuster timestampAdjuster) {
+        this(payloadFormat, timestampAdjuster, new RtpLossConcealment(false, null));
     }
 
     public RtpH264PayloadReader(RtpVideoPayload payloadFormat,
+                                RtpTimestampAdjuster timestampAdjuster,
+                                RtpLossConcealment lossConcealment) {
+        this(payloadFormat, timestampAdjuster, lossConcealment, true, true);
+    }
+
+    public RtpH264PayloadReader(RtpVideoPayload payloadFormat,
+                                RtpTimestampAdjuster timestampAdjuster,
+                                RtpLossConcealment lossConcealment,
                                 boolean allowNonIdrKeyframes, boolean detectAccessUnits) {
         this.payloadFormat = payloadFormat;
         this.allowNonIdrKeyframes = allowNonIdrKeyframes;
         this.detectAccessUnits = detectAccessUnits;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
+        this.lossConcealment = lossConcealment;
 
         fragments = new FragmentedNalUnit();
+        fragmentedNalUnit = new ParsableByteArray();
+        aggregatedNalUnit = new ParsableByteArray();
         nalLength = new ParsableByteArray(2);
         nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
 
@@ -101,9 +121,9 @@ import java.util.List;
     public void seek(long position, long timeUs) {
         fragments.reset();
         sampleReader.reset();
+        lossConcealment.reset();
         lastSequenceNumber = -1;
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -139,6 +159,8 @@ import java.util.List;
             timestampAdjuster.adjustSampleTimestamp(sampleTimeStamp);
         }
 
+        lossConcealment.onPacket(sampleTimeStamp, nalUnitCompleteIndicator, sequenceNumber);
+
         if (lastSequenceNumber == -1) {
             lastSequenceNumber = sequenceNumber - 1;
         }
@@ -175,14 +197,34 @@ import java.util.List;
 
     private void outputSampleMetadata() {
         if (nalUnitCompleteIndicator) {
-            @C.BufferFlags int flags = sampleIsKeyframe ? C.BUFFER_FLAG_KEY_FRAME : 0;
-            output.sampleMetadata(timestampAdjuster.getSampleTimeUs(), flags, sampleLength,
-                    0, null);
+            // The data of a dropped sample is skipped by the next sample committed
+            if (lossConcealment.onAccessUnitEnd(sampleHasIdr,
+                sampleIsReference || !sampleHasSlice)) {
+                @C.BufferFlags int flags = sampleIsKeyframe ? C.BUFFER_FLAG_KEY_FRAME : 0;
+                output.sampleMetadata(timestampAdjuster.getSampleTimeUs(), flags, sampleLength,
+                        0, null);
+            }
+
             sampleLength = 0;
             sampleIsKeyframe = false;
+            sampleHasIdr = false;
+            sampleIsReference = false;
+            sampleHasSlice = false;
+        }
+    }
+
+    private void onNalUnit(int nalUnitType, int nalRefIdc) {
+        if (nalUnitType >= NAL_UNIT_TYPE_NON_IDR && nalUnitType <= NAL_UNIT_TYPE_IDR) {
+            sampleHasSlice = true;
+            sampleHasIdr |= nalUnitType == NAL_UNIT_TYPE_IDR;
+            sampleIsReference |= nalRefIdc != 0;
         }
     }
 
+    private int getNalRefIdc(ParsableByteArray packet, int offset) {
+        return (packet.getData()[offset] >> 5) & 0x03;
+    }
+
     private int getNalUnitType(ParsableByteArray packet) {
         return getNalUnitType(packet, packet.getPosition());
     }
@@ -201,6 +243,8 @@ import java.util.List;
             sampleIsKeyframe = true;
         }
 
+        onNalUnit(nalUnitType, getNalRefIdc(packet, packet.getPosition()));
+
         if (hasOutputFormat) {
             nalStartCode.setPosition(0);
             output.sampleData(nalStartCode, nalStartCode.limit());
@@ -209,13 +253,16 @@ import java.util.List;
             sampleLength += limit + nalStartCode.limit();
 
         } else {
-            sampleReader.consume(nalUnitType, packet);
+            // The sample reader expects the NAL unit to start at offset 0
+            aggregatedNalUnit.reset(limit);
+            packet.readBytes(aggregatedNalUnit.getData(), 0, limit);
+            sampleReader.consume(nalUnitType, aggregatedNalUnit);
         }
     }
 
     private void handleAggregationNalUnit(ParsableByteArray packet) {
         int nalUnitLength;
-        int offset = 1;
+        int offset = packet.getPosition() + 1;
         int limit = packet.limit();
 
         while (offset < limit) {
@@ -227,6 +274,7 @@ import java.util.List;
             nalUnitLength = nalLength.readUnsignedShort();
 
             int nalUnitType = getNalUnitType(packet);
+            onNalUnit(nalUnitType, getNalRefIdc(packet, packet.getPosition()));
 
             //Log.v("RtpH264PayloadReader", "[Aggregation] NAL unit type=[" + nalUnitType + "]");
 
@@ -238,8 +286,10 @@ import java.util.List;
                 sampleLength += nalUnitLength + nalStartCode.limit();
 
             } else {
-                byte[] data = Arrays.copyOfRange(packet.getData(), offset + 2, offset + 2 + nalUnitLength);
-                sampleReader.consume(nalUnitType, new ParsableByteArray(data));
+                aggregatedNalUnit.reset(nalUnitLength);
+                System.arraycopy(packet.getData(), offset + 2, aggregatedNalUnit.getData(), 0,
+                    nalUnitLength);
+                sampleReader.consume(nalUnitType, aggregatedNalUnit);
             }
 
             offset += nalUnitLength + 2;
@@ -247,9 +297,10 @@ import java.util.List;
     }
 
     private void handleFragmentationNalUnit(ParsableByteArray packet) {
-        int limit = packet.bytesLeft();
-        int indicatorFU = packet.getData()[0] & 0xFF;
-        int headerFU = packet.getData()[1] & 0xFF;
+        int offset = packet.getPosition();
+        int limit = packet.limit();
+        int indicatorFU = packet.getData()[offset] & 0xFF;
+        int headerFU = packet.getData()[offset + 1] & 0xFF;
 
         /**
          * The NAL unit type octet of the fragmented NAL unit is not included as such in the
@@ -269,12 +320,13 @@ import java.util.List;
             fragments.reset();
             fragments.sequence(sequenceNumber);
 
-            //Log.v("RtpH264PayloadReader", "[Fragmented] NAL unit type=[" + nalUnitType + "]");
+            onNalUnit(nalUnitType, (indicatorFU >> 5) & 0x03);
 
-            byte[] fragmentUnit = Arrays.copyOfRange(packet.getData(), 1, limit);
-            fragmentUnit[0] = headerNAL; // replaces FU header octet to NAL unit header octet
+            //Log.v("RtpH264PayloadReader", "[Fragmented] NAL unit type=[" + nalUnitType + "]");
 
-            fragments.appendFragmentUnit(fragmentUnit, 0, fragmentUnit.length);
+            // The FU indicator and header octets are replaced by the NAL unit header octet
+            fragments.append(headerNAL);
+            fragments.appendFragmentUnit(packet.getData(), offset + 2, limit);
 
         } else {
 
@@ -285,29 +337,25 @@ import java.util.List;
 
             fragments.sequence(sequenceNumber);
 
-            byte[] fragmentUnit = Arrays.copyOfRange(packet.getData(), 2, limit);
-            fragments.appendFragmentUnit(fragmentUnit, 0, fragmentUnit.length);
+            fragments.appendFragmentUnit(packet.getData(), offset + 2, limit);
 
             boolean isLastFragmentUnit = (headerFU & 0x40) > 0;
 
             // Fragmented NAL unit end flag enabled
             if (isLastFragmentUnit) {
                 // Consume the payload of the NAL unit.
-                int length = 4 + fragments.nalLength;
-                byte[] data = new byte[length];
-
-                System.arraycopy(NalUnitUtil.NAL_START_CODE, 0, data, 0, 4);
-                System.arraycopy(fragments.nalData, 0, data, 4, fragments.nalLength);
+                fragmentedNalUnit.reset(fragments.nalData, fragments.nalLength);
 
                 if (hasOutputFormat) {
-                    sampleLength += data.length;
-                    sampleIsKeyframe = true;
+                    nalStartCode.setPosition(0);
+                    output.sampleData(nalStartCode, nalStartCode.limit());
+                    output.sampleData(fragmentedNalUnit, fragments.nalLength);
 
-                    output.sampleData(new ParsableByteArray(data), data.length);
+                    sampleLength += fragments.nalLength + nalStartCode.limit();
+                    sampleIsKeyframe = true;
 
                 } else {
-                    sampleReader.consume(nalUnitType,
-                          new ParsableByteArray(fragments.nalData, fragments.nalLength));
+                    sampleReader.consume(nalUnitType, fragmentedNalUnit);
                 }
 
                 fragments.reset();
@@ -362,6 +410,19 @@ import java.util.List;
             System.arraycopy(fragment, offset, nalData, nalLength, readLength);
             nalLength += readLength;
         }
+
+        /**
+         * Called to add a single byte to the fragmented nal unit.
+         *
+         * @param value The byte to add.
+         */
+        void append(byte value) {
+            if (nalData.length == nalLength) {
+                nalData = Arrays.copyOf(nalData, (nalLength + 1) * 2);
+            }
+
+            nalData[nalLength++] = value;
+        }
     }
 
     /**
@@ -51,6 +51,9 @@ import java.util.List;
     private static final int NAL_UNIT_TYPE_IDR_W_RADL = 19; // Coded slice of a IDR picture
     private static final int NAL_UNIT_TYPE_IDR_N_LP = 20; // Coded slice of a IDR picture*/
     private static final int NAL_UNIT_TYPE_CRA_NUT = 21; // Coded slice of a CRA picture
+    private static final int NAL_UNIT_TYPE_RSV_IRAP_VCL23 = 23; // Last IRAP picture type
+    private static final int NAL_UNIT_TYPE_RSV_VCL_N14 = 14; // Last sub-layer non-reference type
+    private static final int NAL_UNIT_TYPE_RSV_VCL31 = 31; // Last VCL type
     private static final int NAL_UNIT_TYPE_VPS_NUT = 32; // Video parameter set
     private static final int NAL_UNIT_TYPE_SPS_NUT = 33; // Sequence parameter set
     private static final int NAL_UNIT_TYPE_PPS_NUT = 34; // Picture parameter set
@@ -65,6 +68,8 @@ import java.util.List;
     private final ParsableByteArray nalLength; // Stores size of an nal unit in aggregation mode
     private final ParsableByteArray nalStartCode; // Stores the nal unit start code
     private FragmentedNalUnit fragments; // To join all fragment units in an only one NAL unit
+    private final ParsableByteArray fragmentedNalUnit; // Wraps the joined fragment units
+    private final ParsableByteArray aggregatedNalUnit; // Holds a single or aggregated NAL unit
 
     private SampleReader sampleReader;
 
@@ -74,6 +79,11 @@ import java.util.List;
 
     private boolean sampleIsKeyframe;
 
+    // Whether the access unit holds an IRAP slice, a reference slice, and any slice at all
+    private boolean sampleHasIrap;
+    private boolean sampleIsReference;
+    private boolean sampleHasSlice;
+
     private int lastSequenceNumber;
     private int sequenceNumber;
 
@@ -81,14 +91,22 @@ import java.util.List;
 
     private final RtpVideoPayload payloadFormat;
     private final RtpTimestampAdjuster timestampAdjuster;
+    private final RtpLossConcealment lossConcealment;
 
     private boolean hasOutputFormat;
     private boolean hasDonlPresent;
 
-    public RtpH265PayloadReader(RtpVideoPayload payloadFormat) {
+    public RtpH265PayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
+        this(payloadFormat, timestampAdjuster, new RtpLossConcealment(false, null));
+    }
+
+    public RtpH265PayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster, RtpLossConcealment lossConcealment) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
+        this.lossConcealment = lossConcealment;
 
         FormatSpecificParameters parameters = payloadFormat.getParameters();
         if (parameters.contains(FormatSpecificParameter.TX_MODE)) {
@@ -101,6 +119,8 @@ import java.util.List;
         }
 
         fragments = new FragmentedNalUnit();
+        fragmentedNalUnit = new ParsableByteArray();
+        aggregatedNalUnit = new ParsableByteArray();
         nalLength = new ParsableByteArray(2);
         nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
 
@@ -110,9 +130,9 @@ import java.util.List;
     @Override
     public void seek(long position, long timeUs) {
         fragments.reset();
+        lossConcealment.reset();
         lastSequenceNumber = -1;
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -147,6 +167,8 @@ import java.util.List;
             timestampAdjuster.adjustSampleTimestamp(sampleTimeStamp);
         }
 
+        lossConcealment.onPacket(sampleTimeStamp, nalUnitCompleteIndicator, sequenceNumber);
+
         if (lastSequenceNumber == -1) {
             lastSequenceNumber = sequenceNumber - 1;
         }
@@ -191,11 +213,30 @@ import java.util.List;
 
     private void outputSampleMetadata() {
         if (nalUnitCompleteIndicator) {
-            @C.BufferFlags int flags = sampleIsKeyframe ? C.BUFFER_FLAG_KEY_FRAME : 0;
-            output.sampleMetadata(timestampAdjuster.getSampleTimeUs(), flags, sampleLength,
-                0, null);
+            // The data of a dropped sample is skipped by the next sample committed
+            if (lossConcealment.onAccessUnitEnd(sampleHasIrap,
+                sampleIsReference || !sampleHasSlice)) {
+                @C.BufferFlags int flags = sampleIsKeyframe ? C.BUFFER_FLAG_KEY_FRAME : 0;
+                output.sampleMetadata(timestampAdjuster.getSampleTimeUs(), flags, sampleLength,
+                    0, null);
+            }
+
             sampleLength = 0;
             sampleIsKeyframe = false;
+            sampleHasIrap = false;
+            sampleIsReference = false;
+            sampleHasSlice = false;
+        }
+    }
+
+    private void onNalUnit(int nalUnitType) {
+        if (nalUnitType <= NAL_UNIT_TYPE_RSV_VCL31) {
+            sampleHasSlice = true;
+            sampleHasIrap |= nalUnitType >= NAL_UNIT_TYPE_BLA_W_LP &&
+                nalUnitType <= NAL_UNIT_TYPE_RSV_IRAP_VCL23;
+            // Even types up to RSV_VCL_N14 are sub-layer non-reference pictures
+            sampleIsReference |= nalUnitType > NAL_UNIT_TYPE_RSV_VCL_N14 ||
+                (nalUnitType & 1) != 0;
         }
     }
 
@@ -217,6 +258,8 @@ import java.util.List;
         int limit = packet.bytesLeft();
         int nalUnitType = getNalUnitType(packet);
 
+        onNalUnit(nalUnitType);
+
         if (hasOutputFormat) {
             nalStartCode.setPosition(0);
             output.sampleData(nalStartCode, nalStartCode.limit());
@@ -226,13 +269,16 @@ import java.util.List;
             sampleIsKeyframe = isCodedSliceSegment(nalUnitType);
 
         } else {
-            sampleReader.consume(nalUnitType, packet);
+            // The sample reader expects the NAL unit to start at offset 0
+            aggregatedNalUnit.reset(limit);
+            packet.readBytes(aggregatedNalUnit.getData(), 0, limit);
+            sampleReader.consume(nalUnitType, aggregatedNalUnit);
         }
     }
 
     private void handleAggregationNalUnit(ParsableByteArray packet) {
         int nalUnitLength;
-        int offset = 2;
+        int offset = packet.getPosition() + 2;
         int limit = packet.limit();
 
         while (offset < limit) {
@@ -244,6 +290,7 @@ import java.util.List;
             nalUnitLength = nalLength.readUnsignedShort();
 
             int nalUnitType = getNalUnitType(packet);
+            onNalUnit(nalUnitType);
 
             if (hasOutputFormat) {
                 nalStartCode.setPosition(0);
@@ -255,9 +302,10 @@ import java.util.List;
                 sampleIsKeyframe = isCodedSliceSegment(nalUnitType);
 
             } else {
-                byte[] data = Arrays.copyOfRange(packet.getData(), offset + 2, offset + 2 +
+                aggregatedNalUnit.reset(nalUnitLength);
+                System.arraycopy(packet.getData(), offset + 2, aggregatedNalUnit.getData(), 0,
                     nalUnitLength);
-                sampleReader.consume(nalUnitType, new ParsableByteArray(data));
+                sampleReader.consume(nalUnitType, aggregatedNalUnit);
             }
 
             offset += nalUnitLength + 2;
@@ -265,9 +313,10 @@ import java.util.List;
     }
 
     private void handleFragmentationNalUnit(ParsableByteArray packet) {
-        int limit = packet.bytesLeft();
-        int headerFU = packet.getData()[2] & 0xFF;
-        int nuhTemporalIdPlus1 = packet.getData()[1] & 0x03;
+        int offset = packet.getPosition();
+        int limit = packet.limit();
+        int headerFU = packet.getData()[offset + 2] & 0xFF;
+        int nuhTemporalIdPlus1 = packet.getData()[offset + 1] & 0x03;
 
         /**
          * The NAL unit type octet and the temporal identifier of the NAL unit plus 1 of the
@@ -276,8 +325,7 @@ import java.util.List;
          * F and NRI fields of the FU indicator octet of the fragmentation unit and in the type
          * field of the FU header.
          */
-        int nalUnitType = packet.getData()[2] & 0x3F;
-        byte[] headerNAL = new byte[] {(byte)(nalUnitType << 1), (byte) nuhTemporalIdPlus1};
+        int nalUnitType = packet.getData()[offset + 2] & 0x3F;
 
         sampleIsKeyframe = false;
 
@@ -288,11 +336,12 @@ import java.util.List;
             fragments.reset();
             fragments.sequence(sequenceNumber);
 
-            byte[] fragmentUnit = Arrays.copyOfRange(packet.getData(), 1, limit);
-            // replaces FU header octets to NAL unit header octets
-            System.arraycopy(headerNAL, 0, fragmentUnit, 0, 2);
+            onNalUnit(nalUnitType);
 
-            fragments.appendFragmentUnit(fragmentUnit, 0, fragmentUnit.length);
+            // The payload header and FU header octets are replaced by the NAL unit header octets
+            fragments.append((byte) (nalUnitType << 1));
+            fragments.append((byte) nuhTemporalIdPlus1);
+            fragments.appendFragmentUnit(packet.getData(), offset + 3, limit);
 
         } else {
 
@@ -303,29 +352,25 @@ import java.util.List;
 
             fragments.sequence(sequenceNumber);
 
-            byte[] fragmentUnit = Arrays.copyOfRange(packet.getData(), 3, limit);
-            fragments.appendFragmentUnit(fragmentUnit, 0, fragmentUnit.length);
+            fragments.appendFragmentUnit(packet.getData(), offset + 3, limit);
 
             boolean isLastFragmentUnit = (headerFU & 0x40) > 0;
 
             // Fragmented NAL unit end flag enabled
             if (isLastFragmentUnit) {
                 // Consume the payload of the NAL unit.
-                int length = 4 + fragments.nalLength;
-                byte[] data = new byte[length];
-
-                System.arraycopy(NalUnitUtil.NAL_START_CODE, 0, data, 0, 4);
-                System.arraycopy(fragments.nalData, 0, data, 4, fragments.nalLength);
+                fragmentedNalUnit.reset(fragments.nalData, fragments.nalLength);
 
                 if (hasOutputFormat) {
-                    sampleLength += data.length;
-                    sampleIsKeyframe = isCodedSliceSegment(nalUnitType);
+                    nalStartCode.setPosition(0);
+                    output.sampleData(nalStartCode, nalStartCode.limit());
+                    output.sampleData(fragmentedNalUnit, fragments.nalLength);
 
-                    output.sampleData(new ParsableByteArray(data), data.length);
+                    sampleLength += fragments.nalLength + nalStartCode.limit();
+                    sampleIsKeyframe = isCodedSliceSegment(nalUnitType);
 
                 } else {
-                    sampleReader.consume(nalUnitType,
-                        new ParsableByteArray(fragments.nalData, fragments.nalLength));
+                    sampleReader.consume(nalUnitType, fragmentedNalUnit);
                 }
 
                 fragments.reset();
@@ -380,6 +425,19 @@ import java.util.List;
             System.arraycopy(fragment, offset, nalData, nalLength, readLength);
             nalLength += readLength;
         }
+
+        /**
+         * Called to add a single byte to the fragmented nal unit.
+         *
+         * @param value The byte to add.
+         */
+        void append(byte value) {
+            if (nalData.length == nalLength) {
+                nalData = Arrays.copyOf(nalData, (nalLength + 1) * 2);
+            }
+
+            nalData[nalLength++] = value;
+        }
     }
 
     /**
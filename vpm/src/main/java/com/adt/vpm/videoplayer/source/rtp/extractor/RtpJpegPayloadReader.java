@@ -166,19 +166,19 @@ import java.util.Arrays;
     private final RtpTimestampAdjuster timestampAdjuster;
 
 
-    public RtpJpegPayloadReader(RtpVideoPayload payloadFormat) {
+    public RtpJpegPayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
         fragmentedJpegFrame = new FragmentedJpegFrame();
         jpegReader = new JpegHeaderReader(payloadFormat, fragmentedJpegFrame);
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
     }
 
     @Override
     public void seek(long position, long timeUs) {
         fragmentedJpegFrame.reset();
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
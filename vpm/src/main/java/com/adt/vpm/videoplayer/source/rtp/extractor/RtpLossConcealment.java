@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.extractor;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.C;
+
+/**
+ * Follows the packets lost from a video stream, to tell the access units damaged by the loss and
+ * the ones which can not be decoded until the next keyframe, as they depend on a damaged one.
+ *
+ * A loss in the middle of an access unit only damages that one, which only breaks the reference
+ * chain when other frames depend on it. A loss between two access units may have taken a whole
+ * reference frame with it, which always breaks the chain. Once broken, a keyframe is requested
+ * from the sender for every access unit received until the next keyframe.
+ */
+/* package */ final class RtpLossConcealment {
+
+    private final boolean dropCorruptedFrames;
+    @Nullable private final DefaultRtpExtractor.KeyframeRequester keyframeRequester;
+
+    private int lastSequenceNumber;
+    private long lastTimestamp;
+    private boolean lastMarker;
+
+    // Whether packets were lost from the access unit being read, and possibly from a previous one
+    private boolean accessUnitCorrupted;
+    private boolean previousAccessUnitLost;
+
+    private boolean waitingForKeyframe;
+
+    /**
+     * @param dropCorruptedFrames Whether the damaged access units, and the ones depending on them,
+     *     are dropped rather than output.
+     * @param keyframeRequester The requester of keyframes, or null if keyframes are not requested.
+     */
+    RtpLossConcealment(boolean dropCorruptedFrames,
+        @Nullable DefaultRtpExtractor.KeyframeRequester keyframeRequester) {
+        this.dropCorruptedFrames = dropCorruptedFrames;
+        this.keyframeRequester = keyframeRequester;
+
+        reset();
+    }
+
+    /** Forgets the packets seen so far, when the stream restarts. */
+    void reset() {
+        lastSequenceNumber = C.INDEX_UNSET;
+        lastMarker = true;
+        accessUnitCorrupted = false;
+        previousAccessUnitLost = false;
+        waitingForKeyframe = false;
+    }
+
+    /**
+     * Called when a packet starts, before its payload is consumed.
+     *
+     * @param timestamp The RTP timestamp of the packet.
+     * @param marker The marker bit of the packet, set on the last packet of an access unit.
+     * @param sequenceNumber The sequence number of the packet.
+     */
+    void onPacket(long timestamp, boolean marker, int sequenceNumber) {
+        if (lastSequenceNumber != C.INDEX_UNSET &&
+            sequenceNumber != ((lastSequenceNumber + 1) & 0xFFFF)) {
+            accessUnitCorrupted = true;
+
+            if (lastMarker || timestamp != lastTimestamp) {
+                previousAccessUnitLost = true;
+            }
+        }
+
+        lastSequenceNumber = sequenceNumber;
+        lastTimestamp = timestamp;
+        lastMarker = marker;
+    }
+
+    /**
+     * Called when an access unit ends, to decide whether it is output.
+     *
+     * @param isKeyframe Whether the access unit is decodable on its own.
+     * @param isReference Whether other access units may depend on the access unit.
+     * @return Whether the access unit is output, or dropped.
+     */
+    boolean onAccessUnitEnd(boolean isKeyframe, boolean isReference) {
+        boolean corrupted = accessUnitCorrupted;
+
+        if (corrupted && (isReference || previousAccessUnitLost)) {
+            waitingForKeyframe = true;
+
+        } else if (isKeyframe && !corrupted) {
+            waitingForKeyframe = false;
+        }
+
+        accessUnitCorrupted = false;
+        previousAccessUnitLost = false;
+
+        if (waitingForKeyframe && keyframeRequester != null) {
+            keyframeRequester.requestKeyframe();
+        }
+
+        return !dropCorruptedFrames || !(corrupted || waitingForKeyframe);
+    }
+}
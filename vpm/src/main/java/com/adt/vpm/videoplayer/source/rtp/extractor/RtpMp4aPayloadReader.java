@@ -41,18 +41,18 @@ import java.util.List;
 
     private final FragmentedMp4aFrame fragmentedMp4aFrame;
 
-    public RtpMp4aPayloadReader(RtpAudioPayload payloadFormat) {
+    public RtpMp4aPayloadReader(RtpAudioPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
         fragmentedMp4aFrame = new FragmentedMp4aFrame();
     }
 
     @Override
     public void seek(long position, long timeUs) {
         fragmentedMp4aFrame.reset();
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -85,7 +85,8 @@ import java.util.List;
 
     @Override
     public void consume(ParsableByteArray packet) throws ParserException {
-        fragmentedMp4aFrame.appendFragment(packet.getData(), packet.bytesLeft());
+        fragmentedMp4aFrame.appendFragment(packet.getData(), packet.getPosition(),
+            packet.bytesLeft());
 
         // Marker (M) bit: The marker bit is set to 1 to indicate that the RTP packet contains a
         // complete audioMuxElement or the last fragment of an audioMuxElement
@@ -159,12 +160,12 @@ import java.util.List;
          * @param fragment Holds the data of fragment unit being passed.
          * @param limit    The limit (exclusive) of the data in {@code fragment}.
          */
-        public void appendFragment(byte[] fragment, int limit) {
+        public void appendFragment(byte[] fragment, int offset, int limit) {
             if (data.length < length + limit) {
                 data = Arrays.copyOf(data, (length + limit) * 2);
             }
 
-            System.arraycopy(fragment, 0, data, length, limit);
+            System.arraycopy(fragment, offset, data, length, limit);
             length += limit;
         }
     }
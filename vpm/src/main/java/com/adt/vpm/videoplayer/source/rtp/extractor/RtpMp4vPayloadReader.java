@@ -42,16 +42,16 @@ import java.util.List;
 
     private boolean completeFrameIndicator;
 
-    public RtpMp4vPayloadReader(RtpVideoPayload payloadFormat) {
+    public RtpMp4vPayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
     }
 
     @Override
     public void seek(long position, long timeUs) {
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -15,45 +15,70 @@
  */
 package com.adt.vpm.videoplayer.source.rtp.extractor;
 
+import androidx.annotation.Nullable;
+
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.util.Assertions;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpSessionClock;
 
 /*package*/ final class RtpTimestampAdjuster {
   private long firstSampleTimestamp;
   private long timestampOffset;
+  private long lastSampleTimestamp;
 
   private long sampleTimestampUs;
 
   private final int clockrate;
+  @Nullable private final RtpSessionClock.Track clock;
 
   /**
    * @param clockrate The kHz clock.
    */
   public RtpTimestampAdjuster(int clockrate) {
+    this(clockrate, null);
+  }
+
+  /**
+   * @param clockrate The kHz clock.
+   * @param clock The clock placing the track on the session timeline, or null to time the samples
+   *     relative to the first sample of the track only.
+   */
+  public RtpTimestampAdjuster(int clockrate, @Nullable RtpSessionClock.Track clock) {
     this.clockrate = clockrate;
+    this.clock = clock;
     firstSampleTimestamp = C.TIME_UNSET;
+    lastSampleTimestamp = C.TIME_UNSET;
   }
 
   /** Returns the kHz clock */
   public int getClockrate() { return clockrate; }
 
   /**
-   * Offsets a timestamp in microseconds.
+   * Adjusts the RTP timestamp of a sample into microseconds. The 32 bits timestamp is extended
+   * across wraparounds, so that the time keeps increasing on long-running streams.
    *
-   * @param timeUs The timestamp to adjust in microseconds.
-   * @return The adjusted timestamp in microseconds.
+   * @param timestamp The 32 bits RTP timestamp of the sample.
    */
-  public void adjustSampleTimestamp(long timeUs) {
+  public void adjustSampleTimestamp(long timestamp) {
+    long extendedTimestamp = extendTimestamp(timestamp);
+
     if (firstSampleTimestamp == C.TIME_UNSET) {
-      firstSampleTimestamp = timeUs;
+      firstSampleTimestamp = extendedTimestamp;
     } else {
-      timestampOffset = timeUs - firstSampleTimestamp;
+      timestampOffset = extendedTimestamp - firstSampleTimestamp;
     }
 
     sampleTimestampUs = (timestampOffset * C.MICROS_PER_SECOND) / clockrate;
+
+    if (clock != null) {
+      long sessionTimeUs = clock.getSessionTimeUs(extendedTimestamp, sampleTimestampUs);
+      if (sessionTimeUs != C.TIME_UNSET) {
+        sampleTimestampUs = sessionTimeUs;
+      }
+    }
   }
 
-  /** Returns the last value passed to {@link #adjustSampleTimestamp(long)}. */
+  /** Returns the time of the last sample passed to {@link #adjustSampleTimestamp(long)}. */
   public long getSampleTimeUs() {
     return sampleTimestampUs;
   }
@@ -65,6 +90,16 @@ import com.adt.vpm.videoplayer.source.common.util.Assertions;
     sampleTimestampUs = C.TIME_UNSET;
   }
 
+  /**
+   * Notifies a seek. The timeline of the track is kept, the time is only reported as
+   * {@code timeUs} until the next sample is adjusted.
+   *
+   * @param timeUs The seek position in microseconds.
+   */
+  public void seek(long timeUs) {
+    sampleTimestampUs = timeUs;
+  }
+
   /**
    * Sets the desired result of the first call to {@link #adjustSampleTimestamp(long)}.
    *
@@ -75,4 +110,17 @@ import com.adt.vpm.videoplayer.source.common.util.Assertions;
     Assertions.checkState(sampleTimestampUs == C.TIME_UNSET);
     this.firstSampleTimestamp = firstSampleTimestampUs;
   }
+
+  private long extendTimestamp(long timestamp) {
+    if (lastSampleTimestamp == C.TIME_UNSET) {
+      lastSampleTimestamp = timestamp;
+
+    } else {
+      // Samples may go slightly backward (e.g. with B-frames), the signed difference of the 32
+      // bits timestamps is the elapsed time either way
+      lastSampleTimestamp += (int) (timestamp - lastSampleTimestamp);
+    }
+
+    return lastSampleTimestamp;
+  }
 }
@@ -45,10 +45,11 @@ import java.util.Arrays;
     private String formatId;
     private boolean hasOutputFormat;
 
-    public RtpVp8PayloadReader(RtpVideoPayload payloadFormat) {
+    public RtpVp8PayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
 
         descriptorReader = new DescriptorReader();
         fragmentedVp8Frame = new FragmentedVp8Frame();
@@ -57,8 +58,7 @@ import java.util.Arrays;
     @Override
     public void seek(long position, long timeUs) {
         fragmentedVp8Frame.reset();
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
@@ -177,7 +177,7 @@ import java.util.Arrays;
                 int optionalHeader = payload.readUnsignedByte();
                 /* Check I optional header */
                 if ((optionalHeader & 0x80) != 0) {
-                    if (payload.getData().length < 3) {
+                    if (payload.bytesLeft() < 1) {
                         return false;
                     }
 
@@ -46,10 +46,11 @@ import java.util.Arrays;
     private String formatId;
     private boolean hasOutputFormat;
 
-    public RtpVp9PayloadReader(RtpVideoPayload payloadFormat) {
+    public RtpVp9PayloadReader(RtpVideoPayload payloadFormat,
+        RtpTimestampAdjuster timestampAdjuster) {
         this.payloadFormat = payloadFormat;
 
-        timestampAdjuster = new RtpTimestampAdjuster(payloadFormat.getClockrate());
+        this.timestampAdjuster = timestampAdjuster;
 
         descriptorReader = new DescriptorReader();
         fragmentedVp9Frame = new FragmentedVp9Frame();
@@ -58,8 +59,7 @@ import java.util.Arrays;
     @Override
     public void seek(long position, long timeUs) {
         fragmentedVp9Frame.reset();
-        timestampAdjuster.reset();
-        timestampAdjuster.adjustSampleTimestamp(timeUs);
+        timestampAdjuster.seek(timeUs);
     }
 
     @Override
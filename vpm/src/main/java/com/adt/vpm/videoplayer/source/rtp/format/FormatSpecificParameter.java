@@ -77,6 +77,7 @@ public class FormatSpecificParameter {
 
     public final static String ANNEXB = "annexb";
     public final static String RTCP_FB = "rtcp-fb";
+    public final static String APT = "apt";
 
     public final static String MAXAVERAGEBITRATE = "maxaveragebitrate";
     public final static String MAXPLAYBACKRATE = "maxplaybackrate";
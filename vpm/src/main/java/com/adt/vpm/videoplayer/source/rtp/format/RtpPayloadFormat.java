@@ -65,10 +65,16 @@ public abstract class RtpPayloadFormat {
     public static final String VP8 = "VP8";
     public static final String VP9 = "VP9";
 
+    /** The encoding of the retransmission payload format, as defined in RFC 4588. */
+    public static final String RTX = "RTX";
+
     private final @MediaType int type;
     private final int payload;
     protected int bitrate;
     protected int clockrate;
+    private final int rtxPayload;
+    private final boolean nackSupported;
+    private final boolean firSupported;
 
     protected String sampleMimeType;
     private @MediaCodec String encoding;
@@ -81,6 +87,9 @@ public abstract class RtpPayloadFormat {
         this.bitrate = builder.bitrate;
         this.clockrate = builder.clockrate;
         this.parameters = builder.parameters;
+        this.rtxPayload = builder.rtxPayload;
+        this.nackSupported = builder.nackSupported;
+        this.firSupported = builder.firSupported;
 
         buildCodecData(builder.encoding);
         buildSampleMimeType();
@@ -101,6 +110,18 @@ public abstract class RtpPayloadFormat {
 
     public FormatSpecificParameters getParameters() { return parameters; }
 
+    /**
+     * Returns the payload type of the retransmission packets (RFC 4588) sent along the stream, or
+     * -1 if none.
+     */
+    public int getRtxPayload() { return rtxPayload; }
+
+    /** Returns whether the sender accepts generic NACKs (RFC 4585) for the stream. */
+    public boolean isNackSupported() { return nackSupported; }
+
+    /** Returns whether the sender accepts full intra requests (RFC 5104) for the stream. */
+    public boolean isFirSupported() { return firSupported; }
+
     private void buildCodecData(@MediaCodec String encoding) {
         switch (payload) {
             case 0:
@@ -287,6 +308,9 @@ public abstract class RtpPayloadFormat {
         @MediaCodec String encoding;
         int clockrate = -1;
         int bitrate = -1;
+        int rtxPayload = -1;
+        boolean nackSupported;
+        boolean firSupported;
 
         FormatSpecificParameters parameters = new FormatSpecificParameters();
 
@@ -324,6 +348,23 @@ public abstract class RtpPayloadFormat {
             return this;
         }
 
+        public final Builder setRtxPayload(int rtxPayload) {
+            if ((rtxPayload < 0) || (rtxPayload > 127) ) throw new NullPointerException("rtx payload is out of range");
+
+            this.rtxPayload = rtxPayload;
+            return this;
+        }
+
+        public final Builder setNackSupported(boolean nackSupported) {
+            this.nackSupported = nackSupported;
+            return this;
+        }
+
+        public final Builder setFirSupported(boolean firSupported) {
+            this.firSupported = firSupported;
+            return this;
+        }
+
         public final Builder addEncodingParameter(FormatSpecificParameter attribute) {
             if (attribute != null) {
                 parameters.add(attribute);
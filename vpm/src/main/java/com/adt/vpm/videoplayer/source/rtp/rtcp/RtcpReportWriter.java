@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.rtcp;
+
+/**
+ * Serializes compound receiver reports straight into a reusable buffer, as an allocation free
+ * alternative to building {@link RtcpRrPacket}, {@link RtcpSdesPacket} and {@link RtcpByePacket}
+ * instances for every report.
+ *
+ * A report is written by calling {@link #reset()}, {@link #writeReceiverReport} and then either
+ * {@link #writeSourceDescription}, optionally followed by a single feedback message from
+ * {@link #writeGenericNack}, {@link #writePictureLossIndication} or
+ * {@link #writeFullIntraRequest}, or {@link #writeBye}. The buffer is sized for a single report
+ * block, a CNAME up to {@link #MAX_CNAME_LENGTH} bytes and {@link #MAX_NACK_ITEMS} generic NACK
+ * items.
+ */
+public final class RtcpReportWriter {
+
+    /** The maximum length of the CNAME item, in bytes. */
+    public static final int MAX_CNAME_LENGTH = 255;
+
+    /** The maximum number of items of a generic NACK, each one covering 17 sequence numbers. */
+    public static final int MAX_NACK_ITEMS = 16;
+
+    /** The feedback message type of a generic NACK, as defined in RFC 4585. */
+    private static final int FMT_GENERIC_NACK = 1;
+    /** The feedback message type of a picture loss indication, as defined in RFC 4585. */
+    private static final int FMT_PICTURE_LOSS_INDICATION = 1;
+    /** The feedback message type of a full intra request, as defined in RFC 5104. */
+    private static final int FMT_FULL_INTRA_REQUEST = 4;
+
+    private static final int RR_LENGTH = 32;
+    private static final int SDES_MAX_LENGTH = 12 + MAX_CNAME_LENGTH + 4;
+    private static final int BYE_LENGTH = 8;
+    private static final int NACK_MAX_LENGTH = 12 + 4 * MAX_NACK_ITEMS;
+    private static final int PLI_LENGTH = 12;
+    private static final int FIR_LENGTH = 20;
+
+    private final byte[] data;
+    private int length;
+
+    public RtcpReportWriter() {
+        int feedbackMaxLength = Math.max(NACK_MAX_LENGTH, Math.max(PLI_LENGTH, FIR_LENGTH));
+        data = new byte[RR_LENGTH + Math.max(SDES_MAX_LENGTH + feedbackMaxLength, BYE_LENGTH)];
+    }
+
+    /** Returns the buffer holding the report, from offset 0 to {@link #getLength()}. */
+    public byte[] getData() {
+        return data;
+    }
+
+    /** Returns the length of the report written so far. */
+    public int getLength() {
+        return length;
+    }
+
+    /** Discards the report written so far. */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Writes a receiver report packet holding a single report block.
+     *
+     * @param ssrc The SSRC of the packet sender.
+     * @param sourceSsrc The SSRC of the reported source.
+     * @param fractionLost The fraction of packets lost since the previous report, out of 256.
+     * @param cumulativeLost The cumulative number of packets lost.
+     * @param extendedHighestSequence The extended highest sequence number received.
+     * @param jitter The interarrival jitter, in timestamp units.
+     * @param lastSenderReport The middle 32 bits of the last sender report NTP timestamp.
+     * @param delaySinceLastSenderReport The delay since the last sender report, in 1/65536 s.
+     */
+    public void writeReceiverReport(long ssrc, long sourceSsrc, int fractionLost,
+        int cumulativeLost, int extendedHighestSequence, int jitter, long lastSenderReport,
+        long delaySinceLastSenderReport) {
+        writeHeader(1, RtcpPacket.RR, RR_LENGTH);
+        writeInt(ssrc);
+
+        writeInt(sourceSsrc);
+        data[length++] = (byte) fractionLost;
+        data[length++] = (byte) (cumulativeLost >> 16);
+        data[length++] = (byte) (cumulativeLost >> 8);
+        data[length++] = (byte) cumulativeLost;
+        writeInt(extendedHighestSequence);
+        writeInt(jitter);
+        writeInt(lastSenderReport);
+        writeInt(delaySinceLastSenderReport);
+    }
+
+    /**
+     * Writes a source description packet holding the CNAME of a single source.
+     *
+     * @param ssrc The SSRC of the source.
+     * @param cname The CNAME, truncated to {@link #MAX_CNAME_LENGTH} bytes.
+     */
+    public void writeSourceDescription(long ssrc, byte[] cname) {
+        int cnameLength = Math.min(cname.length, MAX_CNAME_LENGTH);
+        // SSRC, item type and length, value and at least one null octet ending the item list
+        int chunkLength = (4 + 2 + cnameLength + 1 + 3) & ~3;
+
+        writeHeader(1, RtcpPacket.SDES, 4 + chunkLength);
+        int chunkStart = length;
+
+        writeInt(ssrc);
+        data[length++] = (byte) RtcpSdesItem.CNAME;
+        data[length++] = (byte) cnameLength;
+        System.arraycopy(cname, 0, data, length, cnameLength);
+        length += cnameLength;
+
+        while (length < chunkStart + chunkLength) {
+            data[length++] = 0;
+        }
+    }
+
+    /**
+     * Writes a goodbye packet for a single source.
+     *
+     * @param ssrc The SSRC of the source.
+     */
+    public void writeBye(long ssrc) {
+        writeHeader(1, RtcpPacket.BYE, BYE_LENGTH);
+        writeInt(ssrc);
+    }
+
+    /**
+     * Writes a transport layer feedback packet holding a generic NACK (RFC 4585), which requests
+     * the retransmission of lost packets. Sequence numbers not fitting in {@link #MAX_NACK_ITEMS}
+     * items are left out.
+     *
+     * @param ssrc The SSRC of the packet sender.
+     * @param mediaSsrc The SSRC of the source the packets were lost from.
+     * @param sequences The sequence numbers of the lost packets, in increasing order.
+     * @param count The number of sequence numbers in {@code sequences}.
+     * @return The number of sequence numbers written.
+     */
+    public int writeGenericNack(long ssrc, long mediaSsrc, int[] sequences, int count) {
+        int start = length;
+        length += 4;
+
+        writeInt(ssrc);
+        writeInt(mediaSsrc);
+
+        int items = 0;
+        int index = 0;
+        while (index < count && items < MAX_NACK_ITEMS) {
+            // The first sequence number of the item, and a bitmask of the following 16 ones
+            int packetId = sequences[index++];
+            int bitmask = 0;
+
+            while (index < count) {
+                int distance = (sequences[index] - packetId) & 0xFFFF;
+                if (distance > 16) {
+                    break;
+                }
+
+                bitmask |= 1 << (distance - 1);
+                index++;
+            }
+
+            data[length++] = (byte) (packetId >> 8);
+            data[length++] = (byte) packetId;
+            data[length++] = (byte) (bitmask >> 8);
+            data[length++] = (byte) bitmask;
+            items++;
+        }
+
+        int end = length;
+        length = start;
+        writeHeader(FMT_GENERIC_NACK, RtcpPacket.RTPFB, end - start);
+        length = end;
+
+        return index;
+    }
+
+    /**
+     * Writes a payload specific feedback packet holding a picture loss indication (RFC 4585),
+     * which requests a keyframe from the sender.
+     *
+     * @param ssrc The SSRC of the packet sender.
+     * @param mediaSsrc The SSRC of the source the picture was lost from.
+     */
+    public void writePictureLossIndication(long ssrc, long mediaSsrc) {
+        writeHeader(FMT_PICTURE_LOSS_INDICATION, RtcpPacket.PSFB, PLI_LENGTH);
+        writeInt(ssrc);
+        writeInt(mediaSsrc);
+    }
+
+    /**
+     * Writes a payload specific feedback packet holding a full intra request (RFC 5104), which
+     * requests a keyframe from the sender.
+     *
+     * @param ssrc The SSRC of the packet sender.
+     * @param mediaSsrc The SSRC of the source the keyframe is requested from.
+     * @param sequenceNumber The command sequence number, increased by one for every new request.
+     */
+    public void writeFullIntraRequest(long ssrc, long mediaSsrc, int sequenceNumber) {
+        writeHeader(FMT_FULL_INTRA_REQUEST, RtcpPacket.PSFB, FIR_LENGTH);
+        writeInt(ssrc);
+        // The media source SSRC is unused, the source is carried by the FCI entry
+        writeInt(0);
+
+        writeInt(mediaSsrc);
+        data[length++] = (byte) sequenceNumber;
+        data[length++] = 0;
+        data[length++] = 0;
+        data[length++] = 0;
+    }
+
+    private void writeHeader(int count, int packetType, int packetLength) {
+        data[length++] = (byte) ((RtcpPacket.RTCP_VERSION << 6) | (RtcpPacket.RTCP_PADDING << 5) |
+            (count & 0x1F));
+        data[length++] = (byte) packetType;
+
+        int words = (packetLength / 4) - 1;
+        data[length++] = (byte) (words >> 8);
+        data[length++] = (byte) words;
+    }
+
+    private void writeInt(long value) {
+        data[length++] = (byte) (value >> 24);
+        data[length++] = (byte) (value >> 16);
+        data[length++] = (byte) (value >> 8);
+        data[length++] = (byte) value;
+    }
+}
@@ -22,7 +22,10 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public final class RtcpOutputReportDispatcher {
 
     public interface EventListener {
-        void onOutputReport(RtcpPacket packet);
+        /**
+         * Called when a report is to be sent. {@code buffer} is only valid during the call.
+         */
+        void onOutputReport(byte[] buffer, int length);
     }
 
     private final CopyOnWriteArraySet<EventListener> listeners;
@@ -40,11 +43,21 @@ public final class RtcpOutputReportDispatcher {
     public void dispatch(RtcpPacket rtcpPacket) {
         if (opened) {
             if (rtcpPacket != null) {
-                handleOutgoingReport(rtcpPacket);
+                byte[] bytes = rtcpPacket.getBytes();
+                handleOutgoingReport(bytes, bytes.length);
             }
         }
     }
 
+    /**
+     * Dispatches a serialized report, without allocating.
+     */
+    public void dispatch(byte[] buffer, int length) {
+        if (opened) {
+            handleOutgoingReport(buffer, length);
+        }
+    }
+
     public void close() {
         if (opened) {
             opened = false;
@@ -59,9 +72,9 @@ public final class RtcpOutputReportDispatcher {
         listeners.remove(listener);
     }
 
-    private void handleOutgoingReport(RtcpPacket packet) {
+    private void handleOutgoingReport(byte[] buffer, int length) {
         for (EventListener listener : listeners) {
-            listener.onOutputReport(packet);
+            listener.onOutputReport(buffer, length);
         }
     }
 
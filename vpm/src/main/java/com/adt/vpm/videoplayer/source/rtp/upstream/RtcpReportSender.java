@@ -20,6 +20,7 @@ import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpPacket;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -34,6 +35,9 @@ import java.util.concurrent.RejectedExecutionException;
     private final EventListener listener;
     private final UdpDataSink dataSink;
 
+    // Reports waiting for the executor each own a buffer, returned here once sent
+    private final ArrayDeque<PendingReport> freeReports = new ArrayDeque<>();
+
     RtcpReportSender(UdpDataSink dataSink, EventListener listener) {
         this.dataSink = dataSink;
         this.listener = listener;
@@ -45,24 +49,23 @@ import java.util.concurrent.RejectedExecutionException;
         }
     }
 
-    synchronized void send(final RtcpPacket packet) {
-        try {
-
-            executorService.execute(() -> {
-                try {
+    /**
+     * Sends a serialized report. The report is copied, so {@code buffer} can be reused as soon as
+     * this method returns, and reports sent from several threads do not overwrite each other.
+     */
+    synchronized void send(byte[] buffer, int length) {
+        PendingReport report = freeReports.pollFirst();
+        if (report == null) {
+            report = new PendingReport();
+        }
 
-                    if (packet != null && dataSink != null) {
-                        byte[] bytes = packet.getBytes();
-                        dataSink.write(bytes, 0, bytes.length);
-                    }
+        try {
 
-                } catch (IOException ex) {
-                    // Do nothing
-                }
-            });
+            report.set(buffer, length);
+            executorService.execute(report);
 
         } catch (RejectedExecutionException ex) {
-            // Do nothing
+            freeReports.addFirst(report);
 
         } finally {
             listener.onReportSent();
@@ -90,4 +93,39 @@ import java.util.concurrent.RejectedExecutionException;
             // Do nothing
         }
     }
-}
\ No newline at end of file
+
+    private synchronized void recycle(PendingReport report) {
+        freeReports.addFirst(report);
+    }
+
+    private final class PendingReport implements Runnable {
+
+        private byte[] data = new byte[0];
+        private int length;
+
+        void set(byte[] buffer, int length) {
+            if (data.length < length) {
+                data = new byte[length];
+            }
+
+            System.arraycopy(buffer, 0, data, 0, length);
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            try {
+
+                if (length > 0 && dataSink != null) {
+                    dataSink.write(data, 0, length);
+                }
+
+            } catch (IOException ex) {
+                // Do nothing
+
+            } finally {
+                recycle(this);
+            }
+        }
+    }
+}
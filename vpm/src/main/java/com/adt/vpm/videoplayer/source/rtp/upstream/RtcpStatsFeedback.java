@@ -21,13 +21,7 @@ import com.adt.vpm.videoplayer.source.common.ExoPlayerLibraryInfo;
 import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
 import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSink;
 import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSinkSource;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpByePacket;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpChunk;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpCompoundPacket;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpPacket;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpReportBlock;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpRrPacket;
-import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSdesItem;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpReportWriter;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSdesPacket;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSenderInfo;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSrPacket;
@@ -43,6 +37,10 @@ import java.util.concurrent.RejectedExecutionException;
 
     private static final long REPORT_INTERVAL = 5000;
 
+    // Bounds of the interval between two keyframe requests, doubled while no keyframe comes
+    private static final long MIN_KEYFRAME_REQUEST_INTERVAL = 250;
+    private static final long MAX_KEYFRAME_REQUEST_INTERVAL = 4000;
+
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     private static final long MIDDLE_32_BITS_OUT_OF_64_BITS = 0x0000ffffffff0000L;
@@ -52,7 +50,12 @@ import java.util.concurrent.RejectedExecutionException;
     private volatile long lastSrTimestamp;
     private volatile long arrivalSrTimestamp;
 
+    private final RtpQueue samplesQueue;
+
+    // Reused for every report
     private final RtpStats statistics;
+    private final RtcpReportWriter reportWriter;
+    private final byte[] cname;
 
     /**
      * The packets expected in last interval.
@@ -69,38 +72,44 @@ import java.util.concurrent.RejectedExecutionException;
 
     private boolean isLastReport;
 
+    // Guarded by the report writer
+    private long lastKeyframeWaitTimestamp;
+    private long lastKeyframeRequestTimestamp;
+    private long keyframeRequestInterval;
+    private int fullIntraRequestSequence;
+
     private RtcpReportReceiver receiver;
     private RtcpReportSender sender;
 
     private UdpDataSinkSource dataSinkSource;
     private RtcpOutputReportDispatcher reportDispatcher;
 
-    RtcpStatsFeedback(RtpStats statistics) {
-        this.statistics = statistics;
+    private volatile RtpSessionClock.Track clock;
+
+    RtcpStatsFeedback(RtpQueue samplesQueue) {
+        this(samplesQueue, (RtcpOutputReportDispatcher) null);
 
         dataSinkSource = new UdpDataSinkSource();
 
         sender = new RtcpReportSender(dataSinkSource, this);
         receiver = new RtcpReportReceiver(dataSinkSource, this);
-
-        localSsrc = new Random().nextLong();
-        remoteSsrc = Long.MIN_VALUE;
     }
 
-    RtcpStatsFeedback(RtpStats statistics, UdpDataSink dataSink) {
-        this.statistics = statistics;
+    RtcpStatsFeedback(RtpQueue samplesQueue, UdpDataSink dataSink) {
+        this(samplesQueue, (RtcpOutputReportDispatcher) null);
 
         sender = new RtcpReportSender(dataSink, this);
-
-        localSsrc = new Random().nextLong();
-        remoteSsrc = Long.MIN_VALUE;
     }
 
-    RtcpStatsFeedback(RtpStats statistics,
+    RtcpStatsFeedback(RtpQueue samplesQueue,
                              RtcpOutputReportDispatcher outgoingReportDispatcher) {
-        this.statistics = statistics;
+        this.samplesQueue = samplesQueue;
         this.reportDispatcher = outgoingReportDispatcher;
 
+        statistics = new RtpStats();
+        reportWriter = new RtcpReportWriter();
+        cname = ExoPlayerLibraryInfo.VERSION_SLASHY.getBytes();
+
         localSsrc = new Random().nextLong();
         remoteSsrc = Long.MIN_VALUE;
     }
@@ -140,6 +149,13 @@ import java.util.concurrent.RejectedExecutionException;
         }
     }
 
+    /**
+     * Sets the clock the received sender reports are forwarded to.
+     */
+    void setClock(RtpSessionClock.Track clock) {
+        this.clock = clock;
+    }
+
     public void close() {
         if (opened) {
             opened = false;
@@ -163,6 +179,11 @@ import java.util.concurrent.RejectedExecutionException;
                 MIDDLE_32_BITS_OUT_OF_64_BITS) >>> 16;
 
         arrivalSrTimestamp = System.currentTimeMillis();
+
+        RtpSessionClock.Track clock = this.clock;
+        if (clock != null) {
+            clock.onSenderReport(srPacket);
+        }
     }
 
     @Override
@@ -202,29 +223,108 @@ import java.util.concurrent.RejectedExecutionException;
         notifyFeedbackReport();
     }
 
+    /**
+     * Sends a receiver report early, followed by a generic NACK requesting the retransmission of
+     * lost packets from the remote source.
+     *
+     * @param sequences The sequence numbers of the lost packets, in increasing order.
+     * @param count The number of sequence numbers in {@code sequences}.
+     */
+    void sendGenericNack(int[] sequences, int count) {
+        if (!opened || remoteSsrc == Long.MIN_VALUE) {
+            return;
+        }
+
+        synchronized (reportWriter) {
+            if (isLastReport) {
+                return;
+            }
+
+            writeReport();
+            reportWriter.writeGenericNack(localSsrc, remoteSsrc, sequences, count);
+            sendReport();
+        }
+    }
+
+    /**
+     * Sends a receiver report early, followed by a request for a keyframe from the remote source.
+     * Requests are sent at most every interval, which starts at
+     * {@link #MIN_KEYFRAME_REQUEST_INTERVAL} and doubles up to
+     * {@link #MAX_KEYFRAME_REQUEST_INTERVAL} while the keyframe is still being waited for, that
+     * is while this is called for every frame received.
+     *
+     * @param useFullIntraRequest Whether a full intra request is sent, rather than a picture loss
+     *     indication.
+     */
+    void requestKeyframe(boolean useFullIntraRequest) {
+        if (!opened || remoteSsrc == Long.MIN_VALUE) {
+            return;
+        }
+
+        synchronized (reportWriter) {
+            if (isLastReport) {
+                return;
+            }
+
+            long nowTimestamp = System.currentTimeMillis();
+
+            // A pause in the calls means the previous keyframe came, so the wait starts over
+            if (nowTimestamp - lastKeyframeWaitTimestamp > MIN_KEYFRAME_REQUEST_INTERVAL) {
+                keyframeRequestInterval = 0;
+            }
+            lastKeyframeWaitTimestamp = nowTimestamp;
+
+            if (nowTimestamp - lastKeyframeRequestTimestamp < keyframeRequestInterval) {
+                return;
+            }
+
+            keyframeRequestInterval = Math.max(MIN_KEYFRAME_REQUEST_INTERVAL,
+                Math.min(2 * keyframeRequestInterval, MAX_KEYFRAME_REQUEST_INTERVAL));
+            lastKeyframeRequestTimestamp = nowTimestamp;
+
+            writeReport();
+            if (useFullIntraRequest) {
+                reportWriter.writeFullIntraRequest(localSsrc, remoteSsrc,
+                    fullIntraRequestSequence++);
+
+            } else {
+                reportWriter.writePictureLossIndication(localSsrc, remoteSsrc);
+            }
+            sendReport();
+        }
+    }
+
     private void notifyFeedbackReport() {
-        RtcpPacket packet = buildReportPacket();
+        synchronized (reportWriter) {
+            writeReport();
+            sendReport();
+        }
+    }
+
+    // Called holding the report writer lock
+    private void sendReport() {
         if (reportDispatcher != null) {
-            reportDispatcher.dispatch(packet);
+            reportDispatcher.dispatch(reportWriter.getData(), reportWriter.getLength());
 
             if (isLastReport) {
                 release();
             }
 
         } else if (sender != null) {
-            sender.send(packet);
+            sender.send(reportWriter.getData(), reportWriter.getLength());
         }
     }
 
-    private RtcpPacket buildReportPacket() {
-        RtpStats statsInfo = statistics.clone();
-        int extendedMax = statsInfo.cycles + statsInfo.maxSequence;
-        int expected = extendedMax - (statsInfo.baseSequence + 1);
-        int lost = Math.min(expected - statsInfo.received, 0xFFFFFF);
+    private void writeReport() {
+        samplesQueue.copyStats(statistics);
+
+        int extendedMax = statistics.cycles + statistics.maxSequence;
+        int expected = extendedMax - (statistics.baseSequence + 1);
+        int lost = Math.min(expected - statistics.received, 0xFFFFFF);
         int expectedInterval = expected - expectedPrior;
         expectedPrior = expected;
-        int receivedInterval = statsInfo.received - receivedPrior;
-        receivedPrior = statsInfo.received;
+        int receivedInterval = statistics.received - receivedPrior;
+        receivedPrior = statistics.received;
         int lostInterval = expectedInterval - receivedInterval;
         int fractionLost = (expectedInterval == 0 || lostInterval <= 0) ? 0
             : (lostInterval << 8) / expectedInterval;
@@ -235,47 +335,16 @@ import java.util.concurrent.RejectedExecutionException;
             delaySinceLastSr =  ((nowTimestamp - arrivalSrTimestamp) * 65536) / 1000;
         }
 
-        RtcpReportBlock reportBlock = new RtcpReportBlock.Builder()
-                .setSsrc(remoteSsrc)
-                .setFractionLost(fractionLost)
-                .setCumulativeNumberOfPacketsLost(lost)
-                .setExtendedHighestSequenceNumberReceived(extendedMax)
-                .setInterarrivalJitter(statsInfo.jitter)
-                .setLastSenderReport(lastSrTimestamp)
-                .setDelaySinceLastSenderReport(delaySinceLastSr)
-                .build();
-
-        RtcpRrPacket rrPacket = new RtcpRrPacket.Builder()
-                .setSsrc(localSsrc)
-                .setReportBlocks(new RtcpReportBlock[]{reportBlock})
-                .build();
-
-        RtcpCompoundPacket.Builder builder = new RtcpCompoundPacket.Builder()
-                .addPacket(rrPacket);
+        reportWriter.reset();
+        reportWriter.writeReceiverReport(localSsrc, remoteSsrc, fractionLost, lost, extendedMax,
+            statistics.jitter, lastSrTimestamp, delaySinceLastSr);
 
         if (isLastReport) {
-            RtcpByePacket byePacket = new RtcpByePacket.Builder()
-                    .setSsrcs(new long[] {remoteSsrc})
-                    .build();
-
-            builder.addPacket(byePacket);
+            reportWriter.writeBye(remoteSsrc);
 
         } else {
-            RtcpSdesPacket sdesPacket = new RtcpSdesPacket.Builder()
-                    .setChunks(new RtcpChunk[]{new RtcpChunk.Builder()
-                            .setSsrc(localSsrc)
-                            .setSdesItems(new RtcpSdesItem[]{new RtcpSdesItem
-                                    .Builder()
-                                    .setType(RtcpSdesItem.CNAME)
-                                    .setValue(ExoPlayerLibraryInfo.VERSION_SLASHY.getBytes())
-                                    .build()})
-                            .build()})
-                    .build();
-
-            builder.addPacket(sdesPacket);
+            reportWriter.writeSourceDescription(localSsrc, cname);
         }
-
-        return builder.build();
     }
 
     private void onReceivedDelaySinceLastReport() {
@@ -17,83 +17,34 @@ package com.adt.vpm.videoplayer.source.rtp.upstream;
 
 import android.net.Uri;
 
+import androidx.annotation.Nullable;
+
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
 import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSource;
 import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
-import java.util.Timer;
-import java.util.TimerTask;
-
-public final class RtpBufferedDataSource extends UdpDataSource {
-
-    private final class TimeoutMonitor {
-        private Timer timer;
-        private TimerTask timerTask;
-
-        private boolean started;
-
-        public void start() {
-            if (!started) {
-                started = true;
-                timer = new Timer();
-                buildAndScheduleTask();
-            }
-        }
 
-        public void reset() {
-            if (started) {
-                timerTask.cancel();
-                timer.cancel();
-                timer.purge();
+public final class RtpBufferedDataSource extends UdpDataSource implements RtpPacketSource {
 
-            } else {
-                started = true;
-            }
-
-            timer = new Timer();
-            buildAndScheduleTask();
-        }
+    /** The time without receiving packets after which the source is canceled, in milliseconds. */
+    private static final long READ_TIMEOUT_MS = 12000;
 
-        public void stop() {
-            if (started) {
-                timer.cancel();
-                timer.purge();
-                started = false;
-            }
-        }
-
-        private void buildAndScheduleTask() {
-            timerTask = new TimerTask() {
-                public void run() {
-                    if (bytesRead > 0) {
-                        bytesRead = 0;
-                    } else {
-                        canceled = true;
-                    }
-                }
-            };
-
-            try {
-                timer.schedule(timerTask, 12000);
-            } catch (IllegalStateException ex) {
-                // Do nothing
-            }
-        }
-    }
+    /** The maximum time a read waits for a packet to be queued, in milliseconds. */
+    private static final long POLL_TIMEOUT_MS = 50;
 
     private Uri uri;
     private boolean opened;
 
     private volatile boolean canceled;
-    private volatile long bytesRead;
-    private TimeoutMonitor timeoutMonitor;
+    private final RtpTimeoutMonitor timeoutMonitor;
 
     private RtcpInputReportDispatcher reportDispatcher;
 
-    private RtpStats stats;
     private RtcpStatsFeedback statsFeedback;
 
     private volatile RtpQueue samplesQueue;
@@ -106,17 +57,26 @@ public final class RtpBufferedDataSource extends UdpDataSource {
         RtcpInputReportDispatcher incomingReportDispatcher,
         RtcpOutputReportDispatcher outgoingReportDispatcher) {
         this.samplesQueue = samplesQueue;
-        timeoutMonitor = new TimeoutMonitor();
+        timeoutMonitor = new RtpTimeoutMonitor(READ_TIMEOUT_MS, () -> canceled = true);
 
         if (incomingReportDispatcher != null && outgoingReportDispatcher != null) {
-            stats = new RtpStats();
-            statsFeedback = new RtcpStatsFeedback(stats, outgoingReportDispatcher);
+            statsFeedback = new RtcpStatsFeedback(samplesQueue, outgoingReportDispatcher);
 
             reportDispatcher = incomingReportDispatcher;
             reportDispatcher.addListener(statsFeedback);
         }
     }
 
+    /**
+     * Sets the clock placing the stream on the session timeline, fed with the received sender
+     * reports. Only effective when report dispatchers were given.
+     */
+    public void setClock(RtpSessionClock.Track clock) {
+        if (statsFeedback != null) {
+            statsFeedback.setClock(clock);
+        }
+    }
+
     @Override
     public long open(DataSpec dataSpec) throws IOException {
         uri = dataSpec.uri;
@@ -136,38 +96,55 @@ public final class RtpBufferedDataSource extends UdpDataSource {
 
     @Override
     public int read(byte[] buffer, int offset, int readLength) throws IOException {
-        if (opened && !canceled) {
-            /* There is no reordering on stream sockets */
-            RtpPacket packet = samplesQueue.pop();
-            if (packet != null) {
+        RtpPacket packet;
+        try {
+            packet = readPacket();
+        } catch (EOFException e) {
+            return C.RESULT_END_OF_INPUT;
+        }
 
-                if (stats != null) {
-                    if (statsFeedback.getRemoteSsrc() == Long.MIN_VALUE) {
-                        statsFeedback.setRemoteSsrc(packet.getSsrc());
-                    }
+        if (packet != null) {
+            int length = packet.getLength();
+            System.arraycopy(packet.getBuffer(), packet.getOffset(), buffer, offset, length);
+            packet.release();
+            return length;
+        }
 
-                    stats.update(samplesQueue.getStats());
-                }
+        return C.RESULT_NOTHING_READ;
+    }
 
-                byte[] bytes = packet.getBytes();
-                System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+    @Override
+    @Nullable
+    public RtpPacket readPacket() throws IOException {
+        if (opened && !canceled) {
+            /* There is no reordering on stream sockets */
+            RtpPacket packet;
+            try {
+                packet = samplesQueue.pop(POLL_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
 
-                bytesTransferred(bytes.length);
-                bytesRead += bytes.length;
+            if (packet != null) {
 
-                timeoutMonitor.reset();
+                if (statsFeedback != null &&
+                    statsFeedback.getRemoteSsrc() == Long.MIN_VALUE) {
+                    statsFeedback.setRemoteSsrc(packet.getSsrc());
+                }
 
-                return bytes.length;
+                bytesTransferred(packet.getLength());
+                timeoutMonitor.onActivity();
             }
 
-            return C.RESULT_NOTHING_READ;
+            return packet;
         }
 
         if (canceled) {
             throw new SocketTimeoutException();
         }
 
-        return C.RESULT_END_OF_INPUT;
+        throw new EOFException();
     }
 
     @Override
@@ -180,10 +157,10 @@ public final class RtpBufferedDataSource extends UdpDataSource {
         if (opened) {
             opened = false;
             timeoutMonitor.stop();
+            samplesQueue.reset();
 
-            if (stats != null) {
+            if (statsFeedback != null) {
                 reportDispatcher.removeListener(statsFeedback);
-                samplesQueue.reset();
                 statsFeedback.close();
             }
 
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
+import com.adt.vpm.videoplayer.source.common.util.Log;
+import com.adt.vpm.videoplayer.source.core.upstream.UdpChannelDataSource;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacketPool;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpPacket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Receives the RTP and RTCP packets of every track of a session on a single UDP socket, RTCP
+ * being multiplexed with RTP (RFC 5761), and demultiplexes them to the queue and the report
+ * dispatcher of each track.
+ *
+ * Packets are routed by SSRC. A track whose SSRC was not announced in its transport is bound to
+ * the first unknown SSRC received with its payload type. A single thread receives the packets of
+ * all the tracks, which read them from their queue as interleaved tracks do.
+ */
+public final class RtpBundleSource {
+
+    private static final String TAG = "RtpBundleSource";
+
+    private static final String THREAD_NAME = "RtpBundleSource:Receiver";
+
+    /** The time the receiver thread waits for a datagram before checking for closing. */
+    private static final int SOCKET_TIMEOUT_MS = 500;
+
+    private static final long SSRC_UNSET = Long.MIN_VALUE;
+
+    /**
+     * A track receiving its packets from the bundle.
+     */
+    public static final class Track {
+
+        private final int payloadType;
+        private final RtpQueue samplesQueue;
+        @Nullable private final RtcpInputReportDispatcher reportDispatcher;
+
+        private volatile long ssrc;
+
+        private Track(int payloadType, RtpQueue samplesQueue,
+            @Nullable RtcpInputReportDispatcher reportDispatcher) {
+            this.payloadType = payloadType;
+            this.samplesQueue = samplesQueue;
+            this.reportDispatcher = reportDispatcher;
+
+            ssrc = SSRC_UNSET;
+        }
+
+        /**
+         * Sets the SSRC of the track, as announced in its transport, so that its packets are
+         * routed by SSRC from the first one.
+         */
+        public void setSsrc(long ssrc) {
+            this.ssrc = ssrc;
+        }
+    }
+
+    private final UdpChannelDataSource dataSource;
+    private final UdpChannelDataSource.DatagramConsumer datagramConsumer;
+    private final RtpPacketPool packetPool;
+    private final CopyOnWriteArrayList<Track> tracks;
+    private final byte[] reportBuffer;
+
+    @Nullable private Thread thread;
+    private volatile boolean opened;
+
+    /**
+     * @param receiveBufferSize The socket receive buffer size, in bytes, shared by all the tracks.
+     */
+    public RtpBundleSource(int receiveBufferSize) {
+        dataSource = new UdpChannelDataSource(RtpPacket.MAX_PACKET_SIZE, receiveBufferSize,
+            SOCKET_TIMEOUT_MS, UdpChannelDataSource.DEFAULT_MAX_BATCH_SIZE);
+        datagramConsumer = this::onDatagram;
+        packetPool = new RtpPacketPool();
+        tracks = new CopyOnWriteArrayList<>();
+        reportBuffer = new byte[RtpPacket.MAX_PACKET_SIZE];
+    }
+
+    /**
+     * Binds the socket to a local port and starts receiving.
+     *
+     * @param localPort The local port.
+     * @throws IOException If the socket could not be bound.
+     */
+    public synchronized void open(int localPort) throws IOException {
+        if (opened) {
+            return;
+        }
+
+        dataSource.open(new DataSpec(Uri.parse("rtp://0.0.0.0:" + localPort),
+            DataSpec.FLAG_FORCE_BOUND_LOCAL_ADDRESS));
+        opened = true;
+
+        thread = new Thread(this::receive, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Returns whether the socket is bound and receiving. */
+    public boolean isOpened() {
+        return opened;
+    }
+
+    /** Returns the local port the socket is bound to. */
+    public int getLocalPort() {
+        return dataSource.getLocalPort();
+    }
+
+    /**
+     * Adds a track to the bundle.
+     *
+     * @param payloadType The payload type of the track, which routes its packets until its SSRC is
+     *     known.
+     * @param samplesQueue The queue the RTP packets of the track are offered to.
+     * @param reportDispatcher The dispatcher of the RTCP packets sent by the source of the track,
+     *     or null if RTCP is not supported.
+     * @return The track, to remove it once done.
+     */
+    public Track addTrack(int payloadType, RtpQueue samplesQueue,
+        @Nullable RtcpInputReportDispatcher reportDispatcher) {
+        Track track = new Track(payloadType, samplesQueue, reportDispatcher);
+        tracks.add(track);
+        return track;
+    }
+
+    /** Removes a track from the bundle, whose packets are dropped from then on. */
+    public void removeTrack(Track track) {
+        tracks.remove(track);
+    }
+
+    /**
+     * Sends a datagram from the bundle socket, such as an RTCP report or a NAT punch packet.
+     *
+     * @param buffer The buffer holding the datagram.
+     * @param offset The offset of the datagram in the buffer.
+     * @param length The length of the datagram.
+     * @param address The destination address.
+     * @param port The destination port.
+     * @throws IOException If an error occurs sending the datagram.
+     */
+    public void send(byte[] buffer, int offset, int length, InetAddress address, int port)
+        throws IOException {
+        if (opened) {
+            dataSource.writeTo(buffer, offset, length, address, port);
+        }
+    }
+
+    /** Stops receiving and closes the socket. */
+    public void close() {
+        Thread thread;
+
+        synchronized (this) {
+            if (!opened) {
+                return;
+            }
+
+            opened = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+
+        if (thread != null) {
+            // Wakes the receiver up from the selector
+            thread.interrupt();
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        dataSource.close();
+        tracks.clear();
+    }
+
+    // Internal methods
+
+    private void receive() {
+        while (opened) {
+            try {
+                dataSource.receive(datagramConsumer);
+
+            } catch (IOException e) {
+                if (opened) {
+                    Log.w(TAG, "Receiving failed: " + e.getMessage());
+                }
+
+                break;
+            }
+        }
+    }
+
+    private void onDatagram(ByteBuffer datagram) {
+        RtpPacket packet = packetPool.obtain(datagram);
+
+        if (packet != null) {
+            Track track = findTrack(packet.getSsrc(), packet.getPayloadType());
+
+            if (track != null) {
+                track.samplesQueue.offer(packet);
+
+            } else {
+                packet.release();
+            }
+
+        } else {
+            onReport(datagram);
+        }
+    }
+
+    private void onReport(ByteBuffer datagram) {
+        int length = datagram.remaining();
+        if (length < 8) {
+            return;
+        }
+
+        datagram.get(reportBuffer, 0, length);
+
+        // Every RTCP packet starts with the SSRC of its sender, right after the common header
+        long ssrc = ((reportBuffer[4] & 0xFFL) << 24) | ((reportBuffer[5] & 0xFFL) << 16) |
+            ((reportBuffer[6] & 0xFFL) << 8) | (reportBuffer[7] & 0xFFL);
+
+        for (Track track : tracks) {
+            if (track.ssrc == ssrc) {
+                if (track.reportDispatcher != null) {
+                    track.reportDispatcher.dispatch(RtcpPacket.parse(reportBuffer, length));
+                }
+
+                break;
+            }
+        }
+    }
+
+    @Nullable
+    private Track findTrack(long ssrc, int payloadType) {
+        Track candidate = null;
+
+        for (Track track : tracks) {
+            if (track.ssrc == ssrc) {
+                return track;
+            }
+
+            if (candidate == null && track.ssrc == SSRC_UNSET &&
+                track.payloadType == payloadType) {
+                candidate = track;
+            }
+        }
+
+        if (candidate != null) {
+            // Binds the source to the track, later packets of it are routed by SSRC
+            candidate.ssrc = ssrc;
+        }
+
+        return candidate;
+    }
+}
@@ -16,41 +16,69 @@
 package com.adt.vpm.videoplayer.source.rtp.upstream;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
-import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSinkSource;
+import com.adt.vpm.videoplayer.source.core.upstream.UdpChannelDataSource;
+import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSource;
 import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacketPool;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpCompoundPacket;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpPacket;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpReportWriter;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSdesPacket;
 import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSrPacket;
 
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
 
-public final class RtpDataSource extends UdpDataSinkSource {
+public final class RtpDataSource extends UdpChannelDataSource implements RtpPacketSource {
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef(flag = true, value = {FLAG_ENABLE_RTCP_FEEDBACK, FLAG_FORCE_RTCP_MULTIPLEXING})
+    @IntDef(flag = true, value = {FLAG_ENABLE_RTCP_FEEDBACK, FLAG_FORCE_RTCP_MULTIPLEXING,
+        FLAG_ENABLE_NACK_FEEDBACK})
     public @interface Flags {}
     public static final int FLAG_ENABLE_RTCP_FEEDBACK = 1;
     public static final int FLAG_FORCE_RTCP_MULTIPLEXING = 1 << 1;
+    /**
+     * Requests the retransmission of the packets missing from the queue with generic NACKs
+     * (RFC 4585). Requires {@link #FLAG_ENABLE_RTCP_FEEDBACK}, and a reordering queue.
+     */
+    public static final int FLAG_ENABLE_NACK_FEEDBACK = 1 << 2;
+
+    /** The duration of stream the socket receive buffer is sized for, in milliseconds. */
+    public static final int RECEIVE_BUFFER_DURATION_MS = 500;
+
+    /** The maximum socket receive buffer size, in bytes. */
+    private static final int MAX_RECEIVE_BUFFER_SIZE = 8 * 1024 * 1024;
 
     private final @Flags int flags;
     private final byte[] packetBuffer;
+    private final RtpPacketPool packetPool;
     private final RtpQueue samplesQueue;
+    private final DatagramConsumer datagramConsumer;
 
-    private RtpStats statistics;
     private RtcpStatsFeedback statsFeedback;
 
+    @Nullable private RtpNackGenerator nackGenerator;
+    @Nullable private int[] nackSequences;
+
+    // Payload type of the retransmission packets (RFC 4588), and of the packets they carry
+    private int retransmissionPayloadType;
+    private int payloadType;
+    private long mediaSsrc;
+
+    private volatile boolean useFullIntraRequest;
+
     public RtpDataSource(RtpQueue samplesQueue) {
-        this(samplesQueue,0, DEFAULT_RECEIVE_BUFFER_SIZE);
+        this(samplesQueue, 0, UdpDataSource.DEFAULT_RECEIVE_BUFFER_SIZE);
     }
 
     public RtpDataSource(RtpQueue samplesQueue, @Flags int flags) {
-        this(samplesQueue, flags, DEFAULT_RECEIVE_BUFFER_SIZE);
+        this(samplesQueue, flags, UdpDataSource.DEFAULT_RECEIVE_BUFFER_SIZE);
     }
 
     public RtpDataSource(RtpQueue samplesQueue, @Flags int flags, int bufferSize) {
@@ -60,15 +88,22 @@ public final class RtpDataSource extends UdpDataSinkSource {
         this.samplesQueue = samplesQueue;
 
         packetBuffer = new byte[RtpPacket.MAX_PACKET_SIZE];
+        packetPool = new RtpPacketPool();
+        datagramConsumer = this::onDatagram;
+        retransmissionPayloadType = C.INDEX_UNSET;
+        mediaSsrc = Long.MIN_VALUE;
 
         if (isSet(FLAG_ENABLE_RTCP_FEEDBACK)) {
-            statistics = new RtpStats();
-
             if (isSet(FLAG_FORCE_RTCP_MULTIPLEXING)) {
-                statsFeedback = new RtcpStatsFeedback(statistics, this);
+                statsFeedback = new RtcpStatsFeedback(samplesQueue, this);
 
             } else {
-                statsFeedback = new RtcpStatsFeedback(statistics);
+                statsFeedback = new RtcpStatsFeedback(samplesQueue);
+            }
+
+            if (isSet(FLAG_ENABLE_NACK_FEEDBACK)) {
+                nackGenerator = new RtpNackGenerator(samplesQueue);
+                nackSequences = new int[RtcpReportWriter.MAX_NACK_ITEMS];
             }
         }
     }
@@ -79,6 +114,47 @@ public final class RtpDataSource extends UdpDataSinkSource {
         }
     }
 
+    /**
+     * Sets the payload type of the retransmission packets (RFC 4588) sent along the stream, which
+     * are turned back into the packets they carry.
+     *
+     * @param retransmissionPayloadType The payload type of the retransmission packets.
+     * @param payloadType The payload type of the stream, associated with the retransmission one.
+     */
+    public void setRetransmissionPayloadType(int retransmissionPayloadType, int payloadType) {
+        this.retransmissionPayloadType = retransmissionPayloadType;
+        this.payloadType = payloadType;
+    }
+
+    /**
+     * Sets whether keyframes are requested with full intra requests (RFC 5104), rather than with
+     * picture loss indications (RFC 4585).
+     */
+    public void setFullIntraRequestEnabled(boolean useFullIntraRequest) {
+        this.useFullIntraRequest = useFullIntraRequest;
+    }
+
+    /**
+     * Requests a keyframe from the sender, when the picture is corrupted by lost packets. Repeated
+     * requests are throttled with an increasing interval. Only effective when RTCP feedback is
+     * enabled.
+     */
+    public void requestKeyframe() {
+        if (isSet(FLAG_ENABLE_RTCP_FEEDBACK)) {
+            statsFeedback.requestKeyframe(useFullIntraRequest);
+        }
+    }
+
+    /**
+     * Sets the clock placing the stream on the session timeline, fed with the received sender
+     * reports. Only effective when RTCP feedback is enabled.
+     */
+    public void setClock(RtpSessionClock.Track clock) {
+        if (isSet(FLAG_ENABLE_RTCP_FEEDBACK)) {
+            statsFeedback.setClock(clock);
+        }
+    }
+
     @Override
     public long open(DataSpec dataSpec) throws IOException {
         long bytes = super.open(dataSpec);
@@ -98,75 +174,118 @@ public final class RtpDataSource extends UdpDataSinkSource {
 
     @Override
     public int read(byte[] buffer, int offset, int readLength) throws IOException {
-        int bytesRead = super.read(packetBuffer, 0, RtpPacket.MAX_PACKET_SIZE);
+        RtpPacket packet = readPacket();
 
-        if (bytesRead > 0) {
+        if (packet != null) {
+            int length = packet.getLength();
+            System.arraycopy(packet.getBuffer(), packet.getOffset(), buffer, offset, length);
+            packet.release();
+            return length;
+        }
 
-            RtpPacket packet = RtpPacket.parse(packetBuffer, bytesRead);
+        return C.RESULT_NOTHING_READ;
+    }
 
-            if (packet != null) {
+    @Override
+    @Nullable
+    public RtpPacket readPacket() throws IOException {
+        RtpPacket packet = samplesQueue.pop();
 
-                samplesQueue.offer(packet);
+        if (packet == null && receive(datagramConsumer) != C.RESULT_NOTHING_READ) {
+            packet = samplesQueue.pop();
+        }
+
+        if (packet != null && isSet(FLAG_ENABLE_RTCP_FEEDBACK) &&
+            statsFeedback.getRemoteSsrc() == Long.MIN_VALUE) {
+            statsFeedback.setRemoteSsrc(packet.getSsrc());
+        }
 
-                packet = samplesQueue.pop();
+        if (nackGenerator != null) {
+            int count = nackGenerator.poll(System.currentTimeMillis(), nackSequences);
+            if (count > 0) {
+                statsFeedback.sendGenericNack(nackSequences, count);
+            }
+        }
 
-                if (packet != null) {
+        return packet;
+    }
 
-                    if (isSet(FLAG_ENABLE_RTCP_FEEDBACK)) {
-                        if (statsFeedback.getRemoteSsrc() == Long.MIN_VALUE) {
-                            statsFeedback.setRemoteSsrc(packet.getSsrc());
-                        }
+    /**
+     * Returns a socket receive buffer size able to absorb {@link #RECEIVE_BUFFER_DURATION_MS} of a
+     * stream, so that the socket does not overrun while the loader is briefly held up.
+     *
+     * @param bitrate The stream bitrate announced in the SDP b=AS line, in kbps, or a non positive
+     *     value if unknown.
+     * @param minBufferSize The minimum buffer size, in bytes.
+     * @return The receive buffer size, in bytes.
+     */
+    public static int getReceiveBufferSize(int bitrate, int minBufferSize) {
+        if (bitrate <= 0) {
+            return minBufferSize;
+        }
+
+        long bufferSize = ((long) bitrate * 1000 / C.BITS_PER_BYTE) * RECEIVE_BUFFER_DURATION_MS /
+            1000;
+        return (int) Math.max(minBufferSize, Math.min(bufferSize, MAX_RECEIVE_BUFFER_SIZE));
+    }
 
-                        statistics.update(samplesQueue.getStats());
-                    }
+    private void onDatagram(ByteBuffer datagram) {
+        RtpPacket packet = packetPool.obtain(datagram);
+
+        if (packet != null) {
+            if (packet.getPayloadType() == retransmissionPayloadType) {
+                if (mediaSsrc == Long.MIN_VALUE ||
+                    !packet.unwrapRetransmission(payloadType, mediaSsrc)) {
+                    packet.release();
+                    return;
+                }
 
-                    byte[] bytes = packet.getBytes();
-                    System.arraycopy(bytes, 0, buffer, offset, bytes.length);
-                    return bytes.length;
+                if (nackGenerator != null) {
+                    nackGenerator.onRetransmission(packet.getSequenceNumber(),
+                        System.currentTimeMillis());
                 }
 
-                return C.RESULT_NOTHING_READ;
+                samplesQueue.offerRetransmission(packet);
 
             } else {
+                mediaSsrc = packet.getSsrc();
+                samplesQueue.offer(packet);
+            }
 
-                if (isSet(FLAG_ENABLE_RTCP_FEEDBACK | FLAG_FORCE_RTCP_MULTIPLEXING)) {
-                    RtcpPacket rtcpPacket = RtcpPacket.parse(packetBuffer, bytesRead);
+        } else if (isSet(FLAG_ENABLE_RTCP_FEEDBACK | FLAG_FORCE_RTCP_MULTIPLEXING)) {
+            int length = datagram.remaining();
+            datagram.get(packetBuffer, 0, length);
 
-                    if (rtcpPacket != null) {
-                        @RtcpPacket.PacketType int packetType = rtcpPacket.getPayloadType();
+            RtcpPacket rtcpPacket = RtcpPacket.parse(packetBuffer, length);
 
-                        switch (packetType) {
-                            case RtcpPacket.SR:
-                                statsFeedback.onSenderReport((RtcpSrPacket) rtcpPacket);
-                                break;
+            if (rtcpPacket != null) {
+                @RtcpPacket.PacketType int packetType = rtcpPacket.getPayloadType();
 
-                            case RtcpPacket.COMPOUND:
-                                RtcpCompoundPacket compoundPacket = (RtcpCompoundPacket)rtcpPacket;
+                switch (packetType) {
+                    case RtcpPacket.SR:
+                        statsFeedback.onSenderReport((RtcpSrPacket) rtcpPacket);
+                        break;
 
-                                for (RtcpPacket simpleRtcpPacket : compoundPacket.getPackets()) {
-                                    switch (simpleRtcpPacket.getPayloadType()) {
-                                        case RtcpPacket.SR:
-                                            statsFeedback.onSenderReport(
-                                                (RtcpSrPacket) simpleRtcpPacket);
-                                            break;
+                    case RtcpPacket.COMPOUND:
+                        RtcpCompoundPacket compoundPacket = (RtcpCompoundPacket)rtcpPacket;
 
-                                        case RtcpPacket.SDES:
-                                            statsFeedback.onSourceDescription(
-                                                (RtcpSdesPacket) simpleRtcpPacket);
-                                            break;
-                                    }
-                                }
+                        for (RtcpPacket simpleRtcpPacket : compoundPacket.getPackets()) {
+                            switch (simpleRtcpPacket.getPayloadType()) {
+                                case RtcpPacket.SR:
+                                    statsFeedback.onSenderReport((RtcpSrPacket) simpleRtcpPacket);
+                                    break;
 
-                                break;
+                                case RtcpPacket.SDES:
+                                    statsFeedback.onSourceDescription(
+                                        (RtcpSdesPacket) simpleRtcpPacket);
+                                    break;
+                            }
                         }
-                    }
-                }
 
-                return C.RESULT_NOTHING_READ;
+                        break;
+                }
             }
         }
-
-        return bytesRead;
     }
 
     @Override
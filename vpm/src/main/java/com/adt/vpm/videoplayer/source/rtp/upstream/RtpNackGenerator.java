@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import java.util.Arrays;
+
+/**
+ * Decides which packets missing from a reordering {@link RtpQueue} have their retransmission
+ * requested with a generic NACK (RFC 4585), and how long the queue waits for them.
+ *
+ * A missing packet is first requested once it has been missing for longer than the jitter, so
+ * that reordered packets are not requested, then again every retransmission timeout until it
+ * arrives, is given up on by the queue, or was requested {@link #MAX_REQUESTS} times. Requests
+ * are sent at most every {@link #MIN_FEEDBACK_INTERVAL_MS}, and the round trip time they are
+ * timed with is estimated from the retransmissions answering a first request.
+ *
+ * Only used by the thread receiving the packets.
+ */
+/* package */ final class RtpNackGenerator {
+
+    /** The maximum number of times the retransmission of a packet is requested. */
+    static final int MAX_REQUESTS = 3;
+    /** The minimum interval between two requests, in milliseconds. */
+    static final long MIN_FEEDBACK_INTERVAL_MS = 20;
+
+    private static final long INITIAL_ROUND_TRIP_TIME_MS = 100;
+    private static final long MAX_ROUND_TRIP_TIME_MS = 1000;
+
+    private static final int MAX_MISSING_PACKETS = 256;
+
+    private final RtpQueue queue;
+    private final int[] missingSequences;
+
+    // Request state of the missing packets, indexed by sequence number & mask
+    private final int mask;
+    private final int[] requestSequences;
+    private final int[] requestCounts;
+    private final long[] missingTimestamps;
+    private final long[] requestTimestamps;
+
+    private long lastFeedbackTimestamp;
+    private long roundTripTimeMs;
+
+    /**
+     * @param queue The reordering queue the missing packets are looked for in.
+     */
+    RtpNackGenerator(RtpQueue queue) {
+        this.queue = queue;
+
+        missingSequences = new int[MAX_MISSING_PACKETS];
+        mask = MAX_MISSING_PACKETS - 1;
+        requestSequences = new int[MAX_MISSING_PACKETS];
+        requestCounts = new int[MAX_MISSING_PACKETS];
+        missingTimestamps = new long[MAX_MISSING_PACKETS];
+        requestTimestamps = new long[MAX_MISSING_PACKETS];
+        Arrays.fill(requestSequences, -1);
+
+        setRoundTripTime(INITIAL_ROUND_TRIP_TIME_MS);
+    }
+
+    /**
+     * Returns the packets whose retransmission is to be requested now.
+     *
+     * @param nowMs The current time, in milliseconds.
+     * @param sequences The array receiving the 16-bit sequence numbers of the packets, in
+     *     increasing order.
+     * @return The number of packets to request, which is 0 when no request is due.
+     */
+    int poll(long nowMs, int[] sequences) {
+        if (nowMs - lastFeedbackTimestamp < MIN_FEEDBACK_INTERVAL_MS) {
+            return 0;
+        }
+
+        int missingCount = queue.getMissingSequences(missingSequences);
+        long reorderDelayMs = Math.min(queue.getJitterMs(), RtpQueue.DELAY_REORDER_MS);
+        long timeoutMs = roundTripTimeMs + roundTripTimeMs / 2;
+        int count = 0;
+
+        for (int i = 0; i < missingCount && count < sequences.length; i++) {
+            int sequence = missingSequences[i];
+            int index = sequence & mask;
+
+            if (requestSequences[index] != sequence) {
+                // Newly missing
+                requestSequences[index] = sequence;
+                requestCounts[index] = 0;
+                missingTimestamps[index] = nowMs;
+            }
+
+            if (requestCounts[index] == 0) {
+                if (nowMs - missingTimestamps[index] < reorderDelayMs) {
+                    continue;
+                }
+
+            } else if (requestCounts[index] >= MAX_REQUESTS ||
+                nowMs - requestTimestamps[index] < timeoutMs) {
+                continue;
+            }
+
+            requestCounts[index]++;
+            requestTimestamps[index] = nowMs;
+            sequences[count++] = sequence & (RtpQueue.RTP_SEQ_MOD - 1);
+        }
+
+        if (count > 0) {
+            lastFeedbackTimestamp = nowMs;
+        }
+
+        return count;
+    }
+
+    /**
+     * Called when a retransmitted packet is received.
+     *
+     * @param sequence The 16-bit sequence number of the packet.
+     * @param nowMs The current time, in milliseconds.
+     */
+    void onRetransmission(int sequence, long nowMs) {
+        int index = sequence & mask;
+
+        if ((requestSequences[index] & (RtpQueue.RTP_SEQ_MOD - 1)) != sequence) {
+            return;
+        }
+
+        // Packets requested more than once can not tell which request they answer
+        if (requestCounts[index] == 1) {
+            long sampleMs = Math.min(nowMs - requestTimestamps[index], MAX_ROUND_TRIP_TIME_MS);
+            setRoundTripTime(roundTripTimeMs + (sampleMs - roundTripTimeMs) / 8);
+        }
+
+        requestCounts[index] = MAX_REQUESTS;
+    }
+
+    private void setRoundTripTime(long roundTripTimeMs) {
+        this.roundTripTimeMs = roundTripTimeMs;
+
+        // Long enough for a retransmission answering the first or the second request
+        queue.setRetransmissionDelayMs(2 * roundTripTimeMs);
+    }
+}
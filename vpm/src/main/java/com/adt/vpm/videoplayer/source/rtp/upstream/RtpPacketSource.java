@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A source of whole RTP packets, read without going through the byte stream
+ * {@link com.adt.vpm.videoplayer.source.common.upstream.DataSource#read(byte[], int, int)} API.
+ */
+public interface RtpPacketSource {
+
+    /**
+     * Reads the next packet, in playout order. The caller owns the returned packet and must
+     * {@link RtpPacket#release() release} it once its payload has been consumed.
+     *
+     * @return The next packet, or null if none is available yet.
+     * @throws EOFException If the end of the input has been reached.
+     * @throws IOException If an error occurs reading from the source.
+     */
+    @Nullable
+    RtpPacket readPacket() throws IOException;
+}
@@ -115,7 +115,7 @@ import java.util.TreeSet;
 
             } else {
                 if (sequenceDelta >= MAX_DROPOUT) {
-                    packets.clear();
+                    clear();
                     stats.maxSequence = sequence;
                     stats.baseSequence = sequence;
                     lastSequence = sequence;
@@ -129,7 +129,8 @@ import java.util.TreeSet;
                 packets.add(new RtpPriorityPacket(packet, arrivalTimestamp));
 
             } else {
-                // Do nothing.
+                // Too late or duplicated, hand the buffer back.
+                packet.release();
                 return;
             }
         }
@@ -167,8 +168,8 @@ import java.util.TreeSet;
             }
 
             // Make sure we wait at least for min delay established
-            if (deadlineTimestamp < delayMs) {
-                deadlineTimestamp = delayMs;
+            if (deadlineTimestamp < delayMs * 1000) {
+                deadlineTimestamp = delayMs * 1000;
             }
 
             deadlineTimestamp /= 1000;
@@ -180,6 +181,7 @@ import java.util.TreeSet;
                 int deltaSequence = packet.getSequenceNumber() - ((stats.baseSequence + 1) % RTP_SEQ_MOD);
                 if (deltaSequence != 0 && deltaSequence >= 0x8000) {
                     // Trash too late packets
+                    packet.release();
                     stats.baseSequence = expected.getSequenceNumber();
                     lastSequence = stats.baseSequence;
                     return null;
@@ -196,7 +198,15 @@ import java.util.TreeSet;
 
     @Override
     public synchronized void reset() {
-        packets.clear();
+        clear();
         isStarted = false;
     }
+
+    private void clear() {
+        for (RtpPriorityPacket sample : packets) {
+            sample.packet().release();
+        }
+
+        packets.clear();
+    }
 }
@@ -15,12 +15,11 @@
  */
 package com.adt.vpm.videoplayer.source.rtp.upstream;
 
-import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
 
 public abstract class RtpQueue {
 
-    public static final long DELAY_REORDER_MS = (C.MICROS_PER_SECOND / 40); // 25 msec
+    public static final long DELAY_REORDER_MS = 25; // 25 msec
 
     static final int MAX_DROPOUT = 3000;
     static final int RTP_SEQ_MOD = 1<<16;
@@ -38,8 +37,33 @@ public abstract class RtpQueue {
         return new RtpSimpleQueue(clockrate);
     }
 
+    /**
+     * Creates a non reordering queue for packets offered by a single thread and popped by another
+     * single thread, whose consumer can block in {@link #pop(long)} until a packet is offered.
+     *
+     * @param clockrate The RTP clock rate of the stream.
+     */
+    public static RtpQueue createSpscQueue(int clockrate) {
+        return new RtpSpscQueue(clockrate, RtpSpscQueue.DEFAULT_CAPACITY);
+    }
+
     public static RtpQueue createPriorityQueue(int clockrate, long delayMs) {
-        return new RtpPriorityQueue(clockrate, delayMs);
+        return createPriorityQueue(clockrate, delayMs, true);
+    }
+
+    /**
+     * Creates a reordering queue.
+     *
+     * @param clockrate The RTP clock rate of the stream.
+     * @param delayMs The minimum time a missing packet is waited for, in milliseconds.
+     * @param useRingBuffer Whether to use the array backed ring buffer, or the sorted set based
+     *     implementation.
+     */
+    public static RtpQueue createPriorityQueue(int clockrate, long delayMs,
+        boolean useRingBuffer) {
+        return useRingBuffer ?
+            new RtpRingQueue(clockrate, delayMs, RtpRingQueue.DEFAULT_CAPACITY) :
+            new RtpPriorityQueue(clockrate, delayMs);
     }
 
     RtpQueue(int clockrate) {
@@ -52,28 +76,119 @@ public abstract class RtpQueue {
         long arrivalTimestamp = System.currentTimeMillis();
 
         if (isStarted) {
-            long timestampDelta = ((arrivalTimestamp - lastArrivalTimestamp) * clockrate) /
-                C.MICROS_PER_SECOND;
-            timestampDelta -= sentTimestamp - lastSentTimestamp;
-
-            if (timestampDelta < 0) {
-                timestampDelta = -timestampDelta;
-            }
-
-            stats.jitter += ((timestampDelta - stats.jitter) + 8) >> 4;
+            stats.jitter = estimateJitter(stats.jitter, arrivalTimestamp - lastArrivalTimestamp,
+                sentTimestamp - lastSentTimestamp);
         }
 
         lastSentTimestamp = sentTimestamp;
         lastArrivalTimestamp = arrivalTimestamp;
     }
 
+    /**
+     * Returns the interarrival jitter estimate updated with a packet.
+     *
+     * @param jitter The current estimate, in RTP clock units.
+     * @param arrivalDeltaMs The time elapsed since the arrival of the previous packet, in
+     *     milliseconds.
+     * @param sentDelta The RTP timestamp difference with the previous packet.
+     */
+    final int estimateJitter(int jitter, long arrivalDeltaMs, long sentDelta) {
+        // Arrival times are in milliseconds, converted to the RTP clock units
+        long timestampDelta = (arrivalDeltaMs * clockrate) / 1000;
+        timestampDelta -= sentDelta;
+
+        if (timestampDelta < 0) {
+            timestampDelta = -timestampDelta;
+        }
+
+        return (int) (jitter + (((timestampDelta - jitter) + 8) >> 4));
+    }
+
     public abstract void offer(RtpPacket packet);
 
+    /**
+     * Offers a retransmitted packet, which is left out of the jitter estimation since it arrives
+     * late by design.
+     */
+    void offerRetransmission(RtpPacket packet) {
+        offer(packet);
+    }
+
     public abstract RtpPacket pop();
 
+    /**
+     * Pops the next packet, waiting up to {@code timeoutMs} for one when the queue supports it.
+     * Queues which do not support waiting return immediately.
+     *
+     * @param timeoutMs The maximum time to wait for a packet, in milliseconds.
+     * @return The next packet, or null if none is available.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public RtpPacket pop(long timeoutMs) throws InterruptedException {
+        return pop();
+    }
+
     public abstract void reset();
 
-    final synchronized RtpStats getStats() {
-        return stats.clone();
+    /**
+     * Copies the extended sequence numbers of the packets missing between the next packet to play
+     * out and the highest one received, in increasing order. Queues which do not track the missing
+     * packets return none.
+     *
+     * @param sequences The array receiving the sequence numbers, whose length bounds their number.
+     * @return The number of sequence numbers copied.
+     */
+    int getMissingSequences(int[] sequences) {
+        return 0;
+    }
+
+    /**
+     * Sets the time a missing packet is waited for when its retransmission was requested, so that
+     * the retransmitted packet can still be played out. Queues which do not reorder ignore it.
+     *
+     * @param delayMs The time, in milliseconds.
+     */
+    void setRetransmissionDelayMs(long delayMs) {
+        // Do nothing
+    }
+
+    /**
+     * Copies the statistics accumulated so far into {@code snapshot}.
+     */
+    final synchronized void copyStats(RtpStats snapshot) {
+        updateStats();
+        snapshot.update(stats);
+    }
+
+    /**
+     * Brings the statistics up to date, for queues which do not update them while packets are
+     * offered. Called while holding the lock of the queue.
+     */
+    void updateStats() {
+        // Do nothing
+    }
+
+    /** Returns the estimated interarrival jitter, in milliseconds. */
+    public final synchronized long getJitterMs() {
+        updateStats();
+        return clockrate > 0 ? (stats.jitter * 1000L) / clockrate : 0;
+    }
+
+    /** Returns the number of packets offered to the queue. */
+    public final synchronized int getReceivedCount() {
+        updateStats();
+        return stats.received;
+    }
+
+    /** Returns the number of packets given up on while waiting for them to be reordered. */
+    public final synchronized int getLostCount() {
+        updateStats();
+        return stats.lost;
+    }
+
+    /** Returns the number of packets dropped because they arrived after their playout time. */
+    public final synchronized int getLateCount() {
+        updateStats();
+        return stats.late;
     }
 }
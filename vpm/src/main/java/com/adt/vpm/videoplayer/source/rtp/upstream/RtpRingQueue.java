@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+
+/**
+ * A reordering {@link RtpQueue} backed by a fixed-capacity ring of packets indexed by
+ * {@code sequenceNumber & mask}, so that inserting and dequeuing a packet are O(1) and allocate
+ * nothing.
+ *
+ * Sequence numbers are extended to 64 bits to handle the 16-bit wraparound, so that they keep
+ * increasing however long the stream lasts. A missing packet at
+ * the head of the queue is waited for during the playout delay, after which it is counted as lost
+ * and skipped. Packets arriving after their slot has been played out are counted as late and
+ * dropped. A packet far away from the highest sequence number, either a very large jump or a
+ * stray packet from long ago, is dropped unless the next packet follows it, which confirms that
+ * the sequence numbers jumped (the probation of RFC 3550). When the retransmission of the missing packets is requested, the wait is extended to
+ * the time a retransmission is expected to take.
+ *
+ * The consumer can block in {@link #pop(long)} when the packets are offered by another thread.
+ */
+/* package */ final class RtpRingQueue extends RtpQueue {
+
+    /** The default number of packets the ring can hold. */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MAX_MISORDER = 100;
+    private static final int NO_SEQUENCE = -1;
+
+    private final long delayMs;
+    private final int mask;
+    private final RtpPacket[] packets;
+
+    private int size;
+
+    // Extended sequence numbers of the next packet to play out and of the highest one received
+    private long headSequence;
+    private long highestSequence;
+
+    // Sequence number a packet needs to confirm a very large jump, or NO_SEQUENCE
+    private int badSequence;
+
+    // Time at which a missing packet was first found at the head of the queue
+    private long gapTimestamp;
+
+    // Time a missing packet is waited for when its retransmission was requested
+    private volatile long retransmissionDelayMs;
+
+    /**
+     * @param clockrate The RTP clock rate of the stream.
+     * @param delayMs The minimum time a missing packet is waited for, in milliseconds.
+     * @param capacity The number of packets the ring can hold, rounded up to a power of two.
+     */
+    RtpRingQueue(int clockrate, long delayMs, int capacity) {
+        super(clockrate);
+        this.delayMs = delayMs;
+
+        int ringSize = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        packets = new RtpPacket[ringSize];
+        mask = ringSize - 1;
+        badSequence = NO_SEQUENCE;
+    }
+
+    @Override
+    public synchronized void offer(RtpPacket packet) {
+        calculateJitter(packet.getTimestamp());
+        insert(packet);
+    }
+
+    @Override
+    synchronized void offerRetransmission(RtpPacket packet) {
+        insert(packet);
+    }
+
+    @Override
+    public synchronized RtpPacket pop(long timeoutMs) throws InterruptedException {
+        long deadlineTimestamp = System.currentTimeMillis() + timeoutMs;
+        RtpPacket packet;
+
+        while ((packet = pop()) == null) {
+            long nowTimestamp = System.currentTimeMillis();
+            long waitMs = deadlineTimestamp - nowTimestamp;
+
+            if (waitMs <= 0) {
+                return null;
+            }
+
+            if (size > 0) {
+                // A packet is missing at the head, wake up once it is given up on at the latest
+                waitMs = Math.min(waitMs,
+                    Math.max(1, gapTimestamp + getPlayoutDelayMs() - nowTimestamp));
+            }
+
+            wait(waitMs);
+        }
+
+        return packet;
+    }
+
+    @Override
+    public synchronized RtpPacket pop() {
+        if (size == 0) {
+            return null;
+        }
+
+        int index = (int) (headSequence & mask);
+        RtpPacket packet = packets[index];
+
+        if (packet == null) {
+            long nowTimestamp = System.currentTimeMillis();
+
+            if (gapTimestamp == 0) {
+                gapTimestamp = nowTimestamp;
+            }
+
+            if (nowTimestamp < gapTimestamp + getPlayoutDelayMs()) {
+                return null;
+            }
+
+            // Give up on the missing packets and move to the next one received
+            while (packets[(int) (headSequence & mask)] == null) {
+                headSequence++;
+                stats.lost++;
+            }
+
+            index = (int) (headSequence & mask);
+            packet = packets[index];
+        }
+
+        packets[index] = null;
+        size--;
+        headSequence++;
+        gapTimestamp = 0;
+
+        stats.baseSequence = packet.getSequenceNumber();
+        return packet;
+    }
+
+    @Override
+    synchronized int getMissingSequences(int[] sequences) {
+        int count = 0;
+
+        if (size > 0) {
+            for (long sequence = headSequence; sequence < highestSequence &&
+                count < sequences.length; sequence++) {
+                if (packets[(int) (sequence & mask)] == null) {
+                    // Truncated to 32 bits, which still tells the sequence numbers apart
+                    sequences[count++] = (int) sequence;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    void setRetransmissionDelayMs(long delayMs) {
+        retransmissionDelayMs = delayMs;
+    }
+
+    @Override
+    public synchronized void reset() {
+        clear();
+        isStarted = false;
+        gapTimestamp = 0;
+        badSequence = NO_SEQUENCE;
+    }
+
+    /**
+     * Places the queue as if the packets up to {@code nextSequence - 1} had been played out, which
+     * the tests use to reach extended sequence numbers that would take days of streaming.
+     */
+    @VisibleForTesting
+    /* package */ synchronized void setNextSequence(long nextSequence) {
+        clear();
+        headSequence = nextSequence;
+        highestSequence = nextSequence - 1;
+        gapTimestamp = 0;
+    }
+
+    private void insert(RtpPacket packet) {
+        int sequence = packet.getSequenceNumber();
+
+        if (!isStarted) {
+            headSequence = sequence;
+            highestSequence = sequence - 1;
+            stats.baseSequence = sequence;
+            stats.maxSequence = sequence - 1;
+
+            isStarted = true;
+        }
+
+        // Signed distance to the highest sequence number, modulo 2^16
+        int sequenceDelta = (short) (sequence - highestSequence);
+        long extendedSequence = highestSequence + sequenceDelta;
+
+        if (sequenceDelta >= MAX_DROPOUT || sequenceDelta < -MAX_MISORDER - packets.length) {
+            if (sequence != badSequence) {
+                // Either a very large jump or a stray packet, wait for the next one to tell
+                badSequence = (sequence + 1) & (RTP_SEQ_MOD - 1);
+                stats.late++;
+                packet.release();
+                return;
+            }
+
+            // Two sequential packets, the sequence number made a very large jump, restart from
+            // this packet
+            clear();
+            headSequence = extendedSequence;
+            highestSequence = extendedSequence - 1;
+            gapTimestamp = 0;
+            badSequence = NO_SEQUENCE;
+
+        } else if (extendedSequence < headSequence) {
+            stats.late++;
+            packet.release();
+            return;
+        }
+
+        if (extendedSequence - headSequence >= packets.length) {
+            // Make room by dropping the oldest slots
+            skipTo(extendedSequence - packets.length + 1);
+        }
+
+        int index = (int) (extendedSequence & mask);
+        if (packets[index] != null) {
+            // Duplicated packet
+            packet.release();
+            return;
+        }
+
+        packets[index] = packet;
+        size++;
+        notify();
+
+        if (extendedSequence > highestSequence) {
+            highestSequence = extendedSequence;
+            // The extended highest sequence number of the receiver reports wraps at 32 bits
+            stats.cycles = (int) (highestSequence & ~(RTP_SEQ_MOD - 1));
+            stats.maxSequence = (int) (highestSequence & (RTP_SEQ_MOD - 1));
+        }
+
+        stats.received++;
+    }
+
+    private long getPlayoutDelayMs() {
+        long delayUs = 0;
+
+        if (stats.jitter > 0 && clockrate > 0) {
+            delayUs = (C.MICROS_PER_SECOND * 3 * stats.jitter) / clockrate;
+        }
+
+        return Math.max(Math.max(delayUs / 1000, delayMs), retransmissionDelayMs);
+    }
+
+    private void skipTo(long sequence) {
+        while (headSequence < sequence) {
+            int index = (int) (headSequence & mask);
+
+            if (packets[index] != null) {
+                packets[index].release();
+                packets[index] = null;
+                size--;
+
+            } else {
+                stats.lost++;
+            }
+
+            headSequence++;
+        }
+    }
+
+    private void clear() {
+        for (int index = 0; index < packets.length && size > 0; index++) {
+            if (packets[index] != null) {
+                packets[index].release();
+                packets[index] = null;
+                size--;
+            }
+        }
+
+        size = 0;
+    }
+}
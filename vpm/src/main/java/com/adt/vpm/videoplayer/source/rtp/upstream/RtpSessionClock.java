@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSdesPacket;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSenderInfo;
+import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpSrPacket;
+
+/**
+ * Places the tracks of a session on a common timeline, using the NTP to RTP timestamp mappings
+ * carried by the RTCP sender reports of each track.
+ *
+ * Until the first sender report of a track is received, its samples keep being timed relative to
+ * its first sample. The timeline of the session is anchored on the first track to be mapped, so
+ * that this track does not jump once mapped, while the other tracks are shifted by their offset
+ * to it. Every new sender report refreshes the mapping of its track, which absorbs the drift
+ * between the RTP clocks of the tracks.
+ */
+public final class RtpSessionClock {
+
+    // Seconds between the NTP epoch (1900) and the Unix epoch (1970)
+    private static final long NTP_UNIX_EPOCH_OFFSET_SECONDS = 2208988800L;
+
+    private long baseNtpTimeUs;
+    private long latencyUs;
+
+    public RtpSessionClock() {
+        baseNtpTimeUs = C.TIME_UNSET;
+        latencyUs = C.TIME_UNSET;
+    }
+
+    /**
+     * Creates the clock of a track of the session.
+     *
+     * @param clockrate The RTP clock rate of the track.
+     */
+    public Track createTrack(int clockrate) {
+        return new Track(clockrate);
+    }
+
+    /**
+     * Returns the end-to-end latency measured on the last sample, from its capture time on the
+     * sender wall clock to its extraction, in microseconds, or {@link C#TIME_UNSET} if no track
+     * has been mapped yet. Only meaningful if the sender and the receiver clocks are synchronized.
+     */
+    public synchronized long getLatencyUs() {
+        return latencyUs;
+    }
+
+    /**
+     * Resets the timeline, e.g. when the session is restarted.
+     */
+    public synchronized void reset() {
+        baseNtpTimeUs = C.TIME_UNSET;
+        latencyUs = C.TIME_UNSET;
+    }
+
+    private synchronized long toSessionTimeUs(long ntpTimeUs, long relativeTimeUs) {
+        if (baseNtpTimeUs == C.TIME_UNSET) {
+            baseNtpTimeUs = ntpTimeUs - relativeTimeUs;
+        }
+
+        long nowNtpTimeUs = (NTP_UNIX_EPOCH_OFFSET_SECONDS * 1000 + System.currentTimeMillis()) *
+            1000;
+        latencyUs = nowNtpTimeUs - ntpTimeUs;
+
+        return ntpTimeUs - baseNtpTimeUs;
+    }
+
+    /**
+     * The clock of a track, fed with the sender reports of the track.
+     */
+    public final class Track implements RtcpReportReceiver.EventListener {
+
+        private final int clockrate;
+
+        // The last NTP to RTP timestamp mapping reported by the sender
+        private long reportNtpTimeUs;
+        private long reportTimestamp;
+
+        private Track(int clockrate) {
+            this.clockrate = clockrate;
+            reportNtpTimeUs = C.TIME_UNSET;
+        }
+
+        /**
+         * Returns the time of a sample on the session timeline.
+         *
+         * @param timestamp The RTP timestamp of the sample.
+         * @param relativeTimeUs The time of the sample relative to the first sample of the track,
+         *     in microseconds.
+         * @return The time of the sample on the session timeline, in microseconds, or
+         *     {@link C#TIME_UNSET} if no sender report has been received for the track yet.
+         */
+        public long getSessionTimeUs(long timestamp, long relativeTimeUs) {
+            long ntpTimeUs;
+
+            synchronized (this) {
+                if (reportNtpTimeUs == C.TIME_UNSET) {
+                    return C.TIME_UNSET;
+                }
+
+                // Sender reports are close enough to the samples for the difference between
+                // their 32 bits timestamps to be the actual elapsed time, across wraparounds
+                int elapsed = (int) (timestamp - reportTimestamp);
+                ntpTimeUs = reportNtpTimeUs + (elapsed * C.MICROS_PER_SECOND) / clockrate;
+            }
+
+            return toSessionTimeUs(ntpTimeUs, relativeTimeUs);
+        }
+
+        // RtcpReportReceiver.EventListener implementation
+        @Override
+        public void onSenderReport(RtcpSrPacket srPacket) {
+            RtcpSenderInfo senderInfo = srPacket.getSenderInfo();
+            long ntpTimeUs = senderInfo.getNtpTimestampMsw() * C.MICROS_PER_SECOND +
+                ((senderInfo.getNtpTimestampLsw() * C.MICROS_PER_SECOND) >>> 32);
+
+            synchronized (this) {
+                reportNtpTimeUs = ntpTimeUs;
+                reportTimestamp = senderInfo.getRtpTimestamp();
+            }
+        }
+
+        @Override
+        public void onSourceDescription(RtcpSdesPacket sdesPacket) {
+            // Do nothing
+        }
+    }
+}
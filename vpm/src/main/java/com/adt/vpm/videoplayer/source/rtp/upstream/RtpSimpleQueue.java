@@ -33,6 +33,8 @@ import java.util.concurrent.ConcurrentLinkedQueue;
         if (sequenceDelta >= 0 && sequenceDelta < MAX_DROPOUT) {
             packets.offer(packet);
             stats.maxSequence = sequence;
+        } else {
+            packet.release();
         }
 
         if (expected < stats.maxSequence) {
@@ -55,9 +57,16 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
     @Override
     public synchronized void reset() {
-        packets.clear();
+        clear();
         isStarted = false;
         stats.jitter = 0;
     }
 
+    private void clear() {
+        RtpPacket packet;
+        while ((packet = packets.poll()) != null) {
+            packet.release();
+        }
+    }
+
 }
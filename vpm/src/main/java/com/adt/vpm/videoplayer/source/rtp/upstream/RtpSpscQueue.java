@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A non reordering {@link RtpQueue} handing packets over from a single producer thread to a single
+ * consumer thread, as in interleaved mode where the RTSP receiver thread offers the packets and
+ * the loader thread pops them.
+ *
+ * Packets are exchanged through a fixed-capacity ring without taking any lock. A consumer waiting
+ * in {@link #pop(long)} is parked and only woken up by the producer when a packet is published.
+ * Packets offered while the ring is full are dropped and counted as lost. The statistics are
+ * only written by the producer as well, and published to the readers by a single volatile write
+ * per packet.
+ *
+ * {@link #reset()} may be called from another thread while the consumer pops, as when the source
+ * is closed from the playback thread: popping claims a packet by advancing the head atomically,
+ * so a packet is never handed out twice.
+ */
+/* package */ final class RtpSpscQueue extends RtpQueue {
+
+    /** The default number of packets the ring can hold. */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final AtomicLongFieldUpdater<RtpSpscQueue> HEAD_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(RtpSpscQueue.class, "head");
+
+    private final int mask;
+    private final int capacity;
+    private final AtomicReferenceArray<RtpPacket> packets;
+
+    // Index of the next packet to pop, advanced by the consumer or by a reset
+    private volatile long head;
+    // Index of the next packet to offer, only written by the producer
+    private volatile long tail;
+
+    @Nullable private volatile Thread waiter;
+
+    // Sequence number of the last popped packet, reported as the base sequence number
+    private volatile int lastSequence;
+
+    // Statistics only written by the producer, published by the write of the received count
+    private int maxSequence;
+    private int cycles;
+    private int lost;
+    private int jitter;
+    private long lastSentTimestamp;
+    private long lastArrivalTimestamp;
+    private volatile int received;
+
+    /**
+     * @param clockrate The RTP clock rate of the stream.
+     * @param capacity The number of packets the ring can hold, rounded up to a power of two.
+     */
+    RtpSpscQueue(int clockrate, int capacity) {
+        super(clockrate);
+
+        int ringSize = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        packets = new AtomicReferenceArray<>(ringSize);
+        this.capacity = ringSize;
+        mask = ringSize - 1;
+    }
+
+    @Override
+    public void offer(RtpPacket packet) {
+        if (accept(packet)) {
+            long currentTail = tail;
+
+            if (currentTail - head < capacity) {
+                packets.lazySet((int) currentTail & mask, packet);
+                tail = currentTail + 1;
+
+                Thread thread = waiter;
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+
+            } else {
+                packet.release();
+                lost++;
+            }
+
+        } else {
+            packet.release();
+        }
+
+        // Last, so that reading the count makes the statistics written above visible
+        received = received + 1;
+    }
+
+    @Override
+    public RtpPacket pop() {
+        while (true) {
+            long currentHead = head;
+            if (currentHead == tail) {
+                return null;
+            }
+
+            // The producer does not reuse the slot before the head moves past it
+            int index = (int) currentHead & mask;
+            RtpPacket packet = packets.get(index);
+
+            if (HEAD_UPDATER.compareAndSet(this, currentHead, currentHead + 1)) {
+                // Unless the producer already stored a new packet in the slot
+                packets.compareAndSet(index, packet, null);
+
+                lastSequence = packet.getSequenceNumber();
+                return packet;
+            }
+        }
+    }
+
+    @Override
+    public RtpPacket pop(long timeoutMs) throws InterruptedException {
+        RtpPacket packet = pop();
+        if (packet != null || timeoutMs <= 0) {
+            return packet;
+        }
+
+        long deadlineNs = System.nanoTime() + timeoutMs * 1000000;
+        waiter = Thread.currentThread();
+
+        try {
+            // The waiter is published before checking the ring again, so that a packet offered
+            // in between either is seen here or unparks this thread
+            while ((packet = pop()) == null) {
+                long remainingNs = deadlineNs - System.nanoTime();
+                if (remainingNs <= 0) {
+                    break;
+                }
+
+                LockSupport.parkNanos(this, remainingNs);
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+
+        } finally {
+            waiter = null;
+        }
+
+        return packet;
+    }
+
+    @Override
+    public void reset() {
+        RtpPacket packet;
+        while ((packet = pop()) != null) {
+            packet.release();
+        }
+
+        // The producer starts its statistics over on the next packet
+        isStarted = false;
+    }
+
+    @Override
+    void updateStats() {
+        // Read first, so that the statistics written before it by the producer are visible
+        stats.received = received;
+        stats.maxSequence = maxSequence;
+        stats.cycles = cycles;
+        stats.lost = lost;
+        stats.jitter = jitter;
+        stats.baseSequence = lastSequence;
+    }
+
+    private boolean accept(RtpPacket packet) {
+        int sequence = packet.getSequenceNumber();
+        long sentTimestamp = packet.getTimestamp();
+        long arrivalTimestamp = System.currentTimeMillis();
+
+        if (isStarted) {
+            jitter = estimateJitter(jitter, arrivalTimestamp - lastArrivalTimestamp,
+                sentTimestamp - lastSentTimestamp);
+
+        } else {
+            maxSequence = sequence - 1;
+            jitter = 0;
+            lastSequence = sequence;
+
+            isStarted = true;
+        }
+
+        lastSentTimestamp = sentTimestamp;
+        lastArrivalTimestamp = arrivalTimestamp;
+
+        int expected = (maxSequence + 1) % RTP_SEQ_MOD;
+        int sequenceDelta = sequence - expected;
+        if (sequenceDelta < 0 || sequenceDelta >= MAX_DROPOUT) {
+            return false;
+        }
+
+        if (sequence < maxSequence) {
+            // The sequence number wrapped around, counted shifted as in the receiver reports
+            cycles += RTP_SEQ_MOD;
+        }
+
+        maxSequence = sequence;
+        return true;
+    }
+}
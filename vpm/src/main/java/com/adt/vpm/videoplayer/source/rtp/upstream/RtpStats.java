@@ -43,16 +43,18 @@ package com.adt.vpm.videoplayer.source.rtp.upstream;
      */
     int jitter;
 
-    RtpStats() {
+    /**
+     * The packets given up on while waiting for them to be reordered.
+     */
+    int lost;
 
-    }
+    /**
+     * The packets received after their playout time.
+     */
+    int late;
+
+    RtpStats() {
 
-    private RtpStats(RtpStats stats) {
-        this.cycles = stats.cycles;
-        this.jitter = stats.jitter;
-        this.received = stats.received;
-        this.maxSequence = stats.maxSequence;
-        this.baseSequence = stats.baseSequence;
     }
 
     void update(RtpStats stats) {
@@ -61,9 +63,7 @@ package com.adt.vpm.videoplayer.source.rtp.upstream;
         this.received = stats.received;
         this.maxSequence = stats.maxSequence;
         this.baseSequence = stats.baseSequence;
-    }
-
-    public RtpStats clone() {
-        return new RtpStats(this);
+        this.lost = stats.lost;
+        this.late = stats.late;
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.util.Util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a data source for inactivity. All the monitors in the process are checked from a single
+ * shared scheduler thread, so reporting activity only costs a clock read and a volatile write.
+ *
+ * The source is reported as timed out once a whole timeout period elapsed since the last activity
+ * notified. The check is scheduled for that deadline and pushed back to the new deadline when the
+ * source was active in between.
+ */
+/* package */ final class RtpTimeoutMonitor {
+
+    /**
+     * Called on the scheduler thread when the monitored source timed out.
+     */
+    interface Listener {
+        void onTimeout();
+    }
+
+    private static final String THREAD_NAME = "RtpTimeoutMonitor";
+
+    @Nullable private static ScheduledThreadPoolExecutor scheduler;
+
+    private final long timeoutNs;
+    private final Listener listener;
+
+    private volatile long lastActivityNs;
+
+    // Incremented on each start, so that a check of a previous run never reschedules itself
+    private int generation;
+    @Nullable private ScheduledFuture<?> checkFuture;
+
+    RtpTimeoutMonitor(long timeoutMs, Listener listener) {
+        this.timeoutNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.listener = listener;
+    }
+
+    synchronized void start() {
+        if (checkFuture == null) {
+            lastActivityNs = System.nanoTime();
+            generation++;
+            schedule(timeoutNs);
+        }
+    }
+
+    /**
+     * Notifies the monitor that the source is alive. Safe to call from a single producer thread.
+     */
+    void onActivity() {
+        lastActivityNs = System.nanoTime();
+    }
+
+    synchronized void stop() {
+        if (checkFuture != null) {
+            checkFuture.cancel(false);
+            checkFuture = null;
+
+            if (Util.SDK_INT < 21) {
+                getScheduler().purge();
+            }
+        }
+    }
+
+    private void schedule(long delayNs) {
+        int checkGeneration = generation;
+        checkFuture = getScheduler().schedule(() -> check(checkGeneration), delayNs,
+            TimeUnit.NANOSECONDS);
+    }
+
+    private void check(int checkGeneration) {
+        synchronized (this) {
+            if (checkFuture == null || checkGeneration != generation) {
+                return;
+            }
+
+            long remainingNs = lastActivityNs + timeoutNs - System.nanoTime();
+            if (remainingNs > 0) {
+                schedule(remainingNs);
+                return;
+            }
+
+            checkFuture = null;
+        }
+
+        listener.onTimeout();
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Monitors are stopped and restarted constantly, their cancelled checks must not pile
+            // up in the queue until their deadline
+            if (Util.SDK_INT >= 21) {
+                scheduler.setRemoveOnCancelPolicy(true);
+            }
+        }
+
+        return scheduler;
+    }
+}
@@ -82,7 +82,8 @@ public final class RtspDefaultClient extends Client {
         Transport transport = track.format().transport();
 
         if (isFlagSet(FLAG_ENABLE_RTCP_SUPPORT)) {
-            if (isFlagSet(FLAG_FORCE_RTCP_MUXED)) {
+            // Bundled tracks share a single port, RTCP included
+            if (isFlagSet(FLAG_FORCE_RTCP_MUXED) || isFlagSet(FLAG_BUNDLE_TRANSPORT)) {
                 builder.setHeader(Header.Transport, transport + ";client_port=" + localPort +
                         "-" + localPort);
             } else {
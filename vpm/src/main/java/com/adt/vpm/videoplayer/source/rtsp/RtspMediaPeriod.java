@@ -17,6 +17,8 @@ package com.adt.vpm.videoplayer.source.rtsp;
 
 import android.os.SystemClock;
 
+import androidx.annotation.Nullable;
+
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
 import com.adt.vpm.videoplayer.source.common.upstream.TransferListener;
@@ -36,9 +38,11 @@ import com.adt.vpm.videoplayer.source.core.upstream.Allocator;
 import com.adt.vpm.videoplayer.source.core.util.TrackIdGenerator;
 import com.adt.vpm.videoplayer.source.rtsp.core.Client;
 import com.adt.vpm.videoplayer.source.rtsp.core.FallbackPolicy;
+import com.adt.vpm.videoplayer.source.rtsp.media.MediaFormat;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaSession;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaTrack;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -62,6 +66,10 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
   private TrackGroupArray trackGroups;
   private boolean notifiedReadingStarted;
 
+  // A period kept warm by a session pool is prepared again once adopted by the player
+  private boolean streamsBuilt;
+  private long pendingDiscontinuityUs;
+
   private RtspSampleStreamWrapper[] sampleStreamWrappers;
   private RtspSampleStreamWrapper[] preparedSampleStreamWrappers;
 
@@ -69,21 +77,37 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
   private final int bufferSize;
   private final Allocator allocator;
   private final MediaSession session;
-  private final FallbackPolicy fallbackPolicy;
-  private final EventDispatcher eventDispatcher;
+  @Nullable private FallbackPolicy fallbackPolicy;
+  private EventDispatcher eventDispatcher;
   private final TrackIdGenerator trackIdGenerator;
-  private final TransferListener transferListener;
+  @Nullable private final TransferListener transferListener;
   private final DrmSessionManager drmSessionManager;
+  @Nullable private final File timeshiftDirectory;
+  private final long timeshiftMaxDurationUs;
+  private final long timeshiftMaxBytes;
   private final IdentityHashMap<SampleStream, Integer> streamWrapperIndices;
   private final Long loadTaskId = LoadEventInfo.getNewId();
 
-  RtspMediaPeriod(Client client, FallbackPolicy fallbackPolicy, TransferListener transferListener,
-                  EventDispatcher eventDispatcher, Allocator allocator, DrmSessionManager drmSessionManager) {
+  /**
+   * @param fallbackPolicy The policy retrying the media source over TCP, or null when kept warm by
+   *     a session pool.
+   * @param timeshiftDirectory The directory the samples are recorded to for timeshifting, each
+   *     stream in its own subdirectory, or null if the period plays the live edge only.
+   * @param timeshiftMaxDurationUs The maximum duration recorded, in microseconds.
+   * @param timeshiftMaxBytes The maximum size recorded for each stream, in bytes.
+   */
+  RtspMediaPeriod(Client client, @Nullable FallbackPolicy fallbackPolicy,
+                  @Nullable TransferListener transferListener,
+                  EventDispatcher eventDispatcher, Allocator allocator, DrmSessionManager drmSessionManager,
+                  @Nullable File timeshiftDirectory, long timeshiftMaxDurationUs, long timeshiftMaxBytes) {
     this.allocator = allocator;
     this.fallbackPolicy = fallbackPolicy;
     this.eventDispatcher = eventDispatcher;
     this.transferListener = transferListener;
     this.drmSessionManager = drmSessionManager;
+    this.timeshiftDirectory = timeshiftDirectory;
+    this.timeshiftMaxDurationUs = timeshiftMaxDurationUs;
+    this.timeshiftMaxBytes = timeshiftMaxBytes;
 
     session = client.getSession();
     delayMs = client.getMaxDelay();
@@ -96,6 +120,7 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     preparedSampleStreamWrappers = new RtspSampleStreamWrapper[0];
 
     lastSeekPositionUs = C.POSITION_UNSET;
+    pendingDiscontinuityUs = C.TIME_UNSET;
 
     eventDispatcher.mediaPeriodCreated();
   }
@@ -111,10 +136,105 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     }
   }
 
+  /**
+   * Hands a period kept warm by a session pool over to the media source of the player. The
+   * samples buffered before the latest keyframe are discarded, and the player is moved to that
+   * keyframe on its first read of a discontinuity.
+   *
+   * @param eventDispatcher The dispatcher of the media source events.
+   * @param fallbackPolicy The policy retrying the media source over TCP.
+   */
+  void adopt(EventDispatcher eventDispatcher, FallbackPolicy fallbackPolicy) {
+    synchronized (this) {
+      this.eventDispatcher = eventDispatcher;
+      this.fallbackPolicy = fallbackPolicy;
+
+      pendingDiscontinuityUs = discardToLatestKeyframe();
+    }
+
+    eventDispatcher.mediaPeriodCreated();
+  }
+
+  /**
+   * Returns whether all the streams stopped, having failed to prepare, completed or failed.
+   */
+  boolean isEnded() {
+    synchronized (this) {
+      return streamsBuilt && pendingPrepareCount == 0 && preparedSampleStreamWrappers.length == 0;
+    }
+  }
+
+  /**
+   * Discards the samples queued before the latest keyframe of the video stream, or of the first
+   * stream when there is no video, and the samples of the other streams queued before it. Only
+   * called while none of the tracks are selected.
+   *
+   * @return The timestamp of the keyframe, or of the last sample queued when the stream has none
+   *     left, in microseconds, or {@link C#TIME_UNSET} if no sample was ever queued.
+   */
+  long discardToLatestKeyframe() {
+    synchronized (this) {
+      if (preparedSampleStreamWrappers.length == 0) {
+        return C.TIME_UNSET;
+      }
+
+      RtspSampleStreamWrapper keyframeStreamWrapper = preparedSampleStreamWrappers[0];
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+        if (sampleStreamWrapper.getMediaTrack().format().type() == MediaFormat.VIDEO) {
+          keyframeStreamWrapper = sampleStreamWrapper;
+          break;
+        }
+      }
+
+      long largestTimestampUs = keyframeStreamWrapper.getLargestQueuedTimestampUs();
+      if (largestTimestampUs == C.TIME_UNSET) {
+        return C.TIME_UNSET;
+      }
+
+      keyframeStreamWrapper.discardBuffer(largestTimestampUs, true);
+      long keyframeTimestampUs = keyframeStreamWrapper.getFirstTimestampUs();
+      if (keyframeTimestampUs == C.TIME_UNSET) {
+        // Emptied to the end, the next samples following the last one queued
+        keyframeTimestampUs = largestTimestampUs;
+      }
+
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+        if (sampleStreamWrapper != keyframeStreamWrapper) {
+          sampleStreamWrapper.discardBuffer(keyframeTimestampUs, true);
+        }
+      }
+
+      return keyframeTimestampUs;
+    }
+  }
+
+  /**
+   * Discards every sample queued. Only called while none of the tracks are selected.
+   */
+  void discardBufferToEnd() {
+    synchronized (this) {
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+        sampleStreamWrapper.discardBufferToEnd();
+      }
+    }
+  }
+
   @Override
   public void prepare(Callback callback, long positionUs) {
-    this.callback = callback;
-    this.positionUs = positionUs;
+    synchronized (this) {
+      this.callback = callback;
+      this.positionUs = positionUs;
+
+      if (streamsBuilt) {
+        // Adopted from a session pool, the streams being prepared or playing already
+        if (prepared) {
+          callback.onPrepared(this);
+        }
+        return;
+      }
+
+      streamsBuilt = true;
+    }
 
     buildAndPrepareMediaStreams(positionUs);
   }
@@ -212,13 +332,28 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     if (!notifiedReadingStarted) {
       eventDispatcher.readingStarted();
       notifiedReadingStarted = true;
+
+      // A period adopted from a session pool starts at the latest keyframe it buffered
+      if (pendingDiscontinuityUs != C.TIME_UNSET) {
+        long discontinuityUs = pendingDiscontinuityUs;
+        pendingDiscontinuityUs = C.TIME_UNSET;
+        return discontinuityUs;
+      }
     }
     return C.TIME_UNSET;
   }
 
   @Override
   public long seekToUs(long positionUs) {
-    if (lastSeekPositionUs != positionUs) {
+    if (timeshiftDirectory != null) {
+      // Seeks are served from the recorded window, while the server keeps streaming the live edge
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+          sampleStreamWrapper.seekToUs(positionUs, false);
+      }
+
+      lastSeekPositionUs = positionUs;
+
+    } else if (lastSeekPositionUs != positionUs) {
       boolean forceSeekTo = false;
       boolean forceReset = preparedSampleStreamWrappers[0].seekToUs(positionUs, false);
       for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
@@ -288,6 +423,48 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     return isLoading;
   }
 
+  /**
+   * Returns the start of the window recorded by all the streams for timeshifting, in
+   * microseconds, or {@link C#TIME_UNSET} if not timeshifting or nothing was recorded yet.
+   */
+  long getTimeshiftWindowStartUs() {
+    long windowStartUs = C.TIME_UNSET;
+    synchronized (this) {
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+          long streamWindowStartUs = sampleStreamWrapper.getTimeshiftWindowStartUs();
+          if (streamWindowStartUs == C.TIME_UNSET) {
+              return C.TIME_UNSET;
+          }
+
+          windowStartUs = (windowStartUs == C.TIME_UNSET) ? streamWindowStartUs :
+              Math.max(windowStartUs, streamWindowStartUs);
+      }
+    }
+
+    return windowStartUs;
+  }
+
+  /**
+   * Returns the end of the window recorded by all the streams for timeshifting, in
+   * microseconds, or {@link C#TIME_UNSET} if not timeshifting or nothing was recorded yet.
+   */
+  long getTimeshiftWindowEndUs() {
+    long windowEndUs = C.TIME_UNSET;
+    synchronized (this) {
+      for (RtspSampleStreamWrapper sampleStreamWrapper : preparedSampleStreamWrappers) {
+          long streamWindowEndUs = sampleStreamWrapper.getTimeshiftWindowEndUs();
+          if (streamWindowEndUs == C.TIME_UNSET) {
+              return C.TIME_UNSET;
+          }
+
+          windowEndUs = (windowEndUs == C.TIME_UNSET) ? streamWindowEndUs :
+              Math.min(windowEndUs, streamWindowEndUs);
+      }
+    }
+
+    return windowEndUs;
+  }
+
   @Override
   public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
     return positionUs;
@@ -390,7 +567,7 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
         LoadEventInfo loadEventInfo = new LoadEventInfo(loadTaskId, new DataSpec(session.getUri()), session.getUri(), Collections.emptyMap(), 0, session.getDuration(), 0);
         eventDispatcher.loadError(loadEventInfo, DATA_TYPE_MEDIA_PROGRESSIVE_LIVE, new IOException(),false);
 
-        if (!session.isInFallback()) {
+        if (!session.isInFallback() && fallbackPolicy != null) {
           fallbackPolicy.retryIfAllowError(error);
         }
       }
@@ -405,16 +582,18 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     List<MediaTrack> mediaVideoTracks = session.getMediaVideoTracks();
     if (mediaVideoTracks.size() > 0) {
       sampleStreamWrappers = Arrays.copyOf(sampleStreamWrappers, mediaStreamCount + 1);
-      sampleStreamWrappers[mediaStreamCount++] = buildMediaSampleStream(
-              mediaVideoTracks.get(0), positionUs);
+      sampleStreamWrappers[mediaStreamCount] = buildMediaSampleStream(
+              mediaVideoTracks.get(0), positionUs, mediaStreamCount);
+      mediaStreamCount++;
     }
 
     // Build media audio streams. Uniquely one media track is supported.
     List<MediaTrack> mediaAudioTracks = session.getMediaAudioTracks();
     if (mediaAudioTracks.size() > 0) {
       sampleStreamWrappers = Arrays.copyOf(sampleStreamWrappers, mediaStreamCount + 1);
-      sampleStreamWrappers[mediaStreamCount++] = buildMediaSampleStream(
-              mediaAudioTracks.get(0), positionUs);
+      sampleStreamWrappers[mediaStreamCount] = buildMediaSampleStream(
+              mediaAudioTracks.get(0), positionUs, mediaStreamCount);
+      mediaStreamCount++;
     }
 
     // Build media subtitle streams. Uniquely one media track is supported.
@@ -432,9 +611,14 @@ import static com.adt.vpm.videoplayer.source.common.C.DATA_TYPE_MEDIA_PROGRESSIV
     eventDispatcher.loadStarted(loadEventInfo, DATA_TYPE_MEDIA_PROGRESSIVE_LIVE);
   }
 
-  private RtspSampleStreamWrapper buildMediaSampleStream(MediaTrack track, long positionUs) {
+  private RtspSampleStreamWrapper buildMediaSampleStream(MediaTrack track, long positionUs,
+      int streamIndex) {
+    RtspTimeshiftBuffer timeshiftBuffer = (timeshiftDirectory != null) ?
+        new RtspTimeshiftBuffer(new File(timeshiftDirectory, String.valueOf(streamIndex)),
+            timeshiftMaxDurationUs, timeshiftMaxBytes) : null;
+
     return new RtspSampleStreamWrapper(session, track, trackIdGenerator, positionUs, bufferSize,
-        delayMs,this, transferListener, allocator, drmSessionManager);
+        delayMs,this, transferListener, allocator, drmSessionManager, timeshiftBuffer);
   }
 
   private void releaseAndCleanMediaStream(RtspSampleStreamWrapper sampleStream) {
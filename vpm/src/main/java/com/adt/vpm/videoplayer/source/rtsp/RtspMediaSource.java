@@ -29,6 +29,8 @@ import com.adt.vpm.videoplayer.source.common.upstream.DataSpec;
 import com.adt.vpm.videoplayer.source.common.upstream.TransferListener;
 import com.adt.vpm.videoplayer.source.common.util.Assertions;
 import com.adt.vpm.videoplayer.source.common.util.Util;
+import com.adt.vpm.videoplayer.source.core.DefaultLoadControl;
+import com.adt.vpm.videoplayer.source.core.LoadControl;
 import com.adt.vpm.videoplayer.source.core.Timeline;
 import com.adt.vpm.videoplayer.source.core.drm.DrmSessionManager;
 import com.adt.vpm.videoplayer.source.core.source.BaseMediaSource;
@@ -43,6 +45,7 @@ import com.adt.vpm.videoplayer.source.rtsp.media.MediaType;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.io.IOException;
 
 import static com.adt.vpm.videoplayer.source.common.C.TCP;
@@ -53,6 +56,28 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
         ExoPlayerLibraryInfo.registerModule("goog.exo.rtsp");
     }
 
+    // Buffer durations of the low latency load control, in milliseconds
+    private static final int LOW_LATENCY_MIN_BUFFER_MS = 500;
+    private static final int LOW_LATENCY_MAX_BUFFER_MS = 2000;
+    private static final int LOW_LATENCY_BUFFER_FOR_PLAYBACK_MS = 100;
+    private static final int LOW_LATENCY_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 250;
+
+    // Interval at which the seekable window of a timeshifted stream is refreshed, in milliseconds
+    private static final int TIMESHIFT_WINDOW_UPDATE_INTERVAL_MS = 1000;
+
+    /**
+     * Returns a load control for live RTSP streams played with {@link Client#FLAG_LOW_LATENCY},
+     * which starts and resumes playback with a fraction of a second buffered, instead of the
+     * seconds the default load control waits for.
+     */
+    public static LoadControl createLowLatencyLoadControl() {
+        return new DefaultLoadControl.Builder()
+            .setBufferDurationsMs(LOW_LATENCY_MIN_BUFFER_MS, LOW_LATENCY_MAX_BUFFER_MS,
+                LOW_LATENCY_BUFFER_FOR_PLAYBACK_MS, LOW_LATENCY_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS)
+            .setPrioritizeTimeOverSizeThresholds(true)
+            .build();
+    }
+
     /**
      * Factory for {@link RtspMediaSource}.
      */
@@ -60,6 +85,10 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
         private boolean isLive;
         private boolean isCreateCalled;
         private DrmSessionManager drmSessionManager;
+        @Nullable private RtspSessionPool sessionPool;
+        @Nullable private File timeshiftDirectory;
+        private long timeshiftMaxDurationMs;
+        private long timeshiftMaxBytes;
 
         private final Client.Factory<? extends Client> factory;
 
@@ -94,6 +123,43 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
             return this;
         }
 
+        /**
+         * Sets the {@link RtspSessionPool} from which the media sources take their session when
+         * one is pooled for their URI, instead of opening a new one. Timeshifted media sources
+         * always open their own session.
+         *
+         * @param sessionPool The pool, created with the same client factory.
+         * @return This factory, for convenience.
+         * @throws IllegalStateException If one of the {@code create} methods has already been called.
+         */
+        public Factory setSessionPool(@Nullable RtspSessionPool sessionPool) {
+            Assertions.checkState(!isCreateCalled);
+            this.sessionPool = sessionPool;
+            return this;
+        }
+
+        /**
+         * Enables timeshifting of live streams: the samples are recorded to disk, and the player
+         * is exposed a seekable window over the last recorded minutes, which it can pause in and
+         * rewind through while the server keeps streaming the live edge.
+         *
+         * @param directory The directory the samples are recorded to, dedicated to the media
+         *     source, or null to disable timeshifting.
+         * @param maxDurationMs The maximum duration of the window, in milliseconds.
+         * @param maxBytes The maximum size recorded for each of the video and audio streams, in
+         *     bytes, the oldest samples being evicted first.
+         * @return This factory, for convenience.
+         * @throws IllegalStateException If one of the {@code create} methods has already been called.
+         */
+        public Factory setTimeshift(@Nullable File directory, long maxDurationMs, long maxBytes) {
+            Assertions.checkState(!isCreateCalled);
+            Assertions.checkArgument(directory == null || (maxDurationMs > 0 && maxBytes > 0));
+            this.timeshiftDirectory = directory;
+            this.timeshiftMaxDurationMs = maxDurationMs;
+            this.timeshiftMaxBytes = maxBytes;
+            return this;
+        }
+
         /**
          * Returns a new {@link RtspMediaSource} using the current parameters. Media source events
          * will not be delivered.
@@ -103,7 +169,9 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
          */
         public RtspMediaSource createMediaSource(Uri uri) {
             isCreateCalled = true;
-            return new RtspMediaSource(uri, factory, isLive, drmSessionManager, getMediaItem(uri));
+            return new RtspMediaSource(uri, factory, isLive, drmSessionManager, sessionPool,
+                timeshiftDirectory, C.msToUs(timeshiftMaxDurationMs), timeshiftMaxBytes,
+                getMediaItem(uri));
         }
 
         /**
@@ -154,6 +222,11 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
     int transportProtocol;
 
     private DrmSessionManager drmSessionManager;
+    @Nullable private final RtspSessionPool sessionPool;
+    @Nullable private final File timeshiftDirectory;
+    private final long timeshiftMaxDurationUs;
+    private final long timeshiftMaxBytes;
+    private final Runnable updateTimeshiftWindowRunnable;
     private final RtspFallbackPolicy fallbackPolicy;
     private @Nullable
     TransferListener transferListener;
@@ -161,15 +234,32 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
     private LoadEventInfo loadEventInfo;
     private Timeline timeline = null;
 
+    // Set when the session was taken from the pool playing, until its period is created
+    @Nullable private RtspMediaPeriod warmPeriod;
+
+    // Set while a timeshifted period is played, only accessed on the playback thread
+    @Nullable private Handler handler;
+    @Nullable private RtspMediaPeriod timeshiftPeriod;
+    private long timeshiftWindowStartUs;
+    private long timeshiftWindowEndUs;
+
     private RtspMediaSource(Uri uri, Client.Factory factory, boolean isLive,
-                            DrmSessionManager drmSessionManager, MediaItem mediaItem) {
+                            DrmSessionManager drmSessionManager,
+                            @Nullable RtspSessionPool sessionPool,
+                            @Nullable File timeshiftDirectory, long timeshiftMaxDurationUs,
+                            long timeshiftMaxBytes, MediaItem mediaItem) {
         this.uri = uri;
         this.isLive = isLive;
         this.factory = factory;
         this.drmSessionManager = drmSessionManager;
+        this.sessionPool = sessionPool;
+        this.timeshiftDirectory = timeshiftDirectory;
+        this.timeshiftMaxDurationUs = timeshiftMaxDurationUs;
+        this.timeshiftMaxBytes = timeshiftMaxBytes;
         this.mediaItem = mediaItem;
         this.loadEventInfo = new LoadEventInfo(LoadEventInfo.getNewId(), new DataSpec(uri), 0);
         fallbackPolicy = new RtspFallbackPolicy(this, factory);
+        updateTimeshiftWindowRunnable = this::updateTimeshiftWindow;
     }
 
     @Override
@@ -240,22 +330,61 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
     @Override
     public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator, long startPositionUs) {
         eventDispatcher = createEventDispatcher(id);
-        return new RtspMediaPeriod(client, fallbackPolicy, transferListener, eventDispatcher,
-                allocator, drmSessionManager);
+
+        if (warmPeriod != null) {
+            // Already set up and playing into the allocator of the pool, from the latest keyframe
+            RtspMediaPeriod mediaPeriod = warmPeriod;
+            warmPeriod = null;
+            mediaPeriod.adopt(eventDispatcher, fallbackPolicy);
+            return mediaPeriod;
+        }
+
+        RtspMediaPeriod mediaPeriod = new RtspMediaPeriod(client, fallbackPolicy,
+                transferListener, eventDispatcher, allocator, drmSessionManager,
+                timeshiftDirectory, timeshiftMaxDurationUs, timeshiftMaxBytes);
+
+        if (timeshiftDirectory != null) {
+            client.getSession().setTimeshifting(true);
+
+            timeshiftPeriod = mediaPeriod;
+            timeshiftWindowStartUs = C.TIME_UNSET;
+            timeshiftWindowEndUs = C.TIME_UNSET;
+            handler.removeCallbacks(updateTimeshiftWindowRunnable);
+            handler.postDelayed(updateTimeshiftWindowRunnable, TIMESHIFT_WINDOW_UPDATE_INTERVAL_MS);
+        }
+
+        return mediaPeriod;
     }
 
     @Override
     public void releasePeriod(MediaPeriod mediaPeriod) {
+        if (mediaPeriod == timeshiftPeriod) {
+            handler.removeCallbacks(updateTimeshiftWindowRunnable);
+            timeshiftPeriod = null;
+        }
+
         ((RtspMediaPeriod) mediaPeriod).release();
     }
 
     @Override
     protected void prepareSourceInternal(@Nullable TransferListener transferListener) {
         this.transferListener = transferListener;
+        handler = Util.createHandlerForCurrentLooper();
 
         drmSessionManager.prepare();
         eventDispatcher = createEventDispatcher(null);
 
+        // A pooled session is already described, so that the timeline is known right away. The
+        // streams of a timeshifted period are recorded from their setup, so never pooled.
+        RtspSessionPool.PooledSession pooledSession =
+            (sessionPool != null && timeshiftDirectory == null) ? sessionPool.acquire(uri) : null;
+        if (pooledSession != null) {
+            client = pooledSession.client;
+            warmPeriod = pooledSession.getPeriod();
+            pooledSession.attach(this);
+            return;
+        }
+
         try {
 
             client = new Client.Builder(factory)
@@ -272,6 +401,17 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
 
     @Override
     public void releaseSourceInternal() {
+        if (handler != null) {
+            handler.removeCallbacksAndMessages(null);
+            handler = null;
+        }
+        timeshiftPeriod = null;
+
+        if (warmPeriod != null) {
+            warmPeriod.release();
+            warmPeriod = null;
+        }
+
         drmSessionManager.release();
         if (client != null) {
             client.release();
@@ -287,6 +427,32 @@ public final class RtspMediaSource extends BaseMediaSource implements Client.Eve
         refreshSourceInfo(timeline);
     }
 
+    private void updateTimeshiftWindow() {
+        RtspMediaPeriod mediaPeriod = timeshiftPeriod;
+        if (mediaPeriod == null || handler == null) {
+            return;
+        }
+
+        long windowStartUs = mediaPeriod.getTimeshiftWindowStartUs();
+        long windowEndUs = mediaPeriod.getTimeshiftWindowEndUs();
+
+        if (windowStartUs != C.TIME_UNSET && windowEndUs != C.TIME_UNSET &&
+            windowEndUs > windowStartUs &&
+            (windowStartUs != timeshiftWindowStartUs || windowEndUs != timeshiftWindowEndUs)) {
+            timeshiftWindowStartUs = windowStartUs;
+            timeshiftWindowEndUs = windowEndUs;
+
+            // The window slides over the period, whose times are the sample timestamps, and
+            // starts by default at the live edge
+            long windowDurationUs = windowEndUs - windowStartUs;
+            timeline = new SinglePeriodTimeline(C.TIME_UNSET, windowDurationUs, windowStartUs,
+                    windowDurationUs, true, true, isLive, null, mediaItem);
+            refreshSourceInfo(timeline);
+        }
+
+        handler.postDelayed(updateTimeshiftWindowRunnable, TIMESHIFT_WINDOW_UPDATE_INTERVAL_MS);
+    }
+
     @Override
     public void onMediaDescriptionTypeUnSupported(MediaType mediaType) {
         if (eventDispatcher != null) {
@@ -45,6 +45,7 @@ import com.adt.vpm.videoplayer.source.core.source.TrackGroupArray;
 import com.adt.vpm.videoplayer.source.core.trackselection.TrackSelection;
 import com.adt.vpm.videoplayer.source.core.upstream.Allocator;
 import com.adt.vpm.videoplayer.source.core.upstream.Loader;
+import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSink;
 import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSinkSource;
 import com.adt.vpm.videoplayer.source.core.upstream.UdpDataSource;
 import com.adt.vpm.videoplayer.source.core.util.ConditionVariable;
@@ -61,6 +62,7 @@ import com.adt.vpm.videoplayer.source.extractor.TrackOutput;
 import com.adt.vpm.videoplayer.source.extractor.UnsupportedFormatException;
 import com.adt.vpm.videoplayer.source.extractor.ts.TsExtractor;
 import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacketPool;
 import com.adt.vpm.videoplayer.source.rtp.extractor.DefaultRtpExtractor;
 import com.adt.vpm.videoplayer.source.rtp.extractor.RtpExtractorInput;
 import com.adt.vpm.videoplayer.source.rtp.extractor.RtpMp2tExtractor;
@@ -69,8 +71,11 @@ import com.adt.vpm.videoplayer.source.rtp.rtcp.RtcpPacket;
 import com.adt.vpm.videoplayer.source.rtp.upstream.RtcpInputReportDispatcher;
 import com.adt.vpm.videoplayer.source.rtp.upstream.RtcpOutputReportDispatcher;
 import com.adt.vpm.videoplayer.source.rtp.upstream.RtpBufferedDataSource;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpBundleSource;
 import com.adt.vpm.videoplayer.source.rtp.upstream.RtpDataSource;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpPacketSource;
 import com.adt.vpm.videoplayer.source.rtp.upstream.RtpQueue;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpSessionClock;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaFormat;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaSession;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaTrack;
@@ -90,6 +95,7 @@ import static android.os.Process.THREAD_PRIORITY_AUDIO;
 import static com.adt.vpm.videoplayer.source.common.util.Assertions.checkNotNull;
 import static com.adt.vpm.videoplayer.source.extractor.ts.DefaultTsPayloadReaderFactory.FLAG_ALLOW_NON_IDR_KEYFRAMES;
 import static com.adt.vpm.videoplayer.source.rtp.upstream.RtpDataSource.FLAG_ENABLE_RTCP_FEEDBACK;
+import static com.adt.vpm.videoplayer.source.rtp.upstream.RtpDataSource.FLAG_ENABLE_NACK_FEEDBACK;
 import static com.adt.vpm.videoplayer.source.rtp.upstream.RtpDataSource.FLAG_FORCE_RTCP_MULTIPLEXING;
 
 public final class RtspSampleStreamWrapper extends DrmSessionEventListener.EventDispatcher implements
@@ -135,7 +141,7 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
     private final MediaSession session;
     private final MediaTrack track;
     private final EventListener listener;
-    private final TransferListener transferListener;
+    @Nullable private final TransferListener transferListener;
     private final Runnable maybeFinishPrepareRunnable;
     private final Runnable onTracksEndedRunnable;
 
@@ -165,6 +171,13 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
     private int[] interleavedChannels;
     private MediaStreamLoadable loadable;
 
+    // Set when the track is received on the single port bundling the tracks of the session
+    @Nullable private volatile RtpBundleSource bundleSource;
+    @Nullable private volatile RtpBundleSource.Track bundleTrack;
+
+    // Set when the samples are recorded to disk and played back from there
+    @Nullable private final RtspTimeshiftBuffer timeshiftBuffer;
+
     private boolean tracksEnded;
     private Looper looper;
     private Handler handler;
@@ -174,6 +187,8 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
     private final TrackIdGenerator trackIdGenerator;
 
     private volatile RtpQueue samplesQueue;
+    private final RtpPacketPool packetPool;
+    @Nullable private final RtpSessionClock.Track clock;
     private final RtcpInputReportDispatcher inReportDispatcher;
     private final RtcpOutputReportDispatcher outReportDispatcher;
 
@@ -181,8 +196,8 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
     public RtspSampleStreamWrapper(MediaSession session, MediaTrack track,
         TrackIdGenerator trackIdGenerator, long positionUs, int bufferSize, long delayMs,
-        EventListener listener, TransferListener transferListener, Allocator allocator,
-        DrmSessionManager drmSessionManager) {
+        EventListener listener, @Nullable TransferListener transferListener, Allocator allocator,
+        DrmSessionManager drmSessionManager, @Nullable RtspTimeshiftBuffer timeshiftBuffer) {
         this.track = track;
         this.delayMs = delayMs;
         this.session = session;
@@ -193,6 +208,13 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         this.trackIdGenerator = trackIdGenerator;
         this.transferListener = transferListener;
         this.drmSessionManager = drmSessionManager;
+        this.timeshiftBuffer = timeshiftBuffer;
+
+        packetPool = new RtpPacketPool();
+
+        RtpPayloadFormat payloadFormat = track.format().format();
+        clock = (payloadFormat != null) ?
+            session.getClock().createTrack(payloadFormat.getClockrate()) : null;
 
         Log.d(TAG, "Cretaing RtspSampleStreamWrapper " + this);
         Log.d(TAG, "Track ID: " + track.trackId());
@@ -231,6 +253,10 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         pendingResetPositionUs = C.TIME_UNSET;
 
         session.addListener(this);
+
+        if (timeshiftBuffer != null) {
+            timeshiftBuffer.start(this::onTimeshiftSeekCompleted);
+        }
     }
 
     @Override
@@ -252,11 +278,16 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         Transport transport = track.format().transport();
 
         if (!prepared) {
-            loadable = (session.isInterleaved()) ?
-                    new TcpMediaStreamLoadable(this, handler, loadCondition) :
-                    (Transport.UDP.equals(transport.getLowerTransport())) ?
-                            new UdpMediaStreamLoadable(this, handler, loadCondition) :
-                            new TcpMediaStreamLoadable(this, handler, loadCondition);
+            if (session.isInterleaved() || !Transport.UDP.equals(transport.getLowerTransport())) {
+                loadable = new TcpMediaStreamLoadable(this, handler, loadCondition);
+
+            } else if (session.isBundled() &&
+                Transport.RTP_PROTOCOL.equals(transport.getTransportProtocol())) {
+                loadable = new BundledMediaStreamLoadable(this, handler, loadCondition);
+
+            } else {
+                loadable = new UdpMediaStreamLoadable(this, handler, loadCondition);
+            }
 
             loader.startLoading(loadable, looper, this,  0);
             prepared = true;
@@ -279,16 +310,13 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
             if (transport.getServerPort() != null && transport.getServerPort().length > 0) {
                 int port = Integer.parseInt(transport.getServerPort()[0]);
-                String host = (transport.getSource() != null) ? transport.getSource() :
-                        transport.getDestination();
-
-                if (host == null || InetUtil.isPrivateIpAddress(host)) {
-                    host = Uri.parse(track.url()).getHost();
-                }
+                String host = getServerHost(transport);
 
+                // Bundled tracks receive RTCP on the RTP port
                 boolean isNatRtcpNeeded = Transport.RTP_PROTOCOL.equals(
                     transport.getTransportProtocol()) && session.isRtcpSupported() &&
-                    !session.isRtcpMuxed() && transport.getServerPort().length == 2;
+                    !session.isRtcpMuxed() && bundleTrack == null &&
+                    transport.getServerPort().length == 2;
 
                 for (int count = 0; count < NUM_TIMES_TO_SEND; count++) {
                     sendPunchPacket(host, port);
@@ -304,6 +332,17 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         continueLoading(lastSeekPositionUs);
     }
 
+    private String getServerHost(Transport transport) {
+        String host = (transport.getSource() != null) ? transport.getSource() :
+                transport.getDestination();
+
+        if (host == null || InetUtil.isPrivateIpAddress(host)) {
+            host = Uri.parse(track.url()).getHost();
+        }
+
+        return host;
+    }
+
     private void sendPunchPacket(String host, int port) {
         try {
             final byte[] MAGIC_BYTES = new byte[4];
@@ -312,8 +351,16 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
             MAGIC_BYTES[1] = (byte) ((MAGIC_NUMBER >> 16) & 0xff);
             MAGIC_BYTES[0] = (byte) ((MAGIC_NUMBER >> 24) & 0xff);
 
-            ((UdpDataSinkSource) loadable.dataSource).writeTo(MAGIC_BYTES, 0,
+            RtpBundleSource bundleSource = this.bundleSource;
+            if (bundleSource != null) {
+                // A single mapping is opened in the NAT for all the bundled tracks
+                bundleSource.send(MAGIC_BYTES, 0, MAGIC_BYTES.length,
+                    InetAddress.getByName(host), port);
+
+            } else {
+                ((UdpDataSink) loadable.dataSource).writeTo(MAGIC_BYTES, 0,
                     MAGIC_BYTES.length, InetAddress.getByName(host), port);
+            }
 
         } catch (IOException ex) {
             // Do nothing
@@ -323,13 +370,18 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
     public void onInterleavedFrame(InterleavedFrame interleavedFrame) {
         if (prepared && !loadingFinished && interleavedChannels != null) {
             byte[] buffer = interleavedFrame.getData();
+            int length = interleavedFrame.getLength();
 
             if (interleavedFrame.getChannel() == interleavedChannels[0]) {
-                samplesQueue.offer(RtpPacket.parse(buffer, buffer.length));
+                // The frame buffer is reused by the receiver, so the packet gets a pooled copy
+                RtpPacket packet = packetPool.obtain(buffer, 0, length);
+                if (packet != null) {
+                    samplesQueue.offer(packet);
+                }
 
             } else if (interleavedChannels.length > 1 &&
                 interleavedFrame.getChannel() == interleavedChannels[1]) {
-                inReportDispatcher.dispatch(RtcpPacket.parse(buffer, buffer.length));
+                inReportDispatcher.dispatch(RtcpPacket.parse(buffer, length));
             }
         }
     }
@@ -367,6 +419,18 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
      */
     boolean seekToUs(long positionUs, boolean forceReset) {
         lastSeekPositionUs = positionUs;
+
+        if (timeshiftBuffer != null) {
+            // The recorded window is seeked into without the server knowing
+            if (!isPendingReset() && sampleQueuesBuilt && seekInsideBufferUs(positionUs)) {
+                return false;
+            }
+
+            pendingResetPositionUs = positionUs;
+            timeshiftBuffer.seekTo(positionUs);
+            return false;
+        }
+
         if (isPendingReset()) {
             // A reset is already pending. We only need to update its position.
             pendingResetPositionUs = positionUs;
@@ -397,6 +461,36 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         }
     }
 
+    /**
+     * Returns the timestamp of the first sample queued, in microseconds, or {@link C#TIME_UNSET}
+     * if none is queued.
+     */
+    long getFirstTimestampUs() {
+        long firstTimestampUs = Long.MAX_VALUE;
+        for (SampleQueue sampleQueue : sampleQueues) {
+            long queueFirstTimestampUs = sampleQueue.getFirstTimestampUs();
+            if (queueFirstTimestampUs != Long.MIN_VALUE) {
+                firstTimestampUs = Math.min(firstTimestampUs, queueFirstTimestampUs);
+            }
+        }
+
+        return firstTimestampUs == Long.MAX_VALUE ? C.TIME_UNSET : firstTimestampUs;
+    }
+
+    /**
+     * Returns the largest timestamp of the samples queued so far, discarded since or not, of the
+     * tracks selected or not, in microseconds, or {@link C#TIME_UNSET} if none was queued.
+     */
+    long getLargestQueuedTimestampUs() {
+        long largestTimestampUs = Long.MIN_VALUE;
+        for (SampleQueue sampleQueue : sampleQueues) {
+            largestTimestampUs = Math.max(largestTimestampUs,
+                sampleQueue.getLargestQueuedTimestampUs());
+        }
+
+        return largestTimestampUs == Long.MIN_VALUE ? C.TIME_UNSET : largestTimestampUs;
+    }
+
     public void release() {
         if (!released) {
             if (loader.isLoading()) {
@@ -404,6 +498,10 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                 loadable.release();
             }
 
+            if (timeshiftBuffer != null) {
+                timeshiftBuffer.release();
+            }
+
             if (prepared) {
                 // Discard as much as we can synchronously. We only do this if we're prepared, since otherwise
                 // sampleQueues may still be being modified by the loading thread.
@@ -477,7 +575,7 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
     @Override
     public void onResumePlayback() {
-        if (pendingResetPositionUs != C.TIME_UNSET) {
+        if (pendingResetPositionUs != C.TIME_UNSET && timeshiftBuffer == null) {
             if (loader.isLoading() && playback) {
                 loadable.seekLoad();
             }
@@ -486,7 +584,7 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
     @Override
     public void onSeekPlayback() {
-        if (pendingResetPositionUs != C.TIME_UNSET) {
+        if (pendingResetPositionUs != C.TIME_UNSET && timeshiftBuffer == null) {
             if (loader.isLoading() && playback) {
                 loadable.seekLoad();
             }
@@ -505,12 +603,36 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
     // RtcpOutputReportDispatcher implementation
     @Override
-    public void onOutputReport(RtcpPacket packet) {
-        if (packet != null) {
-            if (interleavedChannels.length > 1) {
-                session.onOutgoingInterleavedFrame(new InterleavedFrame(interleavedChannels[1],
-                        packet.getBytes()));
-            }
+    public void onOutputReport(byte[] buffer, int length) {
+        RtpBundleSource bundleSource = this.bundleSource;
+
+        if (bundleSource != null) {
+            sendBundledReport(bundleSource, buffer, length);
+
+        } else if (interleavedChannels != null && interleavedChannels.length > 1) {
+            // The frame is sent asynchronously, so it needs its own copy of the report
+            session.onOutgoingInterleavedFrame(new InterleavedFrame(interleavedChannels[1],
+                    Arrays.copyOf(buffer, length)));
+        }
+    }
+
+    private void sendBundledReport(RtpBundleSource bundleSource, byte[] buffer, int length) {
+        Transport transport = track.format().transport();
+        String[] serverPorts = transport.getServerPort();
+
+        if (serverPorts == null || serverPorts.length == 0) {
+            return;
+        }
+
+        String host = getServerHost(transport);
+        // A server not multiplexing RTCP still expects the reports on its own RTCP port
+        int port = Integer.parseInt(serverPorts[serverPorts.length - 1]);
+
+        try {
+            bundleSource.send(buffer, 0, length, InetAddress.getByName(host), port);
+
+        } catch (IOException ex) {
+            // Do nothing
         }
     }
 
@@ -639,7 +761,8 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         int trackCount = sampleQueues.length;
         for (int i = 0; i < trackCount; i++) {
             if (sampleQueueTrackIds[i] == id) {
-                return sampleQueues[i];
+                return (timeshiftBuffer != null) ? timeshiftBuffer.getTrackOutput(i) :
+                    sampleQueues[i];
             }
         }
         Log.d(TAG, "Track " + this);
@@ -655,7 +778,10 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         sampleQueues[trackCount] = sampleQueue;
 
         trackGroupEnabledStates = Arrays.copyOf(trackGroupEnabledStates, trackCount + 1);
-        return sampleQueue;
+
+        // Recorded samples reach the sample queue through the timeshift buffer
+        return (timeshiftBuffer != null) ? timeshiftBuffer.addTrack(type, sampleQueue) :
+            sampleQueue;
     }
 
     @Override
@@ -691,6 +817,9 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
     void maybeThrowError() throws IOException {
         //Log.e(TAG, "maybeThrowError on loader");
         loader.maybeThrowError();
+        if (timeshiftBuffer != null) {
+            timeshiftBuffer.maybeThrowError();
+        }
         //Log.e(TAG, "maybeThrowError on loader-->");
     }
 
@@ -715,6 +844,29 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         }
     }
 
+    /**
+     * Returns the start of the window recorded by the timeshift buffer, in microseconds, or
+     * {@link C#TIME_UNSET} if there is none or nothing was recorded yet.
+     */
+    long getTimeshiftWindowStartUs() {
+        return (timeshiftBuffer != null) ? timeshiftBuffer.getWindowStartUs() : C.TIME_UNSET;
+    }
+
+    /**
+     * Returns the end of the window recorded by the timeshift buffer, in microseconds, or
+     * {@link C#TIME_UNSET} if there is none or nothing was recorded yet.
+     */
+    long getTimeshiftWindowEndUs() {
+        return (timeshiftBuffer != null) ? timeshiftBuffer.getWindowEndUs() : C.TIME_UNSET;
+    }
+
+    private void onTimeshiftSeekCompleted(long positionUs) {
+        // A later seek keeps the reset pending
+        if (pendingResetPositionUs == positionUs) {
+            pendingResetPositionUs = C.TIME_UNSET;
+        }
+    }
+
     private void onTracksEnded() {
         sampleQueuesBuilt = true;
         maybeFinishPrepare();
@@ -770,6 +922,18 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         }
     }
 
+    private int getLocalUdpPort() {
+        int port;
+        Random random = new Random();
+
+        do {
+            port = UDP_PORT_MIN + random.nextInt(UDP_PORT_RANGE);
+
+        } while ((port % 2) != 0);
+
+        return port;
+    }
+
     private TrackGroupArray buildTrackGroups() {
         TrackGroup[] trackGroups = new TrackGroup[sampleQueues.length];
 
@@ -785,6 +949,10 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
         private Extractor extractor;
         private ExtractorInput extractorInput;
+
+        // Set when packets are read straight from the data source, bypassing the extractor input
+        @Nullable private DefaultRtpExtractor packetExtractor;
+        @Nullable private RtpPacketSource packetSource;
         private ExtractorOutput extractorOutput;
 
         volatile boolean loadCanceled;
@@ -853,7 +1021,7 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                 Transport transport = format.transport();
 
                 if (Transport.RTP_PROTOCOL.equals(transport.getTransportProtocol())) {
-                    if (transport.getSsrc() != null) {
+                    if (transport.getSsrc() != null && dataSource instanceof RtpDataSource) {
                         ((RtpDataSource) dataSource)
                                 .setSsrc(Long.parseLong(transport.getSsrc(), 16));
                     }
@@ -863,7 +1031,21 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                     if (MimeTypes.VIDEO_MP2T.equals(format.format().getSampleMimeType())) {
                         extractor = new RtpMp2tExtractor(FLAG_ALLOW_NON_IDR_KEYFRAMES);
                     } else {
-                        extractor = new DefaultRtpExtractor(format.format(), trackIdGenerator);
+                        // Keyframes can only be requested over the RTCP feedback of the source,
+                        // and only when opted in along with the drop of the corrupted frames
+                        DefaultRtpExtractor.KeyframeRequester keyframeRequester =
+                            (dataSource instanceof RtpDataSource && session.isRtcpSupported() &&
+                                session.isCorruptedFrameDropEnabled()) ?
+                                ((RtpDataSource) dataSource)::requestKeyframe : null;
+
+                        packetExtractor = new DefaultRtpExtractor(format.format(),
+                            trackIdGenerator, clock, session.isCorruptedFrameDropEnabled(),
+                            keyframeRequester);
+                        extractor = packetExtractor;
+
+                        if (dataSource instanceof RtpPacketSource) {
+                            packetSource = (RtpPacketSource) dataSource;
+                        }
                     }
 
                 } else {
@@ -930,6 +1112,8 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                     if (extractor != null) {
                         extractor.release();
                         extractor = null;
+                        packetExtractor = null;
+                        packetSource = null;
                     }
 
                     loadReleased = true;
@@ -944,6 +1128,10 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
         }
 
         int readInternal(@Nullable PositionHolder seekPosition) throws IOException, InterruptedException {
+            if (packetSource != null) {
+                return packetExtractor.read(packetSource);
+            }
+
             return extractor.read(extractorInput, seekPosition);
         }
 
@@ -1011,7 +1199,7 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
         // Internal methods
         protected DataSource buildAndOpenDataSource() throws IOException {
-            UdpDataSinkSource dataSource;
+            DataSource dataSource;
             MediaFormat format = track.format();
             Transport transport = format.transport();
             boolean isUdpSchema = false;
@@ -1027,10 +1215,26 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                     flags |= FLAG_FORCE_RTCP_MULTIPLEXING;
                 }
 
+                // Retransmissions are only requested when they can be waited for by reordering,
+                // from senders announcing retransmission support
+                if (delayMs > 0 && (payloadFormat.isNackSupported() ||
+                    payloadFormat.getRtxPayload() != -1)) {
+                    flags |= FLAG_ENABLE_NACK_FEEDBACK;
+                }
+
                 RtpQueue samplesQueue = (delayMs > 0) ?
                     RtpQueue.createPriorityQueue(payloadFormat.getClockrate(), delayMs) :
                     RtpQueue.createSimpleQueue(payloadFormat.getClockrate());
-                dataSource = new RtpDataSource(samplesQueue, flags, bufferSize);
+                RtpDataSource rtpDataSource = new RtpDataSource(samplesQueue, flags,
+                    RtpDataSource.getReceiveBufferSize(payloadFormat.getBitrate(), bufferSize));
+                rtpDataSource.setClock(clock);
+                rtpDataSource.setFullIntraRequestEnabled(payloadFormat.isFirSupported());
+
+                if (payloadFormat.getRtxPayload() != -1) {
+                    rtpDataSource.setRetransmissionPayloadType(payloadFormat.getRtxPayload(),
+                        (int) payloadFormat.getPayload());
+                }
+                dataSource = rtpDataSource;
 
             } else {
                 dataSource = new UdpDataSinkSource(UdpDataSource.DEFAULT_MAX_PACKET_SIZE, bufferSize);
@@ -1039,7 +1243,9 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
 
             localPort = getLocalUdpPort();
 
-            dataSource.addTransferListener(transferListener);
+            if (transferListener != null) {
+                dataSource.addTransferListener(transferListener);
+            }
 
             DataSpec dataSpec = new DataSpec(Uri.parse((isUdpSchema ? "udp" : "rtp") + "://" +
                     IPV4_ANY_ADDR + ":" + localPort), DataSpec.FLAG_FORCE_BOUND_LOCAL_ADDRESS);
@@ -1078,18 +1284,6 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
                 }
             }
         }
-
-        private int getLocalUdpPort() {
-            int port;
-            Random random = new Random();
-
-            do {
-                port = UDP_PORT_MIN + random.nextInt(UDP_PORT_RANGE);
-
-            } while ((port % 2) != 0);
-
-            return port;
-        }
     }
 
     /**
@@ -1117,20 +1311,24 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
             if (Transport.RTP_PROTOCOL.equals(transport.getTransportProtocol())) {
                 RtpPayloadFormat payloadFormat = format.format();
                 Log.d(TAG, "Creating SamplesQueue for " + format.format().getSampleMimeType());
-                samplesQueue = RtpQueue.createSimpleQueue(payloadFormat.getClockrate());
+                samplesQueue = RtpQueue.createSpscQueue(payloadFormat.getClockrate());
 
                 if (session.isRtcpSupported()) {
                     inReportDispatcher.open();
                     outReportDispatcher.open();
 
-                    dataSource = new RtpBufferedDataSource(samplesQueue, inReportDispatcher,
-                        outReportDispatcher);
+                    RtpBufferedDataSource bufferedDataSource = new RtpBufferedDataSource(
+                        samplesQueue, inReportDispatcher, outReportDispatcher);
+                    bufferedDataSource.setClock(clock);
+                    dataSource = bufferedDataSource;
 
                 } else {
                     dataSource = new RtpBufferedDataSource(samplesQueue);
                 }
 
-                dataSource.addTransferListener(transferListener);
+                if (transferListener != null) {
+                    dataSource.addTransferListener(transferListener);
+                }
 
                 DataSpec dataSpec = new DataSpec(Uri.parse(track.url()));
                 dataSource.open(dataSpec);
@@ -1159,4 +1357,93 @@ public final class RtspSampleStreamWrapper extends DrmSessionEventListener.Event
             }
         }
     }
+
+    /**
+     * Loads the media stream and extracts samples from the packets demultiplexed to the track by
+     * the bundle source of the session.
+     */
+  /* package */ final class BundledMediaStreamLoadable extends MediaStreamLoadable {
+
+        BundledMediaStreamLoadable(ExtractorOutput extractorOutput, Handler handler,
+                                   ConditionVariable loadCondition) {
+            super(extractorOutput, handler, loadCondition, false);
+        }
+
+        // Internal methods
+        protected DataSource buildAndOpenDataSource() throws IOException {
+            DataSource dataSource;
+            MediaFormat format = track.format();
+            RtpPayloadFormat payloadFormat = format.format();
+
+            RtpBundleSource bundleSource = session.openBundleSource(getLocalUdpPort(), bufferSize);
+
+            // Packets arrive from the bundle thread, and may be reordered by the network
+            samplesQueue = (delayMs > 0) ?
+                RtpQueue.createPriorityQueue(payloadFormat.getClockrate(), delayMs) :
+                RtpQueue.createSpscQueue(payloadFormat.getClockrate());
+
+            if (session.isRtcpSupported()) {
+                inReportDispatcher.open();
+                outReportDispatcher.open();
+
+                RtpBufferedDataSource bufferedDataSource = new RtpBufferedDataSource(
+                    samplesQueue, inReportDispatcher, outReportDispatcher);
+                bufferedDataSource.setClock(clock);
+                dataSource = bufferedDataSource;
+
+                bundleTrack = bundleSource.addTrack((int) payloadFormat.getPayload(),
+                    samplesQueue, inReportDispatcher);
+
+            } else {
+                dataSource = new RtpBufferedDataSource(samplesQueue);
+
+                bundleTrack = bundleSource.addTrack((int) payloadFormat.getPayload(),
+                    samplesQueue, null);
+            }
+
+            RtspSampleStreamWrapper.this.bundleSource = bundleSource;
+            localPort = bundleSource.getLocalPort();
+
+            if (transferListener != null) {
+                dataSource.addTransferListener(transferListener);
+            }
+
+            DataSpec dataSpec = new DataSpec(Uri.parse(track.url()));
+            dataSource.open(dataSpec);
+
+            return dataSource;
+        }
+
+        protected void loadMedia() throws IOException, InterruptedException {
+            RtpBundleSource.Track bundleTrack = checkNotNull(RtspSampleStreamWrapper.this.bundleTrack);
+
+            // The transport negotiated by SETUP may announce the SSRC of the track
+            Transport transport = track.format().transport();
+            if (transport.getSsrc() != null) {
+                bundleTrack.setSsrc(Long.parseLong(transport.getSsrc(), 16));
+            }
+
+            try {
+                int result = Extractor.RESULT_CONTINUE;
+                while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
+                    while (result == Extractor.RESULT_CONTINUE && !loadCanceled &&
+                        !isPendingReset()) {
+                        result = readInternal(null);
+                    }
+
+                    if (isPendingReset() && pendingResetPositionUs != C.TIME_UNSET) {
+                        resetSampleQueues();
+                        if (samplesQueue != null) {
+                            samplesQueue.reset();
+                        }
+                        seekInternal(pendingResetPositionUs);
+                        pendingResetPositionUs = C.TIME_UNSET;
+                    }
+                }
+
+            } finally {
+                checkNotNull(bundleSource).removeTrack(bundleTrack);
+            }
+        }
+    }
 }
@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.common.util.Assertions;
+import com.adt.vpm.videoplayer.source.common.util.Log;
+import com.adt.vpm.videoplayer.source.core.drm.DrmSessionManager;
+import com.adt.vpm.videoplayer.source.core.source.MediaPeriod;
+import com.adt.vpm.videoplayer.source.core.source.MediaSource.MediaPeriodId;
+import com.adt.vpm.videoplayer.source.core.source.MediaSourceEventListener.EventDispatcher;
+import com.adt.vpm.videoplayer.source.core.upstream.DefaultAllocator;
+import com.adt.vpm.videoplayer.source.rtsp.core.Client;
+import com.adt.vpm.videoplayer.source.rtsp.media.MediaType;
+import com.adt.vpm.videoplayer.source.rtsp.media.StartupMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A pool of RTSP sessions opened ahead of playback, so that switching to one of the pooled streams
+ * skips the connection, OPTIONS, DESCRIBE, SETUP and PLAY round trips, and the wait for a
+ * keyframe.
+ *
+ * A pooled session is handed over to the first {@link RtspMediaSource} prepared for its URI by a
+ * factory the pool is set on, see {@link RtspMediaSource.Factory#setSessionPool(RtspSessionPool)}.
+ * Once described, a pooled session sets up and plays its tracks into a media period of its own,
+ * whose buffer is trimmed to the latest group of pictures: the video samples before the latest
+ * keyframe, and the other samples before that keyframe, are discarded several times a second. The
+ * media source adopts the period, and the player starts rendering from that keyframe. Sessions
+ * waiting in the pool are kept alive, and are closed when failing, or when the pool is full, least
+ * recently warmed first.
+ *
+ * The samples buffered by each pooled session are bounded by {@link #setMaxBufferBytes(long)}:
+ * a group of pictures outgrowing it is discarded, the buffer then filling again from the next
+ * keyframe. The memory held by the sessions, that is by their sample buffers and the buffers of
+ * their control connections, is reported by {@link #getMemoryUsage()}. Without a buffer, pooled
+ * sessions are connected and described only, the media source setting up and playing the tracks.
+ */
+public final class RtspSessionPool {
+
+    /** The default maximum number of pooled sessions. */
+    public static final int DEFAULT_MAX_SESSIONS = 4;
+    /** The default interval of the keep-alives of the pooled sessions, in milliseconds. */
+    public static final long DEFAULT_KEEP_ALIVE_INTERVAL_MS = 30000;
+    /** The default maximum size of the samples buffered by each pooled session, in bytes. */
+    public static final long DEFAULT_MAX_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    private static final String TAG = "RtspSessionPool";
+
+    // Interval at which the buffers of the pooled sessions are trimmed, in milliseconds
+    private static final long BUFFER_TRIM_INTERVAL_MS = 100;
+
+    private final Client.Factory<? extends Client> factory;
+    private final int maxSessions;
+
+    // Sessions by URI, least recently warmed first
+    private final LinkedHashMap<String, PooledSession> sessions;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    private volatile long keepAliveIntervalMs;
+    private volatile long maxBufferBytes;
+    private boolean released;
+
+    /**
+     * Creates a pool holding up to {@link #DEFAULT_MAX_SESSIONS} sessions.
+     *
+     * @param factory The factory of the clients, the same as the one of the media source factory
+     *     the pool is set on.
+     */
+    public RtspSessionPool(Client.Factory<? extends Client> factory) {
+        this(factory, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * @param factory The factory of the clients, the same as the one of the media source factory
+     *     the pool is set on.
+     * @param maxSessions The maximum number of pooled sessions.
+     */
+    public RtspSessionPool(Client.Factory<? extends Client> factory, int maxSessions) {
+        Assertions.checkArgument(maxSessions > 0);
+
+        this.factory = Assertions.checkNotNull(factory);
+        this.maxSessions = maxSessions;
+
+        sessions = new LinkedHashMap<>();
+        keepAliveIntervalMs = DEFAULT_KEEP_ALIVE_INTERVAL_MS;
+        maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+
+        // Sessions are opened on a dedicated thread, the connection being blocking
+        thread = new HandlerThread("RtspSessionPool:Handler");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Sets the interval of the keep-alives of the pooled sessions, which must be shorter than the
+     * time after which the server closes an idle connection.
+     *
+     * @param keepAliveIntervalMs The interval, in milliseconds.
+     */
+    public void setKeepAliveIntervalMs(long keepAliveIntervalMs) {
+        Assertions.checkArgument(keepAliveIntervalMs > 0);
+        this.keepAliveIntervalMs = keepAliveIntervalMs;
+    }
+
+    /**
+     * Sets the maximum size of the samples buffered by each pooled session, applying to the
+     * sessions described afterwards. Up to a tenth of a second of media more is buffered before
+     * the buffer is trimmed.
+     *
+     * @param maxBufferBytes The size, in bytes, or 0 for the pooled sessions to be connected and
+     *     described only, neither set up nor playing.
+     */
+    public void setMaxBufferBytes(long maxBufferBytes) {
+        Assertions.checkArgument(maxBufferBytes >= 0);
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * Opens a session for a stream in the background and keeps it in the pool, unless already
+     * pooled. When the pool is full, the least recently warmed session is closed.
+     *
+     * @param uri The URI of the stream, as later given to the media source factory.
+     */
+    public void warm(Uri uri) {
+        String key = uri.toString();
+        List<PooledSession> evicted = new ArrayList<>();
+        PooledSession session;
+
+        synchronized (this) {
+            Assertions.checkState(!released);
+
+            session = sessions.remove(key);
+            if (session != null) {
+                // Already pooled, only moved to the most recently warmed end
+                sessions.put(key, session);
+                return;
+            }
+
+            Iterator<PooledSession> iterator = sessions.values().iterator();
+            while (sessions.size() >= maxSessions && iterator.hasNext()) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+
+            session = new PooledSession(key, uri);
+            sessions.put(key, session);
+        }
+
+        for (PooledSession evictedSession : evicted) {
+            evictedSession.close();
+        }
+
+        handler.post(session::open);
+    }
+
+    /**
+     * Closes the pooled session of a stream, if any.
+     *
+     * @param uri The URI of the stream.
+     */
+    public void evict(Uri uri) {
+        PooledSession session;
+        synchronized (this) {
+            session = sessions.remove(uri.toString());
+        }
+
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the number of pooled sessions.
+     */
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the memory held by the pooled sessions, that is by their sample buffers and the
+     * buffers of their control connections, in bytes.
+     */
+    public synchronized long getMemoryUsage() {
+        long memoryUsage = 0;
+        for (PooledSession session : sessions.values()) {
+            memoryUsage += session.getMemoryUsage();
+        }
+
+        return memoryUsage;
+    }
+
+    /**
+     * Closes every pooled session, and stops the pool. The sessions already handed over to media
+     * sources are not affected.
+     */
+    public void release() {
+        List<PooledSession> evicted;
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+
+            released = true;
+            evicted = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+
+        for (PooledSession session : evicted) {
+            session.close();
+        }
+
+        thread.quit();
+    }
+
+    /**
+     * Takes the pooled session of a stream out of the pool, provided it is described.
+     *
+     * @param uri The URI of the stream.
+     * @return The session, to be attached, or null if none is ready.
+     */
+    @Nullable
+    /* package */ synchronized PooledSession acquire(Uri uri) {
+        String key = uri.toString();
+        PooledSession session = sessions.get(key);
+
+        // A session still being opened is left to be used by the next switch to the stream
+        if (session == null || !session.isDescribed()) {
+            return null;
+        }
+
+        sessions.remove(key);
+        session.take();
+        return session;
+    }
+
+    private synchronized void remove(PooledSession session) {
+        if (sessions.get(session.key) == session) {
+            sessions.remove(session.key);
+        }
+    }
+
+    /**
+     * A session of the pool, whose client events are held until attached to a media source, and
+     * forwarded afterwards.
+     */
+    /* package */ final class PooledSession implements Client.EventListener, MediaPeriod.Callback {
+
+        final Client client;
+
+        private final String key;
+        private final Runnable keepAliveRunnable;
+        private final Runnable trimBufferRunnable;
+
+        // Set when playing into the buffer, the period being adopted by the media source
+        @Nullable private RtspMediaPeriod period;
+        @Nullable private DefaultAllocator allocator;
+
+        @Nullable private Client.EventListener listener;
+        // Failure of the client taken out of the pool before being attached, forwarded on attach
+        @Nullable private Throwable pendingError;
+        private int pendingErrorType;
+        @Nullable private MediaType pendingUnsupportedType;
+        private boolean pooled;
+        private boolean described;
+        private long durationUs;
+        private boolean closed;
+
+        private PooledSession(String key, Uri uri) {
+            this.key = key;
+
+            client = new Client.Builder(factory)
+                .setUri(uri)
+                .setListener(this)
+                .build();
+            client.getSession().setPooled(true);
+
+            pooled = true;
+            durationUs = C.TIME_UNSET;
+            keepAliveRunnable = this::keepAlive;
+            trimBufferRunnable = this::trimBuffer;
+        }
+
+        /**
+         * Attaches the session to a media source, which is then called with the events of the
+         * client, starting with the description of the session.
+         *
+         * @param listener The listener of the client events.
+         */
+        synchronized void attach(Client.EventListener listener) {
+            this.listener = listener;
+            client.getSession().setPooled(false);
+
+            // Startup is measured from the attachment, the phases gone through while pooled
+            // taking no time
+            StartupMetrics metrics = client.getSession().getStartupMetrics();
+            metrics.start();
+            metrics.end(StartupMetrics.PHASE_CONNECT);
+            metrics.end(StartupMetrics.PHASE_DESCRIBE);
+            if (period != null) {
+                metrics.end(StartupMetrics.PHASE_SETUP);
+                metrics.end(StartupMetrics.PHASE_PLAY);
+            }
+
+            listener.onMediaDescriptionInfoRefreshed(durationUs);
+
+            if (pendingUnsupportedType != null) {
+                listener.onMediaDescriptionTypeUnSupported(pendingUnsupportedType);
+                pendingUnsupportedType = null;
+            }
+
+            if (pendingError != null) {
+                listener.onClientError(pendingError, pendingErrorType);
+                pendingError = null;
+            }
+        }
+
+        /**
+         * Returns the period the session plays into, to be adopted by the media source, or null
+         * if the session is not playing.
+         */
+        @Nullable
+        synchronized RtspMediaPeriod getPeriod() {
+            return period;
+        }
+
+        private synchronized boolean isDescribed() {
+            return described && !closed;
+        }
+
+        private synchronized long getMemoryUsage() {
+            long memoryUsage = client.getConnectionBufferSize();
+            if (allocator != null) {
+                memoryUsage += allocator.getTotalBytesAllocated();
+            }
+
+            return memoryUsage;
+        }
+
+        private void open() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+            }
+
+            try {
+
+                client.open();
+
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to open the session of " + key, ex);
+                discard();
+                return;
+            }
+
+            synchronized (this) {
+                if (!closed) {
+                    return;
+                }
+            }
+
+            // Evicted while connecting
+            client.release();
+        }
+
+        // Taken out of the pool, the session now belonging to the media source it is attached to
+        private void take() {
+            synchronized (this) {
+                pooled = false;
+            }
+
+            handler.removeCallbacks(keepAliveRunnable);
+            handler.removeCallbacks(trimBufferRunnable);
+        }
+
+        private void play() {
+            synchronized (this) {
+                if (closed || !pooled || period != null) {
+                    return;
+                }
+
+                // The period id is only required by the dispatcher, which has no listener
+                EventDispatcher eventDispatcher = new EventDispatcher()
+                    .withParameters(0, new MediaPeriodId(key), 0);
+                allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+                period = new RtspMediaPeriod(client, null, null, eventDispatcher, allocator,
+                    DrmSessionManager.getDummyDrmSessionManager(), null, 0, 0);
+
+                // Prepared while locked, so that the period is not adopted halfway
+                period.prepare(this, 0);
+            }
+
+            handler.postDelayed(trimBufferRunnable, BUFFER_TRIM_INTERVAL_MS);
+        }
+
+        private void trimBuffer() {
+            synchronized (this) {
+                if (closed || !pooled) {
+                    return;
+                }
+
+                RtspMediaPeriod period = Assertions.checkNotNull(this.period);
+                DefaultAllocator allocator = Assertions.checkNotNull(this.allocator);
+
+                if (!period.isEnded()) {
+                    period.discardToLatestKeyframe();
+                    if (allocator.getTotalBytesAllocated() > maxBufferBytes) {
+                        // Filled again from the next keyframe
+                        period.discardBufferToEnd();
+                    }
+
+                    // The discarded samples are not held by the allocator either
+                    allocator.trim();
+                    handler.postDelayed(trimBufferRunnable, BUFFER_TRIM_INTERVAL_MS);
+                    return;
+                }
+            }
+
+            Log.w(TAG, "Pooled session of " + key + " stopped playing");
+            discard();
+        }
+
+        private void keepAlive() {
+            synchronized (this) {
+                if (closed || !pooled) {
+                    return;
+                }
+            }
+
+            client.sendConnectionKeepAlive();
+            handler.postDelayed(keepAliveRunnable, keepAliveIntervalMs);
+        }
+
+        private void close() {
+            RtspMediaPeriod period;
+            synchronized (this) {
+                if (closed || !pooled) {
+                    return;
+                }
+
+                closed = true;
+                period = this.period;
+            }
+
+            handler.removeCallbacks(keepAliveRunnable);
+            handler.removeCallbacks(trimBufferRunnable);
+
+            // Tears the session down
+            if (period != null) {
+                period.release();
+            }
+            client.release();
+        }
+
+        // Taken out of the pool after a failure, the client having closed itself
+        private void discard() {
+            remove(this);
+            close();
+        }
+
+        @Nullable
+        private synchronized Client.EventListener getListener() {
+            return listener;
+        }
+
+        // MediaPeriod.Callback implementation
+        @Override
+        public void onPrepared(MediaPeriod mediaPeriod) {
+            // Do nothing, the buffer being trimmed from the first samples
+        }
+
+        @Override
+        public void onContinueLoadingRequested(MediaPeriod source) {
+            // Do nothing, the media being pushed by the server
+        }
+
+        // Client.EventListener implementation
+        @Override
+        public void onMediaDescriptionInfoRefreshed(long durationUs) {
+            synchronized (this) {
+                if (listener == null) {
+                    this.durationUs = durationUs;
+                    described = true;
+
+                    handler.postDelayed(keepAliveRunnable, keepAliveIntervalMs);
+                    if (maxBufferBytes > 0) {
+                        handler.post(this::play);
+                    }
+                    return;
+                }
+            }
+
+            listener.onMediaDescriptionInfoRefreshed(durationUs);
+        }
+
+        @Override
+        public void onMediaDescriptionTypeUnSupported(MediaType mediaType) {
+            Client.EventListener listener;
+            synchronized (this) {
+                listener = this.listener;
+                if (listener == null && !pooled) {
+                    pendingUnsupportedType = mediaType;
+                    return;
+                }
+            }
+
+            if (listener != null) {
+                listener.onMediaDescriptionTypeUnSupported(mediaType);
+
+            } else {
+                discard();
+            }
+        }
+
+        @Override
+        public void onTransportProtocolNegotiated(@C.TransportProtocol int protocol) {
+            Client.EventListener listener = getListener();
+            if (listener != null) {
+                listener.onTransportProtocolNegotiated(protocol);
+            }
+        }
+
+        @Override
+        public void onClientError(Throwable throwable, int type) {
+            Client.EventListener listener;
+            synchronized (this) {
+                listener = this.listener;
+                if (listener == null && !pooled) {
+                    // Taken out of the pool, the media source it is attached to gets the error
+                    if (pendingError == null) {
+                        pendingError = throwable;
+                        pendingErrorType = type;
+                    }
+                    return;
+                }
+            }
+
+            if (listener != null) {
+                listener.onClientError(throwable, type);
+
+            } else {
+                Log.w(TAG, "Pooled session of " + key + " failed, type " + type);
+                discard();
+            }
+        }
+    }
+}
@@ -0,0 +1,785 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.common.Format;
+import com.adt.vpm.videoplayer.source.common.upstream.DataReader;
+import com.adt.vpm.videoplayer.source.common.util.Log;
+import com.adt.vpm.videoplayer.source.common.util.ParsableByteArray;
+import com.adt.vpm.videoplayer.source.common.util.Util;
+import com.adt.vpm.videoplayer.source.core.source.SampleQueue;
+import com.adt.vpm.videoplayer.source.extractor.TrackOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Records the samples of a live stream into a bounded ring of segment files on disk, and plays
+ * them back into the sample queues of the stream from any position of the recorded window, so
+ * that a live stream can be paused and rewound while only a few seconds of it are held in memory.
+ *
+ * Each segment holds a sequence of sample records, and starts with a keyframe of the video track,
+ * or of any track if there is none, so that playback can start at any segment. Once the recorded
+ * window is longer or larger than its limits, its oldest segments are deleted.
+ *
+ * Samples are written by the loading thread through the outputs returned by {@link #addTrack},
+ * and read into the sample queues by a thread of the buffer, which keeps at most
+ * {@link #READ_AHEAD_US} of media queued ahead of the oldest sample not yet discarded. Written
+ * samples are buffered, and handed over to the reader once flushed, at least every
+ * {@link #FLUSH_INTERVAL_US} of media. The files are only written, created and deleted holding
+ * a lock of the writer, so that the disk does not hold up the playback thread querying the
+ * window or seeking.
+ */
+/* package */ final class RtspTimeshiftBuffer {
+
+    /** Listener of the seeks performed by the buffer. */
+    interface Listener {
+        /**
+         * Called by the reader thread once the sample queues were reset and are filled again
+         * from the seek position.
+         *
+         * @param positionUs The position passed to {@link #seekTo(long)}.
+         */
+        void onSeekCompleted(long positionUs);
+    }
+
+    private static final String TAG = "RtspTimeshiftBuffer";
+
+    private static final String THREAD_NAME = "RtspTimeshiftBuffer:Reader";
+
+    /** The maximum duration of media queued in the sample queues, in microseconds. */
+    static final long READ_AHEAD_US = 10_000_000;
+
+    /** The minimum duration of a segment, in microseconds. */
+    private static final long SEGMENT_DURATION_US = 2_000_000;
+
+    private static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /** The maximum duration of media written but not handed over to the reader yet. */
+    private static final long FLUSH_INTERVAL_US = 100_000;
+    /** The size of the write buffer, beyond which the written samples are flushed. */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // Track index (1), format index (4), timestamp (8), flags (4) and size (4)
+    private static final int RECORD_HEADER_SIZE = 21;
+
+    /** The time the reader waits for new samples or for the sample queues to drain. */
+    private static final long READ_POLL_INTERVAL_MS = 100;
+
+    private static final int INITIAL_SAMPLE_BUFFER_SIZE = 64 * 1024;
+
+    private static final class Segment {
+        private final int sequence;
+        private final File file;
+        private final long startTimeUs;
+
+        private long length;
+        private boolean finished;
+
+        private Segment(int sequence, File file, long startTimeUs) {
+            this.sequence = sequence;
+            this.file = file;
+            this.startTimeUs = startTimeUs;
+        }
+    }
+
+    /**
+     * The output of a track, recording the samples the extractor passes to it.
+     */
+    private final class Track implements TrackOutput {
+
+        private final int index;
+        private final int type;
+        private final SampleQueue sampleQueue;
+
+        // The formats of the track, referenced by index from the records
+        private final ArrayList<Format> formats;
+
+        // Data passed by the extractor, not yet committed to a sample. Only used by the writer
+        private byte[] data;
+        private int dataLength;
+
+        // The format last passed to the sample queue. Only used by the reader
+        private int queuedFormatIndex;
+
+        private Track(int index, int type, SampleQueue sampleQueue) {
+            this.index = index;
+            this.type = type;
+            this.sampleQueue = sampleQueue;
+
+            formats = new ArrayList<>();
+            data = new byte[INITIAL_SAMPLE_BUFFER_SIZE];
+            queuedFormatIndex = C.INDEX_UNSET;
+        }
+
+        @Override
+        public void format(Format format) {
+            synchronized (RtspTimeshiftBuffer.this) {
+                if (formats.isEmpty() || !format.equals(formats.get(formats.size() - 1))) {
+                    formats.add(format);
+                    RtspTimeshiftBuffer.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public int sampleData(DataReader input, int length, boolean allowEndOfInput,
+            @SampleDataPart int sampleDataPart) throws IOException {
+            ensureCapacity(dataLength + length);
+
+            int bytesRead = input.read(data, dataLength, length);
+            if (bytesRead == C.RESULT_END_OF_INPUT) {
+                if (allowEndOfInput) {
+                    return C.RESULT_END_OF_INPUT;
+                }
+
+                throw new EOFException();
+            }
+
+            dataLength += bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public void sampleData(ParsableByteArray input, int length,
+            @SampleDataPart int sampleDataPart) {
+            ensureCapacity(dataLength + length);
+
+            input.readBytes(data, dataLength, length);
+            dataLength += length;
+        }
+
+        @Override
+        public void sampleMetadata(long timeUs, @C.BufferFlags int flags, int size, int offset,
+            @Nullable CryptoData cryptoData) {
+            int sampleOffset = dataLength - offset - size;
+            if (sampleOffset >= 0) {
+                writeSample(this, timeUs, flags, sampleOffset, size);
+            }
+
+            // The bytes passed after the sample belong to the next one, the ones before it are
+            // dropped as the sample queue does
+            System.arraycopy(data, dataLength - offset, data, 0, offset);
+            dataLength = offset;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+            }
+        }
+    }
+
+    private final File directory;
+    private final long maxDurationUs;
+    private final long maxBytes;
+
+    private final ArrayList<Track> tracks;
+    private final ArrayDeque<Segment> segments;
+
+    private boolean hasVideoTrack;
+    private long totalBytes;
+    private volatile long windowStartUs;
+    private volatile long windowEndUs;
+    private volatile boolean released;
+    @Nullable private volatile IOException error;
+
+    // Writer state, only used by the loading thread and guarded by the write lock, which is taken
+    // before the buffer when both are
+    private final Object writeLock;
+    private final byte[] recordHeader;
+    @Nullable private BufferedOutputStream output;
+    @Nullable private Segment writeSegment;
+    private int nextSequence;
+    private boolean keyframeWritten;
+    // Samples written to the output since it was last flushed
+    private long unflushedBytes;
+    private long unflushedStartTimeUs;
+    private long unflushedLargestTimestampUs;
+
+    // Reader state, only used by the reader thread
+    private final byte[] readHeader;
+    private final ParsableByteArray recordData;
+    private byte[] readBuffer;
+    @Nullable private RandomAccessFile input;
+    @Nullable private Segment readSegment;
+    private long readOffset;
+
+    @Nullable private Thread thread;
+    @Nullable private Listener listener;
+    private long pendingSeekPositionUs;
+
+    /**
+     * @param directory The directory the segments are written to, which is used by this buffer
+     *     only and cleared of its segments on creation and release.
+     * @param maxDurationUs The maximum duration of the recorded window, in microseconds.
+     * @param maxBytes The maximum size of the segments, in bytes.
+     */
+    RtspTimeshiftBuffer(File directory, long maxDurationUs, long maxBytes) {
+        this.directory = directory;
+        this.maxDurationUs = maxDurationUs;
+        this.maxBytes = maxBytes;
+
+        tracks = new ArrayList<>();
+        segments = new ArrayDeque<>();
+
+        writeLock = new Object();
+        recordHeader = new byte[RECORD_HEADER_SIZE];
+        readHeader = new byte[RECORD_HEADER_SIZE];
+        recordData = new ParsableByteArray();
+        readBuffer = new byte[INITIAL_SAMPLE_BUFFER_SIZE];
+
+        windowStartUs = C.TIME_UNSET;
+        windowEndUs = C.TIME_UNSET;
+        unflushedStartTimeUs = C.TIME_UNSET;
+        unflushedLargestTimestampUs = C.TIME_UNSET;
+        pendingSeekPositionUs = C.TIME_UNSET;
+    }
+
+    /**
+     * Starts the reader thread, which fills the sample queues from the oldest recorded sample.
+     *
+     * @param listener The listener of the seeks.
+     */
+    synchronized void start(Listener listener) {
+        if (thread != null || released) {
+            return;
+        }
+
+        this.listener = listener;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            error = new IOException("Unable to create " + directory);
+            return;
+        }
+
+        deleteSegmentFiles();
+
+        thread = new Thread(this::read, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds a track, whose samples are recorded and then played back into its sample queue.
+     * Called by the loading thread.
+     *
+     * @param type The {@link C}{@code .TRACK_TYPE_*} of the track.
+     * @param sampleQueue The sample queue of the track, only written to by the reader thread.
+     * @return The output the extractor passes the samples of the track to.
+     */
+    synchronized TrackOutput addTrack(int type, SampleQueue sampleQueue) {
+        Track track = new Track(tracks.size(), type, sampleQueue);
+        tracks.add(track);
+        hasVideoTrack |= type == C.TRACK_TYPE_VIDEO;
+        return track;
+    }
+
+    /**
+     * Returns the output of a track previously added.
+     *
+     * @param index The index of the track, in order of addition.
+     */
+    synchronized TrackOutput getTrackOutput(int index) {
+        return tracks.get(index);
+    }
+
+    /**
+     * Returns the timestamp of the oldest recorded sample playback can start at, in microseconds,
+     * or {@link C#TIME_UNSET} if nothing was recorded yet.
+     */
+    long getWindowStartUs() {
+        return windowStartUs;
+    }
+
+    /**
+     * Returns the largest recorded timestamp, in microseconds, or {@link C#TIME_UNSET} if nothing
+     * was recorded yet.
+     */
+    long getWindowEndUs() {
+        return windowEndUs;
+    }
+
+    /**
+     * Resets the sample queues and fills them again from the segment holding a position, the
+     * samples before the position being decoded only. Completion is reported to the listener.
+     *
+     * @param positionUs The position, in microseconds.
+     */
+    synchronized void seekTo(long positionUs) {
+        pendingSeekPositionUs = positionUs;
+        notifyAll();
+    }
+
+    /**
+     * Throws the error that stopped recording or playing back, if any.
+     *
+     * @throws IOException The error.
+     */
+    void maybeThrowError() throws IOException {
+        IOException error = this.error;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /** Stops the reader thread and deletes the segments. */
+    void release() {
+        Thread thread;
+
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+
+            released = true;
+            thread = this.thread;
+            this.thread = null;
+
+            notifyAll();
+        }
+
+        synchronized (writeLock) {
+            Util.closeQuietly(output);
+            output = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            segments.clear();
+            totalBytes = 0;
+            windowStartUs = C.TIME_UNSET;
+        }
+
+        deleteSegmentFiles();
+    }
+
+    // Writer internal methods
+
+    private void writeSample(Track track, long timeUs, @C.BufferFlags int flags, int offset,
+        int size) {
+        boolean isKeyframe = (flags & C.BUFFER_FLAG_KEY_FRAME) != 0;
+        boolean startsSegment = isKeyframe && (track.type == C.TRACK_TYPE_VIDEO || !hasVideoTrack);
+
+        // Recording starts at a keyframe, as any segment does
+        if (!keyframeWritten && !startsSegment) {
+            return;
+        }
+
+        int formatIndex;
+        synchronized (this) {
+            if (released || error != null || track.formats.isEmpty()) {
+                return;
+            }
+
+            formatIndex = track.formats.size() - 1;
+        }
+
+        synchronized (writeLock) {
+            if (released) {
+                return;
+            }
+
+            try {
+                Segment segment = writeSegment;
+                if (segment == null ||
+                    (startsSegment && timeUs - segment.startTimeUs >= SEGMENT_DURATION_US)) {
+                    startSegment(timeUs);
+                }
+
+                writeRecordHeader(track.index, formatIndex, timeUs, flags, size);
+
+                BufferedOutputStream output = Util.castNonNull(this.output);
+                output.write(recordHeader, 0, RECORD_HEADER_SIZE);
+                output.write(track.data, offset, size);
+
+                unflushedBytes += RECORD_HEADER_SIZE + size;
+                if (unflushedStartTimeUs == C.TIME_UNSET) {
+                    unflushedStartTimeUs = timeUs;
+                }
+                unflushedLargestTimestampUs = (unflushedLargestTimestampUs == C.TIME_UNSET) ?
+                    timeUs : Math.max(unflushedLargestTimestampUs, timeUs);
+                keyframeWritten = true;
+
+                if (unflushedBytes >= WRITE_BUFFER_SIZE ||
+                    Math.abs(timeUs - unflushedStartTimeUs) >= FLUSH_INTERVAL_US) {
+                    flush(/* finishSegment= */ false);
+                }
+
+            } catch (IOException e) {
+                Log.w(TAG, "Recording failed: " + e.getMessage());
+                error = e;
+            }
+        }
+    }
+
+    // Called holding the write lock. Hands the written samples over to the reader
+    private void flush(boolean finishSegment) throws IOException {
+        Segment segment = Util.castNonNull(writeSegment);
+        Util.castNonNull(output).flush();
+
+        synchronized (this) {
+            segment.length += unflushedBytes;
+            totalBytes += unflushedBytes;
+            if (finishSegment) {
+                segment.finished = true;
+            }
+
+            if (unflushedLargestTimestampUs != C.TIME_UNSET) {
+                windowEndUs = (windowEndUs == C.TIME_UNSET) ? unflushedLargestTimestampUs :
+                    Math.max(windowEndUs, unflushedLargestTimestampUs);
+            }
+
+            notifyAll();
+        }
+
+        unflushedBytes = 0;
+        unflushedStartTimeUs = C.TIME_UNSET;
+        unflushedLargestTimestampUs = C.TIME_UNSET;
+    }
+
+    // Called holding the write lock
+    private void startSegment(long timeUs) throws IOException {
+        if (writeSegment != null) {
+            flush(/* finishSegment= */ true);
+            Util.closeQuietly(output);
+            output = null;
+        }
+
+        int sequence = nextSequence++;
+        Segment segment = new Segment(sequence,
+            new File(directory, sequence + SEGMENT_FILE_EXTENSION), timeUs);
+        output = new BufferedOutputStream(new FileOutputStream(segment.file), WRITE_BUFFER_SIZE);
+        writeSegment = segment;
+
+        ArrayList<Segment> evictedSegments;
+        synchronized (this) {
+            segments.addLast(segment);
+            evictedSegments = evictSegments(timeUs);
+            windowStartUs = segments.peekFirst().startTimeUs;
+        }
+
+        // A reader still on an evicted segment keeps reading it from its open file
+        for (int i = 0; i < evictedSegments.size(); i++) {
+            File file = evictedSegments.get(i).file;
+            if (!file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    private ArrayList<Segment> evictSegments(long timeUs) {
+        ArrayList<Segment> evictedSegments = new ArrayList<>();
+
+        // The segment being written is always kept
+        while (segments.size() > 1) {
+            Segment oldest = segments.peekFirst();
+
+            if (totalBytes <= maxBytes && timeUs - oldest.startTimeUs <= maxDurationUs) {
+                break;
+            }
+
+            segments.removeFirst();
+            totalBytes -= oldest.length;
+            evictedSegments.add(oldest);
+        }
+
+        return evictedSegments;
+    }
+
+    private void writeRecordHeader(int trackIndex, int formatIndex, long timeUs, int flags,
+        int size) {
+        byte[] header = recordHeader;
+        header[0] = (byte) trackIndex;
+        putInt(header, 1, formatIndex);
+        putInt(header, 5, (int) (timeUs >>> 32));
+        putInt(header, 9, (int) timeUs);
+        putInt(header, 13, flags);
+        putInt(header, 17, size);
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_FILE_EXTENSION) && !file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    // Reader internal methods
+
+    private void read() {
+        try {
+            while (true) {
+                long seekPositionUs;
+
+                synchronized (this) {
+                    if (released) {
+                        break;
+                    }
+
+                    seekPositionUs = pendingSeekPositionUs;
+                    pendingSeekPositionUs = C.TIME_UNSET;
+                }
+
+                if (seekPositionUs != C.TIME_UNSET) {
+                    seekInternal(seekPositionUs);
+                    Util.castNonNull(listener).onSeekCompleted(seekPositionUs);
+
+                } else if (!readSample()) {
+                    synchronized (this) {
+                        if (!released && pendingSeekPositionUs == C.TIME_UNSET) {
+                            wait(READ_POLL_INTERVAL_MS);
+                        }
+                    }
+                }
+            }
+
+        } catch (InterruptedException e) {
+            // Released
+
+        } catch (IOException e) {
+            if (!released) {
+                Log.w(TAG, "Playback failed: " + e.getMessage());
+                error = e;
+            }
+
+        } finally {
+            Util.closeQuietly(input);
+            input = null;
+            readSegment = null;
+        }
+    }
+
+    /**
+     * Reads the next recorded sample into its sample queue.
+     *
+     * @return Whether a sample or a segment was read, or false if the reader has to wait.
+     */
+    private boolean readSample() throws IOException {
+        Track[] tracks;
+        Segment segment;
+        long length;
+        boolean finished;
+
+        if (readSegment == null) {
+            Segment oldest;
+            synchronized (this) {
+                oldest = segments.peekFirst();
+                if (oldest == null) {
+                    maybeQueueFormats(this.tracks.toArray(new Track[0]));
+                    return false;
+                }
+            }
+
+            // Retried with the next oldest segment if evicted meanwhile
+            openSegment(oldest);
+            return true;
+        }
+
+        synchronized (this) {
+            tracks = this.tracks.toArray(new Track[0]);
+            segment = Util.castNonNull(readSegment);
+            length = segment.length;
+            finished = segment.finished;
+        }
+
+        if (isReadAheadFull(tracks)) {
+            return false;
+        }
+
+        if (readOffset + RECORD_HEADER_SIZE > length) {
+            if (!finished) {
+                return false;
+            }
+
+            Segment next;
+            synchronized (this) {
+                next = nextSegment(segment);
+            }
+
+            if (next == null) {
+                return false;
+            }
+
+            openSegment(next);
+            return true;
+        }
+
+        RandomAccessFile input = Util.castNonNull(this.input);
+        input.readFully(readHeader, 0, RECORD_HEADER_SIZE);
+
+        Track track = tracks[readHeader[0] & 0xFF];
+        int formatIndex = getInt(readHeader, 1);
+        long timeUs = ((long) getInt(readHeader, 5) << 32) |
+            (getInt(readHeader, 9) & 0xFFFFFFFFL);
+        int flags = getInt(readHeader, 13);
+        int size = getInt(readHeader, 17);
+
+        if (readBuffer.length < size) {
+            readBuffer = new byte[Math.max(size, readBuffer.length * 2)];
+        }
+
+        input.readFully(readBuffer, 0, size);
+        readOffset += RECORD_HEADER_SIZE + size;
+
+        if (track.queuedFormatIndex != formatIndex) {
+            Format format;
+            synchronized (this) {
+                format = track.formats.get(formatIndex);
+            }
+
+            track.sampleQueue.format(format);
+            track.queuedFormatIndex = formatIndex;
+        }
+
+        recordData.reset(readBuffer, size);
+        track.sampleQueue.sampleData(recordData, size);
+        track.sampleQueue.sampleMetadata(timeUs, flags, size, /* offset= */ 0,
+            /* cryptoData= */ null);
+
+        return true;
+    }
+
+    private void seekInternal(long positionUs) throws IOException {
+        Track[] tracks;
+        Segment target = null;
+
+        synchronized (this) {
+            tracks = this.tracks.toArray(new Track[0]);
+
+            // The last segment starting at or before the position, or the oldest one
+            for (Segment segment : segments) {
+                if (target != null && segment.startTimeUs > positionUs) {
+                    break;
+                }
+
+                target = segment;
+            }
+        }
+
+        for (Track track : tracks) {
+            track.sampleQueue.reset();
+            track.sampleQueue.setStartTimeUs(positionUs);
+            track.queuedFormatIndex = C.INDEX_UNSET;
+        }
+
+        if (target != null) {
+            openSegment(target);
+
+        } else {
+            Util.closeQuietly(input);
+            input = null;
+            readSegment = null;
+        }
+    }
+
+    private void openSegment(Segment segment) throws IOException {
+        Util.closeQuietly(input);
+        input = null;
+        readSegment = null;
+
+        try {
+            input = new RandomAccessFile(segment.file, "r");
+
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                if (segments.contains(segment)) {
+                    throw e;
+                }
+            }
+
+            // Evicted and deleted since picked, playback moves on to the oldest segment
+            return;
+        }
+
+        readSegment = segment;
+        readOffset = 0;
+    }
+
+    @Nullable
+    private Segment nextSegment(Segment segment) {
+        // Segments evicted meanwhile are skipped
+        for (Segment next : segments) {
+            if (next.sequence > segment.sequence) {
+                return next;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isReadAheadFull(Track[] tracks) {
+        for (Track track : tracks) {
+            long firstTimestampUs = track.sampleQueue.getFirstTimestampUs();
+
+            if (firstTimestampUs != Long.MIN_VALUE &&
+                track.sampleQueue.getLargestQueuedTimestampUs() - firstTimestampUs >=
+                    READ_AHEAD_US) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void maybeQueueFormats(Track[] tracks) {
+        // Formats known before the first keyframe let the stream be prepared meanwhile
+        for (Track track : tracks) {
+            if (track.queuedFormatIndex == C.INDEX_UNSET && !track.formats.isEmpty()) {
+                track.sampleQueue.format(track.formats.get(0));
+                track.queuedFormatIndex = 0;
+            }
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) |
+            ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+}
@@ -58,7 +58,7 @@ public final class BasicCredentials extends Credentials {
         BasicAuthCipher basicAuthCipher = new BasicAuthCipher.Builder().
                 setUsername(getUsername()).setPassword(getPassword()).build();
 
-        request.getHeaders().add(Header.Authorization.toString(),
+        request.getHeaders().add(Header.Authorization,
                 generate(basicAuthCipher.getToken()));
     }
 
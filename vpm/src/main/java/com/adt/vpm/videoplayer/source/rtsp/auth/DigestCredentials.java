@@ -176,7 +176,7 @@ public final class DigestCredentials extends Credentials {
         this.lastNonce = getNonce();
         this.params = credentials.params;
 
-        request.getHeaders().add(Header.Authorization.toString(),
+        request.getHeaders().add(Header.Authorization,
                 generate());
     }
 
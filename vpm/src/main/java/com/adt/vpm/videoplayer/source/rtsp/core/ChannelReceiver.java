@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link IReceiver} parsing the data received on a connection of the {@link RtspEventLoop}.
+ *
+ * Unlike {@link Receiver}, no thread is dedicated to the connection: messages and interleaved
+ * frames are parsed incrementally from whatever has been received, and the listener is called on
+ * the selector thread. The listener must therefore not block.
+ */
+/* package */ final class ChannelReceiver implements IReceiver, RtspEventLoop.ChannelListener {
+
+  private final IEventListener eventListener;
+  private final MessageParser parser;
+
+  private volatile boolean canceled;
+
+  public ChannelReceiver(IEventListener eventListener) {
+    this.eventListener = eventListener;
+
+    parser = new MessageParser(eventListener);
+  }
+
+  public void cancel() {
+    canceled = true;
+    parser.cancel();
+  }
+
+  @Override
+  public void runInternal() {
+    // Do nothing, data is pushed by the event loop
+  }
+
+  // RtspEventLoop.ChannelListener implementation
+  @Override
+  public void onRead(ByteBuffer data) {
+    parser.parse(data);
+  }
+
+  @Override
+  public void onChannelError(IOException error) {
+    Log.e("ChannelReceiver", "Connection failure", error);
+    parser.reset();
+
+    if (!canceled) {
+      eventListener.onReceiveFailure(Receiver.IO_ERROR);
+    }
+  }
+}
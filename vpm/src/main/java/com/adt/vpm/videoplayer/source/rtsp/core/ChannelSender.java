@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import android.util.Log;
+
+import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
+import com.adt.vpm.videoplayer.source.rtsp.message.Message;
+import com.adt.vpm.videoplayer.source.rtsp.message.MessageWriter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link ISender} queuing the messages on a connection of the {@link RtspEventLoop}, instead of
+ * writing them from a dedicated thread.
+ *
+ * Messages are reported as sent once queued, since the connection writes them in order. A write
+ * failure is reported by the receiving side of the connection.
+ */
+/* package */ final class ChannelSender implements ISender {
+
+    private static final String TAG = "Sender";
+
+    private final RtspEventLoop.Connection connection;
+    private final Sender.EventListener eventListener;
+    private final MessageWriter writer;
+
+    private volatile boolean canceled;
+
+    public ChannelSender(RtspEventLoop.Connection connection,
+        Sender.EventListener eventListener) {
+        this.connection = connection;
+        this.eventListener = eventListener;
+
+        writer = new MessageWriter();
+    }
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    public void send(InterleavedFrame message) {
+        if (!canceled && message != null) {
+            if (connection.write(ByteBuffer.wrap(message.getBytes()))) {
+                eventListener.onSendSuccess(message);
+
+            } else {
+                eventListener.onSendFailure(message);
+            }
+        }
+    }
+
+    public synchronized void send(Message message) {
+        if (!canceled && message != null) {
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "\n" + message.toString());
+            }
+
+            // Reported as sent before being queued, so that the response can not be received
+            // before the request is known as outstanding
+            eventListener.onSendSuccess(message);
+
+            // Copied out of the writer, since the connection queues the data
+            writer.write(message);
+            byte[] data = Arrays.copyOf(writer.getData(), writer.getLength());
+
+            if (!connection.write(ByteBuffer.wrap(data))) {
+                eventListener.onSendFailure(message);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.net.Uri;
 import android.os.Handler;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
 import com.adt.vpm.videoplayer.source.common.C;
 import com.adt.vpm.videoplayer.source.common.ExoPlayerLibraryInfo;
@@ -41,6 +42,7 @@ import com.adt.vpm.videoplayer.source.rtsp.media.MediaFormat;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaSession;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaTrack;
 import com.adt.vpm.videoplayer.source.rtsp.media.MediaType;
+import com.adt.vpm.videoplayer.source.rtsp.media.StartupMetrics;
 import com.adt.vpm.videoplayer.source.rtsp.message.Header;
 import com.adt.vpm.videoplayer.source.rtsp.message.Headers;
 import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
@@ -172,7 +174,7 @@ public abstract class Client implements Dispatcher.EventListener {
     }
 
     private static final Pattern regexRtpMap = Pattern.compile(
-            "\\d+\\s+([a-zA-Z0-9-]*)/(\\d+){1}(/(\\d+))?",
+            "(\\d+)\\s+([a-zA-Z0-9-]*)/(\\d+){1}(/(\\d+))?",
             Pattern.CASE_INSENSITIVE);
 
     private static final Pattern regexFrameSize = Pattern.compile("(\\d+)\\s+(\\d+)-(\\d+)",
@@ -181,7 +183,10 @@ public abstract class Client implements Dispatcher.EventListener {
     private static final Pattern regexXDimensions = Pattern.compile("(\\d+),\\s+(\\d+)",
             Pattern.CASE_INSENSITIVE);
 
-    private static final Pattern regexFmtp = Pattern.compile("\\d+\\s+(.+)",
+    private static final Pattern regexFmtp = Pattern.compile("(\\d+)\\s+(.+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern regexRtcpFb = Pattern.compile("(\\d+|\\*)\\s+(\\S+)(\\s+\\S+)?",
             Pattern.CASE_INSENSITIVE);
 
     private static final Pattern regexNumber = Pattern.compile("([\\d\\.]+)\\b");
@@ -200,11 +205,47 @@ public abstract class Client implements Dispatcher.EventListener {
     public static final int AV_OPT_FLAG_DISABLE_VIDEO = 1 << 1;
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef(flag = true, value = {FLAG_ENABLE_RTCP_SUPPORT, FLAG_FORCE_RTCP_MUXED, FLAG_TRY_TCP_FIRST})
+    @IntDef(flag = true, value = {FLAG_ENABLE_RTCP_SUPPORT, FLAG_FORCE_RTCP_MUXED, FLAG_TRY_TCP_FIRST,
+        FLAG_SHARED_EVENT_LOOP, FLAG_LOW_LATENCY, FLAG_PIPELINE_REQUESTS,
+        FLAG_CACHE_SESSION_DESCRIPTION, FLAG_DROP_CORRUPTED_FRAMES, FLAG_BUNDLE_TRANSPORT})
     public @interface Flags {}
     public static final int FLAG_ENABLE_RTCP_SUPPORT = 1;
     public static final int FLAG_FORCE_RTCP_MUXED = 1 << 1;
     public static final int FLAG_TRY_TCP_FIRST = 1 << 2;
+    /**
+     * Serves the RTSP connection from the {@link RtspEventLoop} shared by all the clients, instead
+     * of dedicated sender and receiver threads. RTSPS connections are always served by the loop.
+     */
+    public static final int FLAG_SHARED_EVENT_LOOP = 1 << 3;
+    /**
+     * Holds live playback close to the live edge, by nudging the playback speed when more media
+     * than targeted is buffered. Meant to be used along with a load control created by
+     * {@link com.adt.vpm.videoplayer.source.rtsp.RtspMediaSource#createLowLatencyLoadControl()}.
+     */
+    public static final int FLAG_LOW_LATENCY = 1 << 4;
+    /**
+     * Pipelines the startup requests, for servers supporting it: DESCRIBE is sent along with the
+     * initial OPTIONS, and once the first SETUP returned the session id, the SETUP of the other
+     * tracks are sent back to back. SETUP is only pipelined for UDP delivery.
+     */
+    public static final int FLAG_PIPELINE_REQUESTS = 1 << 5;
+    /**
+     * Takes the session description from the {@link SessionDescriptionCache} when the stream was
+     * described recently, instead of sending DESCRIBE.
+     */
+    public static final int FLAG_CACHE_SESSION_DESCRIPTION = 1 << 6;
+    /**
+     * Drops the video frames corrupted by lost packets, along with the frames depending on them,
+     * until the next keyframe, instead of handing them over to the decoder. With RTCP support
+     * enabled, the keyframe is requested from the server meanwhile.
+     */
+    public static final int FLAG_DROP_CORRUPTED_FRAMES = 1 << 7;
+    /**
+     * Receives all the UDP tracks of the session on a single local port, with RTCP multiplexed,
+     * and demultiplexes the packets by SSRC, instead of opening a pair of sockets and a receiving
+     * thread per track. Requires a server accepting the same client port for several tracks.
+     */
+    public static final int FLAG_BUNDLE_TRANSPORT = 1 << 8;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef(value = {RTSP_AUTO_DETECT, RTSP_INTERLEAVED})
@@ -248,6 +289,7 @@ public abstract class Client implements Dispatcher.EventListener {
 
     private boolean opened;
     private boolean released;
+    private boolean described;
 
     public Client(Builder builder) {
         uri = builder.uri;
@@ -267,6 +309,8 @@ public abstract class Client implements Dispatcher.EventListener {
         dispatcher = new Dispatcher.Builder(this)
                 .setUri(uri)
                 .setUserAgent(userAgent)
+                .setUseEventLoop(isFlagSet(FLAG_SHARED_EVENT_LOOP))
+                .setPipelining(isFlagSet(FLAG_PIPELINE_REQUESTS))
                 .build();
 
         session = new MediaSession.Builder(this)
@@ -309,9 +353,19 @@ public abstract class Client implements Dispatcher.EventListener {
 
     public final void open() throws IOException, NullPointerException {
         if (!opened) {
+            StartupMetrics metrics = session.getStartupMetrics();
+            metrics.start();
+
             dispatcher.connect();
+            metrics.end(StartupMetrics.PHASE_CONNECT);
+
             sendOptionsRequest();
 
+            // OPTIONS is only waited for when the description has to be requested sequentially
+            if (isFlagSet(FLAG_PIPELINE_REQUESTS) || getCachedSessionDescription() != null) {
+                describe();
+            }
+
             opened = true;
         }
     }
@@ -333,6 +387,23 @@ public abstract class Client implements Dispatcher.EventListener {
         close();
     }
 
+    /**
+     * Keeps the connection of a client opened but not set up alive, e.g. while pooled, servers
+     * closing the idle connections without session.
+     */
+    public final void sendConnectionKeepAlive() {
+        if (opened && state == IDLE) {
+            sendOptionsRequest();
+        }
+    }
+
+    /**
+     * Returns the memory held by the buffers of the control connection, in bytes.
+     */
+    public final int getConnectionBufferSize() {
+        return dispatcher.getBufferSize();
+    }
+
     public final void dispatch(InterleavedFrame interleavedFrame) {
         dispatcher.execute(interleavedFrame);
     }
@@ -452,7 +523,7 @@ public abstract class Client implements Dispatcher.EventListener {
             }
 
             if (state == IDLE) {
-                sendDescribeRequest();
+                describe();
             }
         }
 
@@ -475,6 +546,17 @@ public abstract class Client implements Dispatcher.EventListener {
             baseUrl = headers.getValue(Header.ContentLocation);
         }
 
+        onSessionDescription(baseUrl, body);
+
+        if (isFlagSet(FLAG_CACHE_SESSION_DESCRIPTION) && body != null &&
+            MediaType.APPLICATION_SDP.equals(body.getContentType()) &&
+            session.getMediaTracks().size() > 0) {
+            SessionDescriptionCache.getDefault().put(session.getUri().toString(), baseUrl,
+                body.getContent());
+        }
+    }
+
+    private void onSessionDescription(String baseUrl, MessageBody body) {
         session.setBaseUri(Uri.parse(baseUrl));
 
         if (body != null) {
@@ -522,6 +604,10 @@ public abstract class Client implements Dispatcher.EventListener {
                                     AV_OPT_FLAG_DISABLE_VIDEO)) {
 
                                 RtpPayloadFormat.Builder payloadBuilder = null;
+                                // The first format listed is the one played, a second one being
+                                // only supported as its retransmission format
+                                int payload = -1;
+                                int rtxPayload = -1;
                                 MediaTrack.Builder trackBuilder = new MediaTrack.Builder();
 
                                 @MediaFormat.MediaType int type = media.getType().equals(Media.audio) ?
@@ -535,8 +621,10 @@ public abstract class Client implements Dispatcher.EventListener {
                                             new RtpAudioPayload.Builder() :
                                             new RtpVideoPayload.Builder();
 
-                                    if (isNumeric(media.getFmt())) {
-                                        payloadBuilder.setPayload(Integer.parseInt(media.getFmt()));
+                                    String fmt = media.getFmt().trim().split("\\s+")[0];
+                                    if (isNumeric(fmt)) {
+                                        payload = Integer.parseInt(fmt);
+                                        payloadBuilder.setPayload(payload);
                                     }
                                 }
 
@@ -596,22 +684,28 @@ public abstract class Client implements Dispatcher.EventListener {
                                         if (Attribute.RTPMAP.equalsIgnoreCase(attrName)) {
                                             Matcher matcher = regexRtpMap.matcher(attrValue);
                                             if (matcher.find()) {
+                                                int mapPayload = Integer.parseInt(matcher.group(1));
                                                 @RtpPayloadFormat.MediaCodec String encoding =
-                                                        matcher.group(1).toUpperCase();
+                                                        matcher.group(2).toUpperCase();
+
+                                                if (RtpPayloadFormat.RTX.equals(encoding)) {
+                                                    rtxPayload = mapPayload;
 
-                                                payloadBuilder.setEncoding(encoding);
+                                                } else if (payload == -1 || mapPayload == payload) {
+                                                    payloadBuilder.setEncoding(encoding);
 
-                                                if (matcher.group(2) != null) {
-                                                    if (isNumeric(matcher.group(2))) {
-                                                        payloadBuilder.setClockrate(
-                                                                Integer.parseInt(matcher.group(2)));
+                                                    if (matcher.group(3) != null) {
+                                                        if (isNumeric(matcher.group(3))) {
+                                                            payloadBuilder.setClockrate(
+                                                                    Integer.parseInt(matcher.group(3)));
+                                                        }
                                                     }
-                                                }
 
-                                                if (matcher.group(3) != null) {
-                                                    if (isNumeric(matcher.group(4))) {
-                                                        ((RtpAudioPayload.Builder) payloadBuilder).
-                                                            setChannels(Integer.parseInt(matcher.group(4)));
+                                                    if (matcher.group(4) != null) {
+                                                        if (isNumeric(matcher.group(5))) {
+                                                            ((RtpAudioPayload.Builder) payloadBuilder).
+                                                                setChannels(Integer.parseInt(matcher.group(5)));
+                                                        }
                                                     }
                                                 }
                                             }
@@ -619,11 +713,51 @@ public abstract class Client implements Dispatcher.EventListener {
                                         } else if (Attribute.FMTP.equalsIgnoreCase(attrName)) {
                                             Matcher matcher = regexFmtp.matcher(attrValue);
                                             if (matcher.find()) {
-                                                String[] encodingParameters = matcher.group(1).
+                                                int fmtPayload = Integer.parseInt(matcher.group(1));
+                                                String[] encodingParameters = matcher.group(2).
                                                         split(";");
-                                                for (String parameter : encodingParameters) {
-                                                    payloadBuilder.addEncodingParameter(
-                                                            FormatSpecificParameter.parse(parameter));
+
+                                                if (fmtPayload == rtxPayload) {
+                                                    // Only the retransmission of the played format
+                                                    for (String parameter : encodingParameters) {
+                                                        FormatSpecificParameter rtxParameter =
+                                                            FormatSpecificParameter.parse(parameter.trim());
+                                                        if (rtxParameter != null &&
+                                                            FormatSpecificParameter.APT.equalsIgnoreCase(
+                                                                rtxParameter.getName()) &&
+                                                            Integer.toString(payload).equals(
+                                                                rtxParameter.getValue().trim())) {
+                                                            payloadBuilder.setRtxPayload(rtxPayload);
+                                                        }
+                                                    }
+
+                                                } else if (payload == -1 || fmtPayload == payload) {
+                                                    for (String parameter : encodingParameters) {
+                                                        payloadBuilder.addEncodingParameter(
+                                                                FormatSpecificParameter.parse(parameter));
+                                                    }
+                                                }
+                                            }
+
+                                        } else if (Attribute.RTCP_FB.equalsIgnoreCase(attrName)) {
+                                            Matcher matcher = regexRtcpFb.matcher(attrValue);
+                                            if (matcher.find()) {
+                                                String fbPayload = matcher.group(1);
+                                                String fbType = matcher.group(2);
+                                                String fbParameter = matcher.group(3);
+
+                                                if ("*".equals(fbPayload) ||
+                                                    Integer.toString(payload).equals(fbPayload)) {
+                                                    // A generic NACK has no feedback parameter
+                                                    if ("nack".equalsIgnoreCase(fbType) &&
+                                                        fbParameter == null) {
+                                                        payloadBuilder.setNackSupported(true);
+
+                                                    } else if ("ccm".equalsIgnoreCase(fbType) &&
+                                                        fbParameter != null &&
+                                                        "fir".equalsIgnoreCase(fbParameter.trim())) {
+                                                        payloadBuilder.setFirSupported(true);
+                                                    }
                                                 }
                                             }
                                         } else if (Attribute.FRAMERATE.equalsIgnoreCase(attrName)) {
@@ -700,6 +834,7 @@ public abstract class Client implements Dispatcher.EventListener {
                             }
                         }
 
+                        session.getStartupMetrics().end(StartupMetrics.PHASE_DESCRIBE);
                         listener.onMediaDescriptionInfoRefreshed(session.getDuration());
                     }
                 }
@@ -719,7 +854,7 @@ public abstract class Client implements Dispatcher.EventListener {
     }
 
     @Override
-    public final void onSetupResponse(Response response) {
+    public final void onSetupResponse(Request request, Response response) {
         //Log.d(TAG, "SETUP RESPONSE: \n" + response.getMessageBody().toString());
 
         if (session.getId() == null) {
@@ -744,7 +879,7 @@ public abstract class Client implements Dispatcher.EventListener {
         }
 
         Transport transport = Transport.parse(response.getHeaders().getValue(Header.Transport));
-        session.configureTransport(transport);
+        session.configureTransport(request.getUrl(), transport);
         session.continuePreparing();
     }
 
@@ -819,7 +954,7 @@ public abstract class Client implements Dispatcher.EventListener {
                                         build();
                                 credentials.applyToRequest(request);
 
-                                request.getHeaders().add(Header.CSeq.toString(),
+                                request.getHeaders().add(Header.CSeq,
                                         String.valueOf(session.getNextCSeq()));
 
                                 dispatcher.execute(request);
@@ -836,7 +971,7 @@ public abstract class Client implements Dispatcher.EventListener {
                                         build();
                                 credentials.applyToRequest(request);
 
-                                request.getHeaders().add(Header.CSeq.toString(),
+                                request.getHeaders().add(Header.CSeq,
                                         String.valueOf(session.getNextCSeq()));
 
                                 dispatcher.execute(request);
@@ -860,7 +995,7 @@ public abstract class Client implements Dispatcher.EventListener {
                 (Status.NotImplemented.equals(response.getStatus()))) {
 
             if (state == IDLE) {
-                sendDescribeRequest();
+                describe();
             }
 
         } else if (Method.SETUP.equals(request.getMethod()) &&
@@ -887,6 +1022,11 @@ public abstract class Client implements Dispatcher.EventListener {
 
         } else {
             // any other unsuccessful response
+            if (session.getStartupMetrics().isSessionDescriptionCached()) {
+                // The stream may have changed since it was described
+                SessionDescriptionCache.getDefault().invalidate(session.getUri().toString());
+            }
+
             if (state >= READY) {
                 if (serverMethods.contains(Method.TEARDOWN)) {
                     sendTeardownRequest();
@@ -951,6 +1091,30 @@ public abstract class Client implements Dispatcher.EventListener {
     protected abstract void sendSetParameterRequest(String name, String value);
     public abstract void sendTeardownRequest();
 
+    private void describe() {
+        if (described) {
+            return;
+        }
+
+        described = true;
+
+        SessionDescriptionCache.Entry entry = getCachedSessionDescription();
+        if (entry != null) {
+            session.getStartupMetrics().setSessionDescriptionCached(true);
+            onSessionDescription(entry.baseUrl,
+                new MessageBody(MediaType.APPLICATION_SDP, entry.content));
+
+        } else {
+            sendDescribeRequest();
+        }
+    }
+
+    @Nullable
+    private SessionDescriptionCache.Entry getCachedSessionDescription() {
+        return isFlagSet(FLAG_CACHE_SESSION_DESCRIPTION) ?
+            SessionDescriptionCache.getDefault().get(session.getUri().toString()) : null;
+    }
+
     public void sendKeepAlive() {
         if (state >= READY) {
             if (serverMethods.contains(Method.GET_PARAMETER)) {
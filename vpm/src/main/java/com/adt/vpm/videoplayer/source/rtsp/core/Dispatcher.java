@@ -36,21 +36,20 @@ import java.lang.annotation.RetentionPolicy;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.security.cert.Certificate;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
 
 import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
 
@@ -65,7 +64,7 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
         void onAnnounceResponse(Response response);
         void onOptionsResponse(Response response);
         void onDescribeResponse(Response response);
-        void onSetupResponse(Response response);
+        void onSetupResponse(Request request, Response response);
         void onPlayResponse(Response response);
         void onPauseResponse(Response response);
         void onGetParameterResponse(Response response);
@@ -101,7 +100,11 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
     private String userAgent;
 
     private IReceiver receiver;
-    private Sender sender;
+    private ISender sender;
+
+    private final boolean useEventLoop;
+    private final boolean pipelining;
+    private RtspEventLoop.Connection connection;
 
     private final EventListener listener;
     private final RequestMonitor requestMonitor;
@@ -115,6 +118,8 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
         uri = builder.uri;
         listener = builder.listener;
         userAgent = builder.userAgent;
+        useEventLoop = builder.useEventLoop;
+        pipelining = builder.pipelining;
 
         outstanding =  Collections.synchronizedMap(new LinkedHashMap<>());
         requests = Collections.synchronizedMap(new LinkedHashMap<>());
@@ -122,84 +127,84 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
         requestMonitor = new RequestMonitor();
     }
 
-    private SocketFactory getSocketFactory(Uri uri) {
-
-        Log.d("RTSP", "getSocketFactory : " + uri);
-        SocketFactory factory;
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    void connect() throws IOException{
+        if (!opened) {
 
-        if(uri.getScheme().equalsIgnoreCase("rtsps")) {
-            Log.d("RTSP", "getSocketFactory : RTSPS...creating SSL Factory" );
-            try {
-                SSLContext context = SSLContext.getDefault();
-                Log.d("RTSP", "Getting SSLContext: " + context);
-                factory = context.getSocketFactory();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+            // A secure connection is always served by the event loop, TLS being driven by an
+            // engine over the non-blocking channel
+            if (useEventLoop || isSecure()) {
+                connectChannel();
+                return;
             }
-        } else {
-            Log.d("RTSP", "getSocketFactory : RTSP..creating default factory" );
-            factory = SocketFactory.getDefault();
-        }
 
-        return factory;
+            socket = SocketFactory.getDefault().createSocket();
+
+            InetAddress address = InetAddress.getByName(uri.getHost());
+            socket.connect(new InetSocketAddress(address, getPort()), DEFAULT_TIMEOUT_MILLIS);
+
+            sender = new Sender(socket.getOutputStream(), this);
+            receiver = new Receiver(socket.getInputStream(), this);
+            opened = true;
+        }
     }
+
     @RequiresApi(api = Build.VERSION_CODES.N)
-    void connect() throws IOException{
-        if (!opened) {
+    private void connectChannel() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        socket = channel.socket();
 
-            SSLSocket sslsocket = null;
+        InetAddress address = InetAddress.getByName(uri.getHost());
+        socket.connect(new InetSocketAddress(address, getPort()), DEFAULT_TIMEOUT_MILLIS);
 
-            socket = getSocketFactory(uri).createSocket();
-            if(uri.getScheme().equalsIgnoreCase("rtsps")) {
-                sslsocket = (SSLSocket) socket;
-                sslsocket.setUseClientMode(true);
-                sslsocket.setEnableSessionCreation(true);
+        ChannelReceiver channelReceiver = new ChannelReceiver(this);
+        connection = RtspEventLoop.getDefault().register(channel,
+            isSecure() ? createSSLEngine() : null, channelReceiver);
 
-                socket.setKeepAlive(true);
-                socket.setSoTimeout(400);
-            }
+        sender = new ChannelSender(connection, this);
+        receiver = channelReceiver;
+        opened = true;
+    }
 
-            InetAddress address = InetAddress.getByName(uri.getHost());
-            int port = uri.getPort();
-            socket.connect(new InetSocketAddress(address, (port > 0) ? port : DEFAULT_PORT),
-                    DEFAULT_TIMEOUT_MILLIS); //120*1000;
-
-            if(sslsocket != null) {
-                SSLSocket finalSslsocket = sslsocket;
-                sslsocket.addHandshakeCompletedListener(event -> {
-                    Log.d("RTSP", "handshakeCompleted");
-
-                    SSLSession session = finalSslsocket.getSession();
-                    String host = session.getPeerHost();
-                    Log.d("RTSP", "Peer Host: " + host);
-                    Log.d("RTSP", "Is Session valid: " + session.isValid());
-
-                    opened = true;
-                });
-                sslsocket.startHandshake();
-                sender = new Sender(socket.getOutputStream(), this);
-                receiver = new SSLReceiver(socket.getInputStream(), this);
-                opened = true;
-            } else {
+    // Engines are created from the default context for the host and port of the server, so that
+    // its client session cache lets a reconnection resume the TLS session instead of performing a
+    // full handshake. An engine does not check the server certificate against the host unless an
+    // endpoint identification algorithm is set.
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private SSLEngine createSSLEngine() throws IOException {
+        try {
 
-                sender = new Sender(socket.getOutputStream(), this);
-                receiver = new Receiver(socket.getInputStream(), this);
-                opened = true;
-            }
+            SSLEngine engine = SSLContext.getDefault().createSSLEngine(uri.getHost(), getPort());
+            engine.setUseClientMode(true);
+            engine.setEnableSessionCreation(true);
 
-            if(uri.getScheme().equalsIgnoreCase("rtsps")) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+            return engine;
 
-                SSLSession session = sslsocket.getSession();
-                Certificate[] certificates = session.getPeerCertificates();
-                String host = session.getPeerHost();
-                Log.d("RTSP", "Peer Host: " + host);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
 
-                Log.d("RTSP", "Peer Port: " + session.getPeerPort());
+    private boolean isSecure() {
+        return "rtsps".equalsIgnoreCase(uri.getScheme());
+    }
 
-                Log.d("RTSP", "Peer Port: " + sslsocket.getPort());
-                Log.d("RTSP", "Is Session valid: " + session.isValid());
-            }
+    private int getPort() {
+        int port = uri.getPort();
+        return (port > 0) ? port : DEFAULT_PORT;
+    }
+
+    // The memory held by the buffers of the connection, in bytes
+    int getBufferSize() {
+        if (connection != null) {
+            return connection.getBufferSize();
         }
+
+        // The read buffer of the receiver thread
+        return opened ? MessageParser.MIN_BUFFER_SIZE : 0;
     }
 
     void close() {
@@ -210,6 +215,11 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
             receiver.cancel();
             requestMonitor.stop();
 
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+
             requests.clear();
             outstanding.clear();
         }
@@ -239,6 +249,12 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
     void execute(Message message) {
         synchronized (this) {
             if (message.getType() == Message.REQUEST) {
+                if (pipelining) {
+                    // Sent right away, responses being matched to requests by their CSeq
+                    sender.send(message);
+                    return;
+                }
+
                 if (requests.isEmpty()) {
                     sender.send(message);
                 }
@@ -409,7 +425,7 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
                         } else if (method.equals(Method.SET_PARAMETER)) {
                             listener.onSetParameterResponse(response);
                         } else if (method.equals(Method.SETUP)) {
-                            listener.onSetupResponse(response);
+                            listener.onSetupResponse(request, response);
                         } else if (method.equals(Method.TEARDOWN)) {
                             listener.onTeardownResponse(response);
                         }
@@ -494,24 +510,31 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
     /* package */ final class RequestMonitor {
         private static final long DEFAULT_TIMEOUT_REQUEST = 10000;
 
-        private final ExecutorService executorService = Executors.newSingleThreadExecutor();
         private final Map<Integer, Future<?>> tasks;
 
+        private volatile boolean stopped;
+
         RequestMonitor() {
             tasks = Collections.synchronizedMap(new LinkedHashMap<>());
         }
 
         void cancel(Message message) {
             Integer cSeq = Integer.parseInt(message.getHeaders().getValue(Header.CSeq));
-            if (tasks.containsKey(cSeq)) {
-                Future<?> task = tasks.remove(cSeq);
-                task.cancel(true);
+            Future<?> task = tasks.remove(cSeq);
+            if (task != null) {
+                task.cancel(false);
             }
         }
 
-        void stop() {
-            if (!executorService.isShutdown()) {
-                executorService.shutdown();
+        synchronized void stop() {
+            stopped = true;
+
+            synchronized (tasks) {
+                for (Future<?> task : tasks.values()) {
+                    task.cancel(false);
+                }
+
+                tasks.clear();
             }
         }
 
@@ -520,22 +543,16 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
 
             try {
 
-                if (!Thread.currentThread().isInterrupted()) {
-                    tasks.put(cSeq, executorService.submit(() -> {
-                            try {
+                // Timeouts of all the sessions are run by the timer of the shared event loop
+                if (!stopped) {
+                    tasks.put(cSeq, RtspEventLoop.schedule(() -> {
+                            tasks.remove(cSeq);
 
-                                if (!Thread.currentThread().isInterrupted()) {
-                                    Thread.sleep(DEFAULT_TIMEOUT_REQUEST);
-                                }
-
-                                if (outstanding.containsKey(cSeq)) {
-                                    requests.remove(cSeq);
-                                    listener.onNoResponse(outstanding.remove(cSeq));
-                                }
-
-                            } catch (InterruptedException ex) {
+                            if (!stopped && outstanding.containsKey(cSeq)) {
+                                requests.remove(cSeq);
+                                listener.onNoResponse(outstanding.remove(cSeq));
                             }
-                        }
+                        }, DEFAULT_TIMEOUT_REQUEST
                     ));
                 }
 
@@ -548,6 +565,8 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
         private Uri uri;
         private String userAgent;
         private EventListener listener;
+        private boolean useEventLoop;
+        private boolean pipelining;
 
         Builder(EventListener listener) {
             if (listener == null) throw new NullPointerException("listener == null");
@@ -567,6 +586,28 @@ import static com.adt.vpm.videoplayer.source.rtsp.message.Protocol.RTSP_1_0;
             return this;
         }
 
+        /**
+         * Sets whether the connection is registered with the shared {@link RtspEventLoop}. When
+         * not set, the connection is served by dedicated sender and receiver threads, except for
+         * RTSPS which is always served by the loop.
+         */
+        public Builder setUseEventLoop(boolean useEventLoop) {
+            this.useEventLoop = useEventLoop;
+
+            return this;
+        }
+
+        /**
+         * Sets whether requests are sent without waiting for the response to the previous one.
+         * The caller remains responsible for only pipelining requests that do not depend on the
+         * response to a previous one.
+         */
+        public Builder setPipelining(boolean pipelining) {
+            this.pipelining = pipelining;
+
+            return this;
+        }
+
         public Dispatcher build() {
             if (uri == null) throw new IllegalStateException("uri == null");
 
@@ -0,0 +1,10 @@
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
+import com.adt.vpm.videoplayer.source.rtsp.message.Message;
+
+public interface ISender {
+  void cancel();
+  void send(InterleavedFrame message);
+  void send(Message message);
+}
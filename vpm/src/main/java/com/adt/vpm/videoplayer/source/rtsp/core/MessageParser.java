@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import android.util.Log;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.util.Util;
+import com.adt.vpm.videoplayer.source.rtsp.media.MediaType;
+import com.adt.vpm.videoplayer.source.rtsp.message.Header;
+import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
+import com.adt.vpm.videoplayer.source.rtsp.message.Message;
+import com.adt.vpm.videoplayer.source.rtsp.message.MessageBody;
+import com.adt.vpm.videoplayer.source.rtsp.message.Method;
+import com.adt.vpm.videoplayer.source.rtsp.message.Protocol;
+import com.adt.vpm.videoplayer.source.rtsp.message.Request;
+import com.adt.vpm.videoplayer.source.rtsp.message.Response;
+import com.adt.vpm.videoplayer.source.rtsp.message.Status;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental RTSP/1.0 parser, fed with the data received on a connection as it comes.
+ *
+ * Start lines and headers are parsed in place from the received bytes, without regular
+ * expressions nor intermediate line strings: methods, protocols and header names are matched
+ * against their byte representation, and strings are only created for the values kept in the
+ * message. Headers unknown to {@link Header} are skipped without being decoded. Message bodies
+ * are sized from their Content-Length header, and interleaved frames are delivered from a buffer
+ * reused for the whole connection.
+ */
+/* package */ final class MessageParser {
+
+  private static final String TAG = "Receiver";
+
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef(flag = true, value = {PARSING_START_LINE, PARSING_HEADER_LINE, PARSING_BODY_LINE,
+      PARSING_INTERLEAVED_FRAME})
+  private @interface State {
+  }
+
+  private final static int PARSING_START_LINE = 1;
+  private final static int PARSING_HEADER_LINE = 2;
+  private final static int PARSING_BODY_LINE = 3;
+  private final static int PARSING_INTERLEAVED_FRAME = 4;
+
+  private final static int CR = 13;
+  private final static int LF = 10;
+
+  private final static int INTERLEAVED_HEADER_LENGTH = 4;
+  private final static int MAX_INTERLEAVED_FRAME_LENGTH = 0xFFFF;
+
+  /** The size a receive buffer must have for any interleaved frame to fit in it. */
+  static final int MIN_BUFFER_SIZE = INTERLEAVED_HEADER_LENGTH + MAX_INTERLEAVED_FRAME_LENGTH;
+
+  private static final byte[] STATUS_LINE_PREFIX = Util.getUtf8Bytes("RTSP/");
+
+  private static final Method[] METHODS = Method.values();
+  private static final Protocol[] PROTOCOLS = Protocol.values();
+  private static final Header[] HEADERS = Header.values();
+
+  // Byte representations, indexed by ordinal
+  private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+  private static final byte[][] PROTOCOL_NAMES = new byte[PROTOCOLS.length][];
+  private static final byte[][] HEADER_NAMES = new byte[HEADERS.length][];
+
+  static {
+    for (Method method : METHODS) {
+      METHOD_NAMES[method.ordinal()] = Util.getUtf8Bytes(method.toString());
+    }
+
+    for (Protocol protocol : PROTOCOLS) {
+      PROTOCOL_NAMES[protocol.ordinal()] = Util.getUtf8Bytes(protocol.toString());
+    }
+
+    for (Header header : HEADERS) {
+      HEADER_NAMES[header.ordinal()] = Util.getUtf8Bytes(header.toString());
+    }
+  }
+
+  private final IEventListener eventListener;
+
+  // Interleaved frames are copied into a single buffer, sized for the largest frame length
+  private final byte[] interleavedData;
+  private final InterleavedFrame interleavedFrame;
+
+  private volatile boolean canceled;
+
+  private @State int state;
+
+  private Message.Builder builder;
+  private MediaType mediaType;
+  private int mediaLength;
+
+  private byte[] body;
+  private int bodyLength;
+
+  private int interleavedChannel;
+  private int interleavedLength;
+
+  public MessageParser(IEventListener eventListener) {
+    this.eventListener = eventListener;
+
+    interleavedData = new byte[MAX_INTERLEAVED_FRAME_LENGTH];
+    interleavedFrame = new InterleavedFrame(0, interleavedData, 0);
+
+    state = PARSING_START_LINE;
+  }
+
+  /**
+   * Parses as much as possible of the received data. A parse error is reported to the listener,
+   * and parsing resumes with the next message.
+   *
+   * @param data The received data, between the position and the limit of the buffer, which must
+   *     be backed by an accessible array at least {@link #MIN_BUFFER_SIZE} long. The position is
+   *     left on the first byte not consumed, to be handed over again with the next data.
+   */
+  public void parse(ByteBuffer data) {
+    while (!canceled && parseUnit(data)) {
+      // Parse as much as possible
+    }
+  }
+
+  /**
+   * Stops parsing, so that the listener is not called anymore.
+   */
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Resets the parser to the start of a message, e.g. after a connection failure.
+   */
+  public void reset() {
+    state = PARSING_START_LINE;
+    builder = null;
+    mediaType = null;
+    mediaLength = 0;
+    body = null;
+  }
+
+  /**
+   * Parses a unit (a line, a message body or an interleaved frame) from the data.
+   *
+   * @return Whether a unit was parsed, false if more data is needed.
+   */
+  private boolean parseUnit(ByteBuffer data) {
+    try {
+
+      switch (state) {
+        case PARSING_START_LINE:
+          if (data.hasRemaining() && data.get(data.position()) == '$') {
+            if (data.remaining() < INTERLEAVED_HEADER_LENGTH) {
+              return false;
+            }
+
+            data.get();
+            interleavedChannel = data.get() & 0xFF;
+            interleavedLength = ((data.get() & 0xFF) << 8) | (data.get() & 0xFF);
+            state = PARSING_INTERLEAVED_FRAME;
+            return true;
+          }
+
+          return parseLine(data);
+
+        case PARSING_HEADER_LINE:
+          return parseLine(data);
+
+        case PARSING_BODY_LINE:
+          return parseMessageBody(data);
+
+        case PARSING_INTERLEAVED_FRAME:
+          if (data.remaining() < interleavedLength) {
+            return false;
+          }
+
+          data.get(interleavedData, 0, interleavedLength);
+          state = PARSING_START_LINE;
+
+          interleavedFrame.reset(interleavedChannel, interleavedData, interleavedLength);
+          eventListener.onReceiveSuccess(interleavedFrame);
+          return true;
+      }
+
+    } catch (NullPointerException | IllegalArgumentException ex) {
+      Log.e(TAG, "Malformed message", ex);
+      reset();
+      eventListener.onReceiveFailure(Receiver.PARSE_ERROR);
+      return true;
+    }
+
+    return false;
+  }
+
+  private boolean parseLine(ByteBuffer data) {
+    byte[] array = data.array();
+    int base = data.arrayOffset();
+    int start = base + data.position();
+    int limit = base + data.limit();
+
+    for (int position = start; position + 1 < limit; position++) {
+      if (array[position] == CR && array[position + 1] == LF) {
+        data.position(position + 2 - base);
+
+        if (state == PARSING_START_LINE) {
+          parseStartLine(array, start, position);
+
+        } else {
+          parseHeaderLine(array, start, position);
+        }
+
+        return true;
+      }
+    }
+
+    if (start == base && limit - base == data.capacity()) {
+      // The line does not fit in the buffer
+      data.position(data.limit());
+      throw new IllegalArgumentException("Line too long");
+    }
+
+    return false;
+  }
+
+  // Parses a request or status line, between start and end (exclusive)
+  private void parseStartLine(byte[] data, int start, int end) {
+    int space = indexOf(data, start, end, ' ');
+    if (space < 0) {
+      // Not a start line, e.g. an empty line between messages
+      return;
+    }
+
+    if (startsWith(data, start, end, STATUS_LINE_PREFIX)) {
+      // RTSP/1.0 200 OK
+      Protocol protocol = find(PROTOCOLS, PROTOCOL_NAMES, data, start, space);
+
+      int codeEnd = indexOf(data, space + 1, end, ' ');
+      int code = parseInt(data, space + 1, (codeEnd < 0) ? end : codeEnd);
+
+      builder = new Response.Builder().setProtocol(protocol).setStatus(Status.parse(code));
+
+    } else {
+      // SETUP rtsp://example.com/stream RTSP/1.0
+      int urlEnd = indexOf(data, space + 1, end, ' ');
+      if (urlEnd < 0) {
+        return;
+      }
+
+      Method method = find(METHODS, METHOD_NAMES, data, start, space);
+      String url = new String(data, space + 1, urlEnd - space - 1);
+      Protocol protocol = find(PROTOCOLS, PROTOCOL_NAMES, data, urlEnd + 1, end);
+
+      builder = new Request.Builder().setMethod(method).setUrl(url).setProtocol(protocol);
+    }
+
+    state = PARSING_HEADER_LINE;
+  }
+
+  // Parses a general, request, response or entity header, between start and end (exclusive)
+  private void parseHeaderLine(byte[] data, int start, int end) {
+    if (start == end) {
+      // End of the headers
+      if (mediaLength > 0) {
+        body = new byte[mediaLength];
+        bodyLength = 0;
+        state = PARSING_BODY_LINE;
+
+      } else {
+        Message message = builder.build();
+        reset();
+        handleMessage(message);
+      }
+
+      return;
+    }
+
+    int colon = indexOf(data, start, end, ':');
+    if (colon < 0) {
+      return;
+    }
+
+    Header header = find(HEADERS, HEADER_NAMES, data, start, trimEnd(data, start, colon));
+    if (header == null) {
+      return;
+    }
+
+    int valueStart = trimStart(data, colon + 1, end);
+    int valueEnd = trimEnd(data, valueStart, end);
+
+    if (header == Header.ContentLength) {
+      mediaLength = parseInt(data, valueStart, valueEnd);
+
+    } else if (header == Header.ContentType) {
+      mediaType = MediaType.parse(new String(data, valueStart, valueEnd - valueStart));
+
+    } else {
+      builder.setHeader(header, new String(data, valueStart, valueEnd - valueStart));
+    }
+  }
+
+  private boolean parseMessageBody(ByteBuffer data) {
+    int length = Math.min(data.remaining(), mediaLength - bodyLength);
+    data.get(body, bodyLength, length);
+    bodyLength += length;
+
+    if (bodyLength < mediaLength) {
+      return false;
+    }
+
+    MessageBody messageBody = new MessageBody(mediaType, new String(body, 0, mediaLength));
+    Message message = builder.setBody(messageBody).build();
+    reset();
+    handleMessage(message);
+    return true;
+  }
+
+  private void handleMessage(Message message) {
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "\n" + message.toString());
+    }
+
+    switch (message.getType()) {
+      case Message.REQUEST:
+        eventListener.onReceiveSuccess((Request) message);
+        break;
+
+      case Message.RESPONSE:
+        eventListener.onReceiveSuccess((Response) message);
+        break;
+    }
+  }
+
+  /**
+   * Returns the value whose name matches the bytes between start and end (exclusive), ignoring
+   * the case, or null if none matches.
+   */
+  @Nullable
+  private static <T> T find(T[] values, byte[][] names, byte[] data, int start, int end) {
+    int length = end - start;
+
+    for (int i = 0; i < values.length; i++) {
+      byte[] name = names[i];
+      if (name.length == length && regionMatches(data, start, name)) {
+        return values[i];
+      }
+    }
+
+    return null;
+  }
+
+  private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+    return end - start >= prefix.length && regionMatches(data, start, prefix);
+  }
+
+  private static boolean regionMatches(byte[] data, int start, byte[] name) {
+    for (int i = 0; i < name.length; i++) {
+      if (toLowerCase(data[start + i]) != toLowerCase(name[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int toLowerCase(byte value) {
+    return (value >= 'A' && value <= 'Z') ? value + ('a' - 'A') : value;
+  }
+
+  private static int indexOf(byte[] data, int start, int end, char value) {
+    for (int position = start; position < end; position++) {
+      if (data[position] == value) {
+        return position;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int trimStart(byte[] data, int start, int end) {
+    while (start < end && (data[start] == ' ' || data[start] == '\t')) {
+      start++;
+    }
+
+    return start;
+  }
+
+  private static int trimEnd(byte[] data, int start, int end) {
+    while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+      end--;
+    }
+
+    return end;
+  }
+
+  private static int parseInt(byte[] data, int start, int end) {
+    if (start == end) {
+      throw new IllegalArgumentException("Missing number");
+    }
+
+    int value = 0;
+    for (int position = start; position < end; position++) {
+      int digit = data[position] - '0';
+      if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+        throw new IllegalArgumentException("Invalid number");
+      }
+
+      value = value * 10 + digit;
+    }
+
+    return value;
+  }
+}
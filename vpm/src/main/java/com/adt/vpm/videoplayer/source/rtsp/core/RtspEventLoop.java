@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * An I/O event loop shared by the RTSP sessions, so that the number of threads does not grow with
+ * the number of sessions.
+ *
+ * A single selector thread reads and writes every registered control connection, interleaved
+ * data included, and a single timer thread runs the keep-alives and the request timeouts of all
+ * the sessions.
+ *
+ * RTSPS connections are served the same way, TLS being driven by an {@link SSLEngine} owned by
+ * the selector thread, so that reading them does not involve a blocking socket either.
+ */
+public final class RtspEventLoop {
+
+    /**
+     * Called on the selector thread with the data received on a {@link Connection}.
+     */
+    /* package */ interface ChannelListener {
+
+        /**
+         * Called when data has been received.
+         *
+         * @param data The received data, between the position and the limit of the buffer. The
+         *     position must be left on the first byte not consumed, which is handed over again
+         *     with the next received data.
+         */
+        void onRead(ByteBuffer data);
+
+        /**
+         * Called when the connection failed or was closed by the peer.
+         */
+        void onChannelError(IOException error);
+    }
+
+    private static final String TAG = "RtspEventLoop";
+
+    private static final String SELECTOR_THREAD_NAME = "RtspEventLoop:Selector";
+    private static final String TIMER_THREAD_NAME = "RtspEventLoop:Timer";
+
+    // Large enough for a whole interleaved frame and its four bytes header
+    private static final int READ_BUFFER_SIZE = MessageParser.MIN_BUFFER_SIZE;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    @Nullable private static RtspEventLoop defaultEventLoop;
+    @Nullable private static ScheduledThreadPoolExecutor timer;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks;
+
+    private RtspEventLoop() throws IOException {
+        selector = Selector.open();
+        pendingTasks = new ConcurrentLinkedQueue<>();
+
+        thread = new Thread(this::loop, SELECTOR_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the event loop shared by all the sessions of the process, creating it on first use.
+     *
+     * @throws IOException If the selector could not be opened.
+     */
+    public static synchronized RtspEventLoop getDefault() throws IOException {
+        if (defaultEventLoop == null) {
+            defaultEventLoop = new RtspEventLoop();
+        }
+
+        return defaultEventLoop;
+    }
+
+    /**
+     * Runs a task once on the timer thread.
+     *
+     * @param task The task to run. Must not block.
+     * @param delayMs The delay before running the task, in milliseconds.
+     * @return The future of the task, to cancel it.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return getTimer().schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // The timer does not depend on the selector, so that sessions using dedicated I/O threads
+    // share it as well
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, TIMER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return timer;
+    }
+
+    /**
+     * Registers a connected channel with the loop. The channel is switched to non-blocking mode.
+     *
+     * @param channel The connected channel.
+     * @param listener The listener of the data received on the channel.
+     * @return The connection, to write to and close the channel.
+     * @throws IOException If the channel could not be switched to non-blocking mode.
+     */
+    /* package */ Connection register(SocketChannel channel, ChannelListener listener)
+            throws IOException {
+        return register(channel, null, listener);
+    }
+
+    /**
+     * Registers a connected channel with the loop, the data being secured by TLS when an engine is
+     * given. The channel is switched to non-blocking mode.
+     *
+     * @param channel The connected channel.
+     * @param engine The engine in client mode securing the data, or null for plain data. The
+     *     handshake is started once the channel is registered, and the queued writes are held
+     *     until it completes.
+     * @param listener The listener of the data received on the channel, after decryption.
+     * @return The connection, to write to and close the channel.
+     * @throws IOException If the channel could not be switched to non-blocking mode.
+     */
+    /* package */ Connection register(SocketChannel channel, @Nullable SSLEngine engine,
+            ChannelListener listener) throws IOException {
+        channel.configureBlocking(false);
+
+        Connection connection = new Connection(channel, engine, listener);
+        execute(connection::onRegister);
+        return connection;
+    }
+
+    private void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+
+        } else {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+
+        while (selector.isOpen()) {
+            try {
+
+                selector.select();
+
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        // Must not take the loop, and the other connections, down
+                        Log.e(TAG, "Unexpected failure running a task", ex);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection connection = (Connection) key.attachment();
+
+                    try {
+
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+
+                    } catch (CancelledKeyException ex) {
+                        // The connection was closed by another thread in between, or failed
+                        connection.onError(new IOException(ex));
+
+                    } catch (RuntimeException ex) {
+                        Log.e(TAG, "Unexpected failure serving a connection", ex);
+                        connection.onError(new IOException(ex));
+                    }
+                }
+
+            } catch (IOException ex) {
+                Log.e(TAG, "Selector failure", ex);
+            }
+        }
+    }
+
+    /**
+     * A channel registered with the loop. Writes are queued and performed on the selector thread.
+     *
+     * For a secure connection, the engine is only used on the selector thread: the queued data is
+     * encrypted as it is flushed, and the received data decrypted before being handed over to the
+     * listener.
+     */
+    /* package */ final class Connection {
+
+        private final SocketChannel channel;
+        @Nullable private final SSLEngine engine;
+        private final ChannelListener listener;
+        private final ArrayDeque<ByteBuffer> writeQueue;
+
+        @Nullable private ByteBuffer readBuffer;
+        @Nullable private SelectionKey key;
+
+        // Secure connections only: received records not decrypted yet, and encrypted records not
+        // written yet
+        @Nullable private ByteBuffer netReadBuffer;
+        @Nullable private ByteBuffer netWriteBuffer;
+        private boolean unwrapPending;
+
+        private boolean closed;
+
+        private Connection(SocketChannel channel, @Nullable SSLEngine engine,
+                ChannelListener listener) {
+            this.channel = channel;
+            this.engine = engine;
+            this.listener = listener;
+
+            writeQueue = new ArrayDeque<>();
+        }
+
+        /**
+         * Queues data to be written to the channel.
+         *
+         * @param data The data, between the position and the limit of the buffer. Must not be
+         *     modified afterwards.
+         * @return Whether the data was queued, false if the connection is closed.
+         */
+        boolean write(ByteBuffer data) {
+            boolean idle;
+
+            synchronized (writeQueue) {
+                if (closed) {
+                    return false;
+                }
+
+                // A flush is already pending when the queue is not empty
+                idle = writeQueue.isEmpty();
+                writeQueue.add(data);
+            }
+
+            if (idle) {
+                execute(this::flush);
+            }
+
+            return true;
+        }
+
+        /**
+         * Returns the memory held by the buffers of the connection, in bytes.
+         */
+        int getBufferSize() {
+            return capacity(readBuffer) + capacity(netReadBuffer) + capacity(netWriteBuffer);
+        }
+
+        private int capacity(@Nullable ByteBuffer buffer) {
+            return (buffer == null) ? 0 : buffer.capacity();
+        }
+
+        /**
+         * Closes the connection. The listener is not called anymore.
+         */
+        void close() {
+            synchronized (writeQueue) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                writeQueue.clear();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+
+        private void onRegister() {
+            try {
+
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+
+                if (engine == null) {
+                    readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+                } else {
+                    int packetBufferSize = engine.getSession().getPacketBufferSize();
+                    netReadBuffer = ByteBuffer.allocate(packetBufferSize);
+                    netWriteBuffer = ByteBuffer.allocate(packetBufferSize);
+
+                    // Room for a whole decrypted record after an incomplete interleaved frame
+                    readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE +
+                        engine.getSession().getApplicationBufferSize());
+
+                    engine.beginHandshake();
+                    flush();
+                }
+
+            } catch (ClosedChannelException ex) {
+                // Closed before being registered
+
+            } catch (IOException ex) {
+                onError(ex);
+
+            } catch (RuntimeException ex) {
+                Log.e(TAG, "Unexpected failure registering a connection", ex);
+                onError(new IOException(ex));
+            }
+        }
+
+        private void read() {
+            try {
+
+                if (engine != null) {
+                    readSecure();
+                    return;
+                }
+
+                int bytesRead = channel.read(readBuffer);
+                if (bytesRead < 0) {
+                    throw new IOException("Connection closed by peer");
+                }
+
+                readBuffer.flip();
+                listener.onRead(readBuffer);
+                readBuffer.compact();
+
+            } catch (IOException ex) {
+                onError(ex);
+
+            } catch (RuntimeException ex) {
+                // Must not take the loop, and the other connections, down
+                Log.e(TAG, "Unexpected failure handling received data", ex);
+                onError(new IOException(ex));
+            }
+        }
+
+        private void readSecure() throws IOException {
+            int bytesRead = channel.read(netReadBuffer);
+            if (bytesRead < 0) {
+                throw new IOException("Connection closed by peer");
+            }
+
+            netReadBuffer.flip();
+
+            unwrap:
+            while (netReadBuffer.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(netReadBuffer, readBuffer);
+
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        // Waiting for the rest of the record
+                        break unwrap;
+
+                    case BUFFER_OVERFLOW:
+                        // Room is made by handing the decrypted data over
+                        int position = readBuffer.position();
+                        deliver();
+                        if (readBuffer.position() == position) {
+                            throw new SSLException("Record larger than the read buffer");
+                        }
+                        continue;
+
+                    case CLOSED:
+                        throw new IOException("Connection closed by peer");
+
+                    default:
+                        break;
+                }
+
+                SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                }
+
+                if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP ||
+                    status == SSLEngineResult.HandshakeStatus.FINISHED) {
+                    // Sends the handshake messages, then the data held during the handshake
+                    flush();
+
+                    if (isClosed()) {
+                        return;
+                    }
+                }
+
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    // The engine has to send before receiving, resumed once flushed
+                    unwrapPending = true;
+                    break;
+                }
+            }
+
+            netReadBuffer.compact();
+            deliver();
+        }
+
+        private void deliver() {
+            if (readBuffer.position() > 0) {
+                readBuffer.flip();
+                listener.onRead(readBuffer);
+                readBuffer.compact();
+            }
+        }
+
+        private void flush() {
+            IOException error = null;
+            boolean resumeUnwrap = false;
+
+            synchronized (writeQueue) {
+                if (closed || key == null) {
+                    return;
+                }
+
+                try {
+
+                    // Pending encrypted data and handshake messages first
+                    if (engine != null && !wrap(EMPTY_BUFFER)) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    ByteBuffer data;
+                    while ((data = writeQueue.peek()) != null) {
+                        if (engine == null) {
+                            channel.write(data);
+
+                        } else if (!wrap(data)) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+
+                        if (data.hasRemaining()) {
+                            if (engine == null) {
+                                // Resumed once the socket send buffer drained
+                                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+                            } else {
+                                // Held until the handshake completes, resumed by the reads
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+
+                            return;
+                        }
+
+                        writeQueue.poll();
+                    }
+
+                    key.interestOps(SelectionKey.OP_READ);
+
+                    resumeUnwrap = unwrapPending;
+                    unwrapPending = false;
+
+                } catch (IOException ex) {
+                    error = ex;
+
+                } catch (CancelledKeyException ex) {
+                    // Closed by another thread since checked
+                    error = new IOException(ex);
+                }
+            }
+
+            if (error != null) {
+                onError(error);
+
+            } else if (resumeUnwrap) {
+                // Decrypts the records received while the engine had to send
+                pendingTasks.add(this::read);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Encrypts data, along with the handshake messages the engine has to send, and writes the
+         * result to the channel.
+         *
+         * @param data The data. Stays partially unconsumed while a handshake is waiting for the
+         *     peer.
+         * @return Whether everything could be written, false if the socket send buffer is full.
+         */
+        private boolean wrap(ByteBuffer data) throws IOException {
+            while (true) {
+                netWriteBuffer.flip();
+                channel.write(netWriteBuffer);
+                netWriteBuffer.compact();
+
+                if (netWriteBuffer.position() > 0) {
+                    return false;
+                }
+
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    continue;
+                }
+
+                if (status != SSLEngineResult.HandshakeStatus.NEED_WRAP &&
+                    (!data.hasRemaining() ||
+                        status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP)) {
+                    return true;
+                }
+
+                SSLEngineResult result = engine.wrap(data, netWriteBuffer);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("Engine closed");
+                }
+            }
+        }
+
+        // The delegated tasks, e.g. the validation of the certificates, are short enough to be
+        // run on the selector thread
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        private boolean isClosed() {
+            synchronized (writeQueue) {
+                return closed;
+            }
+        }
+
+        private void onError(IOException error) {
+            if (isClosed()) {
+                return;
+            }
+
+            close();
+
+            try {
+                listener.onChannelError(error);
+            } catch (RuntimeException ex) {
+                Log.e(TAG, "Unexpected failure handling a connection error", ex);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.util.Log;
 
 import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
 import com.adt.vpm.videoplayer.source.rtsp.message.Message;
+import com.adt.vpm.videoplayer.source.rtsp.message.MessageWriter;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -27,7 +28,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 
 
-/* package */ final class Sender {
+/* package */ final class Sender implements ISender {
 
     public interface EventListener {
         void onSendSuccess(Message message);
@@ -36,8 +37,13 @@ import java.util.concurrent.RejectedExecutionException;
         void onSendFailure(InterleavedFrame message);
     }
 
+    private static final String TAG = "Sender";
+
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
 
+    // Only used from the executor thread
+    private final MessageWriter writer = new MessageWriter();
+
     private final OutputStream outputStream;
     private final EventListener eventListener;
 
@@ -92,9 +98,12 @@ import java.util.concurrent.RejectedExecutionException;
                         try {
 
                             if (message != null) {
-                                Log.v("Sender", "\n" + message.toString());
-                                byte[] bytes = message.toString().getBytes();
-                                outputStream.write(bytes, 0, bytes.length);
+                                if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                                    Log.v(TAG, "\n" + message.toString());
+                                }
+
+                                writer.write(message);
+                                outputStream.write(writer.getData(), 0, writer.getLength());
 
                                 eventListener.onSendSuccess(message);
                             }
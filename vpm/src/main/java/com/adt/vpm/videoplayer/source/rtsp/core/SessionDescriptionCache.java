@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.core;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache of the session descriptions returned by DESCRIBE, keyed by URI, so that
+ * reopening a recently played stream skips the DESCRIBE round trip.
+ *
+ * A description is only served while younger than the maximum age, and is invalidated as soon as
+ * a session set up from it fails, in which case the next session describes the stream again.
+ */
+public final class SessionDescriptionCache {
+
+    /** The default maximum age of a cached description, in milliseconds. */
+    public static final long DEFAULT_MAX_AGE_MS = 5 * 60 * 1000;
+
+    private static final int MAX_ENTRIES = 32;
+
+    @Nullable private static SessionDescriptionCache defaultCache;
+
+    /* package */ static final class Entry {
+        final String baseUrl;
+        final String content;
+        final long timestampMs;
+
+        Entry(String baseUrl, String content, long timestampMs) {
+            this.baseUrl = baseUrl;
+            this.content = content;
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long maxAgeMs;
+
+    private SessionDescriptionCache() {
+        maxAgeMs = DEFAULT_MAX_AGE_MS;
+
+        // Least recently used descriptions are evicted first
+        entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by all the clients of the process.
+     */
+    public static synchronized SessionDescriptionCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new SessionDescriptionCache();
+        }
+
+        return defaultCache;
+    }
+
+    /**
+     * Sets the maximum age of the descriptions served, in milliseconds.
+     */
+    public synchronized void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Removes every description from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Removes the description of a stream, e.g. when it is known to have changed.
+     *
+     * @param uri The URI of the stream.
+     */
+    public synchronized void invalidate(String uri) {
+        entries.remove(uri);
+    }
+
+    synchronized void put(String uri, String baseUrl, String content) {
+        entries.put(uri, new Entry(baseUrl, content, SystemClock.elapsedRealtime()));
+    }
+
+    @Nullable
+    synchronized Entry get(String uri) {
+        Entry entry = entries.get(uri);
+
+        if (entry != null && SystemClock.elapsedRealtime() - entry.timestampMs > maxAgeMs) {
+            entries.remove(uri);
+            return null;
+        }
+
+        return entry;
+    }
+}
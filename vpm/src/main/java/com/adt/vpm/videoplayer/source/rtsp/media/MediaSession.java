@@ -20,15 +20,24 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
 import com.adt.vpm.videoplayer.source.common.C;
+import com.adt.vpm.videoplayer.source.common.util.Log;
+import com.adt.vpm.videoplayer.source.core.PlaybackParameters;
 import com.adt.vpm.videoplayer.source.core.Player;
+import com.adt.vpm.videoplayer.source.rtp.format.RtpPayloadFormat;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpBundleSource;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpDataSource;
+import com.adt.vpm.videoplayer.source.rtp.upstream.RtpSessionClock;
 import com.adt.vpm.videoplayer.source.rtsp.RtspSampleStreamWrapper;
 import com.adt.vpm.videoplayer.source.rtsp.core.Client;
+import com.adt.vpm.videoplayer.source.rtsp.core.RtspEventLoop;
 import com.adt.vpm.videoplayer.source.rtsp.message.InterleavedFrame;
 import com.adt.vpm.videoplayer.source.rtsp.message.Range;
 import com.adt.vpm.videoplayer.source.rtsp.message.Transport;
 
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -39,16 +48,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 
 import static com.adt.vpm.videoplayer.source.core.Player.PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST;
+import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_BUNDLE_TRANSPORT;
+import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_DROP_CORRUPTED_FRAMES;
 import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_ENABLE_RTCP_SUPPORT;
 import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_FORCE_RTCP_MUXED;
+import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_LOW_LATENCY;
+import static com.adt.vpm.videoplayer.source.rtsp.core.Client.FLAG_PIPELINE_REQUESTS;
 import static com.adt.vpm.videoplayer.source.rtsp.core.Client.RTSP_NAT_DUMMY;
 
 public final class MediaSession implements Player.EventListener {
 
+    private static final String TAG = "MediaSession";
+
     public interface EventListener {
         void onPausePlayback();
         void onResumePlayback();
@@ -109,12 +123,21 @@ public final class MediaSession implements Player.EventListener {
     private final Client client;
 
     private final KeepAliveMonitor keepAliveMonitor;
+    private final LiveSpeedMonitor liveSpeedMonitor;
+    private final RtpSessionClock clock;
+    private final StartupMetrics startupMetrics;
+
+    @Nullable private RtpBundleSource bundleSource;
 
     private boolean isInFallback;
+    private volatile boolean timeshifting;
+    private volatile boolean pooled;
     private @SessionState int state;
     private @DeliveryMode int deliveryMode;
 
     private int[] tcpChannels;
+    private int configuredCount;
+    private boolean setupPipelined;
     private long pendingResetPosition;
 
     MediaSession(Builder builder) {
@@ -139,6 +162,9 @@ public final class MediaSession implements Player.EventListener {
             UNICAST;
 
         keepAliveMonitor = new KeepAliveMonitor();
+        liveSpeedMonitor = new LiveSpeedMonitor();
+        clock = new RtpSessionClock();
+        startupMetrics = new StartupMetrics();
 
         tcpChannels = new int[0];
         pendingResetPosition = C.TIME_UNSET;
@@ -178,6 +204,18 @@ public final class MediaSession implements Player.EventListener {
 
     public String getName() { return name; }
 
+    /** Returns the clock placing the tracks of the session on a common timeline. */
+    public RtpSessionClock getClock() { return clock; }
+
+    /**
+     * Returns the end-to-end latency measured from the sender reports, in microseconds, or
+     * {@link C#TIME_UNSET} if unknown.
+     */
+    public long getLatencyUs() { return clock.getLatencyUs(); }
+
+    /** Returns the time to first frame of the session, broken down by startup phase. */
+    public StartupMetrics getStartupMetrics() { return startupMetrics; }
+
     public void setDescription(String description) { this.description = description; }
 
     public String getDescription() { return description; }
@@ -202,6 +240,22 @@ public final class MediaSession implements Player.EventListener {
 
     public boolean isInFallback() { return isInFallback; }
 
+    /**
+     * Sets whether the session is played back from a timeshift recording, which keeps recording
+     * the live edge while the player is paused or behind it.
+     */
+    public void setTimeshifting(boolean timeshifting) { this.timeshifting = timeshifting; }
+
+    public boolean isTimeshifting() { return timeshifting; }
+
+    /**
+     * Sets whether the session is kept playing by a session pool, until attached to a media
+     * source, the player then playing another stream.
+     */
+    public void setPooled(boolean pooled) { this.pooled = pooled; }
+
+    public boolean isPooled() { return pooled; }
+
     public List<MediaTrack> getMediaTracks() {
         return Collections.unmodifiableList(tracks);
     }
@@ -261,6 +315,7 @@ public final class MediaSession implements Player.EventListener {
         if (pendingResetPosition == C.TIME_UNSET) {
             if (state != PAUSED) {
                 state = PAUSED;
+                liveSpeedMonitor.cancel();
 
                 for (EventListener listener : listeners) {
                     listener.onPausePlayback();
@@ -274,6 +329,8 @@ public final class MediaSession implements Player.EventListener {
     }
 
     public void onPlaySuccess() {
+        startupMetrics.end(StartupMetrics.PHASE_PLAY);
+
         if (pendingResetPosition == C.TIME_UNSET) {
             if (state == PREPARED) {
                 keepAliveMonitor.start();
@@ -285,6 +342,11 @@ public final class MediaSession implements Player.EventListener {
                 }
             }
 
+            // Catching up with the live edge would throw the rewound window away
+            if (state != PLAYING && client.isFlagSet(FLAG_LOW_LATENCY) && !timeshifting) {
+                liveSpeedMonitor.start();
+            }
+
             state = PLAYING;
 
         } else {
@@ -317,6 +379,7 @@ public final class MediaSession implements Player.EventListener {
     public void release() {
         if (state > PREPARED && state < STOPPED) {
             keepAliveMonitor.cancel();
+            liveSpeedMonitor.cancel();
             state = STOPPED;
         }
 
@@ -336,6 +399,10 @@ public final class MediaSession implements Player.EventListener {
         interleavedListeners.clear();
 
         tcpChannels = new int[0];
+        configuredCount = 0;
+        setupPipelined = false;
+        clock.reset();
+        closeBundleSource();
 
         state = IDLE;
         duration = C.TIME_UNSET;
@@ -347,6 +414,10 @@ public final class MediaSession implements Player.EventListener {
         return client.isFlagSet(FLAG_ENABLE_RTCP_SUPPORT);
     }
 
+    public final boolean isCorruptedFrameDropEnabled() {
+        return client.isFlagSet(FLAG_DROP_CORRUPTED_FRAMES);
+    }
+
     public final boolean isRtcpMuxed() {
         return client.isFlagSet(FLAG_FORCE_RTCP_MUXED);
     }
@@ -355,6 +426,51 @@ public final class MediaSession implements Player.EventListener {
         return client.isNatSet(RTSP_NAT_DUMMY);
     }
 
+    /**
+     * Returns whether the UDP tracks of the session are received on a single bundled port. Not
+     * the case anymore once the session fell back to interleaved delivery.
+     */
+    public final boolean isBundled() {
+        return client.isFlagSet(FLAG_BUNDLE_TRANSPORT) && deliveryMode == UNICAST;
+    }
+
+    /**
+     * Returns the source receiving the bundled tracks of the session, opening it on first use. Its
+     * receive buffer is sized for the bitrates of all the tracks.
+     *
+     * @param localPort The local port to bind the source to, when it is opened.
+     * @param minBufferSize The minimum socket receive buffer size, in bytes.
+     * @throws IOException If the source could not be opened.
+     */
+    public synchronized RtpBundleSource openBundleSource(int localPort, int minBufferSize)
+        throws IOException {
+        if (bundleSource == null) {
+            int bitrate = 0;
+            for (MediaTrack track : tracks) {
+                RtpPayloadFormat payloadFormat = track.format().format();
+                if (payloadFormat != null && payloadFormat.getBitrate() > 0) {
+                    bitrate += payloadFormat.getBitrate();
+                }
+            }
+
+            bundleSource = new RtpBundleSource(
+                RtpDataSource.getReceiveBufferSize(bitrate, minBufferSize));
+        }
+
+        if (!bundleSource.isOpened()) {
+            bundleSource.open(localPort);
+        }
+
+        return bundleSource;
+    }
+
+    private synchronized void closeBundleSource() {
+        if (bundleSource != null) {
+            bundleSource.close();
+            bundleSource = null;
+        }
+    }
+
     public void prepareStreams(RtspSampleStreamWrapper... sampleStreamWrappers) {
         if (state == IDLE) {
             Collections.addAll(preparing, sampleStreamWrappers);
@@ -384,14 +500,29 @@ public final class MediaSession implements Player.EventListener {
         }
     }
 
-    public synchronized void configureTransport(Transport transport) {
+    /**
+     * Configures the transport of a track from its SETUP response.
+     *
+     * @param url The url of the track, as requested.
+     * @param transport The transport negotiated for the track.
+     */
+    public synchronized void configureTransport(String url, Transport transport) {
         if (prepared.size() > 0) {
             RtspSampleStreamWrapper[] preparedSamples = new RtspSampleStreamWrapper[prepared.size()];
             prepared.toArray(preparedSamples);
 
+            // Unless SETUP is pipelined, the track set up is the last one prepared
             int currentSample = prepared.size() - 1;
+            for (int i = 0; i < preparedSamples.length; i++) {
+                if (preparedSamples[i].getMediaTrack().url().equals(url)) {
+                    currentSample = i;
+                    break;
+                }
+            }
+
             RtspSampleStreamWrapper sampleStreamWrapper = preparedSamples[currentSample];
             sampleStreamWrapper.getMediaTrack().format().transport(transport);
+            configuredCount++;
 
             if (Transport.TCP.equals(transport.getLowerTransport())) {
                 int channelsCount = tcpChannels.length;
@@ -426,14 +557,22 @@ public final class MediaSession implements Player.EventListener {
     public synchronized void continuePreparing() {
         if (state == PREPARING) {
             if (preparing.size() > 0) {
-                RtspSampleStreamWrapper sampleStreamWrapper = preparing.poll();
-                sampleStreamWrapper.prepare();
+                // The session id being known, the other tracks can be set up back to back
+                setupPipelined = isSetupPipelined();
 
-                prepared.add(sampleStreamWrapper);
+                do {
+                    RtspSampleStreamWrapper sampleStreamWrapper = preparing.poll();
+                    sampleStreamWrapper.prepare();
+
+                    prepared.add(sampleStreamWrapper);
+                } while (setupPipelined && preparing.size() > 0);
 
             } else {
-                if (prepared.size() > 0) {
+                // Waits for the responses to every pipelined SETUP
+                if (prepared.size() > 0 &&
+                    (!setupPipelined || configuredCount >= prepared.size())) {
                     state = PREPARED;
+                    startupMetrics.end(StartupMetrics.PHASE_SETUP);
 
                     while (prepared.size() > 0) {
                         RtspSampleStreamWrapper sampleStreamWrapper = prepared.poll();
@@ -470,10 +609,28 @@ public final class MediaSession implements Player.EventListener {
         client.dispatch(interleavedFrame);
     }
 
+    private boolean isSetupPipelined() {
+        // Interleaved channels and transport fallbacks rely on the tracks being set up in turn
+        return client.isFlagSet(FLAG_PIPELINE_REQUESTS) && deliveryMode == UNICAST &&
+            !client.isRetryTcpFirst();
+    }
+
     // Player.EventListener
+    @Override
+    public void onIsPlayingChanged(boolean isPlaying) {
+        // Pooled sessions are registered with the player as well
+        if (isPlaying && state == PLAYING && !pooled &&
+            startupMetrics.getTimeToFirstFrameMs() == C.TIME_UNSET) {
+            startupMetrics.end(StartupMetrics.PHASE_FIRST_FRAME);
+            Log.d(TAG, "Startup of " + uri + ": " + startupMetrics);
+        }
+    }
+
     public void onPlayWhenReadyChanged(
         boolean playWhenReady, @Player.PlayWhenReadyChangeReason int reason) {
-        if (reason == PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST) {
+        // A timeshifted session keeps streaming to the recording while the player is paused, and
+        // a pooled one to its buffer, the player playing another stream
+        if (reason == PLAY_WHEN_READY_CHANGE_REASON_USER_REQUEST && !timeshifting && !pooled) {
             if (!playWhenReady && state == PLAYING) {
                 client.sendPauseRequest();
 
@@ -488,33 +645,16 @@ public final class MediaSession implements Player.EventListener {
      * Monitor the keep alive message.
      */
     /* package */ final class KeepAliveMonitor {
-        private ExecutorService executor = Executors.newSingleThreadExecutor();
+        private ScheduledFuture<?> future;
 
         private volatile boolean enabled;
         private final Runnable keepAliveRunnable;
 
         KeepAliveMonitor() {
             keepAliveRunnable = () -> {
-                try {
-
-                    while (enabled) {
-
-                        try {
-
-                            while (!Thread.currentThread().isInterrupted() && enabled) {
-                                Thread.sleep(timeout - 3000);
-                                client.sendKeepAlive();
-                            }
-
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-
-                } finally {
-                    if (!executor.isShutdown()) {
-                        executor.shutdown();
-                    }
+                if (enabled) {
+                    client.sendKeepAlive();
+                    scheduleNext();
                 }
             };
         }
@@ -522,7 +662,7 @@ public final class MediaSession implements Player.EventListener {
         void start() {
             if (!enabled) {
                 enabled = true;
-                executor.execute(keepAliveRunnable);
+                scheduleNext();
             }
         }
 
@@ -530,13 +670,109 @@ public final class MediaSession implements Player.EventListener {
             if (enabled) {
                 enabled = false;
 
-                if (!executor.isShutdown()) {
-                    executor.shutdown();
+                synchronized (this) {
+                    if (future != null) {
+                        future.cancel(false);
+                        future = null;
+                    }
                 }
             }
         }
+
+        // Rescheduled after each keep alive, since the session timeout may have been updated.
+        // Keep-alives of all the sessions are run by the timer of the shared event loop
+        private synchronized void scheduleNext() {
+            if (enabled) {
+                future = RtspEventLoop.schedule(keepAliveRunnable, timeout - 3000);
+            }
+        }
     }
 
+    /**
+     * Holds the playback close to the live edge in low latency mode.
+     *
+     * The media buffered ahead of the playback position is sampled periodically on the main
+     * thread, where the player is accessed. When it exceeds the target live offset by more than the
+     * tolerance, the playback is sped up in proportion to the excess, the audio being time
+     * stretched at the same pitch, until the offset is back to its target.
+     */
+    /* package */ final class LiveSpeedMonitor {
+        private static final int UPDATE_INTERVAL_MS = 500;
+
+        private static final long TARGET_LIVE_OFFSET_MS = 200;
+        private static final long LIVE_OFFSET_TOLERANCE_MS = 100;
+
+        private static final float MAX_SPEED = 1.1f;
+        // Speed increase per millisecond of media buffered beyond the target live offset
+        private static final float SPEED_PER_EXCESS_MS = 0.0001f;
+        private static final float MIN_SPEED_CHANGE = 0.01f;
+
+        private final Handler handler;
+        private final Runnable updateRunnable;
+
+        // Only accessed on the main thread
+        private boolean enabled;
+        private float speed;
+
+        LiveSpeedMonitor() {
+            handler = new Handler(Looper.getMainLooper());
+            updateRunnable = this::update;
+            speed = 1f;
+        }
+
+        void start() {
+            handler.post(() -> {
+                if (!enabled) {
+                    enabled = true;
+                    handler.postDelayed(updateRunnable, UPDATE_INTERVAL_MS);
+                }
+            });
+        }
+
+        void cancel() {
+            handler.post(() -> {
+                if (enabled) {
+                    enabled = false;
+                    handler.removeCallbacks(updateRunnable);
+                    setSpeed(1f);
+                }
+            });
+        }
+
+        private void update() {
+            if (!enabled) {
+                return;
+            }
+
+            // The player plays another stream while the session is pooled
+            Player player = client.getPlayer();
+            if (player.isPlaying() && !pooled) {
+                long excessMs = player.getBufferedPosition() - player.getCurrentPosition() -
+                    TARGET_LIVE_OFFSET_MS;
+
+                float targetSpeed = speed;
+                if (excessMs > LIVE_OFFSET_TOLERANCE_MS || (speed > 1f && excessMs > 0)) {
+                    targetSpeed = Math.min(MAX_SPEED, 1f + excessMs * SPEED_PER_EXCESS_MS);
+
+                } else if (excessMs <= 0) {
+                    targetSpeed = 1f;
+                }
+
+                if (targetSpeed == 1f || Math.abs(targetSpeed - speed) >= MIN_SPEED_CHANGE) {
+                    setSpeed(targetSpeed);
+                }
+            }
+
+            handler.postDelayed(updateRunnable, UPDATE_INTERVAL_MS);
+        }
+
+        private void setSpeed(float speed) {
+            if (this.speed != speed) {
+                this.speed = speed;
+                client.getPlayer().setPlaybackParameters(new PlaybackParameters(speed));
+            }
+        }
+    }
 
     public static class Builder {
         Uri uri;
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.media;
+
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+
+import com.adt.vpm.videoplayer.source.common.C;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * The time to first frame of a session, broken down by startup phase.
+ *
+ * Each phase runs from the end of the previous one, the first one from the opening of the
+ * session. Only the first end of a phase is recorded, so that a later pause and resume do not
+ * alter the startup figures.
+ */
+public final class StartupMetrics {
+
+    /**
+     * The startup phases, in order.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(value = {PHASE_CONNECT, PHASE_DESCRIBE, PHASE_SETUP, PHASE_PLAY, PHASE_FIRST_FRAME})
+    public @interface Phase {}
+    /** Until the control connection is established. */
+    public static final int PHASE_CONNECT = 0;
+    /** Until the session description is known, from a DESCRIBE response or the cache. */
+    public static final int PHASE_DESCRIBE = 1;
+    /** Until every track is set up. */
+    public static final int PHASE_SETUP = 2;
+    /** Until the PLAY response is received. */
+    public static final int PHASE_PLAY = 3;
+    /** Until the player starts playing. */
+    public static final int PHASE_FIRST_FRAME = 4;
+
+    private static final int PHASE_COUNT = 5;
+    private static final String[] PHASE_NAMES = {"connect", "describe", "setup", "play",
+        "firstFrame"};
+
+    private final long[] endTimesMs;
+
+    private long startTimeMs;
+    private boolean sessionDescriptionCached;
+
+    StartupMetrics() {
+        endTimesMs = new long[PHASE_COUNT];
+        startTimeMs = C.TIME_UNSET;
+        Arrays.fill(endTimesMs, C.TIME_UNSET);
+    }
+
+    /**
+     * Marks the opening of the session, and clears the phases recorded so far.
+     */
+    public synchronized void start() {
+        startTimeMs = SystemClock.elapsedRealtime();
+        sessionDescriptionCached = false;
+        Arrays.fill(endTimesMs, C.TIME_UNSET);
+    }
+
+    /**
+     * Marks the end of a phase, unless already ended.
+     *
+     * @param phase The phase.
+     */
+    public synchronized void end(@Phase int phase) {
+        if (startTimeMs != C.TIME_UNSET && endTimesMs[phase] == C.TIME_UNSET) {
+            endTimesMs[phase] = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Sets whether the session description was taken from the cache, rather than described.
+     */
+    public synchronized void setSessionDescriptionCached(boolean sessionDescriptionCached) {
+        this.sessionDescriptionCached = sessionDescriptionCached;
+    }
+
+    /**
+     * Returns whether the session description was taken from the cache.
+     */
+    public synchronized boolean isSessionDescriptionCached() {
+        return sessionDescriptionCached;
+    }
+
+    /**
+     * Returns the duration of a phase, in milliseconds, or {@link C#TIME_UNSET} if the phase has
+     * not ended yet.
+     *
+     * @param phase The phase.
+     */
+    public synchronized long getPhaseDurationMs(@Phase int phase) {
+        if (endTimesMs[phase] == C.TIME_UNSET) {
+            return C.TIME_UNSET;
+        }
+
+        long phaseStartTimeMs = startTimeMs;
+        for (int previous = phase - 1; previous >= 0; previous--) {
+            if (endTimesMs[previous] != C.TIME_UNSET) {
+                phaseStartTimeMs = endTimesMs[previous];
+                break;
+            }
+        }
+
+        return endTimesMs[phase] - phaseStartTimeMs;
+    }
+
+    /**
+     * Returns the time from the opening of the session to the start of the playback, in
+     * milliseconds, or {@link C#TIME_UNSET} if the playback has not started yet.
+     */
+    public synchronized long getTimeToFirstFrameMs() {
+        return (endTimesMs[PHASE_FIRST_FRAME] == C.TIME_UNSET) ? C.TIME_UNSET :
+            endTimesMs[PHASE_FIRST_FRAME] - startTimeMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ttff=").append(getTimeToFirstFrameMs());
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            builder.append(' ').append(PHASE_NAMES[phase]).append('=')
+                .append(getPhaseDurationMs(phase));
+        }
+
+        return builder.append(sessionDescriptionCached ? " (cached sdp)" : "").toString();
+    }
+}
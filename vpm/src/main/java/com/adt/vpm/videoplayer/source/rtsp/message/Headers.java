@@ -15,6 +15,8 @@
  */
 package com.adt.vpm.videoplayer.source.rtsp.message;
 
+import androidx.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,14 +29,56 @@ import java.util.TreeSet;
 /**
  * Stores RTSP headers and provides methods to modify the headers in a thread safe way to avoid
  * the potential of creating snapshots of an inconsistent or unintended state.
+ *
+ * Headers known to {@link Header} are stored in a table indexed by their ordinal, so that they
+ * are looked up without hashing nor comparing names. Other headers are kept by name.
  */
 public final class Headers {
 
-    private final Map<String, List<String>> headers;
+    private static final Header[] HEADERS = Header.values();
+
+    // Values of the known headers, indexed by ordinal, and the ordinals in insertion order
+    private final String[] values;
+    private final int[] order;
+    private int count;
+
+    // Values of the WWW-Authenticate headers beyond the first one
+    @Nullable private List<String> moreAuthenticates;
+    // Headers unknown to Header, by name
+    @Nullable private Map<String, List<String>> extensions;
+
     private Map<String, List<String>> headersSnapshot;
 
     public Headers() {
-        headers = new LinkedHashMap<>();
+        values = new String[HEADERS.length];
+        order = new int[HEADERS.length];
+    }
+
+    /**
+     * Added a specified header {@code value} for the specified {@code header}. If this header
+     * previously existed, the old value is replaced by the specified value except for the
+     * W3Authenticate header.
+     *
+     * @param header The header.
+     * @param value The value of the header.
+     */
+    public synchronized void add(Header header, String value) {
+        headersSnapshot = null;
+        int index = header.ordinal();
+
+        if (values[index] == null) {
+            order[count++] = index;
+            values[index] = value;
+
+        } else if (header == Header.W3Authenticate) {
+            if (moreAuthenticates == null) {
+                moreAuthenticates = new ArrayList<>();
+            }
+            moreAuthenticates.add(value);
+
+        } else {
+            values[index] = value;
+        }
     }
 
     /**
@@ -46,16 +90,21 @@ public final class Headers {
      * @param value The value of the header.
      */
     public synchronized void add(String name, String value) {
+        Header header = Header.parse(name);
+        if (header != null) {
+            add(header, value);
+            return;
+        }
+
         headersSnapshot = null;
-        if (headers.containsKey(name)) {
-            List<String> values = headers.get(name);
-            if (Header.W3Authenticate.toString().equals(name)) {
-                values.add(value);
-            } else {
-                values.set(0, value);
-            }
+        if (extensions == null) {
+            extensions = new LinkedHashMap<>();
+        }
+
+        if (extensions.containsKey(name)) {
+            extensions.get(name).set(0, value);
         } else {
-            headers.put(name, new ArrayList<>(Arrays.asList(value)));
+            extensions.put(name, new ArrayList<>(Arrays.asList(value)));
         }
     }
 
@@ -67,8 +116,12 @@ public final class Headers {
      * @param properties The request properties.
      */
     public synchronized void set(Map<String,  List<String>> properties) {
-        headersSnapshot = null;
-        headers.putAll(properties);
+        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+            remove(entry.getKey());
+            for (String value : entry.getValue()) {
+                add(entry.getKey(), value);
+            }
+        }
     }
 
     /**
@@ -77,9 +130,8 @@ public final class Headers {
      * @param properties The request properties.
      */
     public synchronized void clearAndSet(Map<String, List<String>> properties) {
-        headersSnapshot = null;
-        headers.clear();
-        headers.putAll(properties);
+        clear();
+        set(properties);
     }
 
     /**
@@ -89,7 +141,30 @@ public final class Headers {
      */
     public synchronized void remove(String name) {
         headersSnapshot = null;
-        headers.remove(name);
+
+        Header header = Header.parse(name);
+        if (header == null) {
+            if (extensions != null) {
+                extensions.remove(name);
+            }
+            return;
+        }
+
+        int index = header.ordinal();
+        if (values[index] != null) {
+            values[index] = null;
+
+            for (int i = 0; i < count; i++) {
+                if (order[i] == index) {
+                    System.arraycopy(order, i + 1, order, i, --count - i);
+                    break;
+                }
+            }
+
+            if (header == Header.W3Authenticate) {
+                moreAuthenticates = null;
+            }
+        }
     }
 
     /**
@@ -97,7 +172,10 @@ public final class Headers {
      */
     public synchronized void clear() {
         headersSnapshot = null;
-        headers.clear();
+        Arrays.fill(values, null);
+        count = 0;
+        moreAuthenticates = null;
+        extensions = null;
     }
 
     /**
@@ -107,7 +185,17 @@ public final class Headers {
      */
     public synchronized Map<String, List<String>> getSnapshot() {
         if (headersSnapshot == null) {
-            headersSnapshot = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+            Map<String, List<String>> snapshot = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                Header header = HEADERS[order[i]];
+                snapshot.put(header.toString(), getValues(header));
+            }
+
+            if (extensions != null) {
+                snapshot.putAll(extensions);
+            }
+
+            headersSnapshot = Collections.unmodifiableMap(snapshot);
         }
         return headersSnapshot;
     }
@@ -117,8 +205,8 @@ public final class Headers {
      *
      * @return The number of the headers.
      */
-    public int size() {
-        return headers.size();
+    public synchronized int size() {
+        return count + ((extensions != null) ? extensions.size() : 0);
     }
 
     /**
@@ -126,29 +214,32 @@ public final class Headers {
      *
      * @return The value of the header given by name.
      */
-    public String getValue(Header header) {
+    public synchronized String getValue(Header header) {
         if (header == null) throw new NullPointerException("header is null");
-        if (headers.containsKey(header.toString())) {
-            return headers.get(header.toString()).get(0);
-        }
-
-        return null;
+        return values[header.ordinal()];
     }
 
-    public List<String> getValues(Header header) {
+    public synchronized List<String> getValues(Header header) {
         if (header == null) throw new NullPointerException("header is null");
-        if (headers.containsKey(header.toString()))
-            return headers.get(header.toString());
 
-        return null;
+        String value = values[header.ordinal()];
+        if (value == null) {
+            return null;
+        }
+
+        if (header == Header.W3Authenticate && moreAuthenticates != null) {
+            List<String> authenticates = new ArrayList<>(moreAuthenticates.size() + 1);
+            authenticates.add(value);
+            authenticates.addAll(moreAuthenticates);
+            return authenticates;
+        }
+
+        return Collections.singletonList(value);
     }
 
-    public boolean contains(Header header) {
+    public synchronized boolean contains(Header header) {
         if (header == null) throw new NullPointerException("header is null");
-        if (headers.containsKey(header.toString()))
-            return true;
-
-        return false;
+        return values[header.ordinal()] != null;
     }
 
     public boolean hasBody() {
@@ -169,14 +260,35 @@ public final class Headers {
      */
     public Set<String> getNames() {
         TreeSet<String> result = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-            String header = entry.getKey();
-            result.add(header);
-        }
+        result.addAll(getSnapshot().keySet());
 
         return Collections.unmodifiableSet(result);
     }
 
+    /**
+     * Writes the header lines, in insertion order.
+     */
+    synchronized void write(MessageWriter writer) {
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            writer.writeHeader(HEADERS[index].toString(), values[index]);
+
+            if (index == Header.W3Authenticate.ordinal() && moreAuthenticates != null) {
+                for (String value : moreAuthenticates) {
+                    writer.writeHeader(HEADERS[index].toString(), value);
+                }
+            }
+        }
+
+        if (extensions != null) {
+            for (Map.Entry<String, List<String>> entry : extensions.entrySet()) {
+                for (String value : entry.getValue()) {
+                    writer.writeHeader(entry.getKey(), value);
+                }
+            }
+        }
+    }
+
     public static long getContentLength(Request request) {
         return getContentLength(request.headers);
     }
@@ -197,4 +309,4 @@ public final class Headers {
             return -1L;
         }
     }
-}
\ No newline at end of file
+}
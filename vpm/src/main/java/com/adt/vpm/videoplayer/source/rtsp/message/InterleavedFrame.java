@@ -18,34 +18,62 @@ package com.adt.vpm.videoplayer.source.rtsp.message;
 
 import androidx.annotation.NonNull;
 
+/**
+ * A binary frame interleaved in the RTSP connection.
+ *
+ * Frames dispatched by the receivers are reused for the whole connection: their content is only
+ * valid during the callback and must be copied by whoever needs to keep it.
+ */
 public class InterleavedFrame {
-  private final int channel;
-  private final byte[] data;
+  private int channel;
+  private byte[] data;
+  private int length;
 
   public InterleavedFrame(int channel, byte[] data) {
+    this(channel, data, data.length);
+  }
+
+  public InterleavedFrame(int channel, byte[] data, int length) {
     this.channel = channel;
     this.data = data;
+    this.length = length;
+  }
+
+  /**
+   * Points the frame to new content.
+   *
+   * @param channel The interleaved channel.
+   * @param data The array holding the frame content, starting at offset 0.
+   * @param length The length of the frame content.
+   */
+  public void reset(int channel, byte[] data, int length) {
+    this.channel = channel;
+    this.data = data;
+    this.length = length;
   }
 
   public int getChannel() { return channel; }
 
+  /** Returns the array holding the frame content, which may be longer than {@link #getLength()}. */
   public byte[] getData() { return data; }
 
+  public int getLength() { return length; }
+
   public byte[] getBytes() {
-    byte[] bytes = new byte[4 + data.length]; // magic + channel + length (first fourth bytes)
+    byte[] bytes = new byte[4 + length]; // magic + channel + length (first fourth bytes)
 
     bytes[0] = (byte) '$';
     bytes[1] = (byte) channel;
-    bytes[2] = (byte) ((data.length & 0xFF00) >> 8);
-    bytes[3] = (byte) (data.length & 0x00FF);
+    bytes[2] = (byte) ((length & 0xFF00) >> 8);
+    bytes[3] = (byte) (length & 0x00FF);
 
-    System.arraycopy(data, 0, bytes, 4, data.length);
+    System.arraycopy(data, 0, bytes, 4, length);
     return bytes;
   }
 
   @NonNull
   @Override
   public String toString() {
-    return '$' + ((char) channel) + (short)data.length + new String(data);
+    return '$' + ((char) channel) + (short) length + new String(data, 0, length);
   }
 }
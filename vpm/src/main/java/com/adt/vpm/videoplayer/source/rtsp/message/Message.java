@@ -46,6 +46,11 @@ public abstract class Message {
     @Override
     public abstract String toString();
 
+    /**
+     * Writes the request or status line of the message.
+     */
+    abstract void writeStartLine(MessageWriter writer);
+
     public
     @MessageType
     int getType() {
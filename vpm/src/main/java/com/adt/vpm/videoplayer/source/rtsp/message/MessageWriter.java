@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtsp.message;
+
+import com.adt.vpm.videoplayer.source.common.util.Util;
+
+import java.util.Arrays;
+
+/**
+ * Serializes messages into an output buffer reused from one message to the next, instead of
+ * building the string of each message and encoding it.
+ *
+ * Not thread safe: a writer is meant to be owned by the sender of a connection.
+ */
+public final class MessageWriter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private byte[] data;
+    private int length;
+
+    public MessageWriter() {
+        data = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Serializes a message. The bytes are valid until the next message is written.
+     *
+     * @param message The message.
+     */
+    public void write(Message message) {
+        length = 0;
+
+        message.writeStartLine(this);
+        message.headers.write(this);
+
+        MessageBody body = message.body;
+        if (body != null) {
+            writeHeader(Header.ContentType.toString(), body.getContentType().toString());
+            writeHeader(Header.ContentLength.toString(), Long.toString(body.getContentLength()));
+            writeLineEnd();
+            writeString(body.getContent());
+
+        } else {
+            writeLineEnd();
+        }
+    }
+
+    /** Returns the array holding the serialized message, which may be longer than the message. */
+    public byte[] getData() {
+        return data;
+    }
+
+    /** Returns the length of the serialized message. */
+    public int getLength() {
+        return length;
+    }
+
+    void writeHeader(String name, String value) {
+        writeString(name);
+        writeByte(':');
+        writeByte(' ');
+        writeString(value);
+        writeLineEnd();
+    }
+
+    void writeString(String value) {
+        int valueLength = value.length();
+        ensureCapacity(valueLength);
+
+        for (int i = 0; i < valueLength; i++) {
+            char character = value.charAt(i);
+            if (character >= 0x80) {
+                // Not ASCII, the rest is encoded at once
+                writeBytes(Util.getUtf8Bytes(value.substring(i)));
+                return;
+            }
+
+            data[length++] = (byte) character;
+        }
+    }
+
+    void writeByte(char value) {
+        ensureCapacity(1);
+        data[length++] = (byte) value;
+    }
+
+    void writeLineEnd() {
+        writeByte('\r');
+        writeByte('\n');
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int additionalLength) {
+        if (length + additionalLength > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + additionalLength));
+        }
+    }
+}
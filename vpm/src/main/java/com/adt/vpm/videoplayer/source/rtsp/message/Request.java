@@ -72,6 +72,16 @@ public final class Request extends Message {
         return str.toString();
     }
 
+    @Override
+    void writeStartLine(MessageWriter writer) {
+        writer.writeString(method.toString());
+        writer.writeByte(' ');
+        writer.writeString(url);
+        writer.writeByte(' ');
+        writer.writeString(protocol.toString());
+        writer.writeLineEnd();
+    }
+
 
     public static class Builder implements Message.Builder {
         String url;
@@ -146,7 +156,7 @@ public final class Request extends Message {
             if (header == null) throw new NullPointerException("header is null");
             if (value == null) throw new NullPointerException("value is null");
 
-            headers.add(header.toString(), value.toString());
+            headers.add(header, value.toString());
             return this;
         }
 
@@ -69,6 +69,16 @@ public final class Response extends Message {
         return str.toString();
     }
 
+    @Override
+    void writeStartLine(MessageWriter writer) {
+        writer.writeString(protocol.toString());
+        writer.writeByte(' ');
+        writer.writeString(Integer.toString(status.code()));
+        writer.writeByte(' ');
+        writer.writeString(status.reason());
+        writer.writeLineEnd();
+    }
+
 
     public static class Builder implements Message.Builder {
         Protocol protocol;
@@ -108,7 +118,7 @@ public final class Response extends Message {
             if (header == null) throw new NullPointerException("header is null");
 
             if (value != null) {
-                headers.add(header.toString(), value.toString());
+                headers.add(header, value.toString());
             }
 
             return this;
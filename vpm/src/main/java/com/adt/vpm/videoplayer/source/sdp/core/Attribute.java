@@ -43,6 +43,7 @@ public final class Attribute {
     public final static String MPEG4_ESID = "mpeg4-esid";
     public final static String RANGE = "range";
     public final static String RTCP_MUX = "rtcp-mux";
+    public final static String RTCP_FB = "rtcp-fb";
     public final static String RTPMAP = "rtpmap";
     public final static String PTIME = "ptime";
     public final static String QUALITY = "quality";
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.core.upstream.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link FrequencyAwareCacheEvictor}. */
+public final class FrequencyAwareCacheEvictorTest {
+
+    private static final long MAX_BYTES = 10;
+
+    private FrequencyAwareCacheEvictor evictor;
+    private Map<String, CacheSpan> cachedSpans;
+    private Cache cache;
+
+    @Before
+    public void setUp() {
+        evictor = new FrequencyAwareCacheEvictor(MAX_BYTES);
+        cachedSpans = new HashMap<>();
+        // Only removeSpan is called by the evictor
+        cache = (Cache) Proxy.newProxyInstance(Cache.class.getClassLoader(),
+            new Class<?>[] {Cache.class}, (proxy, method, args) -> {
+                if (method.getName().equals("removeSpan")) {
+                    CacheSpan span = (CacheSpan) args[0];
+                    if (cachedSpans.remove(getId(span.key, span.position)) != null) {
+                        evictor.onSpanRemoved(cache, span);
+                    }
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        evictor.onCacheInitialized();
+    }
+
+    @Test
+    public void onStartFile_longSingleView_doesNotEvictFrequentlyReplayedKeys() {
+        // Five contents of two files, filling the cache, each played three times
+        for (int play = 0; play < 3; play++) {
+            for (int i = 0; i < 5; i++) {
+                String key = "replayed" + i;
+                for (long position = 0; position < 2; position++) {
+                    if (play == 0) {
+                        write(key, position);
+                    } else {
+                        read(key, position);
+                    }
+                }
+            }
+        }
+
+        // A content played once, much longer than the cache
+        for (long position = 0; position < 100; position++) {
+            write("long", position);
+        }
+
+        assertEquals(MAX_BYTES, cachedSpans.size());
+        for (int i = 0; i < 5; i++) {
+            for (long position = 0; position < 2; position++) {
+                assertTrue(cachedSpans.containsKey(getId("replayed" + i, position)));
+            }
+        }
+    }
+
+    private void write(String key, long position) {
+        evictor.onStartFile(cache, key, position, /* length= */ 1);
+        CacheSpan span = createSpan(key, position);
+        cachedSpans.put(getId(key, position), span);
+        evictor.onSpanAdded(cache, span);
+    }
+
+    private void read(String key, long position) {
+        CacheSpan oldSpan = cachedSpans.get(getId(key, position));
+        CacheSpan newSpan = createSpan(key, position);
+        cachedSpans.put(getId(key, position), newSpan);
+        evictor.onSpanTouched(cache, oldSpan, newSpan);
+    }
+
+    private static CacheSpan createSpan(String key, long position) {
+        return new CacheSpan(key, position, /* length= */ 1, /* lastTouchTimestamp= */ 0,
+            new File(getId(key, position)));
+    }
+
+    private static String getId(String key, long position) {
+        return key + "." + position;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.extractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import androidx.annotation.Nullable;
+
+import com.adt.vpm.videoplayer.source.common.Format;
+import com.adt.vpm.videoplayer.source.common.upstream.DataReader;
+import com.adt.vpm.videoplayer.source.common.util.MimeTypes;
+import com.adt.vpm.videoplayer.source.common.util.ParsableByteArray;
+import com.adt.vpm.videoplayer.source.core.util.TrackIdGenerator;
+import com.adt.vpm.videoplayer.source.extractor.ExtractorOutput;
+import com.adt.vpm.videoplayer.source.extractor.SeekMap;
+import com.adt.vpm.videoplayer.source.extractor.TrackOutput;
+import com.adt.vpm.videoplayer.source.rtp.format.RtpPayloadFormat;
+import com.adt.vpm.videoplayer.source.rtp.format.RtpVideoPayload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit tests for {@link RtpH264PayloadReader}. */
+@RunWith(RobolectricTestRunner.class)
+public final class RtpH264PayloadReaderTest {
+
+    private static final int RTP_HEADER_LENGTH = 12;
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    // Baseline profile, 128x96
+    private static final byte[] SPS = {0x67, 0x42, 0x00, 0x0a, (byte) 0xf8, 0x41, (byte) 0xa2};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private FakeTrackOutput trackOutput;
+    private RtpH264PayloadReader reader;
+
+    @Before
+    public void setUp() {
+        RtpVideoPayload payloadFormat = (RtpVideoPayload) new RtpVideoPayload.Builder()
+                .setPayload(96)
+                .setEncoding(RtpPayloadFormat.H264)
+                .setClockrate(90000)
+                .build();
+
+        trackOutput = new FakeTrackOutput();
+        reader = new RtpH264PayloadReader(payloadFormat, new RtpTimestampAdjuster(90000));
+        reader.createTracks(new FakeExtractorOutput(trackOutput), new TrackIdGenerator(0, 1));
+    }
+
+    @Test
+    public void consume_singleNalUnitsAtPayloadOffset_outputsTheNalUnitsAndFormat()
+        throws Exception {
+        consumeSingleNalUnit(0, SPS);
+        consumeSingleNalUnit(1, PPS);
+
+        assertNotNull(trackOutput.format);
+        assertEquals(MimeTypes.VIDEO_H264, trackOutput.format.sampleMimeType);
+        assertEquals(128, trackOutput.format.width);
+        assertEquals(96, trackOutput.format.height);
+        assertArrayEquals(concat(START_CODE, SPS, START_CODE, PPS), trackOutput.getSampleData());
+    }
+
+    private void consumeSingleNalUnit(int sequence, byte[] nalUnit) throws Exception {
+        // The payload follows the RTP header in the received datagram
+        byte[] data = new byte[RTP_HEADER_LENGTH + nalUnit.length];
+        System.arraycopy(nalUnit, 0, data, RTP_HEADER_LENGTH, nalUnit.length);
+
+        ParsableByteArray packet = new ParsableByteArray(data);
+        packet.setPosition(RTP_HEADER_LENGTH);
+
+        reader.packetStarted(0, true, sequence);
+        reader.consume(packet);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+
+        return output.toByteArray();
+    }
+
+    private static final class FakeExtractorOutput implements ExtractorOutput {
+        private final TrackOutput trackOutput;
+
+        FakeExtractorOutput(TrackOutput trackOutput) {
+            this.trackOutput = trackOutput;
+        }
+
+        @Override
+        public TrackOutput track(int id, int type) {
+            return trackOutput;
+        }
+
+        @Override
+        public void endTracks() {
+        }
+
+        @Override
+        public void seekMap(SeekMap seekMap) {
+        }
+    }
+
+    private static final class FakeTrackOutput implements TrackOutput {
+        private final ByteArrayOutputStream sampleData = new ByteArrayOutputStream();
+        @Nullable private Format format;
+
+        byte[] getSampleData() {
+            return sampleData.toByteArray();
+        }
+
+        @Override
+        public void format(Format format) {
+            this.format = format;
+        }
+
+        @Override
+        public int sampleData(DataReader input, int length, boolean allowEndOfInput,
+                              @SampleDataPart int sampleDataPart) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sampleData(ParsableByteArray data, int length,
+                               @SampleDataPart int sampleDataPart) {
+            byte[] bytes = new byte[length];
+            data.readBytes(bytes, 0, length);
+            sampleData.write(bytes, 0, length);
+        }
+
+        @Override
+        public void sampleMetadata(long timeUs, int flags, int size, int offset,
+                                   @Nullable CryptoData encryptionData) {
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+
+/** Utility methods for tests that feed {@link RtpPacket}s to the RTP queues. */
+/* package */ final class RtpPacketTestUtil {
+
+    private RtpPacketTestUtil() {}
+
+    /**
+     * Returns an empty payload type 96 packet with the given sequence number.
+     *
+     * @param sequence The 16-bit sequence number.
+     */
+    public static RtpPacket createPacket(int sequence) {
+        byte[] data = new byte[16];
+        data[0] = (byte) 0x80;
+        data[1] = (byte) 96;
+        data[2] = (byte) (sequence >> 8);
+        data[3] = (byte) sequence;
+
+        RtpPacket packet = new RtpPacket();
+        if (!packet.reset(data, 0, data.length)) {
+            throw new IllegalStateException();
+        }
+
+        return packet;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+import com.adt.vpm.videoplayer.source.rtp.RtpPacketPool;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/**
+ * Load and soak harness of the RTP receive path. Drives concurrent synthetic streams through the
+ * packet pool and the queues the way the data sources do, one receiving and one loading thread
+ * per stream, and reports per stream the packet rate, the allocations per packet, the losses and
+ * the time the packets spend in the queue, along with the thread count and the CPU time.
+ *
+ * Half of the streams emulate UDP, impaired by loss, reordering and jitter, into a reordering
+ * queue. The other half emulate interleaved TCP into the single producer single consumer queue.
+ *
+ * The run depends on wall clock time, so it is skipped unless the {@code rtp.soak} system property
+ * is true, e.g. {@code ./gradlew :vpm:testDebugUnitTest -Drtp.soak=true}. The report is written to
+ * the file named by {@code rtp.soak.resultsFile}, {@code build/rtp-soak-results.txt} by default.
+ *
+ * Only the receive path up to the payload readers is measured. No RTSP server stand-in is run,
+ * and the streams carry synthetic payloads rather than recorded H.264, H.265 or AAC dumps, so that
+ * the rtsp, sdp and extractor packages, and the RtspMediaSource pipelines, are not exercised.
+ *
+ * Longer and larger runs, to size how many camera streams a device can handle, are configured
+ * through system properties: {@code rtp.soak.streams}, {@code rtp.soak.durationMs},
+ * {@code rtp.soak.packetRate} (per stream), {@code rtp.soak.lossPercent},
+ * {@code rtp.soak.reorderPercent} and {@code rtp.soak.jitterMs}.
+ */
+public final class RtpReceivePathSoakTest {
+
+    private static final int CLOCKRATE = 90000;
+    private static final int PAYLOAD_TYPE = 96;
+    private static final int DATAGRAM_SIZE = 1200;
+    private static final long POP_TIMEOUT_MS = 10;
+    private static final long DRAIN_TIMEOUT_MS = 500;
+    // Share of the packets received before the allocations per packet are reported, while the
+    // pool fills up
+    private static final int WARM_UP_PERCENT = 25;
+
+    @Test
+    public void receiveConcurrentStreams_accountsForEveryPacketWithoutAllocating()
+            throws Exception {
+        assumeTrue(Boolean.getBoolean("rtp.soak"));
+
+        int streamCount = Integer.getInteger("rtp.soak.streams", 8);
+        long durationMs = Long.getLong("rtp.soak.durationMs", 2000);
+        int packetRate = Integer.getInteger("rtp.soak.packetRate", 500);
+        int lossPercent = Integer.getInteger("rtp.soak.lossPercent", 1);
+        int reorderPercent = Integer.getInteger("rtp.soak.reorderPercent", 1);
+        long jitterMs = Long.getLong("rtp.soak.jitterMs", 2);
+
+        int packetCount = (int) (packetRate * durationMs / 1000);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseThreadCount = threads.getThreadCount();
+
+        SyntheticStream[] streams = new SyntheticStream[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            boolean interleaved = (i % 2) == 1;
+            streams[i] = interleaved ?
+                new SyntheticStream(i, RtpQueue.createSpscQueue(CLOCKRATE), packetCount,
+                    packetRate, 0, 0, 0) :
+                new SyntheticStream(i, RtpQueue.createPriorityQueue(CLOCKRATE,
+                    RtpQueue.DELAY_REORDER_MS), packetCount, packetRate, lossPercent,
+                    reorderPercent, jitterMs);
+        }
+
+        for (SyntheticStream stream : streams) {
+            stream.start();
+        }
+
+        int peakThreadCount = threads.getThreadCount();
+
+        for (SyntheticStream stream : streams) {
+            stream.join(durationMs + DRAIN_TIMEOUT_MS * 4);
+        }
+
+        File resultsFile = new File(System.getProperty("rtp.soak.resultsFile",
+            "build/rtp-soak-results.txt"));
+        File resultsDirectory = resultsFile.getAbsoluteFile().getParentFile();
+        assertTrue(resultsDirectory.isDirectory() || resultsDirectory.mkdirs());
+
+        try (PrintWriter writer = new PrintWriter(resultsFile, "UTF-8")) {
+            writer.println(String.format(Locale.US,
+                "%d streams, %d packets/s each, %d ms, threads %d -> %d", streamCount, packetRate,
+                durationMs, baseThreadCount, peakThreadCount));
+            writer.println("stream  queue  packets/s  allocs/packet  lost  late  " +
+                "latency ms (mean/p50/p99)  cpu ms");
+
+            for (SyntheticStream stream : streams) {
+                writer.println(stream.report());
+            }
+        }
+
+        for (SyntheticStream stream : streams) {
+            stream.assertConsistent();
+        }
+    }
+
+    /**
+     * A stream of synthetic datagrams received into a pool and a queue by one thread and popped
+     * by another one.
+     */
+    private static final class SyntheticStream {
+
+        private final int id;
+        private final RtpQueue queue;
+        private final RtpPacketPool pool;
+        private final int packetCount;
+        private final long intervalNs;
+        private final int lossPercent;
+        private final int reorderPercent;
+        private final long jitterNs;
+        private final boolean reordering;
+
+        private final Thread receiveThread;
+        private final Thread loadThread;
+
+        // Time each sequence number was offered at, written before the packet is offered
+        private final long[] offerTimestamps;
+        private final long[] latencies;
+
+        private volatile boolean receiveEnded;
+
+        // Receiving thread
+        private int offeredCount;
+        private int impairedLossCount;
+        private long warmUpAllocationCount;
+        private int warmUpOfferedCount;
+        private long receiveCpuNs;
+
+        // Loading thread
+        private int poppedCount;
+        private int orderErrorCount;
+        private long loadCpuNs;
+        private long elapsedNs;
+        private long checksum;
+
+        SyntheticStream(int id, RtpQueue queue, int packetCount, int packetRate, int lossPercent,
+                int reorderPercent, long jitterMs) {
+            this.id = id;
+            this.queue = queue;
+            this.packetCount = packetCount;
+            this.lossPercent = lossPercent;
+            this.reorderPercent = reorderPercent;
+
+            intervalNs = TimeUnit.SECONDS.toNanos(1) / packetRate;
+            jitterNs = TimeUnit.MILLISECONDS.toNanos(jitterMs);
+            reordering = queue instanceof RtpRingQueue;
+            pool = new RtpPacketPool();
+
+            offerTimestamps = new long[RtpQueue.RTP_SEQ_MOD];
+            latencies = new long[packetCount];
+
+            receiveThread = new Thread(this::receive, "RtpSoak:Receive:" + id);
+            loadThread = new Thread(this::load, "RtpSoak:Load:" + id);
+        }
+
+        void start() {
+            receiveThread.start();
+            loadThread.start();
+        }
+
+        void join(long timeoutMs) throws InterruptedException {
+            receiveThread.join(timeoutMs);
+            loadThread.join(timeoutMs);
+        }
+
+        String report() {
+            long[] sortedLatencies = Arrays.copyOf(latencies, poppedCount);
+            Arrays.sort(sortedLatencies);
+
+            long totalLatencyNs = 0;
+            for (long latency : sortedLatencies) {
+                totalLatencyNs += latency;
+            }
+
+            int count = Math.max(sortedLatencies.length, 1);
+            return String.format(Locale.US,
+                "%6d  %5s  %9.0f  %13.4f  %4d  %4d  %8.3f/%.3f/%.3f  %13.1f", id,
+                reordering ? "ring" : "spsc",
+                poppedCount * 1e9 / Math.max(elapsedNs, 1),
+                getAllocationsPerPacket(), queue.getLostCount(), queue.getLateCount(),
+                totalLatencyNs / 1e6 / count, percentileMs(sortedLatencies, 50),
+                percentileMs(sortedLatencies, 99), (receiveCpuNs + loadCpuNs) / 1e6);
+        }
+
+        void assertConsistent() {
+            assertTrue("Stream " + id + " did not end", !receiveThread.isAlive() &&
+                !loadThread.isAlive());
+            assertEquals("Stream " + id + " out of order packets", 0, orderErrorCount);
+
+            if (reordering) {
+                // Every offered packet is played out once, or dropped as late after having been
+                // given up on, so that the queue only counts as lost what the network lost
+                assertEquals("Stream " + id + " packets", offeredCount,
+                    poppedCount + queue.getLateCount());
+                assertEquals("Stream " + id + " lost packets", impairedLossCount,
+                    queue.getLostCount() - queue.getLateCount());
+
+            } else {
+                assertEquals("Stream " + id + " packets", offeredCount,
+                    poppedCount + queue.getLostCount());
+            }
+
+            // Packets are only allocated while all the pooled ones are held, so that the number of
+            // allocations is bounded by the packets held at once rather than by the packets
+            // received
+            assertTrue("Stream " + id + " allocated " + pool.getAllocationCount() + " packets",
+                pool.getAllocationCount() <= RtpPacketPool.DEFAULT_MAX_POOLED_PACKETS);
+        }
+
+        // Allocations per packet once warmed up
+        private double getAllocationsPerPacket() {
+            return (double) (pool.getAllocationCount() - warmUpAllocationCount) /
+                Math.max(offeredCount - warmUpOfferedCount, 1);
+        }
+
+        private void receive() {
+            Random random = new Random(id);
+            byte[] datagram = new byte[DATAGRAM_SIZE];
+            byte[] heldDatagram = new byte[DATAGRAM_SIZE];
+            boolean held = false;
+            int heldSequence = 0;
+
+            long startNs = System.nanoTime();
+            long nextNs = startNs;
+
+            for (int i = 0; i < packetCount; i++) {
+                if (i == packetCount * WARM_UP_PERCENT / 100) {
+                    warmUpAllocationCount = pool.getAllocationCount();
+                    warmUpOfferedCount = offeredCount;
+                }
+
+                nextNs = Math.max(nextNs, startNs + i * intervalNs +
+                    (jitterNs > 0 ? (long) (random.nextDouble() * jitterNs) : 0));
+                waitUntil(nextNs);
+
+                int sequence = i & (RtpQueue.RTP_SEQ_MOD - 1);
+                writeDatagram(datagram, sequence, (long) i * CLOCKRATE * intervalNs / 1000000000L);
+
+                // The first and last packets are delivered in order, so that every loss is a gap
+                // the queue sees
+                boolean impaired = i > 0 && i < packetCount - 2;
+
+                if (impaired && random.nextInt(100) < lossPercent) {
+                    impairedLossCount++;
+                    continue;
+                }
+
+                if (impaired && !held && random.nextInt(100) < reorderPercent) {
+                    // Delivered after the next packet
+                    System.arraycopy(datagram, 0, heldDatagram, 0, DATAGRAM_SIZE);
+                    heldSequence = sequence;
+                    held = true;
+                    continue;
+                }
+
+                offer(datagram, sequence);
+
+                if (held) {
+                    offer(heldDatagram, heldSequence);
+                    held = false;
+                }
+            }
+
+            if (held) {
+                offer(heldDatagram, heldSequence);
+            }
+
+            receiveCpuNs = getCurrentThreadCpuNs();
+            receiveEnded = true;
+        }
+
+        private void offer(byte[] datagram, int sequence) {
+            // Copied into a pooled buffer as the data sources do with their receive buffer
+            RtpPacket packet = pool.obtain(datagram, 0, DATAGRAM_SIZE);
+            offerTimestamps[sequence] = System.nanoTime();
+            queue.offer(packet);
+            offeredCount++;
+        }
+
+        private void load() {
+            long startNs = System.nanoTime();
+            long lastPopNs = startNs;
+            long drainStartNs = 0;
+            int lastSequence = -1;
+
+            try {
+
+                while (true) {
+                    RtpPacket packet = queue.pop(POP_TIMEOUT_MS);
+
+                    if (packet == null) {
+                        if (!receiveEnded) {
+                            continue;
+                        }
+
+                        // Waits for the packets held by the queue to be played out
+                        long nowNs = System.nanoTime();
+                        if (drainStartNs == 0) {
+                            drainStartNs = nowNs;
+                        } else if (nowNs - drainStartNs >
+                            TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS)) {
+                            break;
+                        }
+
+                        continue;
+                    }
+
+                    drainStartNs = 0;
+                    lastPopNs = System.nanoTime();
+                    int sequence = packet.getSequenceNumber();
+                    long latencyNs = System.nanoTime() - offerTimestamps[sequence];
+
+                    if (poppedCount < latencies.length) {
+                        latencies[poppedCount] = latencyNs;
+                    }
+
+                    if (lastSequence >= 0 && (short) (sequence - lastSequence) <= 0) {
+                        orderErrorCount++;
+                    }
+
+                    lastSequence = sequence;
+                    poppedCount++;
+
+                    // Reads the payload, as a payload reader would
+                    byte[] buffer = packet.getBuffer();
+                    int end = packet.getPayloadOffset() + packet.getPayloadLength();
+                    for (int i = packet.getPayloadOffset(); i < end; i += 64) {
+                        checksum += buffer[i];
+                    }
+
+                    packet.release();
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            elapsedNs = lastPopNs - startNs;
+            loadCpuNs = getCurrentThreadCpuNs();
+        }
+
+        private static void writeDatagram(byte[] datagram, int sequence, long timestamp) {
+            datagram[0] = (byte) 0x80;
+            datagram[1] = (byte) PAYLOAD_TYPE;
+            datagram[2] = (byte) (sequence >> 8);
+            datagram[3] = (byte) sequence;
+            datagram[4] = (byte) (timestamp >> 24);
+            datagram[5] = (byte) (timestamp >> 16);
+            datagram[6] = (byte) (timestamp >> 8);
+            datagram[7] = (byte) timestamp;
+            datagram[12] = (byte) sequence;
+        }
+
+        private static void waitUntil(long deadlineNs) {
+            long remainingNs;
+            while ((remainingNs = deadlineNs - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remainingNs);
+            }
+        }
+
+        private static double percentileMs(long[] sortedValues, int percentile) {
+            if (sortedValues.length == 0) {
+                return 0;
+            }
+
+            int index = Math.min(sortedValues.length - 1,
+                (sortedValues.length * percentile) / 100);
+            return sortedValues[index] / 1e6;
+        }
+
+        private static long getCurrentThreadCpuNs() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            return threads.isCurrentThreadCpuTimeSupported() ?
+                threads.getCurrentThreadCpuTime() : 0;
+        }
+    }
+}
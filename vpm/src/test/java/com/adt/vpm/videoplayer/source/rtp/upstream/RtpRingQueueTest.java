@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import static com.adt.vpm.videoplayer.source.rtp.upstream.RtpPacketTestUtil.createPacket;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.adt.vpm.videoplayer.source.rtp.RtpPacket;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/** Unit tests for {@link RtpRingQueue}. */
+public final class RtpRingQueueTest {
+
+    private static final int CLOCKRATE = 90000;
+    private static final long LONG_DELAY_MS = 60000;
+
+    @Test
+    public void pop_reorderedPackets_returnsThemInSequenceOrder() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 10, 12, 11, 14, 13);
+
+        assertPopped(queue, 10, 11, 12, 13, 14);
+        assertNull(queue.pop());
+        assertEquals(0, queue.getLostCount());
+        assertEquals(5, queue.getReceivedCount());
+    }
+
+    @Test
+    public void pop_duplicatedPacket_returnsItOnce() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 1, 2, 2, 3);
+
+        assertPopped(queue, 1, 2, 3);
+        assertNull(queue.pop());
+    }
+
+    @Test
+    public void pop_missingPacket_waitsForItDuringTheDelay() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 1, 3);
+        assertPopped(queue, 1);
+        assertNull(queue.pop());
+
+        offer(queue, 2);
+        assertPopped(queue, 2, 3);
+        assertEquals(0, queue.getLostCount());
+    }
+
+    @Test
+    public void pop_missingPacketsAfterTheDelay_skipsThemAsLost() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, /* delayMs= */ 0, 16);
+
+        offer(queue, 1, 2, 5, 6);
+
+        assertPopped(queue, 1, 2, 5, 6);
+        assertEquals(2, queue.getLostCount());
+    }
+
+    @Test
+    public void offer_packetAfterItsPlayout_dropsItAsLate() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, /* delayMs= */ 0, 16);
+
+        offer(queue, 1, 3);
+        assertPopped(queue, 1, 3);
+
+        offer(queue, 2);
+        assertNull(queue.pop());
+        assertEquals(1, queue.getLateCount());
+    }
+
+    @Test
+    public void getMissingSequences_returnsTheGapsInIncreasingOrder() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 10, 12, 15);
+
+        int[] sequences = new int[8];
+        int count = queue.getMissingSequences(sequences);
+
+        assertArrayEquals(new int[] {11, 13, 14}, Arrays.copyOf(sequences, count));
+    }
+
+    @Test
+    public void pop_sequenceNumberWrapping_keepsTheOrder() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 65534, 0, 65535, 1);
+
+        assertPopped(queue, 65534, 65535, 0, 1);
+        assertEquals(0, queue.getLostCount());
+        assertEquals(0, queue.getLateCount());
+    }
+
+    @Test
+    public void pop_gapAcrossTheWraparound_skipsOnlyTheMissingPackets() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, /* delayMs= */ 0, 16);
+
+        offer(queue, 65533, 65534, 1, 2);
+
+        assertPopped(queue, 65533, 65534, 1, 2);
+        assertEquals(2, queue.getLostCount());
+    }
+
+    @Test
+    public void offer_manySequenceNumberCycles_countsTheCycles() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+        int cycles = 3;
+
+        for (int i = 0; i < cycles * RtpQueue.RTP_SEQ_MOD; i++) {
+            offer(queue, i & (RtpQueue.RTP_SEQ_MOD - 1));
+            assertNotNull(queue.pop());
+        }
+
+        RtpStats stats = new RtpStats();
+        queue.copyStats(stats);
+        assertEquals((cycles - 1) * RtpQueue.RTP_SEQ_MOD, stats.cycles);
+        assertEquals(RtpQueue.RTP_SEQ_MOD - 1, stats.maxSequence);
+        assertEquals(0, queue.getLostCount());
+    }
+
+    @Test
+    public void pop_extendedSequenceNumbersPast2To31_keepsTheOrder() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+        offer(queue, 0);
+        assertPopped(queue, 0);
+
+        // Jumps to where 2^31 packets would have been received, which takes days at a high rate
+        queue.setNextSequence((1L << 31) - 2);
+
+        offer(queue, 0xFFFE, 0x0000, 0xFFFF, 0x0001);
+
+        assertPopped(queue, 0xFFFE, 0xFFFF, 0x0000, 0x0001);
+        assertEquals(0, queue.getLostCount());
+        assertEquals(0, queue.getLateCount());
+    }
+
+    @Test
+    public void offer_strayPacketFarBehind_dropsItAndKeepsTheBufferedPackets() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 5000, 5001, 5003, 1000, 5002, 5004);
+
+        assertPopped(queue, 5000, 5001, 5002, 5003, 5004);
+        assertNull(queue.pop());
+        assertEquals(0, queue.getLostCount());
+        assertEquals(1, queue.getLateCount());
+    }
+
+    @Test
+    public void offer_largeJumpConfirmedByTheNextPacket_restartsFromTheJump() {
+        RtpRingQueue queue = new RtpRingQueue(CLOCKRATE, LONG_DELAY_MS, 16);
+
+        offer(queue, 100, 101);
+        assertPopped(queue, 100, 101);
+
+        offer(queue, 20000, 20001, 20002);
+
+        assertPopped(queue, 20001, 20002);
+        assertNull(queue.pop());
+        assertEquals(0, queue.getLostCount());
+    }
+
+    private static void offer(RtpQueue queue, int... sequences) {
+        for (int sequence : sequences) {
+            queue.offer(createPacket(sequence));
+        }
+    }
+
+    private static void assertPopped(RtpQueue queue, int... sequences) {
+        for (int sequence : sequences) {
+            RtpPacket packet = queue.pop();
+            assertNotNull("Missing packet " + sequence, packet);
+            assertEquals(sequence, packet.getSequenceNumber());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import static com.adt.vpm.videoplayer.source.rtp.upstream.RtpPacketTestUtil.createPacket;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/** Unit tests for {@link RtpSpscQueue}. */
+public final class RtpSpscQueueTest {
+
+    private static final int CLOCKRATE = 90000;
+
+    @Test
+    public void offer_manySequenceNumberCycles_countsTheShiftedCycles() {
+        RtpSpscQueue queue = new RtpSpscQueue(CLOCKRATE, 16);
+        int cycles = 3;
+
+        for (int i = 0; i < cycles * RtpQueue.RTP_SEQ_MOD; i++) {
+            queue.offer(createPacket(i & (RtpQueue.RTP_SEQ_MOD - 1)));
+            assertNotNull(queue.pop());
+        }
+
+        RtpStats stats = new RtpStats();
+        queue.copyStats(stats);
+        assertEquals((cycles - 1) * RtpQueue.RTP_SEQ_MOD, stats.cycles);
+        assertEquals(RtpQueue.RTP_SEQ_MOD - 1, stats.maxSequence);
+        assertEquals(cycles * RtpQueue.RTP_SEQ_MOD, stats.received);
+        assertEquals(0, stats.lost);
+    }
+
+    @Test
+    public void offer_fullRing_dropsThePacketAsLost() {
+        RtpSpscQueue queue = new RtpSpscQueue(CLOCKRATE, 4);
+
+        for (int sequence = 0; sequence < 5; sequence++) {
+            queue.offer(createPacket(sequence));
+        }
+
+        for (int sequence = 0; sequence < 4; sequence++) {
+            assertEquals(sequence, queue.pop().getSequenceNumber());
+        }
+        assertNull(queue.pop());
+        assertEquals(5, queue.getReceivedCount());
+        assertEquals(1, queue.getLostCount());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.adt.vpm.videoplayer.source.rtp.upstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/** Unit tests for {@link RtpTimeoutMonitor}. */
+public final class RtpTimeoutMonitorTest {
+
+    private static final long TIMEOUT_MS = 200;
+
+    @Test
+    public void onActivity_pushesTheTimeoutBackToAWholePeriodAfterTheLastActivity()
+        throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        RtpTimeoutMonitor monitor = new RtpTimeoutMonitor(TIMEOUT_MS, timedOut::countDown);
+        monitor.start();
+
+        // Stays active past the first deadline
+        long lastActivityNs = 0;
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(TIMEOUT_MS / 4);
+            lastActivityNs = System.nanoTime();
+            monitor.onActivity();
+        }
+
+        assertTrue(timedOut.await(4 * TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivityNs);
+        assertTrue("Timed out after " + idleMs + " ms of inactivity", idleMs >= TIMEOUT_MS);
+    }
+
+    @Test
+    public void stop_cancelsThePendingTimeout() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(1);
+        RtpTimeoutMonitor monitor = new RtpTimeoutMonitor(TIMEOUT_MS, timedOut::countDown);
+
+        monitor.start();
+        monitor.stop();
+
+        assertFalse(timedOut.await(2 * TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void start_afterStop_timesOutOnlyOnce() throws Exception {
+        CountDownLatch timedOut = new CountDownLatch(2);
+        RtpTimeoutMonitor monitor = new RtpTimeoutMonitor(TIMEOUT_MS, timedOut::countDown);
+
+        monitor.start();
+        monitor.stop();
+        monitor.start();
+
+        assertFalse(timedOut.await(3 * TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, timedOut.getCount());
+    }
+}